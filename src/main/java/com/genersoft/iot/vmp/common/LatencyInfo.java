@@ -0,0 +1,38 @@
+package com.genersoft.iot.vmp.common;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.Data;
+
+import java.util.Map;
+
+/**
+ * 耗时统计
+ */
+@Data
+@Schema(description = "耗时统计")
+public class LatencyInfo {
+
+    @Schema(description = "统计对象")
+    private String name;
+
+    @Schema(description = "次数")
+    private long count;
+
+    @Schema(description = "平均耗时,单位：毫秒")
+    private double avgMs;
+
+    @Schema(description = "最大耗时,单位：毫秒")
+    private long maxMs;
+
+    @Schema(description = "50分位耗时(分段上限),单位：毫秒")
+    private long p50Ms;
+
+    @Schema(description = "95分位耗时(分段上限),单位：毫秒")
+    private long p95Ms;
+
+    @Schema(description = "99分位耗时(分段上限),单位：毫秒")
+    private long p99Ms;
+
+    @Schema(description = "各耗时分段的次数")
+    private Map<String, Long> buckets;
+}
@@ -21,6 +21,24 @@ public class VideoManagerConstants {
 	public static final String DEVICE_PREFIX = "VMP_DEVICE_INFO";
 
 	public static final String INVITE_PREFIX = "VMP_GB_INVITE_INFO";
+	public static final String INVITE_INDEX_PREFIX = "VMP_GB_INVITE_INDEX:";
+	public static final String INVITE_INDEX_CHANNEL = INVITE_INDEX_PREFIX + "CHANNEL:";
+	public static final String INVITE_INDEX_STREAM = INVITE_INDEX_PREFIX + "STREAM:";
+	public static final String INVITE_INDEX_DEVICE = INVITE_INDEX_PREFIX + "DEVICE:";
+	public static final String INVITE_INDEX_MEDIA_SERVER = INVITE_INDEX_PREFIX + "MEDIA_SERVER:";
+	public static final String INVITE_INDEX_SSRC = INVITE_INDEX_PREFIX + "SSRC";
+	public static final String INVITE_INDEX_EXPIRE = INVITE_INDEX_PREFIX + "EXPIRE";
+	public static final String INVITE_INDEX_VERSION = INVITE_INDEX_PREFIX + "VERSION";
+	// 设备和流媒体节点索引集合的名称，用于全部删除时定位索引
+	public static final String INVITE_INDEX_KEYS = INVITE_INDEX_PREFIX + "KEYS";
+
+	public static final String CLOUD_RECORD_DAY_PREFIX = "VMP_CLOUD_RECORD_DAY:";
+	public static final String CLOUD_RECORD_DAY_VERSION = CLOUD_RECORD_DAY_PREFIX + "VERSION";
+	public static final String CLOUD_RECORD_DAY_LOCK = CLOUD_RECORD_DAY_PREFIX + "LOCK";
+	// 汇总重建时录像记录的最大ID，之后新增的录像不在重建范围内
+	public static final String CLOUD_RECORD_DAY_WATERMARK = CLOUD_RECORD_DAY_PREFIX + "WATERMARK";
+	// 汇总未就绪时暂存的增减量，重建完成后补写
+	public static final String CLOUD_RECORD_DAY_PENDING = CLOUD_RECORD_DAY_PREFIX + "PENDING";
 
 	public static final String PLATFORM_CATCH_PREFIX = "VMP_PLATFORM_CATCH_";
 
@@ -137,6 +155,11 @@ public class VideoManagerConstants {
 	 */
 	public static final String VM_MSG_SUBSCRIBE_DEVICE_STATUS = "device";
 
+	/**
+	 * 本地缓存失效通知， 集群下某个节点修改了设备/平台信息后通知其他节点清理本地缓存
+	 */
+	public static final String VM_MSG_NEAR_CACHE_INVALIDATE = "VM_MSG_NEAR_CACHE_INVALIDATE";
+
 
 	//**************************    第三方  ****************************************
 
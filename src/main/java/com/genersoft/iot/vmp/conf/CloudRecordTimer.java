@@ -1,77 +1,293 @@
 package com.genersoft.iot.vmp.conf;
 
 
-import com.genersoft.iot.vmp.conf.exception.ControllerException;
 import com.genersoft.iot.vmp.media.bean.MediaServer;
+import com.genersoft.iot.vmp.media.event.mediaServer.MediaServerDeleteEvent;
 import com.genersoft.iot.vmp.media.service.IMediaServerService;
+import com.genersoft.iot.vmp.service.ICloudRecordService;
+import com.genersoft.iot.vmp.service.bean.CloudRecordDay;
 import com.genersoft.iot.vmp.service.bean.CloudRecordItem;
+import com.genersoft.iot.vmp.service.bean.CloudRecordRetentionInfo;
+import com.genersoft.iot.vmp.storager.dao.CloudRecordDayMapper;
 import com.genersoft.iot.vmp.storager.dao.CloudRecordServiceMapper;
+import com.genersoft.iot.vmp.utils.DateUtil;
+import com.genersoft.iot.vmp.utils.LatencyHistogram;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.event.EventListener;
 import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.stereotype.Component;
 
-import java.io.File;
-import java.util.Calendar;
-import java.util.Date;
+import java.util.ArrayList;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * 录像文件定时删除
+ * 每秒为每个在线的流媒体节点执行一批清理，节点之间并行，同一节点同一时间只有一批在执行；
+ * 每批最多删除cloudRecordDeleteRate个文件，按(end_time, id)分页，不再在零点集中删除；
+ * 过期录像清理完成后，再按cloudRecordStreamQuota删除超出容量的流最早的录像，超出容量的流依次处理，一轮结束后再重新查询
  */
 @Slf4j
 @Component
 public class CloudRecordTimer {
 
+    /**
+     * 清理完成或者没有超出容量的流时，下一次检查的间隔，单位：毫秒
+     */
+    private static final long IDLE_INTERVAL = 60 * 1000;
+
     @Autowired
     private IMediaServerService mediaServerService;
 
     @Autowired
     private CloudRecordServiceMapper cloudRecordServiceMapper;
 
+    @Autowired
+    private CloudRecordDayMapper cloudRecordDayMapper;
+
+    @Autowired
+    private ICloudRecordService cloudRecordService;
+
+    @Autowired
+    private UserSetting userSetting;
+
+    @Autowired
+    @Qualifier("taskExecutor")
+    private ThreadPoolTaskExecutor taskExecutor;
+
+    private final Map<String, NodeRetention> retentionMap = new ConcurrentHashMap<>();
+
     /**
-     * 定时查询待删除的录像文件
+     * 为每个节点提交一批清理
      */
-//    @Scheduled(fixedRate = 10000) //每五秒执行一次，方便测试
-    @Scheduled(cron = "0 0 0 * * ?")   //每天的0点执行
+    @Scheduled(fixedDelay = 1000)
     public void execute(){
-        log.info("[录像文件定时清理] 开始清理过期录像文件");
-        // 获取配置了assist的流媒体节点
         List<MediaServer> mediaServerItemList =  mediaServerService.getAllOnline();
         if (mediaServerItemList.isEmpty()) {
             return;
         }
-        long result = 0;
+        boolean quotaEnabled = userSetting.getCloudRecordStreamQuota() > 0;
         for (MediaServer mediaServerItem : mediaServerItemList) {
+            NodeRetention retention = retentionMap.computeIfAbsent(mediaServerItem.getId(), NodeRetention::new);
+            retention.recordDay = mediaServerItem.getRecordDay();
+            // 既不按天数也不按容量清理时不提交任务
+            if (mediaServerItem.getRecordDay() <= 0 && !quotaEnabled) {
+                continue;
+            }
+            if (!retention.running.compareAndSet(false, true)) {
+                continue;
+            }
+            try {
+                taskExecutor.execute(() -> {
+                    try {
+                        retention.runBatch(mediaServerItem);
+                    } catch (Exception e) {
+                        log.error("[录像文件定时清理] 清理异常， 节点：{}", mediaServerItem.getId(), e);
+                    } finally {
+                        retention.running.set(false);
+                    }
+                });
+            } catch (Exception e) {
+                // 线程池繁忙时跳过，下一秒再提交
+                retention.running.set(false);
+            }
+        }
+    }
+
+    @EventListener
+    public void onApplicationEvent(MediaServerDeleteEvent event) {
+        if (event.getMediaServer() == null) {
+            return;
+        }
+        retentionMap.remove(event.getMediaServer().getId());
+    }
+
+    public List<CloudRecordRetentionInfo> getInfoList() {
+        List<CloudRecordRetentionInfo> result = new ArrayList<>(retentionMap.size());
+        for (NodeRetention retention : retentionMap.values()) {
+            CloudRecordRetentionInfo info = new CloudRecordRetentionInfo();
+            info.setMediaServerId(retention.mediaServerId);
+            info.setRecordDay(retention.recordDay);
+            info.setRunning(retention.running.get());
+            info.setDeletedFiles(retention.deletedFiles.get());
+            info.setQuotaDeletedFiles(retention.quotaDeletedFiles.get());
+            info.setDeletedBytes(retention.deletedBytes.get());
+            info.setFailedFiles(retention.failedFiles.get());
+            info.setLagSeconds(TimeUnit.MILLISECONDS.toSeconds(retention.lag));
+            if (retention.lastRunTime > 0) {
+                info.setLastRunTime(DateUtil.timestampMsTo_yyyy_MM_dd_HH_mm_ss(retention.lastRunTime));
+            }
+            info.setBatchLatency(retention.batchLatency.toInfo("batch"));
+            result.add(info);
+        }
+        return result;
+    }
+
+    private class NodeRetention {
 
-            Calendar lastCalendar = Calendar.getInstance();
-            if (mediaServerItem.getRecordDay() > 0) {
-                lastCalendar.setTime(new Date());
-                // 获取保存的最后截至日[期，因为每个节点都有一个日期，也就是支持每个节点设置不同的保存日期，
-                lastCalendar.add(Calendar.DAY_OF_MONTH, -mediaServerItem.getRecordDay());
-                Long lastDate = lastCalendar.getTimeInMillis();
-
-                // 获取到截至日期之前的录像文件列表，文件列表满足未被收藏和保持的。这两个字段目前共能一致，
-                // 为我自己业务系统相关的代码，大家使用的时候直接使用收藏（collect）这一个类型即可
-                List<CloudRecordItem> cloudRecordItemList = cloudRecordServiceMapper.queryRecordListForDelete(lastDate, mediaServerItem.getId());
-                if (cloudRecordItemList.isEmpty()) {
-                    continue;
+        private final String mediaServerId;
+        private final AtomicBoolean running = new AtomicBoolean();
+        private final AtomicLong deletedFiles = new AtomicLong();
+        private final AtomicLong quotaDeletedFiles = new AtomicLong();
+        private final AtomicLong deletedBytes = new AtomicLong();
+        private final AtomicLong failedFiles = new AtomicLong();
+        private final LatencyHistogram batchLatency = new LatencyHistogram();
+        private volatile int recordDay;
+        private volatile long lag;
+        private volatile long lastRunTime;
+
+        // 以下字段只在持有running标记的线程中访问
+
+        /**
+         * 过期录像的分页位置
+         */
+        private long lastEndTime;
+        private int lastId;
+        private long nextExpireCheckTime;
+
+        /**
+         * 本轮待处理的超出容量的流，正在处理的流和分页位置
+         */
+        private final LinkedList<CloudRecordDay> quotaQueue = new LinkedList<>();
+        private CloudRecordDay quotaTarget;
+        private long quotaExcess;
+        private long quotaLastStartTime;
+        private int quotaLastId;
+        private long nextQuotaCheckTime;
+
+        private NodeRetention(String mediaServerId) {
+            this.mediaServerId = mediaServerId;
+        }
+
+        private void runBatch(MediaServer mediaServer) {
+            long now = System.currentTimeMillis();
+            int batchSize = Math.max(userSetting.getCloudRecordDeleteRate(), 1);
+            if (mediaServer.getRecordDay() > 0 && now >= nextExpireCheckTime) {
+                long start = System.nanoTime();
+                if (deleteExpired(mediaServer, now, batchSize)) {
+                    lastRunTime = now;
+                    batchLatency.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                    return;
                 }
-                // TODO 后续可以删除空了的过期日期文件夹
-                for (CloudRecordItem cloudRecordItem : cloudRecordItemList) {
-                    String date = new File(cloudRecordItem.getFilePath()).getParentFile().getName();
-                    try {
-                        boolean deleteResult = mediaServerService.deleteRecordDirectory(mediaServerItem, cloudRecordItem.getApp(),
-                                cloudRecordItem.getStream(), date, cloudRecordItem.getFileName());
-                        if (deleteResult) {
-                            log.warn("[录像文件定时清理] 删除磁盘文件成功： {}", cloudRecordItem.getFilePath());
-                        }
-                    }catch (ControllerException ignored) {}
+            }
+            long quota = userSetting.getCloudRecordStreamQuota() * 1024L * 1024L;
+            if (quota > 0 && now >= nextQuotaCheckTime) {
+                long start = System.nanoTime();
+                if (deleteOverQuota(mediaServer, now, quota, batchSize)) {
+                    lastRunTime = now;
+                    batchLatency.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                }
+            }
+        }
 
+        /**
+         * 删除一批过期的录像
+         * @return 没有需要删除的录像时返回false
+         */
+        private boolean deleteExpired(MediaServer mediaServer, long now, int batchSize) {
+            long endTimeStamp = now - TimeUnit.DAYS.toMillis(mediaServer.getRecordDay());
+            List<CloudRecordItem> cloudRecordItemList = cloudRecordServiceMapper.queryRecordListForDelete(endTimeStamp,
+                    mediaServerId, lastEndTime, lastId, batchSize);
+            if (cloudRecordItemList.isEmpty()) {
+                // 一轮结束，删除失败的录像在下一轮重试
+                if (lastEndTime == 0 && lastId == 0) {
+                    lag = 0;
                 }
-                result += cloudRecordServiceMapper.deleteList(cloudRecordItemList);
+                lastEndTime = 0;
+                lastId = 0;
+                nextExpireCheckTime = now + IDLE_INTERVAL;
+                return false;
+            }
+            lag = Math.max(endTimeStamp - cloudRecordItemList.get(0).getEndTime(), 0);
+            CloudRecordItem last = cloudRecordItemList.get(cloudRecordItemList.size() - 1);
+            lastEndTime = last.getEndTime();
+            lastId = last.getId();
+            List<CloudRecordItem> deletedList = delete(mediaServer, cloudRecordItemList);
+            deletedFiles.addAndGet(deletedList.size());
+            return true;
+        }
+
+        /**
+         * 删除一批超出容量的流最早的录像
+         * @return 没有超出容量的流时返回false
+         */
+        private boolean deleteOverQuota(MediaServer mediaServer, long now, long quota, int batchSize) {
+            if (quotaTarget == null) {
+                if (quotaQueue.isEmpty()) {
+                    quotaQueue.addAll(cloudRecordDayMapper.queryOverQuota(mediaServerId, quota));
+                }
+                quotaTarget = quotaQueue.poll();
+                if (quotaTarget == null) {
+                    nextQuotaCheckTime = now + IDLE_INTERVAL;
+                    return false;
+                }
+                quotaExcess = quotaTarget.getFileSize() - quota;
+                quotaLastStartTime = 0;
+                quotaLastId = 0;
+                log.info("[录像文件定时清理] 超出容量， 节点：{}， {}/{}， 超出{}字节", mediaServerId,
+                        quotaTarget.getApp(), quotaTarget.getStream(), quotaExcess);
+            }
+            List<CloudRecordItem> cloudRecordItemList = cloudRecordServiceMapper.queryRecordListForQuota(quotaTarget.getApp(),
+                    quotaTarget.getStream(), mediaServerId, quotaLastStartTime, quotaLastId, batchSize);
+            // 只取足够释放超出部分的录像
+            List<CloudRecordItem> targetList = new ArrayList<>(cloudRecordItemList.size());
+            long size = 0;
+            for (CloudRecordItem cloudRecordItem : cloudRecordItemList) {
+                if (size >= quotaExcess) {
+                    break;
+                }
+                targetList.add(cloudRecordItem);
+                size += cloudRecordItem.getFileSize();
+            }
+            if (targetList.isEmpty()) {
+                // 剩余的都是收藏的录像，跳过这个流，继续处理本轮的下一个流，本轮结束后稍后再检查
+                quotaTarget = null;
+                if (quotaQueue.isEmpty()) {
+                    nextQuotaCheckTime = now + IDLE_INTERVAL;
+                    return false;
+                }
+                return true;
+            }
+            CloudRecordItem last = targetList.get(targetList.size() - 1);
+            quotaLastStartTime = last.getStartTime();
+            quotaLastId = last.getId();
+            List<CloudRecordItem> deletedList = delete(mediaServer, targetList);
+            quotaDeletedFiles.addAndGet(deletedList.size());
+            for (CloudRecordItem cloudRecordItem : deletedList) {
+                quotaExcess -= cloudRecordItem.getFileSize();
+            }
+            if (quotaExcess <= 0) {
+                quotaTarget = null;
+                if (quotaQueue.isEmpty()) {
+                    // 本轮结束，稍后重新查询
+                    nextQuotaCheckTime = now + IDLE_INTERVAL;
+                }
+            }
+            return true;
+        }
+
+        private List<CloudRecordItem> delete(MediaServer mediaServer, List<CloudRecordItem> cloudRecordItemList) {
+            List<CloudRecordItem> deletedList = mediaServerService.deleteRecordFiles(mediaServer, cloudRecordItemList);
+            failedFiles.addAndGet(cloudRecordItemList.size() - deletedList.size());
+            if (deletedList.isEmpty()) {
+                return deletedList;
+            }
+            cloudRecordServiceMapper.deleteList(deletedList);
+            cloudRecordService.removeFromDayStatistics(deletedList);
+            long size = 0;
+            for (CloudRecordItem cloudRecordItem : deletedList) {
+                size += cloudRecordItem.getFileSize();
             }
+            deletedBytes.addAndGet(size);
+            return deletedList;
         }
-        log.info("[录像文件定时清理] 共清理{}个过期录像文件", result);
     }
 }
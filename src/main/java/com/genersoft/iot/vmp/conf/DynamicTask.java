@@ -1,41 +1,96 @@
 package com.genersoft.iot.vmp.conf;
 
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timeout;
+import io.netty.util.TimerTask;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.ObjectUtils;
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
 import org.springframework.scheduling.annotation.Scheduled;
-import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
 import org.springframework.stereotype.Component;
 
 import javax.annotation.PostConstruct;
-import java.time.Instant;
-import java.util.Date;
+import javax.annotation.PreDestroy;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.genersoft.iot.vmp.conf.ThreadPoolTaskConfig.cpuNum;
 
 /**
  * 动态定时任务
+ * 使用时间轮管理定时，添加和取消都是O(1)，到期的任务直接交给工作线程执行，
+ * 大量设备级别的定时任务只占用少量内存；
+ * 工作线程不排队，任务阻塞时线程数按需增加，最多MAX_WORKER_POOL_SIZE个，全部繁忙时拒绝执行并记录，稍后重试
  * @author lin
  */
 @Slf4j
 @Component
 public class DynamicTask {
 
-    private ThreadPoolTaskScheduler threadPoolTaskScheduler;
+    /**
+     * 时间轮每格的时长，单位：毫秒
+     */
+    private static final long TICK_DURATION = 10;
+
+    /**
+     * 时间轮的格数
+     */
+    private static final int TICKS_PER_WHEEL = 1024;
+
+    /**
+     * 常驻的工作线程数
+     */
+    private static final int WORKER_POOL_SIZE = Math.max(cpuNum * 4, 32);
+
+    /**
+     * 最大工作线程数，与之前的调度线程池大小一致
+     */
+    private static final int MAX_WORKER_POOL_SIZE = 300;
+
+    /**
+     * 工作线程全部繁忙被拒绝的任务，重试的延时，单位：毫秒
+     */
+    private static final long REJECTED_RETRY_DELAY = 1000;
+
+    private HashedWheelTimer wheelTimer;
+
+    private ThreadPoolExecutor workerExecutor;
 
-    private final Map<String, ScheduledFuture<?>> futureMap = new ConcurrentHashMap<>();
-    private final Map<String, Runnable> runnableMap = new ConcurrentHashMap<>();
+    private final Map<String, WheelTask> taskMap = new ConcurrentHashMap<>();
+
+    /**
+     * 最近一次任务到期时实际触发时间与预期时间的差值，单位：纳秒
+     */
+    private volatile long lastTickLag;
+
+    private final AtomicLong maxTickLag = new AtomicLong();
+
+    private final AtomicLong rejectedCount = new AtomicLong();
 
     @PostConstruct
     public void DynamicTask() {
-        threadPoolTaskScheduler = new ThreadPoolTaskScheduler();
-        threadPoolTaskScheduler.setPoolSize(300);
-        threadPoolTaskScheduler.setWaitForTasksToCompleteOnShutdown(true);
-        threadPoolTaskScheduler.setAwaitTerminationSeconds(10);
-        threadPoolTaskScheduler.setThreadNamePrefix("dynamicTask-");
-        threadPoolTaskScheduler.initialize();
+        wheelTimer = new HashedWheelTimer(new BasicThreadFactory.Builder().namingPattern("dynamicTask-wheel").daemon(true).build(),
+                TICK_DURATION, TimeUnit.MILLISECONDS, TICKS_PER_WHEEL);
+        workerExecutor = new ThreadPoolExecutor(WORKER_POOL_SIZE, MAX_WORKER_POOL_SIZE, 60L, TimeUnit.SECONDS,
+                new SynchronousQueue<>(), new BasicThreadFactory.Builder().namingPattern("dynamicTask-%d").daemon(true).build());
+        wheelTimer.start();
+    }
+
+    @PreDestroy
+    public void destroy() {
+        wheelTimer.stop();
+        workerExecutor.shutdown();
+        try {
+            workerExecutor.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
     }
 
     /**
@@ -49,25 +104,20 @@ public class DynamicTask {
         if(ObjectUtils.isEmpty(key)) {
             return;
         }
-        ScheduledFuture<?> future = futureMap.get(key);
-        if (future != null) {
-            if (future.isCancelled()) {
+        WheelTask wheelTask = taskMap.get(key);
+        if (wheelTask != null) {
+            if (wheelTask.cancelled) {
                 log.debug("任务【{}】已存在但是关闭状态！！！", key);
             } else {
                 log.debug("任务【{}】已存在且已启动！！！", key);
                 return;
             }
         }
-        // scheduleWithFixedDelay 必须等待上一个任务结束才开始计时period， cycleForCatalog表示执行的间隔
-
-        future = threadPoolTaskScheduler.scheduleAtFixedRate(task, new Date(System.currentTimeMillis() + cycleForCatalog), cycleForCatalog);
-        if (future != null){
-            futureMap.put(key, future);
-            runnableMap.put(key, task);
-            log.debug("任务【{}】启动成功！！！", key);
-        }else {
-            log.debug("任务【{}】启动失败！！！", key);
-        }
+        // 与scheduleAtFixedRate一致，按照固定频率执行，但是上一次执行结束前不会开始下一次
+        wheelTask = new WheelTask(task, cycleForCatalog);
+        wheelTask.schedule(cycleForCatalog);
+        taskMap.put(key, wheelTask);
+        log.debug("任务【{}】启动成功！！！", key);
     }
 
     /**
@@ -83,58 +133,42 @@ public class DynamicTask {
         }
         stop(key);
 
-        // 获取执行的时刻
-        Instant startInstant = Instant.now().plusMillis(TimeUnit.MILLISECONDS.toMillis(delay));
-
-        ScheduledFuture future = futureMap.get(key);
-        if (future != null) {
-            if (future.isCancelled()) {
-                log.debug("任务【{}】已存在但是关闭状态！！！", key);
-            } else {
-                log.debug("任务【{}】已存在且已启动！！！", key);
-                return;
-            }
-        }
-        // scheduleWithFixedDelay 必须等待上一个任务结束才开始计时period， cycleForCatalog表示执行的间隔
-        future = threadPoolTaskScheduler.schedule(task, startInstant);
-        if (future != null){
-            futureMap.put(key, future);
-            runnableMap.put(key, task);
-            log.debug("任务【{}】启动成功！！！", key);
-        }else {
-            log.debug("任务【{}】启动失败！！！", key);
-        }
+        WheelTask wheelTask = new WheelTask(task, 0);
+        wheelTask.schedule(delay);
+        taskMap.put(key, wheelTask);
+        log.debug("任务【{}】启动成功！！！", key);
     }
 
     public boolean stop(String key) {
         if(ObjectUtils.isEmpty(key)) {
             return false;
         }
-        boolean result = false;
-        if (!ObjectUtils.isEmpty(futureMap.get(key)) && !futureMap.get(key).isCancelled() && !futureMap.get(key).isDone()) {
-            result = futureMap.get(key).cancel(false);
-            futureMap.remove(key);
-            runnableMap.remove(key);
+        WheelTask wheelTask = taskMap.get(key);
+        if (wheelTask != null && wheelTask.isAlive()) {
+            wheelTask.cancel();
+            taskMap.remove(key, wheelTask);
+            return true;
         }
-        return result;
+        return false;
     }
 
     public boolean contains(String key) {
         if(ObjectUtils.isEmpty(key)) {
             return false;
         }
-        return futureMap.get(key) != null;
+        return taskMap.get(key) != null;
     }
 
     public Set<String> getAllKeys() {
-        return futureMap.keySet();
+        return taskMap.keySet();
     }
 
     public Runnable get(String key) {
         if(ObjectUtils.isEmpty(key)) {
             return null;
         }
-        return runnableMap.get(key);
+        WheelTask wheelTask = taskMap.get(key);
+        return wheelTask == null ? null : wheelTask.task;
     }
 
     /**
@@ -142,18 +176,113 @@ public class DynamicTask {
      */
     @Scheduled(cron="0 0/5 * * * ?")
     public void execute(){
-        if (futureMap.size() > 0) {
-            for (String key : futureMap.keySet()) {
-                ScheduledFuture<?> future = futureMap.get(key);
-                if (future.isDone() || future.isCancelled()) {
-                    futureMap.remove(key);
-                    runnableMap.remove(key);
+        if (!taskMap.isEmpty()) {
+            for (Map.Entry<String, WheelTask> entry : taskMap.entrySet()) {
+                if (!entry.getValue().isAlive()) {
+                    taskMap.remove(entry.getKey(), entry.getValue());
                 }
             }
         }
     }
 
     public boolean isAlive(String key) {
-        return futureMap.get(key) != null && !futureMap.get(key).isDone() && !futureMap.get(key).isCancelled();
+        WheelTask wheelTask = taskMap.get(key);
+        return wheelTask != null && wheelTask.isAlive();
+    }
+
+    public DynamicTaskInfo getInfo() {
+        DynamicTaskInfo info = new DynamicTaskInfo();
+        info.setTaskCount(taskMap.size());
+        info.setPendingCount(wheelTimer.pendingTimeouts());
+        info.setWorkerPoolSize(workerExecutor.getPoolSize());
+        info.setActiveWorkerCount(workerExecutor.getActiveCount());
+        info.setRejectedCount(rejectedCount.get());
+        info.setLastTickLagMs(lastTickLag / 1000000d);
+        info.setMaxTickLagMs(maxTickLag.get() / 1000000d);
+        return info;
+    }
+
+    private class WheelTask implements TimerTask {
+
+        private final Runnable task;
+
+        /**
+         * 循环间隔，单位：毫秒，0表示只执行一次
+         */
+        private final long period;
+
+        /**
+         * 预期的下次执行时间，System.nanoTime()
+         */
+        private volatile long deadline;
+
+        private volatile Timeout timeout;
+
+        private volatile boolean cancelled;
+
+        private volatile boolean done;
+
+        private WheelTask(Runnable task, long period) {
+            this.task = task;
+            this.period = period;
+        }
+
+        private void schedule(long delay) {
+            deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay);
+            timeout = wheelTimer.newTimeout(this, Math.max(delay, 0), TimeUnit.MILLISECONDS);
+        }
+
+        private boolean isAlive() {
+            return !cancelled && !done;
+        }
+
+        private void cancel() {
+            cancelled = true;
+            Timeout current = timeout;
+            if (current != null) {
+                current.cancel();
+            }
+        }
+
+        @Override
+        public void run(Timeout timeout) {
+            if (cancelled) {
+                return;
+            }
+            long lag = System.nanoTime() - deadline;
+            lastTickLag = lag;
+            maxTickLag.accumulateAndGet(lag, Math::max);
+            try {
+                workerExecutor.execute(this::execute);
+            } catch (RejectedExecutionException e) {
+                if (workerExecutor.isShutdown()) {
+                    return;
+                }
+                long count = rejectedCount.incrementAndGet();
+                log.warn("[动态定时任务] 工作线程已满({})，{}ms后重试，累计拒绝{}次", MAX_WORKER_POOL_SIZE, REJECTED_RETRY_DELAY, count);
+                schedule(REJECTED_RETRY_DELAY);
+            }
+        }
+
+        private void execute() {
+            if (cancelled) {
+                return;
+            }
+            try {
+                task.run();
+            } catch (Exception e) {
+                log.error("[动态定时任务] 执行异常 ", e);
+            } finally {
+                if (period > 0) {
+                    if (!cancelled) {
+                        deadline += TimeUnit.MILLISECONDS.toNanos(period);
+                        long delay = Math.max(deadline - System.nanoTime(), 0);
+                        timeout = wheelTimer.newTimeout(this, delay, TimeUnit.NANOSECONDS);
+                    }
+                } else {
+                    done = true;
+                }
+            }
+        }
     }
 }
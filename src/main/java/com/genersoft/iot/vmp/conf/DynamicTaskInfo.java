@@ -0,0 +1,33 @@
+package com.genersoft.iot.vmp.conf;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.Data;
+
+/**
+ * 动态定时任务的运行状态
+ */
+@Data
+@Schema(description = "动态定时任务的运行状态")
+public class DynamicTaskInfo {
+
+    @Schema(description = "任务数量")
+    private int taskCount;
+
+    @Schema(description = "时间轮中等待到期的任务数量")
+    private long pendingCount;
+
+    @Schema(description = "工作线程数")
+    private int workerPoolSize;
+
+    @Schema(description = "正在执行的任务数量")
+    private int activeWorkerCount;
+
+    @Schema(description = "工作线程全部繁忙被拒绝(稍后重试)的次数")
+    private long rejectedCount;
+
+    @Schema(description = "最近一次到期任务的触发延迟,单位：毫秒")
+    private double lastTickLagMs;
+
+    @Schema(description = "最大触发延迟,单位：毫秒")
+    private double maxTickLagMs;
+}
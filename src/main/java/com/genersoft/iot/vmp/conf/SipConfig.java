@@ -35,4 +35,14 @@ public class SipConfig {
 	private boolean alarm = false;
 
 	private long timeout = 1000;
+
+	/**
+	 * SIP消息分发通道数，同一设备的消息在同一通道内按顺序处理，小于等于0时按照cpu核数自动计算
+	 */
+	private int dispatcherLanes = 0;
+
+	/**
+	 * 单个分发通道的队列容量，超过后请求直接回复503
+	 */
+	private int dispatcherQueueSize = 2000;
 }
@@ -195,6 +195,76 @@ public class UserSetting {
      */
     private boolean sendPositionOnDemand = true;
 
+    /**
+     * 每个流媒体服务的播流最大并发个数(ssrc个数)，ssrc的sn为四位数字，最大10000
+     */
+    private int maxStreamCount = 10000;
+
+    /**
+     * 本地每次从redis批量租用的ssrc个数
+     */
+    private int ssrcLeaseBatchSize = 100;
+
+    /**
+     * 设备/平台本地缓存的最大数量
+     */
+    private long nearCacheMaxSize = 100000;
+
+    /**
+     * 设备/平台本地缓存的过期时间，单位：秒，集群下漏掉失效通知时作为兜底
+     */
+    private long nearCacheExpire = 600;
+
+    /**
+     * 目录同步时在本地内存中暂存的通道/行政区划/分组的最大总数，超出后新的数据批量写入redis
+     */
+    private int catalogMemoryMaxCount = 200000;
+
+    /**
+     * 自动选择流媒体节点的策略，可选值：leastStreams(流数量最少)、weightedLoad(结合节点心跳上报的负载)、
+     * consistentHash(按通道一致性哈希)、powerOfTwo(随机取两个节点选择负载低的)
+     */
+    private String mediaServerSelectStrategy = "leastStreams";
+
+    /**
+     * 录像回放/下载时同一通道固定使用同一个流媒体节点的时间，单位：秒，0为不固定
+     */
+    private int mediaServerStickyExpire = 600;
 
+    /**
+     * 向上级平台回复目录时同时等待回复的最大分页数，按上级的回复耗时在1到这个值之间自动调整，1为收到回复后再发送下一页
+     */
+    private int catalogSendWindow = 8;
+
+    /**
+     * 每个流媒体节点的hook异步处理队列容量，队列已满时新的hook直接回复成功并丢弃
+     */
+    private int mediaHookQueueSize = 2000;
+
+    /**
+     * 移动位置写入队列的容量，每秒批量写入数据库一次，队列已满时丢弃新的位置
+     */
+    private int mobilePositionQueueSize = 100000;
+
+    /**
+     * 每个用户同时进行的云端录像打包下载数，超出时拒绝新的下载
+     */
+    private int cloudRecordZipConcurrency = 2;
+
+    /**
+     * 每个流媒体节点每秒最多删除的录像文件数，过期录像持续分批删除
+     */
+    private int cloudRecordDeleteRate = 20;
+
+    /**
+     * 每个流在每个流媒体节点上的录像容量，单位：MB，超出时删除最早的未收藏录像，0为不限制
+     */
+    private int cloudRecordStreamQuota = 0;
+
+    /**
+     * redis rpc兼容旧版本节点，开启时所有请求和回复都使用JSON文本发到广播频道，与旧版本一致；
+     * 集群中所有节点都升级后关闭，改为发到目标节点的频道并使用JSONB编码，新版本节点两种格式都可以接收
+     */
+    private boolean redisRpcCompatible = true;
 
 }
@@ -2,12 +2,15 @@ package com.genersoft.iot.vmp.conf.redis;
 
 
 import com.genersoft.iot.vmp.common.VideoManagerConstants;
+import com.genersoft.iot.vmp.conf.UserSetting;
 import com.genersoft.iot.vmp.service.redisMsg.*;
+import com.genersoft.iot.vmp.storager.cache.NearCacheManager;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.core.annotation.Order;
 import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.listener.ChannelTopic;
 import org.springframework.data.redis.listener.PatternTopic;
 import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 
@@ -45,6 +48,12 @@ public class RedisMsgListenConfig {
 	@Autowired
 	private RedisPushStreamResponseListener redisPushStreamCloseResponseListener;
 
+	@Autowired
+	private NearCacheManager nearCacheManager;
+
+	@Autowired
+	private UserSetting userSetting;
+
 
 	/**
 	 * redis消息监听器容器 可以添加多个监听不同话题的redis监听器，只需要把消息监听器和相应的消息订阅处理器绑定，该消息监听器
@@ -64,7 +73,9 @@ public class RedisMsgListenConfig {
 		container.addMessageListener(pushStreamListMsgListener, new PatternTopic(VideoManagerConstants.VM_MSG_PUSH_STREAM_LIST_CHANGE));
 		container.addMessageListener(redisCloseStreamMsgListener, new PatternTopic(VideoManagerConstants.VM_MSG_STREAM_PUSH_CLOSE));
 		container.addMessageListener(redisRpcConfig, new PatternTopic(RedisRpcConfig.REDIS_REQUEST_CHANNEL_KEY));
+		container.addMessageListener(redisRpcConfig, new ChannelTopic(RedisRpcConfig.getNodeChannel(userSetting.getServerId())));
 		container.addMessageListener(redisPushStreamCloseResponseListener, new PatternTopic(VideoManagerConstants.VM_MSG_STREAM_PUSH_RESPONSE));
+		container.addMessageListener(nearCacheManager, new PatternTopic(VideoManagerConstants.VM_MSG_NEAR_CACHE_INVALIDATE));
         return container;
     }
 }
@@ -1,40 +1,57 @@
 package com.genersoft.iot.vmp.conf.redis;
 
 import com.alibaba.fastjson2.JSON;
+import com.alibaba.fastjson2.JSONB;
 import com.genersoft.iot.vmp.common.CommonCallback;
 import com.genersoft.iot.vmp.conf.UserSetting;
 import com.genersoft.iot.vmp.conf.redis.bean.RedisRpcClassHandler;
 import com.genersoft.iot.vmp.conf.redis.bean.RedisRpcMessage;
 import com.genersoft.iot.vmp.conf.redis.bean.RedisRpcRequest;
 import com.genersoft.iot.vmp.conf.redis.bean.RedisRpcResponse;
+import com.genersoft.iot.vmp.conf.redis.bean.RedisRpcUriInfo;
 import com.genersoft.iot.vmp.service.redisMsg.dto.RpcController;
+import com.genersoft.iot.vmp.utils.LatencyHistogram;
 import com.genersoft.iot.vmp.vmanager.bean.ErrorCode;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.data.redis.connection.Message;
 import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.stereotype.Component;
 
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Random;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.SynchronousQueue;
-import java.util.concurrent.TimeUnit;
-
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 基于redis发布订阅的节点间调用
+ * 每个节点订阅自己的频道(WVP_REDIS_REQUEST_CHANNEL_KEY_{serverId})和广播频道(WVP_REDIS_REQUEST_CHANNEL_KEY)，
+ * 指定了目标节点的请求和所有回复只发给对应节点，未指定目标的请求发到广播频道；
+ * 消息使用JSONB编码，首字节为{@link #CODEC_JSONB}，收到其他格式时按照JSON文本解析；
+ * 旧版本的节点只订阅广播频道并且只能解析JSON文本，开启redisRpcCompatible(默认开启)时发送方式与旧版本一致，所有节点升级后再关闭
+ */
 @Slf4j
 @Component
 public class RedisRpcConfig implements MessageListener {
 
     public final static String REDIS_REQUEST_CHANNEL_KEY = "WVP_REDIS_REQUEST_CHANNEL_KEY";
 
-    private final Random random = new Random();
+    /**
+     * JSONB编码的消息的首字节
+     */
+    private final static byte CODEC_JSONB = 0x7f;
+
+    /**
+     * 请求序列号，以启动时间为起点单调递增，重启后也不会与之前未回复的请求重复
+     */
+    private final AtomicLong sequence = new AtomicLong(System.currentTimeMillis() * 1000);
 
     @Autowired
     private UserSetting userSetting;
@@ -42,7 +59,7 @@ public class RedisRpcConfig implements MessageListener {
     @Autowired
     private RedisTemplate<Object, Object> redisTemplate;
 
-    private ConcurrentLinkedQueue<Message> taskQueue = new ConcurrentLinkedQueue<>();
+    private ConcurrentLinkedQueue<RedisRpcRequest> taskQueue = new ConcurrentLinkedQueue<>();
 
     @Qualifier("taskExecutor")
     @Autowired
@@ -50,10 +67,29 @@ public class RedisRpcConfig implements MessageListener {
 
     private final static Map<String, RedisRpcClassHandler> protocolHash = new HashMap<>();
 
+    /**
+     * 等待回复的同步请求
+     */
+    private final Map<Long, PendingCall> pendingCalls = new ConcurrentHashMap<>();
+
+    /**
+     * 等待回复的异步请求
+     */
+    private final Map<Long, PendingCallback> callbacks = new ConcurrentHashMap<>();
+
+    private final Map<String, UriStatistics> statisticsMap = new ConcurrentHashMap<>();
+
     public void addHandler(String path, RedisRpcClassHandler handler) {
         protocolHash.put(path, handler);
     }
 
+    /**
+     * 节点自己的频道
+     */
+    public static String getNodeChannel(String serverId) {
+        return REDIS_REQUEST_CHANNEL_KEY + "_" + serverId;
+    }
+
 //    @Override
 //    public void run(String... args) throws Exception {
 //        List<Class<?>> classList = ClassUtil.getClassList("com.genersoft.iot.vmp.service.redisMsg.control", RedisRpcController.class);
@@ -84,29 +120,61 @@ public class RedisRpcConfig implements MessageListener {
 
     @Override
     public void onMessage(Message message, byte[] pattern) {
+        RedisRpcMessage redisRpcMessage;
+        try {
+            redisRpcMessage = decode(message.getBody());
+        } catch (Exception e) {
+            log.error("[redis-rpc]解析异常 {}", new String(message.getBody()), e);
+            return;
+        }
+        if (redisRpcMessage.getResponse() != null) {
+            // 回复只需要找到等待的请求，直接在监听线程处理
+            handlerResponse(redisRpcMessage.getResponse());
+            return;
+        }
+        if (redisRpcMessage.getRequest() == null) {
+            log.error("[redis-rpc]解析失败 {}", JSON.toJSONString(redisRpcMessage));
+            return;
+        }
         boolean isEmpty = taskQueue.isEmpty();
-        taskQueue.offer(message);
+        taskQueue.offer(redisRpcMessage.getRequest());
         if (isEmpty) {
             taskExecutor.execute(() -> {
                 while (!taskQueue.isEmpty()) {
-                    Message msg = taskQueue.poll();
+                    RedisRpcRequest request = taskQueue.poll();
+                    if (request == null) {
+                        continue;
+                    }
                     try {
-                        RedisRpcMessage redisRpcMessage = JSON.parseObject(new String(msg.getBody()), RedisRpcMessage.class);
-                        if (redisRpcMessage.getRequest() != null) {
-                            handlerRequest(redisRpcMessage.getRequest());
-                        } else if (redisRpcMessage.getResponse() != null){
-                            handlerResponse(redisRpcMessage.getResponse());
-                        } else {
-                            log.error("[redis-rpc]解析失败 {}", JSON.toJSONString(redisRpcMessage));
-                        }
+                        handlerRequest(request);
                     } catch (Exception e) {
-                        log.error("[redis-rpc]解析异常 {}",new String(msg.getBody()), e);
+                        log.error("[redis-rpc]处理请求异常 {}", request, e);
                     }
                 }
             });
         }
     }
 
+    private RedisRpcMessage decode(byte[] body) {
+        if (body.length > 0 && body[0] == CODEC_JSONB) {
+            return JSONB.parseObject(Arrays.copyOfRange(body, 1, body.length), RedisRpcMessage.class);
+        }
+        return JSON.parseObject(new String(body, StandardCharsets.UTF_8), RedisRpcMessage.class);
+    }
+
+    private void publish(String channel, RedisRpcMessage message) {
+        if (userSetting.isRedisRpcCompatible()) {
+            redisTemplate.convertAndSend(REDIS_REQUEST_CHANNEL_KEY, message);
+            return;
+        }
+        byte[] data = JSONB.toBytes(message);
+        byte[] payload = new byte[data.length + 1];
+        payload[0] = CODEC_JSONB;
+        System.arraycopy(data, 0, payload, 1, data.length);
+        byte[] channelBytes = channel.getBytes(StandardCharsets.UTF_8);
+        redisTemplate.execute((RedisCallback<Long>) connection -> connection.publish(channelBytes, payload));
+    }
+
     private void handlerResponse(RedisRpcResponse response) {
         if (userSetting.getServerId().equals(response.getToId())) {
             return;
@@ -155,80 +223,129 @@ public class RedisRpcConfig implements MessageListener {
         }
     }
 
-    private void sendResponse(RedisRpcResponse response){
+    public void sendResponse(RedisRpcResponse response){
         log.info("[redis-rpc] >> {}", response);
         response.setToId(userSetting.getServerId());
         RedisRpcMessage message = new RedisRpcMessage();
         message.setResponse(response);
-        redisTemplate.convertAndSend(REDIS_REQUEST_CHANNEL_KEY, message);
+        // 回复发给请求的来源节点
+        publish(response.getFromId() == null ? REDIS_REQUEST_CHANNEL_KEY : getNodeChannel(response.getFromId()), message);
     }
 
     private void sendRequest(RedisRpcRequest request){
         log.info("[redis-rpc] >> {}", request);
         RedisRpcMessage message = new RedisRpcMessage();
         message.setRequest(request);
-        redisTemplate.convertAndSend(REDIS_REQUEST_CHANNEL_KEY, message);
+        publish(request.getToId() == null ? REDIS_REQUEST_CHANNEL_KEY : getNodeChannel(request.getToId()), message);
     }
 
-    private final Map<Long, SynchronousQueue<RedisRpcResponse>> topicSubscribers = new ConcurrentHashMap<>();
-    private final Map<Long, CommonCallback<RedisRpcResponse>> callbacks = new ConcurrentHashMap<>();
-
     public RedisRpcResponse request(RedisRpcRequest request, long timeOut) {
         return request(request, timeOut, TimeUnit.SECONDS);
     }
 
     public RedisRpcResponse request(RedisRpcRequest request, long timeOut, TimeUnit timeUnit) {
-        request.setSn((long) random.nextInt(1000) + 1);
-        SynchronousQueue<RedisRpcResponse> subscribe = subscribe(request.getSn());
-
+        request.setSn(sequence.incrementAndGet());
+        UriStatistics statistics = getStatistics(request.getUri());
+        PendingCall call = new PendingCall(request.getUri(), System.nanoTime() + timeUnit.toNanos(timeOut));
+        pendingCalls.put(request.getSn(), call);
+        statistics.requestCount.incrementAndGet();
         try {
             sendRequest(request);
-            return subscribe.poll(timeOut, timeUnit);
+            return call.future.get(timeOut, timeUnit);
+        } catch (TimeoutException e) {
+            return null;
         } catch (InterruptedException e) {
             log.warn("[redis rpc timeout] uri: {}, sn: {}", request.getUri(), request.getSn(), e);
+            Thread.currentThread().interrupt();
             RedisRpcResponse redisRpcResponse = new RedisRpcResponse();
             redisRpcResponse.setStatusCode(ErrorCode.ERROR486.getCode());
             return redisRpcResponse;
+        } catch (ExecutionException e) {
+            log.warn("[redis rpc] uri: {}, sn: {}", request.getUri(), request.getSn(), e);
+            return null;
         } finally {
-            this.unsubscribe(request.getSn());
+            if (pendingCalls.remove(request.getSn(), call)) {
+                // 没有收到回复
+                statistics.timeoutCount.incrementAndGet();
+            }
         }
     }
 
+    /**
+     * 只发送不等待回复，用于通知类的请求，对方的回复会被忽略；单独计数，不计入超时
+     */
+    public void send(RedisRpcRequest request) {
+        request.setSn(sequence.incrementAndGet());
+        getStatistics(request.getUri()).sendCount.incrementAndGet();
+        sendRequest(request);
+    }
+
+    /**
+     * 异步请求，超过上级点播的超时时间(platformPlayTimeout)未收到回复时以超时结果回调
+     */
     public void request(RedisRpcRequest request, CommonCallback<RedisRpcResponse> callback) {
-        request.setSn((long) random.nextInt(1000) + 1);
-        setCallback(request.getSn(), callback);
+        request(request, userSetting.getPlatformPlayTimeout(), TimeUnit.MILLISECONDS, callback);
+    }
+
+    public void request(RedisRpcRequest request, long timeOut, TimeUnit timeUnit, CommonCallback<RedisRpcResponse> callback) {
+        request.setSn(sequence.incrementAndGet());
+        getStatistics(request.getUri()).requestCount.incrementAndGet();
+        setCallback(request.getSn(), new PendingCallback(request, System.nanoTime() + timeUnit.toNanos(timeOut), callback));
         sendRequest(request);
     }
 
     public Boolean response(RedisRpcResponse response) {
-        SynchronousQueue<RedisRpcResponse> queue = topicSubscribers.get(response.getSn());
-        CommonCallback<RedisRpcResponse> callback = callbacks.get(response.getSn());
-        if (queue != null) {
-            try {
-                return queue.offer(response, 2, TimeUnit.SECONDS);
-            } catch (InterruptedException e) {
-                log.error("{}", e.getMessage(), e);
-            }
-        }else if (callback != null) {
-            callback.run(response);
-            callbacks.remove(response.getSn());
+        PendingCall call = pendingCalls.remove(response.getSn());
+        if (call != null) {
+            getStatistics(call.uri).latency.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - call.startTime));
+            return call.future.complete(response);
+        }
+        PendingCallback callback = callbacks.remove(response.getSn());
+        if (callback != null) {
+            getStatistics(callback.uri).latency.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - callback.startTime));
+            runCallback(callback, response);
+            return true;
         }
         return false;
     }
 
-    private void unsubscribe(long key) {
-        topicSubscribers.remove(key);
+    private void runCallback(PendingCallback callback, RedisRpcResponse response) {
+        taskExecutor.execute(() -> {
+            try {
+                callback.callback.run(response);
+            } catch (Exception e) {
+                log.error("[redis-rpc] 处理回复异常 {}", response, e);
+            }
+        });
     }
 
-
-    private SynchronousQueue<RedisRpcResponse> subscribe(long key) {
-        SynchronousQueue<RedisRpcResponse> queue = null;
-        if (!topicSubscribers.containsKey(key))
-            topicSubscribers.put(key, queue = new SynchronousQueue<>());
-        return queue;
+    /**
+     * 清理已经超过等待时间的请求；同步请求正常情况下请求方会自行移除，这里作为兜底；
+     * 异步请求以超时结果(ERROR486)回调后移除
+     */
+    @Scheduled(fixedDelay = 1000)
+    public void sweepPendingCalls() {
+        long now = System.nanoTime();
+        for (Map.Entry<Long, PendingCall> entry : pendingCalls.entrySet()) {
+            PendingCall call = entry.getValue();
+            if (now - call.deadline > 0 && pendingCalls.remove(entry.getKey(), call)) {
+                getStatistics(call.uri).timeoutCount.incrementAndGet();
+                call.future.complete(null);
+            }
+        }
+        for (Map.Entry<Long, PendingCallback> entry : callbacks.entrySet()) {
+            PendingCallback callback = entry.getValue();
+            if (now - callback.deadline > 0 && callbacks.remove(entry.getKey(), callback)) {
+                getStatistics(callback.uri).timeoutCount.incrementAndGet();
+                log.warn("[redis-rpc] 请求超时未回复 uri: {}, sn: {}", callback.uri, entry.getKey());
+                RedisRpcResponse response = callback.request.getResponse();
+                response.setStatusCode(ErrorCode.ERROR486.getCode());
+                runCallback(callback, response);
+            }
+        }
     }
 
-    private void setCallback(long key, CommonCallback<RedisRpcResponse> callback)  {
+    private void setCallback(long key, PendingCallback callback)  {
         // TODO 如果多个上级点播同一个通道会有问题
         callbacks.put(key, callback);
     }
@@ -242,14 +359,61 @@ public class RedisRpcConfig implements MessageListener {
         return callbacks.size();
     }
 
+    private UriStatistics getStatistics(String uri) {
+        return statisticsMap.computeIfAbsent(uri == null ? "" : uri, key -> new UriStatistics());
+    }
 
+    public List<RedisRpcUriInfo> getUriInfoList() {
+        Map<String, Long> pendingCountMap = new HashMap<>();
+        for (PendingCall call : pendingCalls.values()) {
+            pendingCountMap.merge(call.uri == null ? "" : call.uri, 1L, Long::sum);
+        }
+        List<RedisRpcUriInfo> result = new ArrayList<>();
+        for (Map.Entry<String, UriStatistics> entry : statisticsMap.entrySet()) {
+            RedisRpcUriInfo info = new RedisRpcUriInfo();
+            info.setUri(entry.getKey());
+            info.setRequestCount(entry.getValue().requestCount.get());
+            info.setTimeoutCount(entry.getValue().timeoutCount.get());
+            info.setSendCount(entry.getValue().sendCount.get());
+            info.setPendingCount(pendingCountMap.getOrDefault(entry.getKey(), 0L));
+            info.setLatency(entry.getValue().latency.toInfo(entry.getKey()));
+            result.add(info);
+        }
+        result.sort(Comparator.comparing(RedisRpcUriInfo::getUri));
+        return result;
+    }
 
+    private static class PendingCall {
+        private final String uri;
+        private final long startTime = System.nanoTime();
+        private final long deadline;
+        private final CompletableFuture<RedisRpcResponse> future = new CompletableFuture<>();
 
-//    @Scheduled(fixedRate = 1000)   //每1秒执行一次
-//    public void execute(){
-//        logger.info("callbacks的长度: " + callbacks.size());
-//        logger.info("队列的长度: " + topicSubscribers.size());
-//        logger.info("HOOK监听的长度: " + hookSubscribe.size());
-//        logger.info("");
-//    }
+        private PendingCall(String uri, long deadline) {
+            this.uri = uri;
+            this.deadline = deadline;
+        }
+    }
+
+    private static class PendingCallback {
+        private final String uri;
+        private final RedisRpcRequest request;
+        private final long startTime = System.nanoTime();
+        private final long deadline;
+        private final CommonCallback<RedisRpcResponse> callback;
+
+        private PendingCallback(RedisRpcRequest request, long deadline, CommonCallback<RedisRpcResponse> callback) {
+            this.uri = request.getUri();
+            this.request = request;
+            this.deadline = deadline;
+            this.callback = callback;
+        }
+    }
+
+    private static class UriStatistics {
+        private final AtomicLong requestCount = new AtomicLong();
+        private final AtomicLong timeoutCount = new AtomicLong();
+        private final AtomicLong sendCount = new AtomicLong();
+        private final LatencyHistogram latency = new LatencyHistogram();
+    }
 }
@@ -0,0 +1,31 @@
+package com.genersoft.iot.vmp.conf.redis.bean;
+
+import com.genersoft.iot.vmp.common.LatencyInfo;
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.Data;
+
+/**
+ * redis rpc按访问路径的调用统计
+ */
+@Data
+@Schema(description = "redis rpc调用统计")
+public class RedisRpcUriInfo {
+
+    @Schema(description = "访问的路径")
+    private String uri;
+
+    @Schema(description = "请求次数")
+    private long requestCount;
+
+    @Schema(description = "超时次数")
+    private long timeoutCount;
+
+    @Schema(description = "不等待回复的请求次数，不计入请求次数和超时次数")
+    private long sendCount;
+
+    @Schema(description = "等待回复的请求数")
+    private long pendingCount;
+
+    @Schema(description = "收到回复的耗时")
+    private LatencyInfo latency;
+}
@@ -4,6 +4,8 @@ import lombok.Data;
 
 import java.time.Instant;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -19,6 +21,18 @@ public class CatalogData {
     private Instant time;
     private Device device;
     private String errorMsg;
+
+    /**
+     * 本地暂存的数据，key为通道/行政区划/分组的编号
+     */
+    private Map<String, DeviceChannel> channelMap = new LinkedHashMap<>();
+    private Map<String, Region> regionMap = new LinkedHashMap<>();
+    private Map<String, Group> groupMap = new LinkedHashMap<>();
+
+    /**
+     * 本地内存不足时，数据转存到redis，此后收到的数据也直接写入redis
+     */
+    private boolean spilled;
     private Set<String> redisKeysForChannel = new HashSet<>();
     private Set<String> errorChannel = new HashSet<>();
     private Set<String> redisKeysForRegion = new HashSet<>();
@@ -29,4 +43,11 @@ public class CatalogData {
     }
     private CatalogDataStatus status;
 
+    public int getMemoryCount() {
+        return channelMap.size() + regionMap.size() + groupMap.size();
+    }
+
+    public int getChannelCount() {
+        return channelMap.size() + redisKeysForChannel.size();
+    }
 }
@@ -0,0 +1,54 @@
+package com.genersoft.iot.vmp.gb28181.bean;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.Data;
+
+/**
+ * 向上级平台回复目录的进度
+ */
+@Data
+@Schema(description = "向上级平台回复目录的进度")
+public class CatalogSendInfo {
+
+    @Schema(description = "上级平台编号")
+    private String platformId;
+
+    @Schema(description = "命令序列号")
+    private String sn;
+
+    @Schema(description = "通道总数")
+    private int total;
+
+    @Schema(description = "已发送的通道数")
+    private int sentCount;
+
+    @Schema(description = "总页数")
+    private int pageCount;
+
+    @Schema(description = "收到回复的页数")
+    private int responseCount;
+
+    @Schema(description = "超时的页数")
+    private int timeoutCount;
+
+    @Schema(description = "等待回复的页数")
+    private int inFlight;
+
+    @Schema(description = "当前的发送窗口")
+    private double window;
+
+    @Schema(description = "平滑后的回复耗时,单位：毫秒")
+    private double srttMs;
+
+    @Schema(description = "最小回复耗时,单位：毫秒")
+    private long minRttMs;
+
+    @Schema(description = "上级不回复时改为按固定间隔发送")
+    private boolean paced;
+
+    @Schema(description = "已用时间,单位：毫秒")
+    private long elapsedMs;
+
+    @Schema(description = "每秒发送的通道数")
+    private double channelsPerSecond;
+}
@@ -188,10 +188,18 @@ public class CommonGBChannel {
 
     private String getFullContent(String event, String serverDeviceId) {
         StringBuilder content = new StringBuilder();
+        encode(content, event, serverDeviceId);
+        return content.toString();
+    }
+
+    /**
+     * 完整的目录项直接写入content，用于批量编码时复用同一个StringBuilder
+     */
+    public void encode(StringBuilder content, String event, String serverDeviceId) {
         // 行政区划目录项
         content.append("<Item>\n")
-                .append("<DeviceID>" + this.getGbDeviceId() + "</DeviceID>\n")
-                .append("<Name>" + this.getGbName() + "</Name>\n");
+                .append("<DeviceID>").append(this.getGbDeviceId()).append("</DeviceID>\n")
+                .append("<Name>").append(this.getGbName()).append("</Name>\n");
 
 
         if (this.getGbDeviceId().length() > 8) {
@@ -200,151 +208,150 @@ public class CommonGBChannel {
             if (type.equals("200")) {
                 // 业务分组目录项
                 if (this.getGbManufacturer() != null) {
-                    content.append("<Manufacturer>" + this.getGbManufacturer() + "</Manufacturer>\n");
+                    content.append("<Manufacturer>").append(this.getGbManufacturer()).append("</Manufacturer>\n");
                 }
                 if (this.getGbModel() != null) {
-                    content.append("<Model>" + this.getGbModel() + "</Model>\n");
+                    content.append("<Model>").append(this.getGbModel()).append("</Model>\n");
                 }
                 if (this.getGbOwner() != null) {
-                    content.append("<Owner>" + this.getGbOwner() + "</Owner>\n");
+                    content.append("<Owner>").append(this.getGbOwner()).append("</Owner>\n");
                 }
                 if (this.getGbCivilCode() != null) {
-                    content.append("<CivilCode>" + this.getGbCivilCode() + "</CivilCode>\n");
+                    content.append("<CivilCode>").append(this.getGbCivilCode()).append("</CivilCode>\n");
                 }
                 if (this.getGbAddress() != null) {
-                    content.append("<Address>" + this.getGbAddress() + "</Address>\n");
+                    content.append("<Address>").append(this.getGbAddress()).append("</Address>\n");
                 }
                 if (this.getGbRegisterWay() != null) {
-                    content.append("<RegisterWay>" + this.getGbRegisterWay() + "</RegisterWay>\n");
+                    content.append("<RegisterWay>").append(this.getGbRegisterWay()).append("</RegisterWay>\n");
                 }
                 if (this.getGbSecrecy() != null) {
-                    content.append("<Secrecy>" + this.getGbSecrecy() + "</Secrecy>\n");
+                    content.append("<Secrecy>").append(this.getGbSecrecy()).append("</Secrecy>\n");
                 }
             } else if (type.equals("215")) {
                 // 业务分组
                 if (this.getGbCivilCode() != null) {
-                    content.append("<CivilCode>" + this.getGbCivilCode() + "</CivilCode>\n");
+                    content.append("<CivilCode>").append(this.getGbCivilCode()).append("</CivilCode>\n");
                 }
-                content.append("<ParentID>" + serverDeviceId + "</ParentID>\n");
+                content.append("<ParentID>").append(serverDeviceId).append("</ParentID>\n");
             } else if (type.equals("216")) {
                 // 虚拟组织目录项
                 if (this.getGbCivilCode() != null) {
-                    content.append("<CivilCode>" + this.getGbCivilCode() + "</CivilCode>\n");
+                    content.append("<CivilCode>").append(this.getGbCivilCode()).append("</CivilCode>\n");
                 }
                 if (this.getGbParentId() != null) {
-                    content.append("<ParentID>" + this.getGbParentId() + "</ParentID>\n");
+                    content.append("<ParentID>").append(this.getGbParentId()).append("</ParentID>\n");
                 }
-                content.append("<BusinessGroupID>" + this.getGbBusinessGroupId() + "</BusinessGroupID>\n");
+                content.append("<BusinessGroupID>").append(this.getGbBusinessGroupId()).append("</BusinessGroupID>\n");
             } else {
                 if (this.getGbManufacturer() != null) {
-                    content.append("<Manufacturer>" + this.getGbManufacturer() + "</Manufacturer>\n");
+                    content.append("<Manufacturer>").append(this.getGbManufacturer()).append("</Manufacturer>\n");
                 }
                 if (this.getGbModel() != null) {
-                    content.append("<Model>" + this.getGbModel() + "</Model>\n");
+                    content.append("<Model>").append(this.getGbModel()).append("</Model>\n");
                 }
                 if (this.getGbOwner() != null) {
-                    content.append("<Owner>" + this.getGbOwner() + "</Owner>\n");
+                    content.append("<Owner>").append(this.getGbOwner()).append("</Owner>\n");
                 }
                 if (this.getGbCivilCode() != null) {
-                    content.append("<CivilCode>" + this.getGbCivilCode() + "</CivilCode>\n");
+                    content.append("<CivilCode>").append(this.getGbCivilCode()).append("</CivilCode>\n");
                 }
                 if (this.getGbAddress() != null) {
-                    content.append("<Address>" + this.getGbAddress() + "</Address>\n");
+                    content.append("<Address>").append(this.getGbAddress()).append("</Address>\n");
                 }
                 if (this.getGbRegisterWay() != null) {
-                    content.append("<RegisterWay>" + this.getGbRegisterWay() + "</RegisterWay>\n");
+                    content.append("<RegisterWay>").append(this.getGbRegisterWay()).append("</RegisterWay>\n");
                 }
                 if (this.getGbSecrecy() != null) {
-                    content.append("<Secrecy>" + this.getGbSecrecy() + "</Secrecy>\n");
+                    content.append("<Secrecy>").append(this.getGbSecrecy()).append("</Secrecy>\n");
                 }
                 if (this.getGbParentId() != null) {
-                    content.append("<ParentID>" + this.getGbParentId() + "</ParentID>\n");
+                    content.append("<ParentID>").append(this.getGbParentId()).append("</ParentID>\n");
                 }
                 if (this.getGbParental() != null) {
-                    content.append("<Parental>" + this.getGbParental() + "</Parental>\n");
+                    content.append("<Parental>").append(this.getGbParental()).append("</Parental>\n");
                 }
                 if (this.getGbSafetyWay() != null) {
-                    content.append("<SafetyWay>" + this.getGbSafetyWay() + "</SafetyWay>\n");
+                    content.append("<SafetyWay>").append(this.getGbSafetyWay()).append("</SafetyWay>\n");
                 }
                 if (this.getGbRegisterWay() != null) {
-                    content.append("<RegisterWay>" + this.getGbRegisterWay() + "</RegisterWay>\n");
+                    content.append("<RegisterWay>").append(this.getGbRegisterWay()).append("</RegisterWay>\n");
                 }
                 if (this.getGbCertNum() != null) {
-                    content.append("<CertNum>" + this.getGbCertNum() + "</CertNum>\n");
+                    content.append("<CertNum>").append(this.getGbCertNum()).append("</CertNum>\n");
                 }
                 if (this.getGbCertifiable() != null) {
-                    content.append("<Certifiable>" + this.getGbCertifiable() + "</Certifiable>\n");
+                    content.append("<Certifiable>").append(this.getGbCertifiable()).append("</Certifiable>\n");
                 }
                 if (this.getGbErrCode() != null) {
-                    content.append("<ErrCode>" + this.getGbErrCode() + "</ErrCode>\n");
+                    content.append("<ErrCode>").append(this.getGbErrCode()).append("</ErrCode>\n");
                 }
                 if (this.getGbEndTime() != null) {
-                    content.append("<EndTime>" + this.getGbEndTime() + "</EndTime>\n");
+                    content.append("<EndTime>").append(this.getGbEndTime()).append("</EndTime>\n");
                 }
                 if (this.getGbSecrecy() != null) {
-                    content.append("<Secrecy>" + this.getGbSecrecy() + "</Secrecy>\n");
+                    content.append("<Secrecy>").append(this.getGbSecrecy()).append("</Secrecy>\n");
                 }
                 if (this.getGbIpAddress() != null) {
-                    content.append("<IPAddress>" + this.getGbIpAddress() + "</IPAddress>\n");
+                    content.append("<IPAddress>").append(this.getGbIpAddress()).append("</IPAddress>\n");
                 }
                 if (this.getGbPort() != null) {
-                    content.append("<Port>" + this.getGbPort() + "</Port>\n");
+                    content.append("<Port>").append(this.getGbPort()).append("</Port>\n");
                 }
                 if (this.getGbPassword() != null) {
-                    content.append("<Password>" + this.getGbPassword() + "</Password>\n");
+                    content.append("<Password>").append(this.getGbPassword()).append("</Password>\n");
                 }
                 if (this.getGbStatus() != null) {
-                    content.append("<Status>" + this.getGbStatus() + "</Status>\n");
+                    content.append("<Status>").append(this.getGbStatus()).append("</Status>\n");
                 }
                 if (this.getGbLongitude() != null) {
-                    content.append("<Longitude>" + this.getGbLongitude() + "</Longitude>\n");
+                    content.append("<Longitude>").append(this.getGbLongitude()).append("</Longitude>\n");
                 }
                 if (this.getGbLatitude() != null) {
-                    content.append("<Latitude>" + this.getGbLatitude() + "</Latitude>\n");
+                    content.append("<Latitude>").append(this.getGbLatitude()).append("</Latitude>\n");
                 }
                 content.append("<Info>\n");
 
                 if (this.getGbPtzType() != null) {
-                    content.append("  <PTZType>" + this.getGbPtzType() + "</PTZType>\n");
+                    content.append("  <PTZType>").append(this.getGbPtzType()).append("</PTZType>\n");
                 }
                 if (this.getGbPositionType() != null) {
-                    content.append("  <PositionType>" + this.getGbPositionType() + "</PositionType>\n");
+                    content.append("  <PositionType>").append(this.getGbPositionType()).append("</PositionType>\n");
                 }
                 if (this.getGbRoomType() != null) {
-                    content.append("  <RoomType>" + this.getGbRoomType() + "</RoomType>\n");
+                    content.append("  <RoomType>").append(this.getGbRoomType()).append("</RoomType>\n");
                 }
                 if (this.getGbUseType() != null) {
-                    content.append("  <UseType>" + this.getGbUseType() + "</UseType>\n");
+                    content.append("  <UseType>").append(this.getGbUseType()).append("</UseType>\n");
                 }
                 if (this.getGbSupplyLightType() != null) {
-                    content.append("  <SupplyLightType>" + this.getGbSupplyLightType() + "</SupplyLightType>\n");
+                    content.append("  <SupplyLightType>").append(this.getGbSupplyLightType()).append("</SupplyLightType>\n");
                 }
                 if (this.getGbDirectionType() != null) {
-                    content.append("  <DirectionType>" + this.getGbDirectionType() + "</DirectionType>\n");
+                    content.append("  <DirectionType>").append(this.getGbDirectionType()).append("</DirectionType>\n");
                 }
                 if (this.getGbResolution() != null) {
-                    content.append("  <Resolution>" + this.getGbResolution() + "</Resolution>\n");
+                    content.append("  <Resolution>").append(this.getGbResolution()).append("</Resolution>\n");
                 }
                 if (this.getGbBusinessGroupId() != null) {
-                    content.append("  <BusinessGroupID>" + this.getGbBusinessGroupId() + "</BusinessGroupID>\n");
+                    content.append("  <BusinessGroupID>").append(this.getGbBusinessGroupId()).append("</BusinessGroupID>\n");
                 }
                 if (this.getGbDownloadSpeed() != null) {
-                    content.append("  <DownloadSpeed>" + this.getGbDownloadSpeed() + "</DownloadSpeed>\n");
+                    content.append("  <DownloadSpeed>").append(this.getGbDownloadSpeed()).append("</DownloadSpeed>\n");
                 }
                 if (this.getGbSvcSpaceSupportMod() != null) {
-                    content.append("  <SVCSpaceSupportMode>" + this.getGbSvcSpaceSupportMod() + "</SVCSpaceSupportMode>\n");
+                    content.append("  <SVCSpaceSupportMode>").append(this.getGbSvcSpaceSupportMod()).append("</SVCSpaceSupportMode>\n");
                 }
                 if (this.getGbSvcTimeSupportMode() != null) {
-                    content.append("  <SVCTimeSupportMode>" + this.getGbSvcTimeSupportMode() + "</SVCTimeSupportMode>\n");
+                    content.append("  <SVCTimeSupportMode>").append(this.getGbSvcTimeSupportMode()).append("</SVCTimeSupportMode>\n");
                 }
                 content.append("</Info>\n");
             }
         }
         if (event != null) {
-            content.append("<Event>" + event + "</Event>\n");
+            content.append("<Event>").append(event).append("</Event>\n");
         }
         content.append("</Item>\n");
-        return content.toString();
     }
 
     public static CommonGBChannel build(Group group) {
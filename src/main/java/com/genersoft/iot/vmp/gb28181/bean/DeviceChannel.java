@@ -3,6 +3,8 @@ package com.genersoft.iot.vmp.gb28181.bean;
 import com.genersoft.iot.vmp.common.enums.ChannelDataType;
 import com.genersoft.iot.vmp.gb28181.utils.MessageElementForCatalog;
 import com.genersoft.iot.vmp.gb28181.utils.XmlUtil;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
 import io.swagger.v3.oas.annotations.media.Schema;
 import lombok.Data;
 import lombok.EqualsAndHashCode;
@@ -11,6 +13,7 @@ import org.dom4j.Element;
 import org.springframework.util.ObjectUtils;
 
 import java.lang.reflect.InvocationTargetException;
+import java.nio.charset.StandardCharsets;
 
 @Data
 @Slf4j
@@ -223,18 +226,46 @@ public class DeviceChannel extends CommonGBChannel {
 
 	public static DeviceChannel decode(Element element) throws InvocationTargetException, NoSuchMethodException, InstantiationException, IllegalAccessException {
 		DeviceChannel deviceChannel = XmlUtil.elementDecode(element, DeviceChannel.class);
-		if(deviceChannel.getCivilCode() != null ) {
-			if (ObjectUtils.isEmpty(deviceChannel.getCivilCode())
-					|| deviceChannel.getCivilCode().length() > 8 ){
-				deviceChannel.setCivilCode(null);
+		deviceChannel.decodeFinish();
+		return deviceChannel;
+	}
+
+	/**
+	 * 从xml读取字段后的统一处理
+	 */
+	public void decodeFinish() {
+		if(getCivilCode() != null ) {
+			if (ObjectUtils.isEmpty(getCivilCode())
+					|| getCivilCode().length() > 8 ){
+				setCivilCode(null);
 			}
 			// 此处对于不在wvp缓存中的行政区划,默认直接存储.保证即使出现wvp的行政区划缓存过老,也可以通过用户自主创建的方式正常使用系统
 		}
-		GbCode gbCode = GbCode.decode(deviceChannel.getDeviceId());
+		GbCode gbCode = GbCode.decode(getDeviceId());
 		if (gbCode != null && "138".equals(gbCode.getTypeCode())) {
-			deviceChannel.setHasAudio(true);
+			setHasAudio(true);
 		}
-		return deviceChannel;
+	}
+
+	/**
+	 * 目录中可以由设备修改的字段的摘要，用于目录同步时判断通道是否发生变化
+	 */
+	public long catalogFingerprint() {
+		Hasher hasher = Hashing.murmur3_128().newHasher();
+		Object[] values = {name, manufacturer, model, owner, civilCode, block, address, parental, parentId,
+				safetyWay, registerWay, certNum, certifiable, errCode, endTime, secrecy, ipAddress, port, password,
+				status, longitude, latitude, ptzType, positionType, roomType, useType, supplyLightType, directionType,
+				resolution, businessGroupId, downloadSpeed, svcSpaceSupportMod, svcTimeSupportMode, subCount, channelType};
+		for (Object value : values) {
+			if (value == null) {
+				hasher.putByte((byte) 0);
+			} else {
+				hasher.putByte((byte) 1);
+				hasher.putString(value.toString(), StandardCharsets.UTF_8);
+				hasher.putByte((byte) 0x1f);
+			}
+		}
+		return hasher.hash().asLong();
 	}
 
 	public static DeviceChannel decodeWithOnlyDeviceId(Element element) {
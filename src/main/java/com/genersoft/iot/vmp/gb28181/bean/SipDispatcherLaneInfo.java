@@ -0,0 +1,36 @@
+package com.genersoft.iot.vmp.gb28181.bean;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.Data;
+
+/**
+ * SIP消息分发通道的运行状态
+ */
+@Data
+@Schema(description = "SIP消息分发通道的运行状态")
+public class SipDispatcherLaneInfo {
+
+    @Schema(description = "通道序号")
+    private int index;
+
+    @Schema(description = "当前排队的消息数")
+    private int queueSize;
+
+    @Schema(description = "队列容量")
+    private int capacity;
+
+    @Schema(description = "已处理的消息数")
+    private long processed;
+
+    @Schema(description = "因队列已满被拒绝的消息数")
+    private long rejected;
+
+    @Schema(description = "平均排队时间,单位：毫秒")
+    private double avgWaitMs;
+
+    @Schema(description = "最大排队时间,单位：毫秒")
+    private double maxWaitMs;
+
+    @Schema(description = "平均处理时间,单位：毫秒")
+    private double avgHandleMs;
+}
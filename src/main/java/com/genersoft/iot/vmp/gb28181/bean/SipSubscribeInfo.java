@@ -0,0 +1,26 @@
+package com.genersoft.iot.vmp.gb28181.bean;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.Data;
+
+import java.util.Map;
+
+/**
+ * 等待回复的SIP事务统计
+ */
+@Data
+@Schema(description = "等待回复的SIP事务统计")
+public class SipSubscribeInfo {
+
+    @Schema(description = "等待回复的事务总数")
+    private int inFlightCount;
+
+    @Schema(description = "各请求方法等待回复的事务数")
+    private Map<String, Long> inFlightByMethod;
+
+    @Schema(description = "已超时的事务总数")
+    private long timeoutCount;
+
+    @Schema(description = "已收到回复的事务总数")
+    private long responseCount;
+}
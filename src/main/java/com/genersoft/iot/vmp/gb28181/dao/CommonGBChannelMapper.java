@@ -253,13 +253,15 @@ public interface CommonGBChannelMapper {
 
     @SelectProvider(type = ChannelProvider.class, method = "queryListByCivilCode")
     List<CommonGBChannel> queryListByCivilCode(@Param("query") String query, @Param("online") Boolean online,
-                                               @Param("dataType") Integer dataType, @Param("civilCode") String civilCode);
+                                               @Param("dataType") Integer dataType, @Param("civilCode") String civilCode,
+                                               @Param("ids") List<Integer> ids);
 
 
 
     @SelectProvider(type = ChannelProvider.class, method = "queryListByParentId")
     List<CommonGBChannel> queryListByParentId(@Param("query") String query, @Param("online") Boolean online,
-                                              @Param("dataType") Integer dataType, @Param("groupDeviceId") String groupDeviceId);
+                                              @Param("dataType") Integer dataType, @Param("groupDeviceId") String groupDeviceId,
+                                              @Param("ids") List<Integer> ids);
 
 
 
@@ -274,9 +276,9 @@ public interface CommonGBChannelMapper {
             "    1 as type, " +
             "    true as is_leaf " +
             " from wvp_device_channel " +
-            " where coalesce(gb_civil_code, civil_code) = #{parentDeviceId} " +
-            " <if test='query != null'> AND (coalesce(gb_device_id, device_id) LIKE concat('%',#{query},'%') " +
-            " OR coalesce(gb_name, name) LIKE concat('%',#{query},'%'))</if> " +
+            " where effective_civil_code = #{parentDeviceId} " +
+            " <if test='query != null'> AND (effective_device_id LIKE concat('%',#{query},'%') " +
+            " OR effective_name LIKE concat('%',#{query},'%'))</if> " +
             " </script>")
     List<RegionTree> queryForRegionTreeByCivilCode(@Param("query") String query, @Param("parentDeviceId") String parentDeviceId);
 
@@ -374,9 +376,9 @@ public interface CommonGBChannelMapper {
             "    1 as type, " +
             "    true as is_leaf " +
             " from wvp_device_channel " +
-            " where channel_type = 0 and coalesce(gb_parent_id, parent_id) = #{parent} " +
-            " <if test='query != null'> AND (coalesce(gb_device_id, device_id) LIKE concat('%',#{query},'%') " +
-            " OR coalesce(gb_name, name) LIKE concat('%',#{query},'%'))</if> " +
+            " where channel_type = 0 and effective_parent_id = #{parent} " +
+            " <if test='query != null'> AND (effective_device_id LIKE concat('%',#{query},'%') " +
+            " OR effective_name LIKE concat('%',#{query},'%'))</if> " +
             " </script>")
     List<GroupTree> queryForGroupTreeByParentId(@Param("query") String query, @Param("parent") String parent);
 
@@ -467,7 +469,19 @@ public interface CommonGBChannelMapper {
 
     @SelectProvider(type = ChannelProvider.class, method = "queryList")
     List<CommonGBChannel> queryList(@Param("query") String query, @Param("online") Boolean online,
-                                    @Param("hasRecordPlan") Boolean hasRecordPlan, @Param("dataType") Integer dataType);
+                                    @Param("hasRecordPlan") Boolean hasRecordPlan, @Param("dataType") Integer dataType,
+                                    @Param("ids") List<Integer> ids);
+
+    /**
+     * 查询通道生效的编号和名称，用于内存检索索引
+     * @param updateTime 只查询这个时间之后更新的通道，为null时查询全部
+     */
+    @Select(value = {" <script>" +
+            "select id as gb_id, coalesce(gb_device_id, device_id) as gb_device_id, coalesce(gb_name, name) as gb_name" +
+            " from wvp_device_channel where channel_type = 0" +
+            " <if test='updateTime != null'> and update_time &gt;= #{updateTime}</if>" +
+            " </script>"})
+    List<CommonGBChannel> queryAllForSearchIndex(@Param("updateTime") String updateTime);
 
     @Update(value = {" <script>" +
             " UPDATE wvp_device_channel " +
@@ -544,10 +558,10 @@ public interface CommonGBChannelMapper {
             " from wvp_device_channel wdc" +
             " where wdc.channel_type = 0 " +
             " <if test='query != null'> " +
-            " AND (coalesce(wdc.gb_device_id, wdc.device_id) LIKE concat('%',#{query},'%') escape '/' " +
-            "      OR coalesce(wdc.gb_name, wdc.name)  LIKE concat('%',#{query},'%') escape '/')</if> " +
-            " <if test='online == true'> AND coalesce(wdc.gb_status, wdc.status) = 'ON'</if> " +
-            " <if test='online == false'> AND coalesce(wdc.gb_status, wdc.status) = 'OFF'</if> " +
+            " AND (wdc.effective_device_id LIKE concat('%',#{query},'%') escape '/' " +
+            "      OR wdc.effective_name  LIKE concat('%',#{query},'%') escape '/')</if> " +
+            " <if test='online == true'> AND wdc.effective_status = 'ON'</if> " +
+            " <if test='online == false'> AND wdc.effective_status = 'OFF'</if> " +
             " <if test='hasLink == true'> AND wdc.record_plan_id = #{planId}</if> " +
             " <if test='hasLink == false'> AND wdc.record_plan_id is null</if> " +
             " <if test='dataType != null'> AND wdc.data_type = #{dataType}</if> " +
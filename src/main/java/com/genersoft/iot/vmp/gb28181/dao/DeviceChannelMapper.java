@@ -540,7 +540,7 @@ public interface DeviceChannelMapper {
             " svc_space_support_mod,\n" +
             " svc_time_support_mode\n" +
             " from wvp_device_channel " +
-            " where data_type = 1 and data_device_id=#{dataDeviceId} and coalesce(gb_device_id, device_id) = #{channelId}" +
+            " where data_type = 1 and data_device_id=#{dataDeviceId} and effective_device_id = #{channelId}" +
             " </script>"})
     DeviceChannel getOneByDeviceIdForSource(@Param("dataDeviceId") int dataDeviceId, @Param("channelId") String channelId);
 
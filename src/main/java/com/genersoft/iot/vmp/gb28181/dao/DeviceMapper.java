@@ -144,6 +144,16 @@ public interface DeviceMapper {
             " </script>"})
     int update(Device device);
 
+    @Update(value = {" <script>" +
+            "UPDATE wvp_device " +
+            "SET update_time=#{updateTime}, keepalive_time = CASE device_id" +
+            "<foreach collection='devices' item='item'> WHEN #{item.deviceId} THEN #{item.keepaliveTime}</foreach>" +
+            " END" +
+            " WHERE device_id in " +
+            "<foreach collection='devices' item='item' open='(' separator=',' close=')'>#{item.deviceId}</foreach>" +
+            " </script>"})
+    int batchUpdateKeepalive(@Param("devices") List<Device> devices, @Param("updateTime") String updateTime);
+
     @Select(
             " <script>" +
             "SELECT " +
@@ -34,16 +34,16 @@ public interface DeviceMobilePositionMapper {
     int clearMobilePositionsByDeviceId(String deviceId);
 
     @Insert("<script> " +
-            "<foreach collection='mobilePositions' index='index' item='item' separator=';'> " +
             "insert into wvp_device_mobile_position " +
             "(device_id,channel_id, device_name,time,longitude,latitude,altitude,speed,direction,report_source," +
             "create_time)"+
             "values " +
+            "<foreach collection='mobilePositions' index='index' item='item' separator=','> " +
             "(#{item.deviceId}, #{item.channelId}, #{item.deviceName}, #{item.time}, #{item.longitude}, " +
             "#{item.latitude}, #{item.altitude}, #{item.speed},#{item.direction}," +
             "#{item.reportSource}, #{item.createTime}) " +
             "</foreach> " +
             "</script>")
-    void batchadd(List<MobilePosition> mobilePositions);
+    void batchadd(@Param("mobilePositions") List<MobilePosition> mobilePositions);
 
 }
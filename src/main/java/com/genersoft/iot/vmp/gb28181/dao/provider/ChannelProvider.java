@@ -144,7 +144,7 @@ public class ChannelProvider {
             ;
 
     public String queryByDeviceId(Map<String, Object> params ){
-        return BASE_SQL + " where channel_type = 0 and coalesce(gb_device_id, device_id) = #{gbDeviceId}";
+        return BASE_SQL + " where channel_type = 0 and effective_device_id = #{gbDeviceId}";
     }
 
     public String queryById(Map<String, Object> params ){
@@ -155,25 +155,43 @@ public class ChannelProvider {
         return BASE_SQL + " where channel_type = 0 and data_type = #{dataType} and data_device_id = #{dataDeviceId}";
     }
 
+    /**
+     * 检索内容的条件，内存索引已经匹配出通道ID时按ID过滤，否则对编号和名称执行LIKE
+     */
+    private static void appendQuery(StringBuilder sqlBuild, Map<String, Object> params) {
+        if (params.get("ids") != null) {
+            sqlBuild.append(" AND id in (");
+            boolean first = true;
+            for (Integer id : (Collection<Integer>)params.get("ids")) {
+                if (!first) {
+                    sqlBuild.append(",");
+                }
+                sqlBuild.append(id);
+                first = false;
+            }
+            sqlBuild.append(")");
+        }else if (params.get("query") != null) {
+            sqlBuild.append(" AND (effective_device_id LIKE concat('%',#{query},'%') escape '/'" +
+                    " OR effective_name LIKE concat('%',#{query},'%') escape '/' )")
+            ;
+        }
+    }
+
     public String queryListByCivilCode(Map<String, Object> params ){
         StringBuilder sqlBuild = new StringBuilder();
         sqlBuild.append(BASE_SQL);
         sqlBuild.append(" where channel_type = 0 ");
-        if (params.get("query") != null) {
-            sqlBuild.append(" AND (coalesce(gb_device_id, device_id) LIKE concat('%',#{query},'%') escape '/'" +
-                    " OR coalesce(gb_name, name) LIKE concat('%',#{query},'%') escape '/' )")
-            ;
-        }
+        appendQuery(sqlBuild, params);
         if (params.get("online") != null && (Boolean)params.get("online")) {
-            sqlBuild.append(" AND coalesce(gb_status, status) = 'ON'");
+            sqlBuild.append(" AND effective_status = 'ON'");
         }
         if (params.get("online") != null && !(Boolean)params.get("online")) {
-            sqlBuild.append(" AND coalesce(gb_status, status) = 'OFF'");
+            sqlBuild.append(" AND effective_status = 'OFF'");
         }
         if (params.get("civilCode") != null) {
-            sqlBuild.append(" AND coalesce(gb_civil_code, civil_code) = #{civilCode}");
+            sqlBuild.append(" AND effective_civil_code = #{civilCode}");
         }else {
-            sqlBuild.append(" AND coalesce(gb_civil_code, civil_code) is null");
+            sqlBuild.append(" AND effective_civil_code is null");
         }
         if (params.get("dataType") != null) {
             sqlBuild.append(" AND data_type = #{dataType}");
@@ -185,21 +203,17 @@ public class ChannelProvider {
         StringBuilder sqlBuild = new StringBuilder();
         sqlBuild.append(BASE_SQL);
         sqlBuild.append(" where channel_type = 0 ");
-        if (params.get("query") != null) {
-            sqlBuild.append(" AND (coalesce(gb_device_id, device_id) LIKE concat('%',#{query},'%') escape '/'" +
-                    " OR coalesce(gb_name, name) LIKE concat('%',#{query},'%') escape '/' )")
-            ;
-        }
+        appendQuery(sqlBuild, params);
         if (params.get("online") != null && (Boolean)params.get("online")) {
-            sqlBuild.append(" AND coalesce(gb_status, status) = 'ON'");
+            sqlBuild.append(" AND effective_status = 'ON'");
         }
         if (params.get("online") != null && !(Boolean)params.get("online")) {
-            sqlBuild.append(" AND coalesce(gb_status, status) = 'OFF'");
+            sqlBuild.append(" AND effective_status = 'OFF'");
         }
         if (params.get("groupDeviceId") != null) {
-            sqlBuild.append(" AND coalesce(gb_parent_id, parent_id) = #{groupDeviceId}");
+            sqlBuild.append(" AND effective_parent_id = #{groupDeviceId}");
         }else {
-            sqlBuild.append(" AND coalesce(gb_parent_id, parent_id) is null");
+            sqlBuild.append(" AND effective_parent_id is null");
         }
         if (params.get("dataType") != null) {
             sqlBuild.append(" AND data_type = #{dataType}");
@@ -211,16 +225,12 @@ public class ChannelProvider {
         StringBuilder sqlBuild = new StringBuilder();
         sqlBuild.append(BASE_SQL);
         sqlBuild.append(" where channel_type = 0 ");
-        if (params.get("query") != null) {
-            sqlBuild.append(" AND (coalesce(gb_device_id, device_id) LIKE concat('%',#{query},'%') escape '/'" +
-                    " OR coalesce(gb_name, name) LIKE concat('%',#{query},'%') escape '/' )")
-            ;
-        }
+        appendQuery(sqlBuild, params);
         if (params.get("online") != null && (Boolean)params.get("online")) {
-            sqlBuild.append(" AND coalesce(gb_status, status) = 'ON'");
+            sqlBuild.append(" AND effective_status = 'ON'");
         }
         if (params.get("online") != null && !(Boolean)params.get("online")) {
-            sqlBuild.append(" AND coalesce(gb_status, status) = 'OFF'");
+            sqlBuild.append(" AND effective_status = 'OFF'");
         }
         if (params.get("hasRecordPlan") != null && (Boolean)params.get("hasRecordPlan")) {
             sqlBuild.append(" AND record_plan_id > 0");
@@ -308,7 +318,7 @@ public class ChannelProvider {
         sqlBuild.append(BASE_SQL);
         sqlBuild.append("where channel_type = 0 and ");
         if (params.get("civilCode") != null) {
-            sqlBuild.append(" coalesce(gb_civil_code, civil_code) = #{civilCode} ");
+            sqlBuild.append(" effective_civil_code = #{civilCode} ");
             if (params.get("ids") != null) {
                 sqlBuild.append(" OR ");
             }
@@ -332,14 +342,14 @@ public class ChannelProvider {
     public String queryByCivilCode(Map<String, Object> params ){
         StringBuilder sqlBuild = new StringBuilder();
         sqlBuild.append(BASE_SQL);
-        sqlBuild.append("where channel_type = 0 and coalesce(gb_civil_code, civil_code) = #{civilCode} ");
+        sqlBuild.append("where channel_type = 0 and effective_civil_code = #{civilCode} ");
         return sqlBuild.toString();
     }
 
     public String queryByBusinessGroup(Map<String, Object> params ){
         StringBuilder sqlBuild = new StringBuilder();
         sqlBuild.append(BASE_SQL);
-        sqlBuild.append("where channel_type = 0 and coalesce(gb_business_group_id, business_group_id) = #{businessGroup} ");
+        sqlBuild.append("where channel_type = 0 and effective_business_group_id = #{businessGroup} ");
         return sqlBuild.toString() ;
     }
 
@@ -412,19 +422,19 @@ public class ChannelProvider {
     public String queryListByCivilCodeForUnusual(Map<String, Object> params ){
         StringBuilder sqlBuild = new StringBuilder();
         sqlBuild.append(BASE_SQL_TABLE_NAME);
-        sqlBuild.append(" left join (select wcr.device_id from wvp_common_region wcr) temp on temp.device_id = coalesce(wdc.gb_civil_code, wdc.civil_code)" +
-                " where coalesce(wdc.gb_civil_code, wdc.civil_code) is not null and temp.device_id is null ");
+        sqlBuild.append(" left join (select wcr.device_id from wvp_common_region wcr) temp on temp.device_id = wdc.effective_civil_code" +
+                " where wdc.effective_civil_code is not null and temp.device_id is null ");
         sqlBuild.append(" AND wdc.channel_type = 0 ");
         if (params.get("query") != null) {
-            sqlBuild.append(" AND (coalesce(wdc.gb_device_id, wdc.device_id) LIKE concat('%',#{query},'%') escape '/'" +
-                    " OR coalesce(wdc.gb_name, wdc.name) LIKE concat('%',#{query},'%') escape '/' )")
+            sqlBuild.append(" AND (wdc.effective_device_id LIKE concat('%',#{query},'%') escape '/'" +
+                    " OR wdc.effective_name LIKE concat('%',#{query},'%') escape '/' )")
             ;
         }
         if (params.get("online") != null && (Boolean)params.get("online")) {
-            sqlBuild.append(" AND coalesce(wdc.gb_status, wdc.status) = 'ON'");
+            sqlBuild.append(" AND wdc.effective_status = 'ON'");
         }
         if (params.get("online") != null && !(Boolean)params.get("online")) {
-            sqlBuild.append(" AND coalesce(wdc.gb_status, wdc.status) = 'OFF'");
+            sqlBuild.append(" AND wdc.effective_status = 'OFF'");
         }
         if (params.get("dataType") != null) {
             sqlBuild.append(" AND wdc.data_type = #{dataType}");
@@ -435,19 +445,19 @@ public class ChannelProvider {
     public String queryListByParentForUnusual(Map<String, Object> params ){
         StringBuilder sqlBuild = new StringBuilder();
         sqlBuild.append(BASE_SQL_TABLE_NAME);
-        sqlBuild.append(" left join (select wcg.device_id from wvp_common_group wcg) temp on temp.device_id = coalesce(wdc.gb_parent_id, wdc.parent_id)" +
-                " where coalesce(wdc.gb_parent_id, wdc.parent_id) is not null and temp.device_id is null ");
+        sqlBuild.append(" left join (select wcg.device_id from wvp_common_group wcg) temp on temp.device_id = wdc.effective_parent_id" +
+                " where wdc.effective_parent_id is not null and temp.device_id is null ");
         sqlBuild.append(" AND wdc.channel_type = 0 ");
         if (params.get("query") != null) {
-            sqlBuild.append(" AND (coalesce(wdc.gb_device_id, wdc.device_id) LIKE concat('%',#{query},'%') escape '/'" +
-                    " OR coalesce(wdc.gb_name, wdc.name) LIKE concat('%',#{query},'%') escape '/' )")
+            sqlBuild.append(" AND (wdc.effective_device_id LIKE concat('%',#{query},'%') escape '/'" +
+                    " OR wdc.effective_name LIKE concat('%',#{query},'%') escape '/' )")
             ;
         }
         if (params.get("online") != null && (Boolean)params.get("online")) {
-            sqlBuild.append(" AND coalesce(wdc.gb_status, wdc.status) = 'ON'");
+            sqlBuild.append(" AND wdc.effective_status = 'ON'");
         }
         if (params.get("online") != null && !(Boolean)params.get("online")) {
-            sqlBuild.append(" AND coalesce(wdc.gb_status, wdc.status) = 'OFF'");
+            sqlBuild.append(" AND wdc.effective_status = 'OFF'");
         }
         if (params.get("dataType") != null) {
             sqlBuild.append(" AND wdc.data_type = #{dataType}");
@@ -458,8 +468,8 @@ public class ChannelProvider {
     public String queryAllForUnusualCivilCode(Map<String, Object> params ){
         StringBuilder sqlBuild = new StringBuilder();
         sqlBuild.append("select wdc.id from wvp_device_channel wdc ");
-        sqlBuild.append(" left join (select wcr.device_id from wvp_common_region wcr) temp on temp.device_id = coalesce(wdc.gb_civil_code, wdc.civil_code)" +
-                " where coalesce(wdc.gb_civil_code, wdc.civil_code) is not null and temp.device_id is null ");
+        sqlBuild.append(" left join (select wcr.device_id from wvp_common_region wcr) temp on temp.device_id = wdc.effective_civil_code" +
+                " where wdc.effective_civil_code is not null and temp.device_id is null ");
         sqlBuild.append(" AND wdc.channel_type = 0 ");
         return sqlBuild.toString();
     }
@@ -467,8 +477,8 @@ public class ChannelProvider {
     public String queryAllForUnusualParent(Map<String, Object> params ){
         StringBuilder sqlBuild = new StringBuilder();
         sqlBuild.append("select wdc.id from wvp_device_channel wdc ");
-        sqlBuild.append(" left join (select wcg.device_id from wvp_common_group wcg) temp on temp.device_id = coalesce(wdc.gb_parent_id, wdc.parent_id)" +
-                " where coalesce(wdc.gb_parent_id, wdc.parent_id) is not null and temp.device_id is null ");
+        sqlBuild.append(" left join (select wcg.device_id from wvp_common_group wcg) temp on temp.device_id = wdc.effective_parent_id" +
+                " where wdc.effective_parent_id is not null and temp.device_id is null ");
         sqlBuild.append(" AND wdc.channel_type = 0 ");
         return sqlBuild.toString();
     }
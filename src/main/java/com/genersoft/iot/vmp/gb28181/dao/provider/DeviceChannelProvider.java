@@ -63,24 +63,24 @@ public class DeviceChannelProvider {
         sqlBuild.append(getBaseSelectSql());
         sqlBuild.append(" where data_type = " + ChannelDataType.GB28181.value + " and dc.data_device_id = #{dataDeviceId} ");
         if (params.get("businessGroupId") != null ) {
-            sqlBuild.append(" AND coalesce(dc.gb_business_group_id, dc.business_group_id)=#{businessGroupId} AND coalesce(dc.gb_parent_id, dc.parent_id) is null");
+            sqlBuild.append(" AND dc.effective_business_group_id=#{businessGroupId} AND dc.effective_parent_id is null");
         }else if (params.get("parentChannelId") != null ) {
-            sqlBuild.append(" AND coalesce(dc.gb_parent_id, dc.parent_id)=#{parentChannelId}");
+            sqlBuild.append(" AND dc.effective_parent_id=#{parentChannelId}");
         }
         if (params.get("civilCode") != null ) {
-            sqlBuild.append(" AND (coalesce(dc.gb_civil_code, dc.civil_code) = #{civilCode} " +
-                    "OR (LENGTH(coalesce(dc.gb_device_id, dc.device_id))=LENGTH(#{civilCode}) + 2) AND coalesce(dc.gb_device_id, dc.device_id) LIKE concat(#{civilCode},'%'))");
+            sqlBuild.append(" AND (dc.effective_civil_code = #{civilCode} " +
+                    "OR (LENGTH(dc.effective_device_id)=LENGTH(#{civilCode}) + 2) AND dc.effective_device_id LIKE concat(#{civilCode},'%'))");
         }
         if (params.get("query") != null && !ObjectUtils.isEmpty(params.get("query"))) {
-            sqlBuild.append(" AND (coalesce(dc.gb_device_id, dc.device_id) LIKE concat('%',#{query},'%') escape '/'" +
-                    " OR coalesce(dc.gb_name, dc.name) LIKE concat('%',#{query},'%') escape '/')")
+            sqlBuild.append(" AND (dc.effective_device_id LIKE concat('%',#{query},'%') escape '/'" +
+                    " OR dc.effective_name LIKE concat('%',#{query},'%') escape '/')")
             ;
         }
         if (params.get("online") != null && (Boolean)params.get("online")) {
-            sqlBuild.append(" AND coalesce(gb_status, status) = 'ON'");
+            sqlBuild.append(" AND effective_status = 'ON'");
         }
         if (params.get("online") != null && !(Boolean)params.get("online")) {
-            sqlBuild.append(" AND coalesce(gb_status, status) = 'OFF'");
+            sqlBuild.append(" AND effective_status = 'OFF'");
         }
         if (params.get("hasSubChannel") != null && (Boolean)params.get("hasSubChannel")) {
             sqlBuild.append(" AND dc.sub_count > 0");
@@ -130,14 +130,14 @@ public class DeviceChannelProvider {
     public String getOneByDeviceId(Map<String, Object> params ){
         StringBuilder sqlBuild = new StringBuilder();
         sqlBuild.append(getBaseSelectSql());
-        sqlBuild.append(" where data_type = " + ChannelDataType.GB28181.value + " and dc.data_device_id=#{dataDeviceId} and coalesce(dc.gb_device_id, dc.device_id) = #{channelId}");
+        sqlBuild.append(" where data_type = " + ChannelDataType.GB28181.value + " and dc.data_device_id=#{dataDeviceId} and dc.effective_device_id = #{channelId}");
         return sqlBuild.toString();
     }
 
 
 
     public String queryByDeviceId(Map<String, Object> params ){
-        return getBaseSelectSql() + " where data_type = " + ChannelDataType.GB28181.value + " and channel_type = 0 and coalesce(gb_device_id, device_id) = #{gbDeviceId}";
+        return getBaseSelectSql() + " where data_type = " + ChannelDataType.GB28181.value + " and channel_type = 0 and effective_device_id = #{gbDeviceId}";
     }
 
     public String queryById(Map<String, Object> params ){
@@ -150,27 +150,27 @@ public class DeviceChannelProvider {
         sqlBuild.append(getBaseSelectSql());
         sqlBuild.append(" where channel_type = 0 and data_type = " + ChannelDataType.GB28181.value);
         if (params.get("query") != null) {
-            sqlBuild.append(" AND (coalesce(gb_device_id, device_id) LIKE concat('%',#{query},'%')" +
-                    " OR coalesce(gb_name, name) LIKE concat('%',#{query},'%') )")
+            sqlBuild.append(" AND (effective_device_id LIKE concat('%',#{query},'%')" +
+                    " OR effective_name LIKE concat('%',#{query},'%') )")
             ;
         }
         if (params.get("online") != null && (Boolean)params.get("online")) {
-            sqlBuild.append(" AND coalesce(gb_status, status) = 'ON'");
+            sqlBuild.append(" AND effective_status = 'ON'");
         }
         if (params.get("online") != null && !(Boolean)params.get("online")) {
-            sqlBuild.append(" AND coalesce(gb_status, status) = 'OFF'");
+            sqlBuild.append(" AND effective_status = 'OFF'");
         }
         if (params.get("hasCivilCode") != null && (Boolean)params.get("hasCivilCode")) {
-            sqlBuild.append(" AND coalesce(gb_civil_code, civil_code) is not null");
+            sqlBuild.append(" AND effective_civil_code is not null");
         }
         if (params.get("hasCivilCode") != null && !(Boolean)params.get("hasCivilCode")) {
-            sqlBuild.append(" AND coalesce(gb_civil_code, civil_code) is null");
+            sqlBuild.append(" AND effective_civil_code is null");
         }
         if (params.get("hasGroup") != null && (Boolean)params.get("hasGroup")) {
-            sqlBuild.append(" AND coalesce(gb_parent_id, parent_id) is not null");
+            sqlBuild.append(" AND effective_parent_id is not null");
         }
         if (params.get("hasGroup") != null && !(Boolean)params.get("hasGroup")) {
-            sqlBuild.append(" AND coalesce(gb_parent_id, parent_id) is null");
+            sqlBuild.append(" AND effective_parent_id is null");
         }
         return sqlBuild.toString();
     }
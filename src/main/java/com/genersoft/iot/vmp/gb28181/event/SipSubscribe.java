@@ -1,64 +1,200 @@
 package com.genersoft.iot.vmp.gb28181.event;
 
+import com.genersoft.iot.vmp.common.LatencyInfo;
 import com.genersoft.iot.vmp.gb28181.bean.DeviceNotFoundEvent;
 import com.genersoft.iot.vmp.gb28181.bean.SipSendFailEvent;
+import com.genersoft.iot.vmp.gb28181.bean.SipSubscribeInfo;
 import com.genersoft.iot.vmp.gb28181.event.sip.SipEvent;
+import com.genersoft.iot.vmp.utils.LatencyHistogram;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import gov.nist.javax.sip.message.SIPRequest;
 import gov.nist.javax.sip.message.SIPResponse;
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timeout;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.ObjectUtils;
-import org.springframework.scheduling.annotation.Scheduled;
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.sip.DialogTerminatedEvent;
 import javax.sip.ResponseEvent;
 import javax.sip.TimeoutEvent;
 import javax.sip.TransactionTerminatedEvent;
 import javax.sip.header.WarningHeader;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.DelayQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
+ * 等待回复的SIP事务，key为Call-ID+CSeq
+ * 每个事务在时间轮上挂一个超时定时器，收到回复时直接取消，超时的回调交给线程池执行
  * @author lin
  */
 @Slf4j
 @Component
 public class SipSubscribe {
 
+    /**
+     * 时间轮每格的时长，单位：毫秒
+     */
+    private static final long TICK_DURATION = 10;
+
     private final Map<String, SipEvent> subscribes = new ConcurrentHashMap<>();
 
-    private final DelayQueue<SipEvent> delayQueue = new DelayQueue<>();
+    /**
+     * 各请求方法等待回复的事务数
+     */
+    private final Map<String, AtomicLong> inFlightMap = new ConcurrentHashMap<>();
+
+    private final AtomicLong timeoutCount = new AtomicLong();
 
+    private final AtomicLong responseCount = new AtomicLong();
+
+    /**
+     * 各设备的回复耗时，长时间没有请求的设备自动移除
+     */
+    private final Cache<String, LatencyHistogram> latencyCache = CacheBuilder.newBuilder()
+            .maximumSize(100000)
+            .expireAfterAccess(1, TimeUnit.HOURS)
+            .build();
+
+    @Autowired
+    @Qualifier("taskExecutor")
+    private ThreadPoolTaskExecutor taskExecutor;
+
+    private HashedWheelTimer wheelTimer;
+
+    @PostConstruct
+    public void init() {
+        wheelTimer = new HashedWheelTimer(new BasicThreadFactory.Builder().namingPattern("sipSubscribe-wheel").daemon(true).build(),
+                TICK_DURATION, TimeUnit.MILLISECONDS, 512);
+        wheelTimer.start();
+    }
+
+    @PreDestroy
+    public void destroy() {
+        wheelTimer.stop();
+    }
 
-    @Scheduled(fixedDelay = 200)   //每200毫秒执行
-    public void execute(){
-        while (!delayQueue.isEmpty()) {
+    private void onTimeout(SipEvent sipEvent) {
+        // 只有仍然是当前订阅时才触发，已经收到回复或者被替换的忽略
+        if (!subscribes.remove(sipEvent.getKey(), sipEvent)) {
+            return;
+        }
+        decrementInFlight(sipEvent);
+        timeoutCount.incrementAndGet();
+        if (sipEvent.getErrorEvent() == null) {
+            return;
+        }
+        // 回调中可能有数据库、redis等操作，不能占用时间轮的线程
+        taskExecutor.execute(() -> {
+            EventResult<Object> eventResult = new EventResult<>();
+            eventResult.type = EventResultType.timeout;
+            eventResult.msg = "消息超时未回复";
+            eventResult.statusCode = -1024;
             try {
-                SipEvent take = delayQueue.take();
-                // 出现超时异常
-                if(take.getErrorEvent() != null) {
-                    EventResult<Object> eventResult = new EventResult<>();
-                    eventResult.type = EventResultType.timeout;
-                    eventResult.msg = "消息超时未回复";
-                    eventResult.statusCode = -1024;
-                    take.getErrorEvent().response(eventResult);
-                }
-                subscribes.remove(take.getKey());
-            } catch (InterruptedException e) {
-                throw new RuntimeException(e);
+                sipEvent.getErrorEvent().response(eventResult);
+            } catch (Exception e) {
+                log.error("[SIP消息超时] 处理超时回调异常 ", e);
             }
-        }
+        });
+    }
+
+    private Timeout newTimeout(SipEvent sipEvent) {
+        return wheelTimer.newTimeout(timeout -> onTimeout(sipEvent), Math.max(sipEvent.getDelay(), 0), TimeUnit.MILLISECONDS);
     }
 
-    public void updateTimeout(String callId) {
-        SipEvent sipEvent = subscribes.get(callId);
+    /**
+     * 收到临时回复(1xx)时重新计算超时时间
+     */
+    public void updateTimeout(String key) {
+        SipEvent sipEvent = subscribes.get(key);
         if (sipEvent != null) {
-            delayQueue.remove(sipEvent);
-            delayQueue.offer(sipEvent);
+            Timeout timeout = sipEvent.getTimeout();
+            if (timeout != null && timeout.cancel()) {
+                sipEvent.setTimeout(newTimeout(sipEvent));
+            }
         }
     }
 
+    /**
+     * 记录收到回复的耗时
+     */
+    public void recordResponse(SipEvent sipEvent) {
+        if (sipEvent == null) {
+            return;
+        }
+        responseCount.incrementAndGet();
+        if (ObjectUtils.isEmpty(sipEvent.getDeviceId())) {
+            return;
+        }
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - sipEvent.getCreateTime());
+        try {
+            latencyCache.get(sipEvent.getDeviceId(), LatencyHistogram::new).record(millis);
+        } catch (Exception ignored) {
+        }
+    }
+
+    private void incrementInFlight(SipEvent sipEvent) {
+        inFlightMap.computeIfAbsent(methodOf(sipEvent), key -> new AtomicLong()).incrementAndGet();
+    }
+
+    private void decrementInFlight(SipEvent sipEvent) {
+        AtomicLong counter = inFlightMap.get(methodOf(sipEvent));
+        if (counter != null) {
+            counter.decrementAndGet();
+        }
+    }
+
+    private static String methodOf(SipEvent sipEvent) {
+        return sipEvent.getMethod() == null ? "UNKNOWN" : sipEvent.getMethod();
+    }
+
+    public SipSubscribeInfo getInfo() {
+        SipSubscribeInfo info = new SipSubscribeInfo();
+        info.setInFlightCount(subscribes.size());
+        Map<String, Long> byMethod = new HashMap<>();
+        for (Map.Entry<String, AtomicLong> entry : inFlightMap.entrySet()) {
+            byMethod.put(entry.getKey(), entry.getValue().get());
+        }
+        info.setInFlightByMethod(byMethod);
+        info.setTimeoutCount(timeoutCount.get());
+        info.setResponseCount(responseCount.get());
+        return info;
+    }
+
+    /**
+     * 获取设备的回复耗时
+     * @param deviceId 设备编号，为空时返回平均耗时最高的设备
+     * @param count 为空时返回的设备数量
+     */
+    public List<LatencyInfo> getLatencyList(String deviceId, int count) {
+        List<LatencyInfo> result = new ArrayList<>();
+        if (!ObjectUtils.isEmpty(deviceId)) {
+            LatencyHistogram histogram = latencyCache.getIfPresent(deviceId);
+            if (histogram != null) {
+                result.add(histogram.toInfo(deviceId));
+            }
+            return result;
+        }
+        for (Map.Entry<String, LatencyHistogram> entry : latencyCache.asMap().entrySet()) {
+            result.add(entry.getValue().toInfo(entry.getKey()));
+        }
+        result.sort(Comparator.comparingDouble(LatencyInfo::getAvgMs).reversed());
+        return result.size() > count ? new ArrayList<>(result.subList(0, count)) : result;
+    }
+
     public interface Event { void response(EventResult eventResult);
     }
 
@@ -162,13 +298,12 @@ public class SipSubscribe {
 
 
     public void addSubscribe(String key, SipEvent event) {
-        SipEvent sipEvent = subscribes.get(key);
-        if (sipEvent != null) {
-            subscribes.remove(key);
-            delayQueue.remove(sipEvent);
+        SipEvent old = subscribes.put(key, event);
+        if (old != null) {
+            cancel(old);
         }
-        subscribes.put(key, event);
-        delayQueue.offer(event);
+        incrementInFlight(event);
+        event.setTimeout(newTimeout(event));
     }
 
     public SipEvent getSubscribe(String key) {
@@ -179,11 +314,18 @@ public class SipSubscribe {
         if(key == null){
             return;
         }
-        SipEvent sipEvent = subscribes.get(key);
+        SipEvent sipEvent = subscribes.remove(key);
         if (sipEvent != null) {
-            subscribes.remove(key);
-            delayQueue.remove(sipEvent);
+            cancel(sipEvent);
+        }
+    }
+
+    private void cancel(SipEvent sipEvent) {
+        Timeout timeout = sipEvent.getTimeout();
+        if (timeout != null) {
+            timeout.cancel();
         }
+        decrementInFlight(sipEvent);
     }
 
     public boolean isEmpty(){
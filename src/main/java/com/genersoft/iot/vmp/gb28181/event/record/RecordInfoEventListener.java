@@ -36,7 +36,7 @@ public class RecordInfoEventListener implements ApplicationListener<RecordInfoEv
                     event.getRecordInfo().getDeviceId(), event.getRecordInfo().getChannelId());
             if (handler !=null){
                 handler.handler(event.getRecordInfo());
-                if (count ==sumNum){
+                if (count >= sumNum){
                     handlerMap.remove(deviceId + channelId);
                 }
             }
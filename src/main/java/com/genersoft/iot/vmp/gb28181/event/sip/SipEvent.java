@@ -1,17 +1,24 @@
 package com.genersoft.iot.vmp.gb28181.event.sip;
 
 import com.genersoft.iot.vmp.gb28181.event.SipSubscribe;
+import io.netty.util.Timeout;
 import lombok.Data;
-import org.jetbrains.annotations.NotNull;
-
-import java.util.concurrent.Delayed;
-import java.util.concurrent.TimeUnit;
 
 @Data
-public class SipEvent implements Delayed {
+public class SipEvent {
 
     private String key;
 
+    /**
+     * 请求的方法，如MESSAGE、INVITE
+     */
+    private String method;
+
+    /**
+     * 请求发往的设备/平台编号
+     */
+    private String deviceId;
+
     /**
      * 成功的回调
      */
@@ -27,22 +34,23 @@ public class SipEvent implements Delayed {
      */
     private long delay;
 
+    /**
+     * 创建时间，System.nanoTime()，用于统计回复耗时
+     */
+    private long createTime;
+
+    /**
+     * 超时定时器，收到回复时取消
+     */
+    private volatile Timeout timeout;
+
     public static SipEvent getInstance(String key, SipSubscribe.Event okEvent, SipSubscribe.Event errorEvent, long delay) {
         SipEvent sipEvent = new SipEvent();
         sipEvent.setKey(key);
         sipEvent.setOkEvent(okEvent);
         sipEvent.setErrorEvent(errorEvent);
-        sipEvent.setDelay(System.currentTimeMillis() + delay);
+        sipEvent.setDelay(delay);
+        sipEvent.setCreateTime(System.nanoTime());
         return sipEvent;
     }
-
-    @Override
-    public long getDelay(@NotNull TimeUnit unit) {
-        return unit.convert(delay - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
-    }
-
-    @Override
-    public int compareTo(@NotNull Delayed o) {
-        return (int) (this.getDelay(TimeUnit.MILLISECONDS) - o.getDelay(TimeUnit.MILLISECONDS));
-    }
 }
@@ -98,10 +98,11 @@ public interface IDeviceService {
     boolean expire(Device device);
 
     /**
-     * 检查设备状态
+     * 检查设备状态，结果异步返回
      * @param device 设备信息
+     * @param callback 设备在线时为true，离线或超时未回复为false，命令发送失败为null
      */
-    Boolean getDeviceStatus(Device device);
+    void getDeviceStatus(Device device, CommonCallback<Boolean> callback);
 
     /**
      * 根据IP和端口获取设备信息
@@ -117,6 +118,13 @@ public interface IDeviceService {
      */
     void updateDevice(Device device);
 
+    /**
+     * 批量更新在线设备的心跳时间， 并刷新设备的过期任务
+     * @param devices 只更新了心跳时间的设备
+     * @param changedDevices 心跳时地址发生变化的设备，完整更新一次
+     */
+    void updateDevicesForKeepalive(List<Device> devices, List<Device> changedDevices);
+
     /**
      * 检查设备编号是否已经存在
      * @param deviceId 设备编号
@@ -5,6 +5,7 @@ import com.genersoft.iot.vmp.common.InviteInfo;
 import com.genersoft.iot.vmp.common.InviteSessionType;
 import com.genersoft.iot.vmp.common.enums.ChannelDataType;
 import com.genersoft.iot.vmp.common.enums.DeviceControlType;
+import com.genersoft.iot.vmp.conf.DynamicTask;
 import com.genersoft.iot.vmp.conf.UserSetting;
 import com.genersoft.iot.vmp.conf.exception.ControllerException;
 import com.genersoft.iot.vmp.gb28181.bean.*;
@@ -21,6 +22,7 @@ import com.genersoft.iot.vmp.gb28181.service.IInviteStreamService;
 import com.genersoft.iot.vmp.gb28181.service.IPlatformChannelService;
 import com.genersoft.iot.vmp.gb28181.transmit.cmd.ISIPCommander;
 import com.genersoft.iot.vmp.gb28181.utils.SipUtils;
+import com.genersoft.iot.vmp.service.IMobilePositionService;
 import com.genersoft.iot.vmp.service.bean.ErrorCallback;
 import com.genersoft.iot.vmp.service.redisMsg.IRedisRpcPlayService;
 import com.genersoft.iot.vmp.storager.IRedisCatchStorage;
@@ -32,6 +34,7 @@ import com.github.pagehelper.PageHelper;
 import com.github.pagehelper.PageInfo;
 import lombok.extern.slf4j.Slf4j;
 import org.dom4j.Element;
+import org.springframework.beans.BeanUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
@@ -47,8 +50,6 @@ import javax.validation.constraints.NotNull;
 import java.text.ParseException;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.SynchronousQueue;
-import java.util.concurrent.TimeUnit;
 
 import static com.genersoft.iot.vmp.gb28181.utils.XmlUtil.getText;
 
@@ -59,6 +60,22 @@ import static com.genersoft.iot.vmp.gb28181.utils.XmlUtil.getText;
 @Service
 public class DeviceChannelServiceImpl implements IDeviceChannelService {
 
+    /**
+     * 批量写入时每批的最大通道数
+     */
+    private static final int BATCH_LIMIT_COUNT = 500;
+
+    /**
+     * 单条sql的最大参数个数
+     */
+    private static final int MAX_PARAMS_PER_STATEMENT = 30000;
+
+    /**
+     * batchAdd/batchUpdate中每个通道占用的参数个数
+     */
+    private static final int ADD_PARAMS_PER_CHANNEL = 44;
+    private static final int UPDATE_PARAMS_PER_CHANNEL = 44;
+
     @Autowired
     private EventPublisher eventPublisher;
 
@@ -77,6 +94,9 @@ public class DeviceChannelServiceImpl implements IDeviceChannelService {
     @Autowired
     private DeviceMobilePositionMapper deviceMobilePositionMapper;
 
+    @Autowired
+    private IMobilePositionService mobilePositionService;
+
     @Autowired
     private UserSetting userSetting;
 
@@ -92,8 +112,11 @@ public class DeviceChannelServiceImpl implements IDeviceChannelService {
     @Autowired
     private ISIPCommander commander;
 
-    // 记录录像查询的结果等待
-    private final Map<String, SynchronousQueue<RecordInfo>> topicSubscribers = new ConcurrentHashMap<>();
+    @Autowired
+    private DynamicTask dynamicTask;
+
+    // 记录录像查询的结果等待，不在sip消息的处理线程中阻塞等待，超时由延时任务处理
+    private final Map<String, ErrorCallback<RecordInfo>> topicSubscribers = new ConcurrentHashMap<>();
 
     /**
      * 监听录像查询结束事件
@@ -101,9 +124,11 @@ public class DeviceChannelServiceImpl implements IDeviceChannelService {
     @Async("taskExecutor")
     @org.springframework.context.event.EventListener
     public void onApplicationEvent(RecordInfoEndEvent event) {
-        SynchronousQueue<RecordInfo> queue = topicSubscribers.get("record" + event.getRecordInfo().getSn());
-        if (queue != null) {
-            queue.offer(event.getRecordInfo());
+        String key = "record" + event.getRecordInfo().getSn();
+        ErrorCallback<RecordInfo> callback = topicSubscribers.remove(key);
+        if (callback != null) {
+            dynamicTask.stop(key);
+            callback.run(ErrorCode.SUCCESS.getCode(), ErrorCode.SUCCESS.getMsg(), event.getRecordInfo());
         }
     }
 
@@ -435,22 +460,25 @@ public class DeviceChannelServiceImpl implements IDeviceChannelService {
 
     @Override
     public void updateChannelGPS(Device device, DeviceChannel deviceChannel, MobilePosition mobilePosition) {
-        if (userSetting.getSavePositionHistory()) {
-            deviceMobilePositionMapper.insertNewPosition(mobilePosition);
-        }
-
-        if (deviceChannel.getDeviceId().equals(device.getDeviceId())) {
-            deviceChannel.setDeviceId(null);
-        }
         if (deviceChannel.getGpsTime() == null) {
             deviceChannel.setGpsTime(DateUtil.getNow());
         }
-
-        int updated = channelMapper.updatePosition(deviceChannel);
-        if (updated == 0) {
+        // 历史轨迹和通道位置由写入队列批量入库，后面发送通知时会修改通道ID，这里放入副本
+        MobilePosition positionForSave = new MobilePosition();
+        BeanUtils.copyProperties(mobilePosition, positionForSave);
+        positionForSave.setChannelId(deviceChannel.getId());
+        if (positionForSave.getTime() == null) {
+            positionForSave.setTime(deviceChannel.getGpsTime());
+        }
+        if (!mobilePositionService.add(positionForSave)) {
+            // 重复上报，不再重复通知；队列已满时只丢弃入库，通知照常发送
             return;
         }
 
+        if (deviceChannel.getDeviceId().equals(device.getDeviceId())) {
+            deviceChannel.setDeviceId(null);
+        }
+
         List<DeviceChannel> deviceChannels = new ArrayList<>();
         if (deviceChannel.getDeviceId() == null) {
             // 有的设备这里上报的deviceId与通道Id是一样，这种情况更新设备下的全部通道
@@ -561,6 +589,8 @@ public class DeviceChannelServiceImpl implements IDeviceChannelService {
         }
         // 数据去重
         List<DeviceChannel> channels = new ArrayList<>();
+        // 数据库中已经存在的通道，与收到的通道一一对应
+        List<DeviceChannel> existChannels = new ArrayList<>();
 
         List<DeviceChannel> updateChannels = new ArrayList<>();
         List<DeviceChannel> addChannels = new ArrayList<>();
@@ -569,27 +599,17 @@ public class DeviceChannelServiceImpl implements IDeviceChannelService {
         Map<String, Integer> subContMap = new HashMap<>();
 
         for (DeviceChannel deviceChannel : deviceChannelList) {
-            DeviceChannel channelInDb = allChannelMap.get(deviceChannel.getDataDeviceId() + deviceChannel.getDeviceId());
+            DeviceChannel channelInDb = allChannelMap.remove(deviceChannel.getDataDeviceId() + deviceChannel.getDeviceId());
             if (channelInDb != null) {
                 deviceChannel.setStreamId(channelInDb.getStreamId());
                 deviceChannel.setHasAudio(channelInDb.isHasAudio());
                 deviceChannel.setId(channelInDb.getId());
-                if (channelInDb.getStatus() != null && channelInDb.getStatus().equalsIgnoreCase(deviceChannel.getStatus())){
-                    List<Platform> platformList = platformChannelMapper.queryParentPlatformByChannelId(deviceChannel.getDeviceId());
-                    if (!CollectionUtils.isEmpty(platformList)){
-                        platformList.forEach(platform->{
-                            eventPublisher.catalogEventPublish(platform, deviceChannel.buildCommonGBChannelForStatus(), deviceChannel.getStatus().equals("ON")? CatalogEvent.ON:CatalogEvent.OFF);
-                        });
-                    }
-                }
-                deviceChannel.setUpdateTime(DateUtil.getNow());
-                updateChannels.add(deviceChannel);
+                existChannels.add(channelInDb);
             }else {
                 deviceChannel.setCreateTime(DateUtil.getNow());
                 deviceChannel.setUpdateTime(DateUtil.getNow());
                 addChannels.add(deviceChannel);
             }
-            allChannelMap.remove(deviceChannel.getDataDeviceId() + deviceChannel.getDeviceId());
             channels.add(deviceChannel);
             if (!ObjectUtils.isEmpty(deviceChannel.getParentId())) {
                 if (subContMap.get(deviceChannel.getParentId()) == null) {
@@ -620,34 +640,42 @@ public class DeviceChannelServiceImpl implements IDeviceChannelService {
             log.info("通道重设，数据为空={}" , deviceChannelList);
             return false;
         }
-        int limitCount = 500;
-        if (!addChannels.isEmpty()) {
-            if (addChannels.size() > limitCount) {
-                for (int i = 0; i < addChannels.size(); i += limitCount) {
-                    int toIndex = i + limitCount;
-                    if (i + limitCount > addChannels.size()) {
-                        toIndex = addChannels.size();
-                    }
-                    channelMapper.batchAdd(addChannels.subList(i, toIndex));
+        // 只更新内容发生变化的通道
+        int existIndex = 0;
+        for (DeviceChannel deviceChannel : channels) {
+            if (deviceChannel.getId() == 0) {
+                continue;
+            }
+            DeviceChannel channelInDb = existChannels.get(existIndex++);
+            if (deviceChannel.catalogFingerprint() == channelInDb.catalogFingerprint()) {
+                continue;
+            }
+            if (channelInDb.getStatus() == null || !channelInDb.getStatus().equalsIgnoreCase(deviceChannel.getStatus())){
+                List<Platform> platformList = platformChannelMapper.queryParentPlatformByChannelId(deviceChannel.getDeviceId());
+                if (!CollectionUtils.isEmpty(platformList) && deviceChannel.getStatus() != null){
+                    platformList.forEach(platform->{
+                        eventPublisher.catalogEventPublish(platform, deviceChannel.buildCommonGBChannelForStatus(), deviceChannel.getStatus().equals("ON")? CatalogEvent.ON:CatalogEvent.OFF);
+                    });
                 }
-            }else {
-                channelMapper.batchAdd(addChannels);
+            }
+            // 目录中不包含的字段保留数据库中的值
+            deviceChannel.setGpsTime(channelInDb.getGpsTime());
+            deviceChannel.setStreamIdentification(channelInDb.getStreamIdentification());
+            deviceChannel.setUpdateTime(DateUtil.getNow());
+            updateChannels.add(deviceChannel);
+        }
+        log.info("[通道重设] 设备: {}, 新增: {}, 更新: {}, 删除: {}, 未变化: {}", deviceDbId, addChannels.size(),
+                updateChannels.size(), deleteChannels.size(), existChannels.size() - updateChannels.size());
+
+        if (!addChannels.isEmpty()) {
+            for (List<DeviceChannel> batch : partition(addChannels, ADD_PARAMS_PER_CHANNEL)) {
+                channelMapper.batchAdd(batch);
             }
         }
         if (!updateChannels.isEmpty()) {
-            if (updateChannels.size() > limitCount) {
-                for (int i = 0; i < updateChannels.size(); i += limitCount) {
-                    int toIndex = i + limitCount;
-                    if (i + limitCount > updateChannels.size()) {
-                        toIndex = updateChannels.size();
-                    }
-                    channelMapper.batchUpdate(updateChannels.subList(i, toIndex));
-                }
-            }else {
-                channelMapper.batchUpdate(updateChannels);
+            for (List<DeviceChannel> batch : partition(updateChannels, UPDATE_PARAMS_PER_CHANNEL)) {
+                channelMapper.batchUpdate(batch);
             }
-            // 不对收到的通道做比较，已确定是否真的发生变化，所以不发送更新通知
-
         }
         if (!deleteChannels.isEmpty()) {
             try {
@@ -660,22 +688,27 @@ public class DeviceChannelServiceImpl implements IDeviceChannelService {
             }catch (Exception e) {
                 log.error("[移除通道国标级联共享失败]", e);
             }
-            if (deleteChannels.size() > limitCount) {
-                for (int i = 0; i < deleteChannels.size(); i += limitCount) {
-                    int toIndex = i + limitCount;
-                    if (i + limitCount > deleteChannels.size()) {
-                        toIndex = deleteChannels.size();
-                    }
-                    channelMapper.batchDel(deleteChannels.subList(i, toIndex));
-                }
-            }else {
-                channelMapper.batchDel(deleteChannels);
+            for (List<DeviceChannel> batch : partition(deleteChannels, 1)) {
+                channelMapper.batchDel(batch);
             }
         }
         return true;
 
     }
 
+    /**
+     * 按照单条sql的参数个数上限分批，postgresql单条语句的参数不能超过32767个
+     * @param paramsPerChannel 每个通道占用的参数个数
+     */
+    private static List<List<DeviceChannel>> partition(List<DeviceChannel> channels, int paramsPerChannel) {
+        int limitCount = Math.max(1, Math.min(BATCH_LIMIT_COUNT, MAX_PARAMS_PER_STATEMENT / paramsPerChannel));
+        List<List<DeviceChannel>> result = new ArrayList<>();
+        for (int i = 0; i < channels.size(); i += limitCount) {
+            result.add(channels.subList(i, Math.min(i + limitCount, channels.size())));
+        }
+        return result;
+    }
+
     @Override
     public PageInfo<DeviceChannel> getSubChannels(int deviceDbId, String channelId, String query, Boolean channelType, Boolean online, int page, int count) {
         PageHelper.startPage(page, count);
@@ -785,25 +818,18 @@ public class DeviceChannelServiceImpl implements IDeviceChannelService {
             redisRpcPlayService.queryRecordInfo(device.getServerId(), channel.getId(), startTime, endTime, callback);
             return;
         }
+        int sn  =  (int)((Math.random()*9+1)*100000);
+        String key = "record" + sn;
         try {
-            int sn  =  (int)((Math.random()*9+1)*100000);
             commander.recordInfoQuery(device, channel.getDeviceId(), startTime, endTime, sn, null, null, eventResult -> {
-                try {
-                    // 消息发送成功, 监听等待数据到来
-                    SynchronousQueue<RecordInfo> queue = new SynchronousQueue<>();
-                    topicSubscribers.put("record" + sn, queue);
-                    RecordInfo recordInfo = queue.poll(userSetting.getRecordInfoTimeout(), TimeUnit.MILLISECONDS);
-                    if (recordInfo != null) {
-                        callback.run(ErrorCode.SUCCESS.getCode(), ErrorCode.SUCCESS.getMsg(), recordInfo);
-                    }else {
-                        callback.run(ErrorCode.ERROR100.getCode(), ErrorCode.ERROR100.getMsg(), recordInfo);
+                // 消息发送成功, 监听等待数据到来
+                topicSubscribers.put(key, callback);
+                dynamicTask.startDelay(key, () -> {
+                    ErrorCallback<RecordInfo> timeoutCallback = topicSubscribers.remove(key);
+                    if (timeoutCallback != null) {
+                        timeoutCallback.run(ErrorCode.ERROR100.getCode(), ErrorCode.ERROR100.getMsg(), null);
                     }
-                } catch (InterruptedException e) {
-                    callback.run(ErrorCode.ERROR100.getCode(), e.getMessage(), null);
-                } finally {
-                    this.topicSubscribers.remove("record" + sn);
-                }
-
+                }, userSetting.getRecordInfoTimeout());
             }, (eventResult -> {
                 callback.run(ErrorCode.ERROR100.getCode(), "查询录像失败, status: " +  eventResult.statusCode + ", message: " + eventResult.msg, null);
             }));
@@ -34,6 +34,8 @@ import com.github.pagehelper.PageHelper;
 import com.github.pagehelper.PageInfo;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.util.Assert;
@@ -44,8 +46,9 @@ import javax.validation.constraints.NotNull;
 import java.text.ParseException;
 import java.time.Instant;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
-import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -100,6 +103,20 @@ public class DeviceServiceImpl implements IDeviceService {
     @Autowired
     private IRedisRpcService redisRpcService;
 
+    @Autowired
+    @Qualifier("taskExecutor")
+    private ThreadPoolTaskExecutor taskExecutor;
+
+    /**
+     * 心跳批量写入数据库时每批的数量
+     */
+    private static final int KEEPALIVE_BATCH_SIZE = 500;
+
+    /**
+     * 设备最后一次心跳的时间，过期任务到期时根据此时间判断是否真正过期，心跳时无需重建定时任务
+     */
+    private final Map<String, Long> keepaliveTimeMap = new ConcurrentHashMap<>();
+
     private Device getDeviceByDeviceIdFromDb(String deviceId) {
         return deviceMapper.getDeviceByDeviceId(deviceId);
     }
@@ -187,13 +204,42 @@ public class DeviceServiceImpl implements IDeviceService {
         }
 
         // 刷新过期任务
-        String registerExpireTaskKey = VideoManagerConstants.REGISTER_EXPIRE_TASK_KEY_PREFIX + device.getDeviceId();
         // 如果第一次注册那么必须在60 * 3时间内收到一个心跳，否则设备离线
-        dynamicTask.startDelay(registerExpireTaskKey, ()-> offline(device.getDeviceId(), "三次心跳超时"),
-                device.getHeartBeatInterval() * 1000 * device.getHeartBeatCount());
+        startExpireTask(device, true);
+
+    }
+
+    /**
+     * 刷新设备的过期任务
+     * @param restart 是否重建定时任务，心跳间隔变化时需要重建，否则只记录心跳时间，由到期的任务自行顺延
+     */
+    private void startExpireTask(Device device, boolean restart) {
+        String deviceId = device.getDeviceId();
+        keepaliveTimeMap.put(deviceId, System.currentTimeMillis());
+        String registerExpireTaskKey = VideoManagerConstants.REGISTER_EXPIRE_TASK_KEY_PREFIX + deviceId;
+        if (!restart && dynamicTask.isAlive(registerExpireTaskKey)) {
+            return;
+        }
+        int timeout = device.getHeartBeatInterval() * 1000 * device.getHeartBeatCount();
+        dynamicTask.startDelay(registerExpireTaskKey, ()-> checkExpire(deviceId, timeout), timeout);
+    }
 
+    private void checkExpire(String deviceId, int timeout) {
+        Long keepaliveTime = keepaliveTimeMap.get(deviceId);
+        long remain = keepaliveTime == null ? 0 : keepaliveTime + timeout - System.currentTimeMillis();
+        if (remain > 0) {
+            // 期间收到过心跳，顺延
+            String registerExpireTaskKey = VideoManagerConstants.REGISTER_EXPIRE_TASK_KEY_PREFIX + deviceId;
+            dynamicTask.startDelay(registerExpireTaskKey, ()-> checkExpire(deviceId, timeout), (int) remain);
+            return;
+        }
+        offline(deviceId, "三次心跳超时");
     }
 
+    /**
+     * 离线前先主动查询设备状态，查询结果异步返回，不阻塞调用线程(SIP消息处理线程或定时任务线程)；
+     * 查询期间收到心跳或者重新注册时不再离线
+     */
     @Override
     public void offline(String deviceId, String reason) {
         Device device = getDeviceByDeviceIdFromDb(deviceId);
@@ -201,18 +247,30 @@ public class DeviceServiceImpl implements IDeviceService {
             log.warn("[设备不存在] device：{}", deviceId);
             return;
         }
-
+        long probeTime = System.currentTimeMillis();
         // 主动查询设备状态
-        Boolean deviceStatus = getDeviceStatus(device);
-        if (deviceStatus != null && deviceStatus) {
-            log.info("[设备离线] 主动探测发现设备在线，暂不处理  device：{}", deviceId);
-            online(device, null);
-            return;
-        }
+        getDeviceStatus(device, deviceStatus -> taskExecutor.execute(() -> {
+            Long keepaliveTime = keepaliveTimeMap.get(deviceId);
+            if (keepaliveTime != null && keepaliveTime > probeTime) {
+                log.info("[设备离线] 状态查询期间收到心跳，暂不处理  device：{}", deviceId);
+                return;
+            }
+            if (deviceStatus != null && deviceStatus) {
+                log.info("[设备离线] 主动探测发现设备在线，暂不处理  device：{}", deviceId);
+                online(device, null);
+                return;
+            }
+            doOffline(device, reason);
+        }));
+    }
+
+    private void doOffline(Device device, String reason) {
+        String deviceId = device.getDeviceId();
         log.info("[设备离线] {}, device：{}， 心跳间隔： {}，心跳超时次数： {}， 上次心跳时间：{}， 上次注册时间： {}", reason, deviceId,
                 device.getHeartBeatInterval(), device.getHeartBeatCount(), device.getKeepaliveTime(), device.getRegisterTime());
         String registerExpireTaskKey = VideoManagerConstants.REGISTER_EXPIRE_TASK_KEY_PREFIX + deviceId;
         dynamicTask.stop(registerExpireTaskKey);
+        keepaliveTimeMap.remove(deviceId);
         if (device.isOnLine()) {
             if (userSetting.getDeviceStatusNotify()) {
                 // 发送redis消息
@@ -418,23 +476,16 @@ public class DeviceServiceImpl implements IDeviceService {
     }
 
     @Override
-    public Boolean getDeviceStatus(@NotNull Device device) {
-        SynchronousQueue<String> queue = new SynchronousQueue<>();
+    public void getDeviceStatus(@NotNull Device device, CommonCallback<Boolean> callback) {
         try {
+            // 回复、发送失败和超时都会回调，超时由MessageSubscribe处理
             sipCommander.deviceStatusQuery(device, ((code, msg, data) -> {
-                queue.offer(msg);
+                callback.run(data != null && "ONLINE".equalsIgnoreCase(data.trim()));
             }));
-            String data = queue.poll(10, TimeUnit.SECONDS);
-            if (data != null && "ONLINE".equalsIgnoreCase(data.trim())) {
-                return Boolean.TRUE;
-            }else {
-                return Boolean.FALSE;
-            }
-
-        } catch (InvalidArgumentException | SipException | ParseException | InterruptedException e) {
+        } catch (InvalidArgumentException | SipException | ParseException e) {
             log.error("[命令发送失败] 设备状态查询: {}", e.getMessage());
+            callback.run(null);
         }
-        return null;
     }
 
     @Override
@@ -454,6 +505,29 @@ public class DeviceServiceImpl implements IDeviceService {
         }
     }
 
+    @Override
+    public void updateDevicesForKeepalive(List<Device> devices, List<Device> changedDevices) {
+        for (Device device : changedDevices) {
+            updateDevice(device);
+            startExpireTask(device, false);
+        }
+        if (devices.isEmpty()) {
+            return;
+        }
+        String now = DateUtil.getNow();
+        for (int i = 0; i < devices.size(); i += KEEPALIVE_BATCH_SIZE) {
+            List<Device> subList = devices.subList(i, Math.min(i + KEEPALIVE_BATCH_SIZE, devices.size()));
+            deviceMapper.batchUpdateKeepalive(subList, now);
+        }
+        for (Device device : devices) {
+            device.setUpdateTime(now);
+        }
+        redisCatchStorage.updateDevicesForKeepalive(devices);
+        for (Device device : devices) {
+            startExpireTask(device, false);
+        }
+    }
+
     @Override
     public boolean isExist(String deviceId) {
         return getDeviceByDeviceIdFromDb(deviceId) != null;
@@ -503,6 +577,8 @@ public class DeviceServiceImpl implements IDeviceService {
         deviceChannelMapper.cleanChannelsByDeviceId(device.getId());
         deviceMapper.del(deviceId);
         redisCatchStorage.removeDevice(deviceId);
+        dynamicTask.stop(VideoManagerConstants.REGISTER_EXPIRE_TASK_KEY_PREFIX + deviceId);
+        keepaliveTimeMap.remove(deviceId);
         return true;
     }
 
@@ -625,10 +701,8 @@ public class DeviceServiceImpl implements IDeviceService {
         if (!Objects.equals(deviceInDb.getHeartBeatCount(), device.getHeartBeatCount())
                 || !Objects.equals(deviceInDb.getHeartBeatInterval(), device.getHeartBeatInterval())) {
             // 刷新过期任务
-            String registerExpireTaskKey = VideoManagerConstants.REGISTER_EXPIRE_TASK_KEY_PREFIX + device.getDeviceId();
             // 如果第一次注册那么必须在60 * 3时间内收到一个心跳，否则设备离线
-            dynamicTask.startDelay(registerExpireTaskKey, ()-> offline(device.getDeviceId(), "三次心跳超时"),
-                    device.getHeartBeatInterval() * 1000 * device.getHeartBeatCount());
+            startExpireTask(device, true);
             deviceInDb.setHeartBeatCount(device.getHeartBeatCount());
             deviceInDb.setHeartBeatInterval(device.getHeartBeatInterval());
             deviceInDb.setPositionCapability(device.getPositionCapability());
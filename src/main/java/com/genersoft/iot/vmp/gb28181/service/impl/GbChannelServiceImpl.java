@@ -12,6 +12,7 @@ import com.genersoft.iot.vmp.gb28181.event.subscribe.catalog.CatalogEvent;
 import com.genersoft.iot.vmp.gb28181.service.IDeviceChannelService;
 import com.genersoft.iot.vmp.gb28181.service.IGbChannelService;
 import com.genersoft.iot.vmp.gb28181.service.IPlatformChannelService;
+import com.genersoft.iot.vmp.gb28181.session.ChannelSearchIndex;
 import com.genersoft.iot.vmp.service.bean.ErrorCallback;
 import com.genersoft.iot.vmp.service.bean.GPSMsgInfo;
 import com.genersoft.iot.vmp.streamPush.bean.StreamPush;
@@ -42,6 +43,9 @@ public class GbChannelServiceImpl implements IGbChannelService {
     @Autowired
     private CommonGBChannelMapper commonGBChannelMapper;
 
+    @Autowired
+    private ChannelSearchIndex channelSearchIndex;
+
     @Autowired
     private PlatformChannelMapper platformChannelMapper;
 
@@ -395,25 +399,39 @@ public class GbChannelServiceImpl implements IGbChannelService {
 
     @Override
     public PageInfo<CommonGBChannel> queryListByCivilCode(int page, int count, String query, Boolean online, Integer channelType, String civilCode) {
+        List<Integer> ids = null;
+        if (query != null) {
+            ids = channelSearchIndex.search(query);
+            if (ids != null && ids.isEmpty()) {
+                return new PageInfo<>(new ArrayList<>());
+            }
+        }
         PageHelper.startPage(page, count);
         if (query != null) {
             query = query.replaceAll("/", "//")
                     .replaceAll("%", "/%")
                     .replaceAll("_", "/_");
         }
-        List<CommonGBChannel> all = commonGBChannelMapper.queryListByCivilCode(query, online, channelType, civilCode);
+        List<CommonGBChannel> all = commonGBChannelMapper.queryListByCivilCode(query, online, channelType, civilCode, ids);
         return new PageInfo<>(all);
     }
 
     @Override
     public PageInfo<CommonGBChannel> queryListByParentId(int page, int count, String query, Boolean online, Integer channelType, String groupDeviceId) {
+        List<Integer> ids = null;
+        if (query != null) {
+            ids = channelSearchIndex.search(query);
+            if (ids != null && ids.isEmpty()) {
+                return new PageInfo<>(new ArrayList<>());
+            }
+        }
         PageHelper.startPage(page, count);
         if (query != null) {
             query = query.replaceAll("/", "//")
                     .replaceAll("%", "/%")
                     .replaceAll("_", "/_");
         }
-        List<CommonGBChannel> all = commonGBChannelMapper.queryListByParentId(query, online, channelType, groupDeviceId);
+        List<CommonGBChannel> all = commonGBChannelMapper.queryListByParentId(query, online, channelType, groupDeviceId, ids);
         return new PageInfo<>(all);
     }
 
@@ -718,13 +736,20 @@ public class GbChannelServiceImpl implements IGbChannelService {
 
     @Override
     public PageInfo<CommonGBChannel> queryList(int page, int count, String query, Boolean online, Boolean hasRecordPlan, Integer channelType) {
+        List<Integer> ids = null;
+        if (query != null) {
+            ids = channelSearchIndex.search(query);
+            if (ids != null && ids.isEmpty()) {
+                return new PageInfo<>(new ArrayList<>());
+            }
+        }
         PageHelper.startPage(page, count);
         if (query != null) {
             query = query.replaceAll("/", "//")
                     .replaceAll("%", "/%")
                     .replaceAll("_", "/_");
         }
-        List<CommonGBChannel> all = commonGBChannelMapper.queryList(query, online,  hasRecordPlan, channelType);
+        List<CommonGBChannel> all = commonGBChannelMapper.queryList(query, online,  hasRecordPlan, channelType, ids);
         return new PageInfo<>(all);
     }
 
@@ -12,19 +12,33 @@ import com.genersoft.iot.vmp.service.bean.ErrorCallback;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.event.EventListener;
-import org.springframework.data.redis.core.Cursor;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.connection.DefaultStringRedisConnection;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisOperations;
 import org.springframework.data.redis.core.RedisTemplate;
-import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.scheduling.annotation.Async;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 
+/**
+ * 点播信息存储在 VMP_GB_INVITE_INFO 中，key为 type:channelId:stream，
+ * 另外维护按通道、流、设备、流媒体节点的索引集合以及ssrc的索引，查询时直接定位，不再扫描全部点播信息，
+ * 未收到流的点播信息按照到期时间记录在有序集合中，定时任务只处理已经到期的部分
+ */
 @Slf4j
 @Service
 public class InviteStreamServiceImpl implements IInviteStreamService {
@@ -34,6 +48,9 @@ public class InviteStreamServiceImpl implements IInviteStreamService {
     @Autowired
     private RedisTemplate<Object, Object> redisTemplate;
 
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+
     @Autowired
     private UserSetting userSetting;
 
@@ -43,6 +60,34 @@ public class InviteStreamServiceImpl implements IInviteStreamService {
     @Autowired
     private DeviceChannelMapper deviceChannelMapper;
 
+    /**
+     * 索引的版本，升级后启动的节点根据已有的点播信息重建一次索引
+     */
+    private static final String INDEX_VERSION = "2";
+
+    /**
+     * 写入点播信息时其他节点同时修改的重试次数
+     */
+    private static final int SAVE_RETRY = 3;
+
+    @PostConstruct
+    public void initIndex() {
+        try {
+            if (INDEX_VERSION.equals(stringRedisTemplate.opsForValue().get(VideoManagerConstants.INVITE_INDEX_VERSION))) {
+                return;
+            }
+            // 写入索引是幂等的，多个节点同时重建不影响结果，重建完成后才写入版本，失败时下次启动再次重建
+            List<InviteInfo> inviteInfoList = getAllInviteInfo();
+            for (InviteInfo inviteInfo : inviteInfoList) {
+                updateIndex(buildObjectKey(inviteInfo), null, inviteInfo);
+            }
+            stringRedisTemplate.opsForValue().set(VideoManagerConstants.INVITE_INDEX_VERSION, INDEX_VERSION);
+            log.info("[Redis-InviteInfo] 重建索引完成， 点播信息数量：{}", inviteInfoList.size());
+        } catch (Exception e) {
+            log.error("[Redis-InviteInfo] 重建索引异常: ", e);
+        }
+    }
+
     /**
      * 流离开的处理
      */
@@ -117,14 +162,10 @@ public class InviteStreamServiceImpl implements IInviteStreamService {
         if (inviteInfoForUpdate.getCreateTime() == null) {
             inviteInfoForUpdate.setCreateTime(System.currentTimeMillis());
         }
-        String key = VideoManagerConstants.INVITE_PREFIX;
-        String objectKey = inviteInfoForUpdate.getType() +
-                ":" + inviteInfoForUpdate.getChannelId() +
-                ":" + inviteInfoForUpdate.getStream();
         if (time != null && time > 0) {
             inviteInfoForUpdate.setExpirationTime(time);
         }
-        redisTemplate.opsForHash().put(key, objectKey, inviteInfoForUpdate);
+        saveInviteInfo(inviteInfoForUpdate);
     }
 
     @Override
@@ -135,10 +176,6 @@ public class InviteStreamServiceImpl implements IInviteStreamService {
             return null;
         }
         removeInviteInfo(inviteInfoInDb);
-        String key = VideoManagerConstants.INVITE_PREFIX;
-        String objectKey = inviteInfo.getType() +
-                ":" + inviteInfo.getChannelId() +
-                ":" + stream;
         inviteInfoInDb.setStream(stream);
         if (inviteInfoInDb.getSsrcInfo() != null) {
             inviteInfoInDb.getSsrcInfo().setStream(stream);
@@ -149,23 +186,46 @@ public class InviteStreamServiceImpl implements IInviteStreamService {
         if (inviteInfoInDb.getCreateTime() == null) {
             inviteInfoInDb.setCreateTime(System.currentTimeMillis());
         }
-        redisTemplate.opsForHash().put(key, objectKey, inviteInfoInDb);
+        saveInviteInfo(inviteInfoInDb);
         return inviteInfoInDb;
     }
 
     @Override
     public InviteInfo getInviteInfo(InviteSessionType type, Integer channelId, String stream) {
         String key = VideoManagerConstants.INVITE_PREFIX;
-        String keyPattern = (type != null ? type : "*") +
-                ":" + (channelId != null ? channelId : "*") +
-                ":" + (stream != null ? stream : "*");
-        ScanOptions options = ScanOptions.scanOptions().match(keyPattern).count(20).build();
-        try (Cursor<Map.Entry<Object, Object>> cursor = redisTemplate.opsForHash().scan(key, options)) {
-            if (cursor.hasNext()) {
-                InviteInfo inviteInfo = (InviteInfo) cursor.next().getValue();
-                cursor.close();
+        try {
+            if (type != null && channelId != null && stream != null) {
+                return (InviteInfo) redisTemplate.opsForHash().get(key, buildObjectKey(type, channelId, stream));
+            }
+            String indexKey;
+            if (channelId != null) {
+                indexKey = VideoManagerConstants.INVITE_INDEX_CHANNEL + channelId;
+            } else if (stream != null) {
+                indexKey = VideoManagerConstants.INVITE_INDEX_STREAM + stream;
+            } else {
+                // 只有类型的查询没有索引，目前没有这样的调用
+                for (InviteInfo inviteInfo : getAllInviteInfo()) {
+                    if (type == null || type == inviteInfo.getType()) {
+                        return inviteInfo;
+                    }
+                }
+                return null;
+            }
+            Set<String> objectKeys = stringRedisTemplate.opsForSet().members(indexKey);
+            if (objectKeys == null || objectKeys.isEmpty()) {
+                return null;
+            }
+            for (String objectKey : objectKeys) {
+                if (!matchObjectKey(objectKey, type, channelId, stream)) {
+                    continue;
+                }
+                InviteInfo inviteInfo = (InviteInfo) redisTemplate.opsForHash().get(key, objectKey);
+                if (inviteInfo == null) {
+                    // 索引残留，点播信息已经不存在
+                    stringRedisTemplate.opsForSet().remove(indexKey, objectKey);
+                    continue;
+                }
                 return inviteInfo;
-
             }
         } catch (Exception e) {
             log.error("[Redis-InviteInfo] 查询异常: ", e);
@@ -201,15 +261,38 @@ public class InviteStreamServiceImpl implements IInviteStreamService {
     public void removeInviteInfo(InviteSessionType type, Integer channelId, String stream) {
         String key = VideoManagerConstants.INVITE_PREFIX;
         if (type == null && channelId == null && stream == null) {
-            redisTemplate.opsForHash().delete(key);
+            // 点播信息都有设备ID，从设备索引中取出全部的点播信息key，再得到通道和流的索引，不读取点播信息，也不使用keys扫描整个库
+            Set<String> indexKeys = new HashSet<>();
+            Set<String> registeredKeys = stringRedisTemplate.opsForSet().members(VideoManagerConstants.INVITE_INDEX_KEYS);
+            if (registeredKeys != null) {
+                indexKeys.addAll(registeredKeys);
+                for (String indexKey : registeredKeys) {
+                    if (!indexKey.startsWith(VideoManagerConstants.INVITE_INDEX_DEVICE)) {
+                        continue;
+                    }
+                    Set<String> objectKeys = stringRedisTemplate.opsForSet().members(indexKey);
+                    if (objectKeys == null) {
+                        continue;
+                    }
+                    for (String objectKey : objectKeys) {
+                        String[] items = objectKey.split(":", 3);
+                        if (items.length == 3) {
+                            indexKeys.add(VideoManagerConstants.INVITE_INDEX_CHANNEL + items[1]);
+                            indexKeys.add(VideoManagerConstants.INVITE_INDEX_STREAM + items[2]);
+                        }
+                    }
+                }
+            }
+            indexKeys.add(VideoManagerConstants.INVITE_INDEX_SSRC);
+            indexKeys.add(VideoManagerConstants.INVITE_INDEX_EXPIRE);
+            indexKeys.add(VideoManagerConstants.INVITE_INDEX_KEYS);
+            redisTemplate.delete(key);
+            stringRedisTemplate.delete(indexKeys);
             return;
         }
         InviteInfo inviteInfo = getInviteInfo(type, channelId, stream);
         if (inviteInfo != null) {
-            String objectKey = inviteInfo.getType() +
-                    ":" + inviteInfo.getChannelId() +
-                    ":" + inviteInfo.getStream();
-            redisTemplate.opsForHash().delete(key, objectKey);
+            replaceInviteInfo(buildObjectKey(inviteInfo), null);
         }
     }
 
@@ -243,35 +326,26 @@ public class InviteStreamServiceImpl implements IInviteStreamService {
 
     @Override
     public void clearInviteInfo(String deviceId) {
-        List<InviteInfo> inviteInfoList = getAllInviteInfo();
-        for (InviteInfo inviteInfo : inviteInfoList) {
-            if (inviteInfo.getDeviceId().equals(deviceId)) {
+        String indexKey = VideoManagerConstants.INVITE_INDEX_DEVICE + deviceId;
+        Set<String> objectKeys = stringRedisTemplate.opsForSet().members(indexKey);
+        if (objectKeys == null || objectKeys.isEmpty()) {
+            return;
+        }
+        List<Object> values = redisTemplate.opsForHash().multiGet(VideoManagerConstants.INVITE_PREFIX, new ArrayList<>(objectKeys));
+        for (Object value : values) {
+            InviteInfo inviteInfo = (InviteInfo) value;
+            if (inviteInfo != null && deviceId.equals(inviteInfo.getDeviceId())) {
                 removeInviteInfo(inviteInfo);
             }
         }
+        // 清理残留的索引
+        stringRedisTemplate.delete(indexKey);
     }
 
     @Override
     public int getStreamInfoCount(String mediaServerId) {
-        int count = 0;
-        String key = VideoManagerConstants.INVITE_PREFIX;
-        List<Object> values = redisTemplate.opsForHash().values(key);
-        if (values.isEmpty()) {
-            return count;
-        }
-        for (Object value : values) {
-            InviteInfo inviteInfo = (InviteInfo)value;
-            if (inviteInfo != null
-                    && inviteInfo.getStreamInfo() != null
-                    && inviteInfo.getStreamInfo().getMediaServer() != null
-                    && inviteInfo.getStreamInfo().getMediaServer().getId().equals(mediaServerId)) {
-                if (inviteInfo.getType().equals(InviteSessionType.DOWNLOAD) && inviteInfo.getStreamInfo().getProgress() == 1) {
-                    continue;
-                }
-                count++;
-            }
-        }
-        return count;
+        Long count = stringRedisTemplate.opsForSet().size(VideoManagerConstants.INVITE_INDEX_MEDIA_SERVER + mediaServerId);
+        return count == null ? 0 : count.intValue();
     }
 
     @Override
@@ -300,16 +374,15 @@ public class InviteStreamServiceImpl implements IInviteStreamService {
 
     @Override
     public InviteInfo getInviteInfoBySSRC(String ssrc) {
-        List<InviteInfo> inviteInfoList = getAllInviteInfo();
-        if (inviteInfoList.isEmpty()) {
+        Object objectKey = stringRedisTemplate.opsForHash().get(VideoManagerConstants.INVITE_INDEX_SSRC, ssrc);
+        if (objectKey == null) {
             return null;
         }
-        for (InviteInfo inviteInfo : inviteInfoList) {
-            if (inviteInfo.getSsrcInfo() != null && ssrc.equals(inviteInfo.getSsrcInfo().getSsrc())) {
-                return inviteInfo;
-            }
+        InviteInfo inviteInfo = (InviteInfo) redisTemplate.opsForHash().get(VideoManagerConstants.INVITE_PREFIX, objectKey);
+        if (inviteInfo == null || inviteInfo.getSsrcInfo() == null || !ssrc.equals(inviteInfo.getSsrcInfo().getSsrc())) {
+            return null;
         }
-        return null;
+        return inviteInfo;
     }
 
     @Override
@@ -319,36 +392,185 @@ public class InviteStreamServiceImpl implements IInviteStreamService {
             return null;
         }
         removeInviteInfo(inviteInfoInDb);
-        String key = VideoManagerConstants.INVITE_PREFIX;
-        String objectKey = inviteInfo.getType() +
-                ":" + inviteInfo.getChannelId() +
-                ":" + inviteInfo.getStream();
         if (inviteInfoInDb.getSsrcInfo() != null) {
             inviteInfoInDb.getSsrcInfo().setSsrc(ssrc);
         }
-        redisTemplate.opsForHash().put(key, objectKey, inviteInfoInDb);
+        saveInviteInfo(inviteInfoInDb);
         return inviteInfoInDb;
     }
 
     @Scheduled(fixedRate = 10000)   //定时检测,清理错误的redis数据,防止因为错误数据导致的点播不可用
     public void execute(){
-        String key = VideoManagerConstants.INVITE_PREFIX;
-        if(redisTemplate.opsForHash().size(key) == 0) {
+        // 只取出已经到期的，未到期或者已经收到流的点播信息不在这个集合中
+        Set<String> objectKeys = stringRedisTemplate.opsForZSet().rangeByScore(VideoManagerConstants.INVITE_INDEX_EXPIRE,
+                0, System.currentTimeMillis());
+        if (objectKeys == null || objectKeys.isEmpty()) {
             return;
         }
-        List<Object> values = redisTemplate.opsForHash().values(key);
-        for (Object value : values) {
-            InviteInfo inviteInfo = (InviteInfo)value;
+        String key = VideoManagerConstants.INVITE_PREFIX;
+        for (String objectKey : objectKeys) {
+            InviteInfo inviteInfo = (InviteInfo) redisTemplate.opsForHash().get(key, objectKey);
+            if (inviteInfo == null) {
+                stringRedisTemplate.opsForZSet().remove(VideoManagerConstants.INVITE_INDEX_EXPIRE, objectKey);
+                continue;
+            }
             if (inviteInfo.getStreamInfo() != null) {
+                // 其他节点更新了流信息后索引未及时更新
+                updateIndex(objectKey, null, inviteInfo);
                 continue;
             }
-            if (inviteInfo.getCreateTime() == null || inviteInfo.getExpirationTime() == 0) {
-                removeInviteInfo(inviteInfo);
+            log.info("[Redis-InviteInfo] 点播信息过期，移除： {}", objectKey);
+            replaceInviteInfo(objectKey, null);
+        }
+    }
+
+    private String buildObjectKey(InviteSessionType type, Integer channelId, String stream) {
+        return type + ":" + channelId + ":" + stream;
+    }
+
+    private String buildObjectKey(InviteInfo inviteInfo) {
+        return buildObjectKey(inviteInfo.getType(), inviteInfo.getChannelId(), inviteInfo.getStream());
+    }
+
+    private boolean matchObjectKey(String objectKey, InviteSessionType type, Integer channelId, String stream) {
+        String[] items = objectKey.split(":", 3);
+        if (items.length != 3) {
+            return false;
+        }
+        return (type == null || type.name().equals(items[0]))
+                && (channelId == null || channelId.toString().equals(items[1]))
+                && (stream == null || stream.equals(items[2]));
+    }
+
+    /**
+     * 写入点播信息并更新索引
+     */
+    private void saveInviteInfo(InviteInfo inviteInfo) {
+        replaceInviteInfo(buildObjectKey(inviteInfo), inviteInfo);
+    }
+
+    /**
+     * 写入或删除点播信息并更新索引。监视点播信息的hash，读取旧数据后在同一个事务中写入数据和索引，
+     * 其他节点同时修改时重试，避免索引集合与点播信息不一致
+     * @param inviteInfo 新数据，为空时删除
+     * @return 旧数据
+     */
+    private InviteInfo replaceInviteInfo(String objectKey, InviteInfo inviteInfo) {
+        String key = VideoManagerConstants.INVITE_PREFIX;
+        return redisTemplate.execute(new SessionCallback<InviteInfo>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public <K, V> InviteInfo execute(RedisOperations<K, V> operations) throws DataAccessException {
+                RedisOperations<Object, Object> redisOperations = (RedisOperations<Object, Object>) operations;
+                for (int i = 0; ; i++) {
+                    // 多次冲突后不再监视，此时只保证数据和索引在同一个事务中写入
+                    boolean watch = i < SAVE_RETRY;
+                    if (watch) {
+                        redisOperations.watch(key);
+                    }
+                    InviteInfo oldInviteInfo = (InviteInfo) redisOperations.opsForHash().get(key, objectKey);
+                    if (oldInviteInfo == null && inviteInfo == null) {
+                        redisOperations.unwatch();
+                        return null;
+                    }
+                    redisOperations.multi();
+                    if (inviteInfo == null) {
+                        redisOperations.opsForHash().delete(key, objectKey);
+                    } else {
+                        redisOperations.opsForHash().put(key, objectKey, inviteInfo);
+                    }
+                    redisOperations.execute((RedisCallback<Object>) connection -> {
+                        writeIndex(new DefaultStringRedisConnection(connection), objectKey, oldInviteInfo, inviteInfo);
+                        return null;
+                    });
+                    // 事务被放弃时返回空
+                    List<Object> result = redisOperations.exec();
+                    if (result != null && !result.isEmpty()) {
+                        return oldInviteInfo;
+                    }
+                    if (!watch) {
+                        return oldInviteInfo;
+                    }
+                }
             }
-            long time = inviteInfo.getCreateTime() + inviteInfo.getExpirationTime();
-            if (System.currentTimeMillis() > time) {
-                removeInviteInfo(inviteInfo);
+        });
+    }
+
+    /**
+     * 使用管道更新索引，用于重建和修复索引
+     * @param oldInviteInfo 旧数据，为空时只写入
+     * @param newInviteInfo 新数据，为空时只移除
+     */
+    private void updateIndex(String objectKey, InviteInfo oldInviteInfo, InviteInfo newInviteInfo) {
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            writeIndex((StringRedisConnection) connection, objectKey, oldInviteInfo, newInviteInfo);
+            return null;
+        });
+    }
+
+    /**
+     * 先移除旧数据的索引，再写入新数据的索引
+     */
+    private void writeIndex(StringRedisConnection stringRedisConnection, String objectKey, InviteInfo oldInviteInfo, InviteInfo newInviteInfo) {
+        Set<String> oldIndexKeys = oldInviteInfo == null ? Collections.emptySet() : getIndexKeys(oldInviteInfo);
+        Set<String> newIndexKeys = newInviteInfo == null ? Collections.emptySet() : getIndexKeys(newInviteInfo);
+        String oldSsrc = getSsrc(oldInviteInfo);
+        String newSsrc = getSsrc(newInviteInfo);
+        for (String indexKey : oldIndexKeys) {
+            if (!newIndexKeys.contains(indexKey)) {
+                stringRedisConnection.sRem(indexKey, objectKey);
+            }
+        }
+        for (String indexKey : newIndexKeys) {
+            stringRedisConnection.sAdd(indexKey, objectKey);
+            if (!oldIndexKeys.contains(indexKey) && (indexKey.startsWith(VideoManagerConstants.INVITE_INDEX_DEVICE)
+                    || indexKey.startsWith(VideoManagerConstants.INVITE_INDEX_MEDIA_SERVER))) {
+                stringRedisConnection.sAdd(VideoManagerConstants.INVITE_INDEX_KEYS, indexKey);
+            }
+        }
+        if (oldSsrc != null && !oldSsrc.equals(newSsrc)) {
+            stringRedisConnection.hDel(VideoManagerConstants.INVITE_INDEX_SSRC, oldSsrc);
+        }
+        if (newSsrc != null) {
+            stringRedisConnection.hSet(VideoManagerConstants.INVITE_INDEX_SSRC, newSsrc, objectKey);
+        }
+        if (newInviteInfo != null && newInviteInfo.getStreamInfo() == null) {
+            long createTime = newInviteInfo.getCreateTime() == null ? 0 : newInviteInfo.getCreateTime();
+            long expirationTime = newInviteInfo.getExpirationTime() == null ? 0 : newInviteInfo.getExpirationTime();
+            stringRedisConnection.zAdd(VideoManagerConstants.INVITE_INDEX_EXPIRE, createTime + expirationTime, objectKey);
+        } else {
+            stringRedisConnection.zRem(VideoManagerConstants.INVITE_INDEX_EXPIRE, objectKey);
+        }
+    }
+
+    /**
+     * 点播信息所属的索引集合，流媒体节点的集合只包含正在收流的点播，集合的大小即为该节点的国标收流个数
+     */
+    private Set<String> getIndexKeys(InviteInfo inviteInfo) {
+        Set<String> indexKeys = new HashSet<>();
+        if (inviteInfo.getChannelId() != null) {
+            indexKeys.add(VideoManagerConstants.INVITE_INDEX_CHANNEL + inviteInfo.getChannelId());
+        }
+        if (inviteInfo.getStream() != null) {
+            indexKeys.add(VideoManagerConstants.INVITE_INDEX_STREAM + inviteInfo.getStream());
+        }
+        if (inviteInfo.getDeviceId() != null) {
+            indexKeys.add(VideoManagerConstants.INVITE_INDEX_DEVICE + inviteInfo.getDeviceId());
+        }
+        StreamInfo streamInfo = inviteInfo.getStreamInfo();
+        if (streamInfo != null && streamInfo.getMediaServer() != null) {
+            boolean finished = InviteSessionType.DOWNLOAD == inviteInfo.getType() && streamInfo.getProgress() == 1;
+            if (!finished) {
+                indexKeys.add(VideoManagerConstants.INVITE_INDEX_MEDIA_SERVER + streamInfo.getMediaServer().getId());
             }
         }
+        return indexKeys;
+    }
+
+    private String getSsrc(InviteInfo inviteInfo) {
+        if (inviteInfo == null || inviteInfo.getSsrcInfo() == null) {
+            return null;
+        }
+        return inviteInfo.getSsrcInfo().getSsrc();
     }
 }
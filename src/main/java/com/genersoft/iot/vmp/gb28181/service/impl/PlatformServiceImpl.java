@@ -28,6 +28,7 @@ import com.genersoft.iot.vmp.service.ISendRtpServerService;
 import com.genersoft.iot.vmp.service.bean.*;
 import com.genersoft.iot.vmp.service.redisMsg.IRedisRpcService;
 import com.genersoft.iot.vmp.storager.IRedisCatchStorage;
+import com.genersoft.iot.vmp.storager.cache.NearCacheManager;
 import com.genersoft.iot.vmp.utils.DateUtil;
 import com.github.pagehelper.PageHelper;
 import com.github.pagehelper.PageInfo;
@@ -109,6 +110,9 @@ public class PlatformServiceImpl implements IPlatformService {
     @Autowired
     private ISendRtpServerService sendRtpServerService;
 
+    @Autowired
+    private NearCacheManager nearCacheManager;
+
     // 定时监听国标级联所进行的WVP服务是否正常， 如果异常则选择新的wvp执行
     @Scheduled(fixedDelay = 2, timeUnit = TimeUnit.SECONDS)   //每3秒执行一次
     public void execute(){
@@ -139,6 +143,7 @@ public class PlatformServiceImpl implements IPlatformService {
                 platform.setAddress(getIpWithSameNetwork(platform.getAddress()));
                 platform.setServerId(userSetting.getServerId());
                 platformMapper.update(platform);
+                nearCacheManager.invalidatePlatform(platform.getServerGBId());
                 // 更新redis
                 redisCatchStorage.delPlatformCatchInfo(platform.getServerGBId());
                 PlatformCatch platformCatch = new PlatformCatch();
@@ -241,7 +246,7 @@ public class PlatformServiceImpl implements IPlatformService {
 
     @Override
     public Platform queryPlatformByServerGBId(String platformGbId) {
-        return platformMapper.getParentPlatByServerGBId(platformGbId);
+        return nearCacheManager.getPlatform(platformGbId, () -> platformMapper.getParentPlatByServerGBId(platformGbId));
     }
 
     @Override
@@ -265,6 +270,7 @@ public class PlatformServiceImpl implements IPlatformService {
         }
         platform.setServerId(userSetting.getServerId());
         int result = platformMapper.add(platform);
+        nearCacheManager.invalidatePlatform(platform.getServerGBId());
         // 添加缓存
         PlatformCatch platformCatch = new PlatformCatch();
         platformCatch.setPlatform(platform);
@@ -322,6 +328,9 @@ public class PlatformServiceImpl implements IPlatformService {
         }
 
         platformMapper.update(platform);
+        // 国标编号可能被修改
+        nearCacheManager.invalidatePlatform(platformInDb.getServerGBId());
+        nearCacheManager.invalidatePlatform(platform.getServerGBId());
         // 更新redis
         redisCatchStorage.delPlatformCatchInfo(platformInDb.getServerGBId());
         PlatformCatch platformCatch = new PlatformCatch();
@@ -352,6 +361,7 @@ public class PlatformServiceImpl implements IPlatformService {
         dynamicTask.stop(registerFailAgainTaskKey);
 
         platformMapper.updateStatus(platform.getServerGBId(), true);
+        nearCacheManager.invalidatePlatform(platform.getServerGBId());
         PlatformCatch platformCatch = redisCatchStorage.queryPlatformCatchInfo(platform.getServerGBId());
         if (platformCatch == null) {
             platformCatch = new PlatformCatch();
@@ -473,6 +483,7 @@ public class PlatformServiceImpl implements IPlatformService {
         platformCatch.setPlatform(catchPlatform);
         redisCatchStorage.updatePlatformCatchInfo(platformCatch);
         platformMapper.updateStatus(platform.getServerGBId(), false);
+        nearCacheManager.invalidatePlatform(platform.getServerGBId());
 
         // 停止所有推流
         log.info("[平台离线] {}({}), 停止所有推流", platform.getName(),  platform.getServerGBId());
@@ -948,5 +959,6 @@ public class PlatformServiceImpl implements IPlatformService {
         redisCatchStorage.delPlatformCatchInfo(platform.getServerGBId());
         // 删除平台信息
         platformMapper.delete(platform.getId());
+        nearCacheManager.invalidatePlatform(platform.getServerGBId());
     }
 }
@@ -298,7 +298,7 @@ public class PlayServiceImpl implements IPlayService {
             redisRpcPlayService.play(device.getServerId(), channel.getId(), callback);
             return;
         }
-        MediaServer mediaServerItem = getNewMediaServerItem(device);
+        MediaServer mediaServerItem = getNewMediaServerItem(device, channel, false);
         if (mediaServerItem == null) {
             log.warn("[点播] 未找到可用的zlm deviceId: {},channelId:{}", device.getDeviceId(), channel.getDeviceId());
             throw new ControllerException(ErrorCode.ERROR100.getCode(), "未找到可用的zlm");
@@ -731,12 +731,21 @@ public class PlayServiceImpl implements IPlayService {
 
     @Override
     public MediaServer getNewMediaServerItem(Device device) {
+        return getNewMediaServerItem(device, null, false);
+    }
+
+    /**
+     * @param channel 自动选择节点时作为选择的依据
+     * @param sticky 录像回放/下载时为true，同一通道一段时间内固定使用同一节点
+     */
+    private MediaServer getNewMediaServerItem(Device device, DeviceChannel channel, boolean sticky) {
         if (device == null) {
             return null;
         }
         MediaServer mediaServerItem;
         if (ObjectUtils.isEmpty(device.getMediaServerId()) || "auto".equals(device.getMediaServerId())) {
-            mediaServerItem = mediaServerService.getMediaServerForMinimumLoad(null);
+            String key = channel == null ? null : String.valueOf(channel.getId());
+            mediaServerItem = mediaServerService.getMediaServerForMinimumLoad(null, key, sticky);
         } else {
             mediaServerItem = mediaServerService.getOne(device.getMediaServerId());
         }
@@ -760,7 +769,7 @@ public class PlayServiceImpl implements IPlayService {
             return;
         }
 
-        MediaServer newMediaServerItem = getNewMediaServerItem(device);
+        MediaServer newMediaServerItem = getNewMediaServerItem(device, channel, true);
         if (newMediaServerItem == null) {
             throw new ControllerException(ErrorCode.ERROR100.getCode(), "未找到可用的节点");
         }
@@ -975,7 +984,7 @@ public class PlayServiceImpl implements IPlayService {
             return;
         }
 
-        MediaServer newMediaServerItem = this.getNewMediaServerItem(device);
+        MediaServer newMediaServerItem = this.getNewMediaServerItem(device, channel, true);
         if (newMediaServerItem == null) {
             callback.run(InviteErrorCode.ERROR_FOR_ASSIST_NOT_READY.getCode(),
                     InviteErrorCode.ERROR_FOR_ASSIST_NOT_READY.getMsg(),
@@ -1224,25 +1233,23 @@ public class PlayServiceImpl implements IPlayService {
             }
         }
         // 处理正在观看的国标设备
-        List<SsrcTransaction> allSsrc = sessionManager.getAll();
+        List<SsrcTransaction> allSsrc = sessionManager.getSsrcTransactionByMediaServerId(mediaServer.getId());
         if (allSsrc.size() > 0) {
             for (SsrcTransaction ssrcTransaction : allSsrc) {
-                if (ssrcTransaction.getMediaServerId().equals(mediaServer.getId())) {
-                    Device device = deviceService.getDeviceByDeviceId(ssrcTransaction.getDeviceId());
-                    if (device == null) {
-                        continue;
-                    }
-                    DeviceChannel deviceChannel = deviceChannelService.getOneById(ssrcTransaction.getChannelId());
-                    if (deviceChannel == null) {
-                        continue;
-                    }
-                    try {
-                        cmder.streamByeCmd(device, deviceChannel.getDeviceId(), ssrcTransaction.getApp(),
-                                ssrcTransaction.getStream(), null, null);
-                    } catch (InvalidArgumentException | ParseException | SipException |
-                             SsrcTransactionNotFoundException e) {
-                        log.error("[zlm离线]为正在使用此zlm的设备， 发送BYE失败 {}", e.getMessage());
-                    }
+                Device device = deviceService.getDeviceByDeviceId(ssrcTransaction.getDeviceId());
+                if (device == null) {
+                    continue;
+                }
+                DeviceChannel deviceChannel = deviceChannelService.getOneById(ssrcTransaction.getChannelId());
+                if (deviceChannel == null) {
+                    continue;
+                }
+                try {
+                    cmder.streamByeCmd(device, deviceChannel.getDeviceId(), ssrcTransaction.getApp(),
+                            ssrcTransaction.getStream(), null, null);
+                } catch (InvalidArgumentException | ParseException | SipException |
+                         SsrcTransactionNotFoundException e) {
+                    log.error("[zlm离线]为正在使用此zlm的设备， 发送BYE失败 {}", e.getMessage());
                 }
             }
         }
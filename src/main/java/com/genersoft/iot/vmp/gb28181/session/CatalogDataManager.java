@@ -1,5 +1,6 @@
 package com.genersoft.iot.vmp.gb28181.session;
 
+import com.genersoft.iot.vmp.conf.UserSetting;
 import com.genersoft.iot.vmp.gb28181.bean.*;
 import com.genersoft.iot.vmp.gb28181.service.IDeviceChannelService;
 import com.genersoft.iot.vmp.gb28181.service.IGroupService;
@@ -12,13 +13,16 @@ import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
 import java.time.Instant;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Map;
-import java.util.Set;
+import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * 目录同步过程中的数据暂存
+ * 收到的通道/行政区划/分组按照(设备编号, sn)暂存在本地内存中，全部收到后统一入库；
+ * 本地暂存的总数超出限制时，正在同步的数据批量转存到redis(HMSET), 入库前再批量读取(HMGET)
+ */
 @Slf4j
 @Component
 public class CatalogDataManager implements CommandLineRunner {
@@ -35,36 +39,31 @@ public class CatalogDataManager implements CommandLineRunner {
     @Autowired
     private RedisTemplate<Object, Object> redisTemplate;
 
+    @Autowired
+    private UserSetting userSetting;
+
     private final Map<String, CatalogData> dataMap = new ConcurrentHashMap<>();
 
     private final String key = "VMP_CATALOG_DATA";
 
+    /**
+     * 单次批量读写redis的数量
+     */
+    private static final int REDIS_BATCH_SIZE = 1000;
+
+    /**
+     * 所有同步中暂存在本地内存的数据总数
+     */
+    private final AtomicInteger memoryCount = new AtomicInteger();
+
     public String buildMapKey(String deviceId, int sn ) {
         return deviceId + "_" + sn;
     }
 
     public void addReady(Device device, int sn ) {
-        CatalogData catalogData = dataMap.get(buildMapKey(device.getDeviceId(),sn));
+        CatalogData catalogData = dataMap.remove(buildMapKey(device.getDeviceId(),sn));
         if (catalogData != null) {
-            Set<String> redisKeysForChannel = catalogData.getRedisKeysForChannel();
-            if (redisKeysForChannel != null && !redisKeysForChannel.isEmpty()) {
-                for (String deleteKey : redisKeysForChannel) {
-                    redisTemplate.opsForHash().delete(key, deleteKey);
-                }
-            }
-            Set<String> redisKeysForRegion = catalogData.getRedisKeysForRegion();
-            if (redisKeysForRegion != null && !redisKeysForRegion.isEmpty()) {
-                for (String deleteKey : redisKeysForRegion) {
-                    redisTemplate.opsForHash().delete(key, deleteKey);
-                }
-            }
-            Set<String> redisKeysForGroup = catalogData.getRedisKeysForGroup();
-            if (redisKeysForGroup != null && !redisKeysForGroup.isEmpty()) {
-                for (String deleteKey : redisKeysForGroup) {
-                    redisTemplate.opsForHash().delete(key, deleteKey);
-                }
-            }
-            dataMap.remove(buildMapKey(device.getDeviceId(),sn));
+            release(catalogData);
         }
         catalogData = new CatalogData();
         catalogData.setDevice(device);
@@ -81,81 +80,178 @@ public class CatalogDataManager implements CommandLineRunner {
             log.warn("[缓存-Catalog] 未找到缓存对象，可能已经结束");
             return;
         }
-        catalogData.setStatus(CatalogData.CatalogDataStatus.runIng);
-        catalogData.setTotal(total);
-        catalogData.setTime(Instant.now());
+        synchronized (catalogData) {
+            if (dataMap.get(buildMapKey(device.getDeviceId(),sn)) != catalogData) {
+                // 等待锁期间已经被移除
+                return;
+            }
+            catalogData.setStatus(CatalogData.CatalogDataStatus.runIng);
+            catalogData.setTotal(total);
+            catalogData.setTime(Instant.now());
+
+            if (!catalogData.isSpilled()) {
+                int incoming = (deviceChannelList == null ? 0 : deviceChannelList.size())
+                        + (regionList == null ? 0 : regionList.size())
+                        + (groupList == null ? 0 : groupList.size());
+                if (memoryCount.get() + incoming > userSetting.getCatalogMemoryMaxCount()) {
+                    spill(deviceId, catalogData);
+                }
+            }
+            if (catalogData.isSpilled()) {
+                putToRedis(deviceId, sn, catalogData, deviceChannelList, regionList, groupList);
+                return;
+            }
+            int before = catalogData.getMemoryCount();
+            if (deviceChannelList != null) {
+                for (DeviceChannel deviceChannel : deviceChannelList) {
+                    catalogData.getChannelMap().put(deviceChannel.getDeviceId(), deviceChannel);
+                }
+            }
+            if (regionList != null) {
+                for (Region region : regionList) {
+                    catalogData.getRegionMap().put(region.getDeviceId(), region);
+                }
+            }
+            if (groupList != null) {
+                for (Group group : groupList) {
+                    catalogData.getGroupMap().put(group.getDeviceId(), group);
+                }
+            }
+            memoryCount.addAndGet(catalogData.getMemoryCount() - before);
+        }
+    }
+
+    /**
+     * 本地内存超出限制，把已经暂存的数据批量写入redis, 此后这次同步的数据都写入redis
+     */
+    private void spill(String deviceId, CatalogData catalogData) {
+        log.info("[缓存-Catalog] 本地暂存的目录数据超出限制，转存到redis, 设备: {}, 数量: {}", deviceId, catalogData.getMemoryCount());
+        int count = catalogData.getMemoryCount();
+        putToRedis(deviceId, catalogData.getSn(), catalogData, new ArrayList<>(catalogData.getChannelMap().values()),
+                new ArrayList<>(catalogData.getRegionMap().values()), new ArrayList<>(catalogData.getGroupMap().values()));
+        catalogData.getChannelMap().clear();
+        catalogData.getRegionMap().clear();
+        catalogData.getGroupMap().clear();
+        memoryCount.addAndGet(-count);
+        catalogData.setSpilled(true);
+    }
 
-        if (deviceChannelList != null && !deviceChannelList.isEmpty()) {
+    private void putToRedis(String deviceId, int sn, CatalogData catalogData, List<DeviceChannel> deviceChannelList,
+                            List<Region> regionList, List<Group> groupList) {
+        Map<Object, Object> values = new HashMap<>();
+        if (deviceChannelList != null) {
             for (DeviceChannel deviceChannel : deviceChannelList) {
                 String keyForChannel = "CHANNEL:" + deviceId + ":" + deviceChannel.getDeviceId() + ":" + sn;
-                redisTemplate.opsForHash().put(key, keyForChannel, deviceChannel);
+                values.put(keyForChannel, deviceChannel);
                 catalogData.getRedisKeysForChannel().add(keyForChannel);
             }
         }
-
-        if (regionList != null && !regionList.isEmpty()) {
+        if (regionList != null) {
             for (Region region : regionList) {
                 String keyForRegion = "REGION:" + deviceId + ":" + region.getDeviceId() + ":" + sn;
-                redisTemplate.opsForHash().put(key, keyForRegion, region);
+                values.put(keyForRegion, region);
                 catalogData.getRedisKeysForRegion().add(keyForRegion);
             }
         }
-
-        if (groupList != null && !groupList.isEmpty()) {
+        if (groupList != null) {
             for (Group group : groupList) {
                 String keyForGroup = "GROUP:" + deviceId + ":" + group.getDeviceId() + ":" + sn;
-                redisTemplate.opsForHash().put(key, keyForGroup, group);
+                values.put(keyForGroup, group);
                 catalogData.getRedisKeysForGroup().add(keyForGroup);
             }
         }
+        if (!values.isEmpty()) {
+            // 一次HMSET写入
+            redisTemplate.opsForHash().putAll(key, values);
+        }
+    }
+
+    /**
+     * 批量读取redis中的数据，每批一次HMGET
+     */
+    @SuppressWarnings("unchecked")
+    private <T> List<T> multiGet(Set<String> redisKeys) {
+        List<T> result = new ArrayList<>(redisKeys.size());
+        List<Object> batch = new ArrayList<>(Math.min(redisKeys.size(), REDIS_BATCH_SIZE));
+        Iterator<String> iterator = redisKeys.iterator();
+        while (iterator.hasNext()) {
+            batch.add(iterator.next());
+            if (batch.size() == REDIS_BATCH_SIZE || !iterator.hasNext()) {
+                List<Object> values = redisTemplate.opsForHash().multiGet(key, batch);
+                for (Object value : values) {
+                    if (value != null) {
+                        result.add((T) value);
+                    }
+                }
+                batch.clear();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 释放本次同步占用的内存和redis数据
+     */
+    private void release(CatalogData catalogData) {
+        synchronized (catalogData) {
+            memoryCount.addAndGet(-catalogData.getMemoryCount());
+            catalogData.getChannelMap().clear();
+            catalogData.getRegionMap().clear();
+            catalogData.getGroupMap().clear();
+            if (!catalogData.isSpilled()) {
+                return;
+            }
+            List<Object> redisKeys = new ArrayList<>();
+            redisKeys.addAll(catalogData.getRedisKeysForChannel());
+            redisKeys.addAll(catalogData.getRedisKeysForRegion());
+            redisKeys.addAll(catalogData.getRedisKeysForGroup());
+            for (int i = 0; i < redisKeys.size(); i += REDIS_BATCH_SIZE) {
+                List<Object> batch = redisKeys.subList(i, Math.min(i + REDIS_BATCH_SIZE, redisKeys.size()));
+                redisTemplate.opsForHash().delete(key, batch.toArray());
+            }
+        }
     }
 
     public List<DeviceChannel> getDeviceChannelList(String deviceId, int sn) {
-        List<DeviceChannel> result = new ArrayList<>();
         CatalogData catalogData = dataMap.get(buildMapKey(deviceId,sn));
         if (catalogData == null ) {
             log.warn("[Redis-Catalog] 未找到缓存对象，可能已经结束");
-            return result;
+            return new ArrayList<>();
         }
-        for (String objectKey : catalogData.getRedisKeysForChannel()) {
-            DeviceChannel deviceChannel = (DeviceChannel) redisTemplate.opsForHash().get(key, objectKey);
-            if (deviceChannel != null) {
-                result.add(deviceChannel);
+        synchronized (catalogData) {
+            if (catalogData.isSpilled()) {
+                return multiGet(catalogData.getRedisKeysForChannel());
             }
+            return new ArrayList<>(catalogData.getChannelMap().values());
         }
-        return result;
     }
 
     public List<Region> getRegionList(String deviceId, int sn) {
-        List<Region> result = new ArrayList<>();
         CatalogData catalogData = dataMap.get(buildMapKey(deviceId,sn));
         if (catalogData == null ) {
             log.warn("[Redis-Catalog] 未找到缓存对象，可能已经结束");
-            return result;
+            return new ArrayList<>();
         }
-        for (String objectKey : catalogData.getRedisKeysForRegion()) {
-            Region region = (Region) redisTemplate.opsForHash().get(key, objectKey);
-            if (region != null) {
-                result.add(region);
+        synchronized (catalogData) {
+            if (catalogData.isSpilled()) {
+                return multiGet(catalogData.getRedisKeysForRegion());
             }
+            return new ArrayList<>(catalogData.getRegionMap().values());
         }
-        return result;
     }
 
     public List<Group> getGroupList(String deviceId, int sn) {
-        List<Group> result = new ArrayList<>();
         CatalogData catalogData = dataMap.get(buildMapKey(deviceId,sn));
         if (catalogData == null ) {
             log.warn("[Redis-Catalog] 未找到缓存对象，可能已经结束");
-            return result;
+            return new ArrayList<>();
         }
-        for (String objectKey : catalogData.getRedisKeysForGroup()) {
-            Group group = (Group) redisTemplate.opsForHash().get(key, objectKey);
-            if (group != null) {
-                result.add(group);
+        synchronized (catalogData) {
+            if (catalogData.isSpilled()) {
+                return multiGet(catalogData.getRedisKeysForGroup());
             }
+            return new ArrayList<>(catalogData.getGroupMap().values());
         }
-        return result;
     }
 
     public SyncStatus getSyncStatus(String deviceId) {
@@ -167,7 +263,7 @@ public class CatalogDataManager implements CommandLineRunner {
             CatalogData catalogData = dataMap.get(key);
             if (catalogData != null && deviceId.equals(catalogData.getDevice().getDeviceId())) {
                 SyncStatus syncStatus = new SyncStatus();
-                syncStatus.setCurrent(catalogData.getRedisKeysForChannel().size());
+                syncStatus.setCurrent(catalogData.getChannelCount());
                 syncStatus.setTotal(catalogData.getTotal());
                 syncStatus.setErrorMsg(catalogData.getErrorMsg());
                 syncStatus.setTime(catalogData.getTime());
@@ -178,7 +274,9 @@ public class CatalogDataManager implements CommandLineRunner {
                 }
                 if (catalogData.getErrorMsg() != null) {
                     // 失败的同步信息,返回一次后直接移除
-                    dataMap.remove(key);
+                    if (dataMap.remove(key, catalogData)) {
+                        release(catalogData);
+                    }
                 }
                 return syncStatus;
             }
@@ -199,7 +297,9 @@ public class CatalogDataManager implements CommandLineRunner {
                 if ((catalogData.getStatus().equals(CatalogData.CatalogDataStatus.end)
                         || catalogData.getStatus().equals(CatalogData.CatalogDataStatus.ready))
                         && catalogData.getTime().isBefore(instantBefore30S)) {
-                    dataMap.remove(key);
+                    if (dataMap.remove(key, catalogData)) {
+                        release(catalogData);
+                    }
                     return false;
                 }
 
@@ -258,24 +358,8 @@ public class CatalogDataManager implements CommandLineRunner {
             }
             if ((catalogData.getStatus().equals(CatalogData.CatalogDataStatus.end) || catalogData.getStatus().equals(CatalogData.CatalogDataStatus.ready))
                     && catalogData.getTime().isBefore(instantBefore30S)) { // 超过三十秒，如果标记为end则删除
-                dataMap.remove(dataKey);
-                Set<String> redisKeysForChannel = catalogData.getRedisKeysForChannel();
-                if (redisKeysForChannel != null && !redisKeysForChannel.isEmpty()) {
-                    for (String deleteKey : redisKeysForChannel) {
-                        redisTemplate.opsForHash().delete(key, deleteKey);
-                    }
-                }
-                Set<String> redisKeysForRegion = catalogData.getRedisKeysForRegion();
-                if (redisKeysForRegion != null && !redisKeysForRegion.isEmpty()) {
-                    for (String deleteKey : redisKeysForRegion) {
-                        redisTemplate.opsForHash().delete(key, deleteKey);
-                    }
-                }
-                Set<String> redisKeysForGroup = catalogData.getRedisKeysForGroup();
-                if (redisKeysForGroup != null && !redisKeysForGroup.isEmpty()) {
-                    for (String deleteKey : redisKeysForGroup) {
-                        redisTemplate.opsForHash().delete(key, deleteKey);
-                    }
+                if (dataMap.remove(dataKey, catalogData)) {
+                    release(catalogData);
                 }
             }
         }
@@ -297,7 +381,7 @@ public class CatalogDataManager implements CommandLineRunner {
         if (catalogData == null) {
             return 0;
         }
-        return catalogData.getRedisKeysForChannel().size() + catalogData.getErrorChannel().size();
+        return catalogData.getChannelCount() + catalogData.getErrorChannel().size();
     }
 
     public int sumNum(String deviceId, int sn) {
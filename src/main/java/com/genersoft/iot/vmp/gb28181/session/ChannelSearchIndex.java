@@ -0,0 +1,146 @@
+package com.genersoft.iot.vmp.gb28181.session;
+
+import com.genersoft.iot.vmp.gb28181.bean.CommonGBChannel;
+import com.genersoft.iot.vmp.gb28181.dao.CommonGBChannelMapper;
+import com.genersoft.iot.vmp.utils.DateUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * 通道检索的内存索引
+ * 保存每个通道生效的编号和名称，检索时在内存中匹配出通道ID，数据库只按ID和其他条件过滤、分页，不再对全表执行 LIKE '%q%'；
+ * 通道新增和编号、名称的修改都会更新update_time，按update_time增量同步，并定时全量重建以移除已删除的通道；
+ * 已删除的通道留在索引中不影响结果，数据库中已经查不到；
+ * 检索使用同步后生成的数组快照，顺序扫描数组比遍历Map快，同步时只在有变化时重新生成
+ */
+@Slf4j
+@Component
+public class ChannelSearchIndex {
+
+    /**
+     * 匹配的通道超过这个数量时使用数据库检索，避免 id in 的参数过多
+     */
+    private static final int MAX_MATCH = 1000;
+
+    /**
+     * 全量重建的间隔，单位：毫秒
+     */
+    private static final long REBUILD_INTERVAL = 30 * 60 * 1000;
+
+    /**
+     * update_time精确到秒，增量同步时向前多取一段时间，避免漏掉同一秒内稍后写入的数据
+     */
+    private static final long SYNC_OVERLAP = 5 * 1000;
+
+    /**
+     * 编号和名称之间的分隔符，避免编号的结尾和名称的开头拼接后被匹配
+     */
+    private static final char SEPARATOR = '\u0000';
+
+    @Autowired
+    private CommonGBChannelMapper commonGBChannelMapper;
+
+    /**
+     * 只在同步线程中访问
+     */
+    private Map<Integer, String> textMap;
+
+    private volatile Snapshot snapshot;
+
+    private long lastSyncTime;
+
+    private long lastRebuildTime;
+
+    /**
+     * 检索编号或名称中包含指定内容的通道，不区分大小写
+     * @return 匹配的通道ID，索引未加载或匹配过多时返回null，需要使用数据库检索
+     */
+    public List<Integer> search(String query) {
+        Snapshot current = snapshot;
+        if (current == null || query == null) {
+            return null;
+        }
+        String target = query.toLowerCase(Locale.ROOT);
+        String[] texts = current.texts;
+        List<Integer> result = new ArrayList<>();
+        for (int i = 0; i < texts.length; i++) {
+            if (texts[i].contains(target)) {
+                if (result.size() >= MAX_MATCH) {
+                    return null;
+                }
+                result.add(current.ids[i]);
+            }
+        }
+        return result;
+    }
+
+    public int size() {
+        Snapshot current = snapshot;
+        return current == null ? 0 : current.ids.length;
+    }
+
+    @Scheduled(fixedDelay = 5 * 1000)
+    public void sync() {
+        long now = System.currentTimeMillis();
+        try {
+            if (textMap == null || now - lastRebuildTime >= REBUILD_INTERVAL) {
+                Map<Integer, String> newMap = new HashMap<>();
+                put(newMap, commonGBChannelMapper.queryAllForSearchIndex(null));
+                textMap = newMap;
+                snapshot = new Snapshot(newMap);
+                lastRebuildTime = now;
+                lastSyncTime = now;
+                log.debug("[通道检索索引] 重建完成， 通道数：{}， 耗时：{}ms", newMap.size(), System.currentTimeMillis() - now);
+                return;
+            }
+            String updateTime = DateUtil.timestampMsTo_yyyy_MM_dd_HH_mm_ss(lastSyncTime - SYNC_OVERLAP);
+            if (put(textMap, commonGBChannelMapper.queryAllForSearchIndex(updateTime))) {
+                snapshot = new Snapshot(textMap);
+            }
+            lastSyncTime = now;
+        } catch (Exception e) {
+            log.warn("[通道检索索引] 同步失败， {}", e.getMessage());
+        }
+    }
+
+    /**
+     * @return 索引内容是否有变化
+     */
+    private static boolean put(Map<Integer, String> map, List<CommonGBChannel> channelList) {
+        boolean changed = false;
+        for (CommonGBChannel channel : channelList) {
+            String deviceId = channel.getGbDeviceId() == null ? "" : channel.getGbDeviceId();
+            String name = channel.getGbName() == null ? "" : channel.getGbName();
+            String text = (deviceId + SEPARATOR + name).toLowerCase(Locale.ROOT);
+            if (!text.equals(map.put(channel.getGbId(), text))) {
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    private static class Snapshot {
+
+        private final int[] ids;
+        private final String[] texts;
+
+        private Snapshot(Map<Integer, String> map) {
+            ids = new int[map.size()];
+            texts = new String[map.size()];
+            int i = 0;
+            for (Map.Entry<Integer, String> entry : map.entrySet()) {
+                ids[i] = entry.getKey();
+                texts[i] = entry.getValue();
+                i++;
+            }
+        }
+    }
+}
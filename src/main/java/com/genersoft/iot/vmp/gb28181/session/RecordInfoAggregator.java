@@ -0,0 +1,108 @@
+package com.genersoft.iot.vmp.gb28181.session;
+
+import com.genersoft.iot.vmp.gb28181.bean.RecordItem;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 录像查询结果的内存聚合
+ * 本节点发出的录像查询在发送时登记，设备分多包回复的结果在内存中按开始时间+结束时间去重合并，
+ * 不再逐包写入redis；未登记的查询（如其他节点发出或本节点重启前发出的）仍由调用方写入redis合并
+ * @author lin
+ */
+@Slf4j
+@Component
+public class RecordInfoAggregator {
+
+    /**
+     * 最后一次收到数据后的保留时长，与原redis中结果的过期时间一致，单位：秒
+     */
+    private static final long AGGREGATION_TTL = 1800L;
+
+    /**
+     * channelId + sn -> 合并中的结果
+     */
+    private final Cache<String, Aggregation> cache = CacheBuilder.newBuilder()
+            .expireAfterAccess(AGGREGATION_TTL, TimeUnit.SECONDS)
+            .build();
+
+    /**
+     * 登记本节点发出的录像查询
+     */
+    public void register(String channelId, String sn) {
+        cache.put(channelId + sn, new Aggregation());
+    }
+
+    /**
+     * 获取本节点登记的查询，未登记时返回null
+     */
+    public Aggregation get(String channelId, String sn) {
+        return cache.getIfPresent(channelId + sn);
+    }
+
+    public long size() {
+        return cache.size();
+    }
+
+    @Scheduled(fixedDelay = 60 * 1000)
+    public void cleanUp() {
+        cache.cleanUp();
+    }
+
+    public static class Aggregation {
+
+        /**
+         * 开始时间 + 结束时间 -> 录像， 与原redis中hash的key一致
+         */
+        private final Map<String, RecordItem> recordMap = new LinkedHashMap<>();
+
+        private boolean finished;
+
+        /**
+         * 结束时的录像数量，结束后不再保留录像数据
+         */
+        private int finishedCount;
+
+        /**
+         * 合并一包数据
+         * @return 合并后的录像数量
+         */
+        public synchronized int merge(List<RecordItem> recordList) {
+            if (finished) {
+                return finishedCount;
+            }
+            for (RecordItem recordItem : recordList) {
+                if (recordItem.getDeviceId() == null) {
+                    continue;
+                }
+                recordMap.put(recordItem.getStartTime() + recordItem.getEndTime(), recordItem);
+            }
+            return recordMap.size();
+        }
+
+        /**
+         * 接收完成，返回合并后的全部录像，只有第一次调用时返回结果，之后的重复数据不再触发结束
+         */
+        public synchronized List<RecordItem> finish() {
+            if (finished) {
+                return null;
+            }
+            finished = true;
+            finishedCount = recordMap.size();
+            List<RecordItem> result = new ArrayList<>(recordMap.values());
+            Collections.sort(result);
+            recordMap.clear();
+            return result;
+        }
+    }
+}
@@ -2,24 +2,34 @@ package com.genersoft.iot.vmp.gb28181.session;
 
 import com.genersoft.iot.vmp.conf.SipConfig;
 import com.genersoft.iot.vmp.conf.UserSetting;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PreDestroy;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 /**
  * ssrc使用
+ * redis中保存每个流媒体服务可用的ssrc集合，本地按批次从redis租用一部分sn放入位图中，
+ * 点播时直接在本地位图中原子地取出，本地不足时再从redis批量补充，多余的批量归还，
+ * 保证集群下不会重复分配，同时点播的热点路径上没有redis访问
  */
+@Slf4j
 @Component
 public class SSRCFactory {
 
     /**
-     * 播流最大并发个数
+     * sn为四位数字，播流最大并发个数不能超过此值
      */
-    private static final Integer MAX_STREAM_COUNT = 10000;
+    private static final int MAX_SN_COUNT = 10000;
 
     /**
      * 播流最大并发个数
@@ -35,20 +45,27 @@ public class SSRCFactory {
     @Autowired
     private UserSetting userSetting;
 
+    /**
+     * 每个流媒体服务在本地租用的sn
+     */
+    private final Map<String, LocalSnPool> localPoolMap = new ConcurrentHashMap<>();
+
 
     public void initMediaServerSSRC(String mediaServerId, Set<String> usedSet) {
-        String sipDomain = sipConfig.getDomain();
-        String ssrcPrefix = sipDomain.length() >= 8 ? sipDomain.substring(3, 8) : sipDomain;
-        String redisKey = SSRC_INFO_KEY + userSetting.getServerId() + "_" + mediaServerId;
-        List<String> ssrcList = new ArrayList<>();
-        for (int i = 1; i < MAX_STREAM_COUNT; i++) {
-            String ssrc = String.format("%s%04d", ssrcPrefix, i);
+        String ssrcPrefix = getSsrcPrefix();
+        String redisKey = getRedisKey(mediaServerId);
+        int maxCount = getMaxStreamCount();
+        List<String> ssrcList = new ArrayList<>(maxCount);
+        for (int i = 1; i < maxCount; i++) {
+            String ssrc = formatSn(ssrcPrefix, i);
 
             if (null == usedSet || !usedSet.contains(ssrc)) {
                 ssrcList.add(ssrc);
 
             }
         }
+        // 本地已经租用的sn随着redis集合一起重置
+        localPoolMap.put(mediaServerId, new LocalSnPool(maxCount));
         if (redisTemplate.opsForSet().size(redisKey) != null) {
             redisTemplate.delete(redisKey);
         }
@@ -82,21 +99,86 @@ public class SSRCFactory {
             return;
         }
         String sn = ssrc.substring(1);
-        String redisKey = SSRC_INFO_KEY + userSetting.getServerId() + "_" + mediaServerId;
-        redisTemplate.opsForSet().add(redisKey, sn);
+        String ssrcPrefix = getSsrcPrefix();
+        int index = parseSn(ssrcPrefix, sn);
+        LocalSnPool pool = getLocalPool(mediaServerId);
+        if (index <= 0 || index >= pool.capacity) {
+            // 不是由本地分配的sn, 直接归还到redis
+            redisTemplate.opsForSet().add(getRedisKey(mediaServerId), sn);
+            return;
+        }
+        pool.release(index);
+        int batchSize = getLeaseBatchSize();
+        if (pool.available() > batchSize * 2) {
+            giveBack(mediaServerId, pool, ssrcPrefix, batchSize);
+        }
     }
 
     /**
      * 获取后四位数SN,随机数
      */
     private String getSN(String mediaServerId) {
-        String redisKey = SSRC_INFO_KEY + userSetting.getServerId() + "_" + mediaServerId;
-        Long size = redisTemplate.opsForSet().size(redisKey);
-        if (size == null || size == 0) {
-            throw new RuntimeException("ssrc已经用完");
-        } else {
-            // 在集合中移除并返回一个随机成员。
-            return redisTemplate.opsForSet().pop(redisKey);
+        LocalSnPool pool = getLocalPool(mediaServerId);
+        int index = pool.claim();
+        if (index < 0) {
+            index = lease(mediaServerId, pool);
+        }
+        return formatSn(getSsrcPrefix(), index);
+    }
+
+    /**
+     * 本地可用的sn已经用完，从redis批量租用
+     */
+    private int lease(String mediaServerId, LocalSnPool pool) {
+        synchronized (pool) {
+            // 等待锁期间可能已经被其他线程补充
+            int index = pool.claim();
+            if (index >= 0) {
+                return index;
+            }
+            String ssrcPrefix = getSsrcPrefix();
+            List<String> snList = redisTemplate.opsForSet().pop(getRedisKey(mediaServerId), getLeaseBatchSize());
+            if (snList == null || snList.isEmpty()) {
+                throw new RuntimeException("ssrc已经用完");
+            }
+            List<String> invalidList = new ArrayList<>();
+            for (String sn : snList) {
+                int snIndex = parseSn(ssrcPrefix, sn);
+                if (snIndex <= 0 || snIndex >= pool.capacity) {
+                    invalidList.add(sn);
+                    continue;
+                }
+                if (index < 0) {
+                    index = snIndex;
+                } else {
+                    pool.release(snIndex);
+                }
+            }
+            if (!invalidList.isEmpty()) {
+                // sip域或者最大并发数修改后残留的旧数据，不再使用
+                log.warn("[ssrc分配] 丢弃无效的sn {}个, 流媒体: {}", invalidList.size(), mediaServerId);
+            }
+            if (index < 0) {
+                throw new RuntimeException("ssrc已经用完");
+            }
+            return index;
+        }
+    }
+
+    /**
+     * 本地空闲的sn过多时批量归还给redis
+     */
+    private void giveBack(String mediaServerId, LocalSnPool pool, String ssrcPrefix, int count) {
+        List<String> snList = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int index = pool.claim();
+            if (index < 0) {
+                break;
+            }
+            snList.add(formatSn(ssrcPrefix, index));
+        }
+        if (!snList.isEmpty()) {
+            redisTemplate.opsForSet().add(getRedisKey(mediaServerId), snList.toArray(new String[0]));
         }
     }
 
@@ -115,8 +197,145 @@ public class SSRCFactory {
      * @param mediaServerId 流媒体服务ID
      */
     public boolean hasMediaServerSSRC(String mediaServerId) {
-        String redisKey = SSRC_INFO_KEY + userSetting.getServerId() + "_" + mediaServerId;
+        // redis中的集合可能已经被全部租用到本地，此时集合不存在，但是不能重新初始化
+        if (localPoolMap.containsKey(mediaServerId)) {
+            return true;
+        }
+        String redisKey = getRedisKey(mediaServerId);
         return Boolean.TRUE.equals(redisTemplate.hasKey(redisKey));
     }
 
+    /**
+     * 服务停止时把本地租用但是未使用的sn归还给redis
+     */
+    @PreDestroy
+    public void destroy() {
+        String ssrcPrefix = getSsrcPrefix();
+        for (Map.Entry<String, LocalSnPool> entry : localPoolMap.entrySet()) {
+            try {
+                giveBack(entry.getKey(), entry.getValue(), ssrcPrefix, entry.getValue().capacity);
+            } catch (Exception e) {
+                log.warn("[ssrc分配] 归还本地sn失败, 流媒体: {}, {}", entry.getKey(), e.getMessage());
+            }
+        }
+    }
+
+    private LocalSnPool getLocalPool(String mediaServerId) {
+        return localPoolMap.computeIfAbsent(mediaServerId, key -> new LocalSnPool(getMaxStreamCount()));
+    }
+
+    private String getRedisKey(String mediaServerId) {
+        return SSRC_INFO_KEY + userSetting.getServerId() + "_" + mediaServerId;
+    }
+
+    private String getSsrcPrefix() {
+        String sipDomain = sipConfig.getDomain();
+        return sipDomain.length() >= 8 ? sipDomain.substring(3, 8) : sipDomain;
+    }
+
+    private int getMaxStreamCount() {
+        int maxCount = userSetting.getMaxStreamCount();
+        if (maxCount <= 1 || maxCount > MAX_SN_COUNT) {
+            return MAX_SN_COUNT;
+        }
+        return maxCount;
+    }
+
+    private int getLeaseBatchSize() {
+        return Math.max(userSetting.getSsrcLeaseBatchSize(), 1);
+    }
+
+    /**
+     * 前缀 + 四位sn, 等同于 String.format("%s%04d", prefix, index)
+     */
+    private static String formatSn(String prefix, int index) {
+        char[] chars = new char[prefix.length() + 4];
+        prefix.getChars(0, prefix.length(), chars, 0);
+        for (int i = chars.length - 1; i >= prefix.length(); i--) {
+            chars[i] = (char) ('0' + index % 10);
+            index /= 10;
+        }
+        return new String(chars);
+    }
+
+    /**
+     * 解析sn中的序号，格式不符时返回-1
+     */
+    private static int parseSn(String prefix, String sn) {
+        if (sn == null || sn.length() != prefix.length() + 4 || !sn.startsWith(prefix)) {
+            return -1;
+        }
+        int index = 0;
+        for (int i = prefix.length(); i < sn.length(); i++) {
+            char c = sn.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            index = index * 10 + (c - '0');
+        }
+        return index;
+    }
+
+    /**
+     * 本地租用的sn位图，位为1表示此sn已经租用到本地且空闲
+     */
+    private static class LocalSnPool {
+
+        private final int capacity;
+
+        private final AtomicLongArray bits;
+
+        private final AtomicInteger available = new AtomicInteger();
+
+        private final AtomicInteger cursor = new AtomicInteger();
+
+        private LocalSnPool(int capacity) {
+            this.capacity = capacity;
+            this.bits = new AtomicLongArray((capacity + 63) >>> 6);
+        }
+
+        private int available() {
+            return available.get();
+        }
+
+        /**
+         * 取出一个空闲的sn，没有时返回-1
+         */
+        private int claim() {
+            if (available.get() <= 0) {
+                return -1;
+            }
+            int words = bits.length();
+            int start = Math.floorMod(cursor.getAndIncrement(), words);
+            for (int i = 0; i < words; i++) {
+                int wordIndex = (start + i) % words;
+                long word;
+                while ((word = bits.get(wordIndex)) != 0) {
+                    long lowest = Long.lowestOneBit(word);
+                    if (bits.compareAndSet(wordIndex, word, word & ~lowest)) {
+                        available.decrementAndGet();
+                        return (wordIndex << 6) + Long.numberOfTrailingZeros(lowest);
+                    }
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * 放回一个sn，重复放回时忽略
+         */
+        private void release(int index) {
+            int wordIndex = index >>> 6;
+            long mask = 1L << (index & 63);
+            long word;
+            do {
+                word = bits.get(wordIndex);
+                if ((word & mask) != 0) {
+                    return;
+                }
+            } while (!bits.compareAndSet(wordIndex, word, word | mask));
+            available.incrementAndGet();
+        }
+    }
+
 }
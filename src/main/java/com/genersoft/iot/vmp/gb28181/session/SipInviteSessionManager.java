@@ -3,16 +3,32 @@ package com.genersoft.iot.vmp.gb28181.session;
 import com.genersoft.iot.vmp.common.VideoManagerConstants;
 import com.genersoft.iot.vmp.conf.UserSetting;
 import com.genersoft.iot.vmp.gb28181.bean.SsrcTransaction;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.core.RedisOperations;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 /**
  * 视频流session管理器，管理视频预览、预览回放的通信句柄
+ * 本节点的事务信息以内存为准，按callId存储，并维护按流、设备、流媒体节点的索引，
+ * 修改同时记录到队列中，由定时任务批量写入redis，节点重启后从redis恢复
  */
+@Slf4j
 @Component
 public class SipInviteSessionManager {
 
@@ -23,68 +39,349 @@ public class SipInviteSessionManager {
 	private RedisTemplate<Object, Object> redisTemplate;
 
 	/**
-	 * 添加一个点播/回放的事务信息
+	 * callId -> 事务信息
+	 */
+	private final Map<String, SsrcTransaction> callIdMap = new ConcurrentHashMap<>();
+
+	/**
+	 * app + stream -> 事务信息
+	 */
+	private final Map<String, SsrcTransaction> streamMap = new ConcurrentHashMap<>();
+
+	/**
+	 * deviceId -> callId
+	 */
+	private final Map<String, Set<String>> deviceIndex = new ConcurrentHashMap<>();
+
+	/**
+	 * mediaServerId -> callId
+	 */
+	private final Map<String, Set<String>> mediaServerIndex = new ConcurrentHashMap<>();
+
+	/**
+	 * 待写入redis的修改，按顺序执行
 	 */
-	public void put(SsrcTransaction ssrcTransaction){
-		redisTemplate.opsForHash().put(VideoManagerConstants.SIP_INVITE_SESSION_STREAM + userSetting.getServerId()
-				, ssrcTransaction.getApp() + ssrcTransaction.getStream(), ssrcTransaction);
+	private final ConcurrentLinkedQueue<JournalEntry> journalQueue = new ConcurrentLinkedQueue<>();
+
+	/**
+	 * 写入redis失败的修改，保留到下一次写入成功，且先于队列中的新修改执行
+	 */
+	private final List<JournalEntry> failedEntries = new ArrayList<>();
+
+	/**
+	 * 失败修改的保留上限，redis长时间不可用时丢弃保留的修改，恢复后按内存全量重写
+	 */
+	private static final int MAX_FAILED_ENTRIES = 10000;
+
+	/**
+	 * 是否需要按内存全量重写redis，只在持有flushLock时访问
+	 */
+	private boolean resyncRequired = false;
+
+	private final Object flushLock = new Object();
+
+	@PostConstruct
+	public void init() {
+		try {
+			Map<Object, Object> streamEntries = redisTemplate.opsForHash().entries(getStreamKey());
+			for (Map.Entry<Object, Object> entry : streamEntries.entrySet()) {
+				if (entry.getValue() != null) {
+					streamMap.put((String) entry.getKey(), (SsrcTransaction) entry.getValue());
+				}
+			}
+			Map<Object, Object> callIdEntries = redisTemplate.opsForHash().entries(getCallIdKey());
+			for (Map.Entry<Object, Object> entry : callIdEntries.entrySet()) {
+				SsrcTransaction ssrcTransaction = (SsrcTransaction) entry.getValue();
+				if (ssrcTransaction == null) {
+					continue;
+				}
+				String callId = (String) entry.getKey();
+				// 同一个事务在两个map中使用同一个对象
+				SsrcTransaction ssrcTransactionForStream = streamMap.get(buildStreamKey(ssrcTransaction));
+				if (ssrcTransactionForStream != null && callId.equals(ssrcTransactionForStream.getCallId())) {
+					ssrcTransaction = ssrcTransactionForStream;
+				}
+				callIdMap.put(callId, ssrcTransaction);
+				addIndex(callId, ssrcTransaction);
+			}
+			if (!callIdMap.isEmpty()) {
+				log.info("[点播事务] 从redis恢复 {} 条", callIdMap.size());
+			}
+		} catch (Exception e) {
+			log.error("[点播事务] 从redis恢复失败", e);
+		}
+	}
 
-		redisTemplate.opsForHash().put(VideoManagerConstants.SIP_INVITE_SESSION_CALL_ID + userSetting.getServerId()
-				, ssrcTransaction.getCallId(), ssrcTransaction);
+	@PreDestroy
+	public void destroy() {
+		flushJournal();
+	}
+
+	/**
+	 * 添加一个点播/回放的事务信息
+	 */
+	public synchronized void put(SsrcTransaction ssrcTransaction){
+		String streamKey = buildStreamKey(ssrcTransaction);
+		String callId = ssrcTransaction.getCallId();
+		if (callId != null) {
+			SsrcTransaction old = callIdMap.put(callId, ssrcTransaction);
+			if (old != null) {
+				removeIndex(callId, old);
+				String oldStreamKey = buildStreamKey(old);
+				if (!oldStreamKey.equals(streamKey) && streamMap.remove(oldStreamKey, old)) {
+					journalQueue.offer(JournalEntry.removeStream(oldStreamKey));
+				}
+			}
+			addIndex(callId, ssrcTransaction);
+		}
+		streamMap.put(streamKey, ssrcTransaction);
+		journalQueue.offer(JournalEntry.put(streamKey, callId, ssrcTransaction));
 	}
 
 	public SsrcTransaction getSsrcTransactionByStream(String app, String stream){
-		String key = VideoManagerConstants.SIP_INVITE_SESSION_STREAM + userSetting.getServerId();
-		return (SsrcTransaction)redisTemplate.opsForHash().get(key, app + stream);
+		return streamMap.get(app + stream);
 	}
 
 	public SsrcTransaction getSsrcTransactionByCallId(String callId){
-		String key = VideoManagerConstants.SIP_INVITE_SESSION_CALL_ID + userSetting.getServerId();
-		return (SsrcTransaction)redisTemplate.opsForHash().get(key, callId);
+		if (callId == null) {
+			return null;
+		}
+		return callIdMap.get(callId);
 	}
 
 	public List<SsrcTransaction> getSsrcTransactionByDeviceId(String deviceId){
-		String key = VideoManagerConstants.SIP_INVITE_SESSION_CALL_ID + userSetting.getServerId();
-		List<Object> values = redisTemplate.opsForHash().values(key);
-		List<SsrcTransaction> result = new ArrayList<>();
-		for (Object value : values) {
-			SsrcTransaction ssrcTransaction = (SsrcTransaction) value;
-			if (ssrcTransaction != null && deviceId.equals(ssrcTransaction.getDeviceId())) {
-				result.add(ssrcTransaction);
-			}
-		}
-		return result;
+		return getByIndex(deviceIndex, deviceId);
 	}
-	
-	public void removeByStream(String app, String stream) {
-		SsrcTransaction ssrcTransaction = getSsrcTransactionByStream(app, stream);
+
+	public List<SsrcTransaction> getSsrcTransactionByMediaServerId(String mediaServerId){
+		return getByIndex(mediaServerIndex, mediaServerId);
+	}
+
+	public synchronized void removeByStream(String app, String stream) {
+		String streamKey = app + stream;
+		SsrcTransaction ssrcTransaction = streamMap.remove(streamKey);
 		if (ssrcTransaction == null ) {
 			return;
 		}
-		redisTemplate.opsForHash().delete(VideoManagerConstants.SIP_INVITE_SESSION_STREAM + userSetting.getServerId(), app + stream);
-		if (ssrcTransaction.getCallId() != null) {
-			redisTemplate.opsForHash().delete(VideoManagerConstants.SIP_INVITE_SESSION_CALL_ID + userSetting.getServerId(), ssrcTransaction.getCallId());
+		String callId = ssrcTransaction.getCallId();
+		// callId已经被新的事务使用时不能删除
+		if (callId != null && callIdMap.remove(callId, ssrcTransaction)) {
+			removeIndex(callId, ssrcTransaction);
+		} else {
+			callId = null;
 		}
+		journalQueue.offer(JournalEntry.remove(streamKey, callId));
 	}
 
-	public void removeByCallId(String callId) {
+	public synchronized void removeByCallId(String callId) {
 		SsrcTransaction ssrcTransaction = getSsrcTransactionByCallId(callId);
 		if (ssrcTransaction == null ) {
 			return;
 		}
-		redisTemplate.opsForHash().delete(VideoManagerConstants.SIP_INVITE_SESSION_CALL_ID + userSetting.getServerId(), callId);
-		if (ssrcTransaction.getStream() != null) {
-			redisTemplate.opsForHash().delete(VideoManagerConstants.SIP_INVITE_SESSION_STREAM + userSetting.getServerId(), ssrcTransaction.getApp() + ssrcTransaction.getStream());
+		callIdMap.remove(callId);
+		removeIndex(callId, ssrcTransaction);
+		String streamKey = null;
+		// 流已经属于新的事务时只删除callId，不能删除redis中新事务的流信息
+		if (ssrcTransaction.getStream() != null && streamMap.remove(buildStreamKey(ssrcTransaction), ssrcTransaction)) {
+			streamKey = buildStreamKey(ssrcTransaction);
 		}
+		journalQueue.offer(JournalEntry.remove(streamKey, callId));
 	}
 
 	public List<SsrcTransaction> getAll() {
-		String key = VideoManagerConstants.SIP_INVITE_SESSION_CALL_ID + userSetting.getServerId();
-		List<Object> values = redisTemplate.opsForHash().values(key);
-		List<SsrcTransaction> result = new ArrayList<>();
-		for (Object value : values) {
-			result.add((SsrcTransaction) value);
+		return new ArrayList<>(callIdMap.values());
+	}
+
+	/**
+	 * 把内存中的修改批量写入redis
+	 */
+	@Scheduled(fixedDelay = 200)
+	public void flushJournal() {
+		synchronized (flushLock) {
+			if (resyncRequired) {
+				resyncRequired = !resync();
+				return;
+			}
+			if (journalQueue.isEmpty() && failedEntries.isEmpty()) {
+				return;
+			}
+			List<JournalEntry> entries = new ArrayList<>(failedEntries);
+			JournalEntry journalEntry;
+			while ((journalEntry = journalQueue.poll()) != null) {
+				entries.add(journalEntry);
+			}
+			failedEntries.clear();
+			if (writeJournal(entries)) {
+				return;
+			}
+			if (entries.size() > MAX_FAILED_ENTRIES) {
+				log.warn("[点播事务] 写入redis失败的修改超过上限， 丢弃 {} 条， redis恢复后按内存全量重写", entries.size());
+				resyncRequired = true;
+				return;
+			}
+			failedEntries.addAll(entries);
+		}
+	}
+
+	/**
+	 * 丢弃了修改后，按内存中的全部事务重写redis，之后的修改继续按队列写入
+	 * @return 是否写入成功
+	 */
+	private boolean resync() {
+		Map<Object, Object> streamEntries;
+		Map<Object, Object> callIdEntries;
+		// 与修改互斥，清空队列后取得的快照包含了被清空的修改
+		synchronized (this) {
+			journalQueue.clear();
+			streamEntries = new HashMap<>(streamMap);
+			callIdEntries = new HashMap<>(callIdMap);
+		}
+		String streamKey = getStreamKey();
+		String callIdKey = getCallIdKey();
+		try {
+			redisTemplate.executePipelined(new SessionCallback<Object>() {
+				@Override
+				@SuppressWarnings("unchecked")
+				public <K, V> Object execute(RedisOperations<K, V> operations) throws DataAccessException {
+					RedisOperations<Object, Object> redisOperations = (RedisOperations<Object, Object>) operations;
+					redisOperations.delete(streamKey);
+					redisOperations.delete(callIdKey);
+					if (!streamEntries.isEmpty()) {
+						redisOperations.opsForHash().putAll(streamKey, streamEntries);
+					}
+					if (!callIdEntries.isEmpty()) {
+						redisOperations.opsForHash().putAll(callIdKey, callIdEntries);
+					}
+					return null;
+				}
+			});
+			log.info("[点播事务] 按内存全量重写redis， 数量： {}", callIdEntries.size());
+			return true;
+		} catch (Exception e) {
+			log.error("[点播事务] 全量重写redis失败， 下次继续重写", e);
+			return false;
+		}
+	}
+
+	/**
+	 * 按顺序写入，写入的都是覆盖和删除操作，失败后重复执行结果一致
+	 * @return 是否写入成功
+	 */
+	private boolean writeJournal(List<JournalEntry> entries) {
+		String streamKey = getStreamKey();
+		String callIdKey = getCallIdKey();
+		try {
+			redisTemplate.executePipelined(new SessionCallback<Object>() {
+				@Override
+				@SuppressWarnings("unchecked")
+				public <K, V> Object execute(RedisOperations<K, V> operations) throws DataAccessException {
+					RedisOperations<Object, Object> redisOperations = (RedisOperations<Object, Object>) operations;
+					for (JournalEntry entry : entries) {
+						if (entry.value != null) {
+							redisOperations.opsForHash().put(streamKey, entry.streamKey, entry.value);
+							if (entry.callId != null) {
+								redisOperations.opsForHash().put(callIdKey, entry.callId, entry.value);
+							}
+						} else {
+							if (entry.streamKey != null) {
+								redisOperations.opsForHash().delete(streamKey, entry.streamKey);
+							}
+							if (entry.callId != null) {
+								redisOperations.opsForHash().delete(callIdKey, entry.callId);
+							}
+						}
+					}
+					return null;
+				}
+			});
+			return true;
+		} catch (Exception e) {
+			log.error("[点播事务] 写入redis失败， 数量： {}， 下次继续写入", entries.size(), e);
+			return false;
+		}
+	}
+
+	private List<SsrcTransaction> getByIndex(Map<String, Set<String>> index, String key) {
+		if (key == null) {
+			return Collections.emptyList();
+		}
+		Set<String> callIds = index.get(key);
+		if (callIds == null || callIds.isEmpty()) {
+			return Collections.emptyList();
+		}
+		List<SsrcTransaction> result = new ArrayList<>(callIds.size());
+		for (String callId : callIds) {
+			SsrcTransaction ssrcTransaction = callIdMap.get(callId);
+			if (ssrcTransaction != null) {
+				result.add(ssrcTransaction);
+			}
 		}
 		return result;
 	}
+
+	private void addIndex(String callId, SsrcTransaction ssrcTransaction) {
+		if (ssrcTransaction.getDeviceId() != null) {
+			deviceIndex.computeIfAbsent(ssrcTransaction.getDeviceId(), k -> ConcurrentHashMap.newKeySet()).add(callId);
+		}
+		if (ssrcTransaction.getMediaServerId() != null) {
+			mediaServerIndex.computeIfAbsent(ssrcTransaction.getMediaServerId(), k -> ConcurrentHashMap.newKeySet()).add(callId);
+		}
+	}
+
+	private void removeIndex(String callId, SsrcTransaction ssrcTransaction) {
+		removeIndex(deviceIndex, ssrcTransaction.getDeviceId(), callId);
+		removeIndex(mediaServerIndex, ssrcTransaction.getMediaServerId(), callId);
+	}
+
+	private void removeIndex(Map<String, Set<String>> index, String key, String callId) {
+		if (key == null) {
+			return;
+		}
+		index.computeIfPresent(key, (k, callIds) -> {
+			callIds.remove(callId);
+			return callIds.isEmpty() ? null : callIds;
+		});
+	}
+
+	private String buildStreamKey(SsrcTransaction ssrcTransaction) {
+		return ssrcTransaction.getApp() + ssrcTransaction.getStream();
+	}
+
+	private String getStreamKey() {
+		return VideoManagerConstants.SIP_INVITE_SESSION_STREAM + userSetting.getServerId();
+	}
+
+	private String getCallIdKey() {
+		return VideoManagerConstants.SIP_INVITE_SESSION_CALL_ID + userSetting.getServerId();
+	}
+
+	private static class JournalEntry {
+
+		private final String streamKey;
+
+		private final String callId;
+
+		/**
+		 * 为空表示删除
+		 */
+		private final SsrcTransaction value;
+
+		private JournalEntry(String streamKey, String callId, SsrcTransaction value) {
+			this.streamKey = streamKey;
+			this.callId = callId;
+			this.value = value;
+		}
+
+		private static JournalEntry put(String streamKey, String callId, SsrcTransaction value) {
+			return new JournalEntry(streamKey, callId, value);
+		}
+
+		private static JournalEntry remove(String streamKey, String callId) {
+			return new JournalEntry(streamKey, callId, null);
+		}
+
+		private static JournalEntry removeStream(String streamKey) {
+			return new JournalEntry(streamKey, null, null);
+		}
+	}
 }
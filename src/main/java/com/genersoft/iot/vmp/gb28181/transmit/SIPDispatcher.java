@@ -0,0 +1,173 @@
+package com.genersoft.iot.vmp.gb28181.transmit;
+
+import com.genersoft.iot.vmp.conf.SipConfig;
+import com.genersoft.iot.vmp.gb28181.bean.SipDispatcherLaneInfo;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * SIP消息分发器
+ * 按照设备ID(或Call-ID)哈希到固定数量的单线程通道中执行，保证同一设备的消息按顺序处理；
+ * 通道队列有界，队列已满时由调用方决定如何拒绝(回复503等)，不再占用SIP协议栈的线程执行业务。
+ * 对本端请求的回复优先保证：请求只能使用队列容量，回复可以额外使用一倍的容量，超过两倍容量时回复也会被丢弃并计入拒绝数，
+ * 对应的请求按照超时处理。通道线程是单线程的，处理中不能阻塞等待其他sip消息，否则同一通道的消息会全部等待
+ */
+@Slf4j
+@Component
+public class SIPDispatcher {
+
+    @Autowired
+    private SipConfig sipConfig;
+
+    private Lane[] lanes;
+
+    private volatile boolean running;
+
+    @PostConstruct
+    public void init() {
+        int laneCount = sipConfig.getDispatcherLanes();
+        if (laneCount <= 0) {
+            laneCount = Math.max(Runtime.getRuntime().availableProcessors() * 2, 16);
+        }
+        int capacity = Math.max(sipConfig.getDispatcherQueueSize(), 1);
+        running = true;
+        lanes = new Lane[laneCount];
+        for (int i = 0; i < laneCount; i++) {
+            lanes[i] = new Lane(i, capacity);
+            Thread thread = new Thread(lanes[i], "sip-lane-" + i);
+            thread.setDaemon(true);
+            lanes[i].thread = thread;
+            thread.start();
+        }
+        log.info("[SIP消息分发] 通道数: {}, 单通道队列容量: {}", laneCount, capacity);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        running = false;
+        for (Lane lane : lanes) {
+            LockSupport.unpark(lane.thread);
+        }
+    }
+
+    /**
+     * 提交任务
+     * @param key 分发的依据，同一个key的任务在同一个通道中按提交顺序执行
+     * @param task 任务
+     * @param response 是否为对本端请求的回复，回复可以使用两倍的队列容量
+     * @return 队列已满时返回false, 任务不会被执行
+     */
+    public boolean dispatch(String key, Runnable task, boolean response) {
+        Lane lane = lanes[laneIndex(key)];
+        if (!lane.offer(task, response ? lane.capacity * 2 : lane.capacity)) {
+            lane.rejected.incrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    private int laneIndex(String key) {
+        if (key == null) {
+            return 0;
+        }
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        return (h & 0x7fffffff) % lanes.length;
+    }
+
+    public List<SipDispatcherLaneInfo> getLaneInfoList() {
+        List<SipDispatcherLaneInfo> result = new ArrayList<>(lanes.length);
+        for (Lane lane : lanes) {
+            SipDispatcherLaneInfo info = new SipDispatcherLaneInfo();
+            info.setIndex(lane.index);
+            info.setCapacity(lane.capacity);
+            info.setQueueSize(lane.size.get());
+            long processed = lane.processed.get();
+            info.setProcessed(processed);
+            info.setRejected(lane.rejected.get());
+            if (processed > 0) {
+                info.setAvgWaitMs(lane.totalWaitNanos.get() / (double) processed / 1000000);
+                info.setAvgHandleMs(lane.totalHandleNanos.get() / (double) processed / 1000000);
+            }
+            info.setMaxWaitMs(lane.maxWaitNanos.get() / 1000000d);
+            result.add(info);
+        }
+        return result;
+    }
+
+    private static class Task {
+        private final Runnable runnable;
+        private final long enqueueTime;
+
+        private Task(Runnable runnable) {
+            this.runnable = runnable;
+            this.enqueueTime = System.nanoTime();
+        }
+    }
+
+    private class Lane implements Runnable {
+
+        private final int index;
+        private final int capacity;
+        private final ConcurrentLinkedQueue<Task> queue = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger size = new AtomicInteger();
+        private final AtomicLong processed = new AtomicLong();
+        private final AtomicLong rejected = new AtomicLong();
+        private final AtomicLong totalWaitNanos = new AtomicLong();
+        private final AtomicLong totalHandleNanos = new AtomicLong();
+        private final AtomicLong maxWaitNanos = new AtomicLong();
+        private volatile Thread thread;
+
+        private Lane(int index, int capacity) {
+            this.index = index;
+            this.capacity = capacity;
+        }
+
+        private boolean offer(Runnable runnable, int limit) {
+            int current;
+            do {
+                current = size.get();
+                if (current >= limit) {
+                    return false;
+                }
+            } while (!size.compareAndSet(current, current + 1));
+            queue.offer(new Task(runnable));
+            LockSupport.unpark(thread);
+            return true;
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                Task task = queue.poll();
+                if (task == null) {
+                    LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(100));
+                    continue;
+                }
+                size.decrementAndGet();
+                long start = System.nanoTime();
+                long wait = start - task.enqueueTime;
+                try {
+                    task.runnable.run();
+                } catch (Exception e) {
+                    log.error("[SIP消息分发] 处理消息异常 ", e);
+                }
+                processed.incrementAndGet();
+                totalWaitNanos.addAndGet(wait);
+                totalHandleNanos.addAndGet(System.nanoTime() - start);
+                maxWaitNanos.accumulateAndGet(wait, Math::max);
+            }
+        }
+    }
+}
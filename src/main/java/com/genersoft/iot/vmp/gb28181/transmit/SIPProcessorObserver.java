@@ -5,16 +5,22 @@ import com.genersoft.iot.vmp.gb28181.event.SipSubscribe;
 import com.genersoft.iot.vmp.gb28181.event.sip.SipEvent;
 import com.genersoft.iot.vmp.gb28181.transmit.event.request.ISIPRequestProcessor;
 import com.genersoft.iot.vmp.gb28181.transmit.event.response.ISIPResponseProcessor;
+import com.genersoft.iot.vmp.gb28181.utils.SipUtils;
+import gov.nist.javax.sip.message.SIPRequest;
 import gov.nist.javax.sip.message.SIPResponse;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Component;
+import org.springframework.util.ObjectUtils;
 
 import javax.sip.*;
 import javax.sip.header.CSeqHeader;
 import javax.sip.header.CallIdHeader;
+import javax.sip.header.HeaderFactory;
+import javax.sip.header.ToHeader;
+import javax.sip.message.Request;
 import javax.sip.message.Response;
+import java.text.ParseException;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -36,6 +42,9 @@ public class SIPProcessorObserver implements ISIPProcessorObserver {
     @Autowired
     private EventPublisher eventPublisher;
 
+    @Autowired
+    private SIPDispatcher sipDispatcher;
+
     /**
      * 添加 request订阅
      * @param method 方法名
@@ -59,8 +68,19 @@ public class SIPProcessorObserver implements ISIPProcessorObserver {
      * @param requestEvent RequestEvent事件
      */
     @Override
-    @Async("taskExecutor")
     public void processRequest(RequestEvent requestEvent) {
+        SIPRequest request = (SIPRequest) requestEvent.getRequest();
+        String key = SipUtils.getUserIdFromFromHeader(request);
+        if (ObjectUtils.isEmpty(key)) {
+            key = request.getCallIdHeader().getCallId();
+        }
+        if (!sipDispatcher.dispatch(key, () -> doProcessRequest(requestEvent), false)) {
+            log.warn("[SIP消息分发] 队列已满，回复503， method: {}, from: {}", request.getMethod(), key);
+            responseServiceUnavailable(requestEvent);
+        }
+    }
+
+    private void doProcessRequest(RequestEvent requestEvent) {
         String method = requestEvent.getRequest().getMethod();
         ISIPRequestProcessor sipRequestProcessor = requestProcessorMap.get(method);
         if (sipRequestProcessor == null) {
@@ -68,17 +88,57 @@ public class SIPProcessorObserver implements ISIPProcessorObserver {
             // TODO 回复错误玛
             return;
         }
-        requestProcessorMap.get(method).process(requestEvent);
+        sipRequestProcessor.process(requestEvent);
 
     }
 
+    /**
+     * 队列已满时直接由协议栈回复503, 不经过业务处理
+     */
+    private void responseServiceUnavailable(RequestEvent requestEvent) {
+        Request request = requestEvent.getRequest();
+        // ACK无法回复
+        if (Request.ACK.equals(request.getMethod())) {
+            return;
+        }
+        try {
+            Response response = SipFactory.getInstance().createMessageFactory().createResponse(Response.SERVICE_UNAVAILABLE, request);
+            HeaderFactory headerFactory = SipFactory.getInstance().createHeaderFactory();
+            response.addHeader(headerFactory.createRetryAfterHeader(5));
+            ToHeader toHeader = (ToHeader) response.getHeader(ToHeader.NAME);
+            if (toHeader.getTag() == null) {
+                toHeader.setTag(SipUtils.getNewTag());
+            }
+            ((SipProvider) requestEvent.getSource()).sendResponse(response);
+        } catch (SipException | InvalidArgumentException | ParseException e) {
+            log.error("[SIP消息分发] 回复503失败: {}", e.getMessage());
+        }
+    }
+
     /**
      * 分发ResponseEvent事件
      * @param responseEvent responseEvent事件
      */
     @Override
-    @Async("taskExecutor")
     public void processResponse(ResponseEvent responseEvent) {
+        SIPResponse response = (SIPResponse)responseEvent.getResponse();
+        // 临时回复(100、180等)不需要处理，不占用通道
+        if (response.getStatusCode() < Response.OK) {
+            return;
+        }
+        // 回复的To为设备，与设备发来的请求使用同一个通道
+        String key = SipUtils.getUserIdFromToHeader(response);
+        if (ObjectUtils.isEmpty(key)) {
+            key = response.getCallIdHeader().getCallId();
+        }
+        // 回复可以使用两倍的队列容量，仍然已满时丢弃，对应的请求按超时处理
+        if (!sipDispatcher.dispatch(key, () -> doProcessResponse(responseEvent), true)) {
+            log.warn("[SIP消息分发] 队列已满，丢弃回复， status: {}, method: {}, to: {}", response.getStatusCode(),
+                    response.getCSeqHeader().getMethod(), key);
+        }
+    }
+
+    private void doProcessResponse(ResponseEvent responseEvent) {
         SIPResponse response = (SIPResponse)responseEvent.getResponse();
         int status = response.getStatusCode();
 
@@ -89,6 +149,7 @@ public class SIPProcessorObserver implements ISIPProcessorObserver {
             if (callIdHeader != null) {
                 SipEvent sipEvent = sipSubscribe.getSubscribe(callIdHeader.getCallId() + cSeqHeader.getSeqNumber());
                 if (sipEvent != null) {
+                    sipSubscribe.recordResponse(sipEvent);
                     if (sipEvent.getOkEvent() != null) {
                         SipSubscribe.EventResult<ResponseEvent> eventResult = new SipSubscribe.EventResult<>(responseEvent);
                         sipEvent.getOkEvent().response(eventResult);
@@ -112,6 +173,7 @@ public class SIPProcessorObserver implements ISIPProcessorObserver {
                 if (callIdHeader != null) {
                     SipEvent sipEvent = sipSubscribe.getSubscribe(callIdHeader.getCallId() + cSeqHeader.getSeqNumber());
                     if (sipEvent != null ) {
+                        sipSubscribe.recordResponse(sipEvent);
                         if (sipEvent.getErrorEvent() != null) {
                             SipSubscribe.EventResult<ResponseEvent> eventResult = new SipSubscribe.EventResult<>(responseEvent);
                             sipEvent.getErrorEvent().response(eventResult);
@@ -87,6 +87,8 @@ public class SIPSender {
                     errorEvent.response(eventResult);
                 }
             }), timeout == null ? sipConfig.getTimeout() : timeout);
+            sipEvent.setMethod(cSeqHeader.getMethod());
+            sipEvent.setDeviceId(SipUtils.getUserIdFromToHeader(message));
             sipSubscribe.addSubscribe(key, sipEvent);
         }
         try {
@@ -173,7 +173,18 @@ public class SIPRequestHeaderPlarformProvider {
 	}
 
 
+	/**
+	 * 消息体已按平台字符集编码
+	 */
+	public Request createMessageRequest(Platform parentPlatform, byte[] content, String fromTag, String viaTag, CallIdHeader callIdHeader) throws PeerUnavailableException, ParseException, InvalidArgumentException {
+		return buildMessageRequest(parentPlatform, content, fromTag, viaTag, null, callIdHeader);
+	}
+
 	public Request createMessageRequest(Platform parentPlatform, String content, String fromTag, String viaTag, String toTag, CallIdHeader callIdHeader) throws PeerUnavailableException, ParseException, InvalidArgumentException {
+		return buildMessageRequest(parentPlatform, content, fromTag, viaTag, toTag, callIdHeader);
+	}
+
+	private Request buildMessageRequest(Platform parentPlatform, Object content, String fromTag, String viaTag, String toTag, CallIdHeader callIdHeader) throws PeerUnavailableException, ParseException, InvalidArgumentException {
 		Request request = null;
 		String serverAddress = parentPlatform.getServerIp()+ ":" + parentPlatform.getServerPort();
 		// sipuri
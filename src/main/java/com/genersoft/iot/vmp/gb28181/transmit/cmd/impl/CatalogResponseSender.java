@@ -0,0 +1,287 @@
+package com.genersoft.iot.vmp.gb28181.transmit.cmd.impl;
+
+import com.genersoft.iot.vmp.conf.DynamicTask;
+import com.genersoft.iot.vmp.conf.UserSetting;
+import com.genersoft.iot.vmp.gb28181.bean.CatalogSendInfo;
+import com.genersoft.iot.vmp.gb28181.bean.CommonGBChannel;
+import com.genersoft.iot.vmp.gb28181.bean.Platform;
+import com.genersoft.iot.vmp.gb28181.event.SipSubscribe;
+import com.genersoft.iot.vmp.gb28181.transmit.SIPSender;
+import com.genersoft.iot.vmp.gb28181.transmit.cmd.SIPRequestHeaderPlarformProvider;
+import com.genersoft.iot.vmp.gb28181.utils.CatalogXmlEncoder;
+import com.genersoft.iot.vmp.gb28181.utils.SipUtils;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.sip.header.CallIdHeader;
+import javax.sip.message.Request;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 向上级平台分页回复目录
+ * 同时保持多页等待回复，窗口按回复耗时调整：回复耗时接近最小值时增大窗口，耗时明显变长时减半，
+ * 出现超时说明上级可能不回复，与原来的处理一致，改为按固定间隔直接发送剩余的数据
+ */
+@Slf4j
+@Component
+public class CatalogResponseSender {
+
+    /**
+     * 上级不回复时的发送间隔，单位：毫秒
+     */
+    private static final int PACED_INTERVAL = 100;
+
+    /**
+     * 回复耗时超过 最小耗时*RTT_CONGESTED_FACTOR + RTT_SLACK 时认为上级处理不过来
+     */
+    private static final double RTT_CONGESTED_FACTOR = 2;
+
+    private static final long RTT_SLACK = 20;
+
+    @Autowired
+    private SIPRequestHeaderPlarformProvider headerProviderPlatformProvider;
+
+    @Autowired
+    private SIPSender sipSender;
+
+    @Autowired
+    private DynamicTask dynamicTask;
+
+    @Autowired
+    private UserSetting userSetting;
+
+    /**
+     * 平台编号 + sn -> 发送任务
+     */
+    private final Map<String, SendTask> taskMap = new ConcurrentHashMap<>();
+
+    public void send(List<CommonGBChannel> channels, Platform platform, String sn, String fromTag) {
+        String key = platform.getServerGBId() + sn;
+        SendTask sendTask = new SendTask(key, channels, platform, sn, fromTag);
+        SendTask old = taskMap.put(key, sendTask);
+        if (old != null) {
+            old.stop();
+        }
+        sendTask.fill();
+    }
+
+    public List<CatalogSendInfo> getInfoList() {
+        List<CatalogSendInfo> result = new ArrayList<>(taskMap.size());
+        for (SendTask sendTask : taskMap.values()) {
+            result.add(sendTask.getInfo());
+        }
+        return result;
+    }
+
+    private class SendTask {
+
+        private final String key;
+
+        private final List<CommonGBChannel> channels;
+
+        private final Platform platform;
+
+        private final String sn;
+
+        private final String fromTag;
+
+        private final int pageSize;
+
+        private final int pageCount;
+
+        private final int maxWindow;
+
+        private final long startTime = System.currentTimeMillis();
+
+        private int nextPage;
+
+        private int inFlight;
+
+        private int responseCount;
+
+        private int timeoutCount;
+
+        /**
+         * 当前窗口，小于ssthresh时每次回复加1，之后每个窗口的回复加1
+         */
+        private double window = 1;
+
+        private double ssthresh;
+
+        private double srtt;
+
+        private long minRtt = Long.MAX_VALUE;
+
+        /**
+         * 上次减小窗口的时间，一个回复耗时内只减小一次
+         */
+        private long lastDecreaseTime;
+
+        private boolean paced;
+
+        private boolean stopped;
+
+        private SendTask(String key, List<CommonGBChannel> channels, Platform platform, String sn, String fromTag) {
+            this.key = key;
+            this.channels = channels;
+            this.platform = platform;
+            this.sn = sn;
+            this.fromTag = fromTag;
+            this.pageSize = Math.max(platform.getCatalogGroup(), 1);
+            this.pageCount = (channels.size() + pageSize - 1) / pageSize;
+            this.maxWindow = Math.max(userSetting.getCatalogSendWindow(), 1);
+            this.ssthresh = maxWindow;
+        }
+
+        /**
+         * 在窗口允许的范围内发送后续的分页
+         */
+        private void fill() {
+            List<Integer> pages = new ArrayList<>();
+            synchronized (this) {
+                if (stopped) {
+                    return;
+                }
+                if (paced) {
+                    if (nextPage < pageCount) {
+                        pages.add(nextPage++);
+                    }
+                } else {
+                    while (inFlight < (int) window && nextPage < pageCount) {
+                        pages.add(nextPage++);
+                        inFlight++;
+                    }
+                }
+            }
+            for (Integer page : pages) {
+                sendPage(page);
+            }
+            if (paced && !pages.isEmpty()) {
+                dynamicTask.startDelay(getTimerKey(), this::fill, PACED_INTERVAL);
+            }
+            checkFinish();
+        }
+
+        private void sendPage(int page) {
+            int fromIndex = page * pageSize;
+            int toIndex = Math.min(fromIndex + pageSize, channels.size());
+            boolean waitResponse;
+            synchronized (this) {
+                waitResponse = !paced;
+            }
+            try {
+                byte[] catalogXml = CatalogXmlEncoder.encodeResponse(channels.subList(fromIndex, toIndex), sn, platform, channels.size());
+                CallIdHeader callIdHeader = sipSender.getNewCallIdHeader(platform.getDeviceIp(), platform.getTransport());
+                Request request = headerProviderPlatformProvider.createMessageRequest(platform, catalogXml, fromTag, SipUtils.getNewViaTag(), callIdHeader);
+                log.info("[命令发送] 国标级联{} 目录查询回复: 共{}条，已发送{}条", platform.getServerGBId(), channels.size(), toIndex);
+                if (log.isDebugEnabled()) {
+                    log.debug(new String(catalogXml, CatalogXmlEncoder.getCharset(platform.getCharacterSet())));
+                }
+                long sendTime = System.currentTimeMillis();
+                if (waitResponse) {
+                    sipSender.transmitRequest(platform.getDeviceIp(), request,
+                            eventResult -> onError(eventResult, true),
+                            eventResult -> onResponse(System.currentTimeMillis() - sendTime));
+                } else {
+                    sipSender.transmitRequest(platform.getDeviceIp(), request, eventResult -> onError(eventResult, false));
+                }
+            } catch (Exception e) {
+                log.error("[命令发送失败] 国标级联 目录查询回复: {}", e.getMessage());
+                stop();
+            }
+        }
+
+        private void onResponse(long rtt) {
+            synchronized (this) {
+                inFlight--;
+                responseCount++;
+                srtt = srtt == 0 ? rtt : srtt * 0.875 + rtt * 0.125;
+                minRtt = Math.min(minRtt, rtt);
+                long now = System.currentTimeMillis();
+                if (rtt > minRtt * RTT_CONGESTED_FACTOR + RTT_SLACK) {
+                    if (now - lastDecreaseTime > srtt) {
+                        window = Math.max(window / 2, 1);
+                        ssthresh = window;
+                        lastDecreaseTime = now;
+                    }
+                } else if (window < ssthresh) {
+                    window = Math.min(window + 1, maxWindow);
+                } else {
+                    window = Math.min(window + 1 / window, maxWindow);
+                }
+            }
+            fill();
+        }
+
+        private void onError(SipSubscribe.EventResult eventResult, boolean waitResponse) {
+            if (eventResult.type.equals(SipSubscribe.EventResultType.timeout)) {
+                if (!waitResponse) {
+                    return;
+                }
+                // 上级不回复，改为按固定间隔直接发送
+                synchronized (this) {
+                    inFlight--;
+                    timeoutCount++;
+                    if (paced) {
+                        return;
+                    }
+                    paced = true;
+                }
+                log.info("[国标级联] 目录查询回复超时，改为间隔{}ms发送， platform : {}", PACED_INTERVAL, platform.getServerGBId());
+                fill();
+                return;
+            }
+            log.error("[目录推送失败] 国标级联 platform : {}, code: {}, msg: {}, 停止发送", platform.getServerGBId(), eventResult.statusCode, eventResult.msg);
+            stop();
+        }
+
+        private void checkFinish() {
+            synchronized (this) {
+                if (stopped || nextPage < pageCount || (!paced && inFlight > 0)) {
+                    return;
+                }
+                stopped = true;
+            }
+            taskMap.remove(key, this);
+            CatalogSendInfo info = getInfo();
+            log.info("[国标级联] 目录查询回复完成， platform : {}, 共{}条， 耗时{}ms， 超时{}页", platform.getServerGBId(),
+                    channels.size(), info.getElapsedMs(), info.getTimeoutCount());
+        }
+
+        private void stop() {
+            synchronized (this) {
+                stopped = true;
+            }
+            dynamicTask.stop(getTimerKey());
+            taskMap.remove(key, this);
+        }
+
+        private String getTimerKey() {
+            return "catalog_task_" + key;
+        }
+
+        private synchronized CatalogSendInfo getInfo() {
+            CatalogSendInfo info = new CatalogSendInfo();
+            info.setPlatformId(platform.getServerGBId());
+            info.setSn(sn);
+            info.setTotal(channels.size());
+            info.setSentCount(Math.min(nextPage * pageSize, channels.size()));
+            info.setPageCount(pageCount);
+            info.setResponseCount(responseCount);
+            info.setTimeoutCount(timeoutCount);
+            info.setInFlight(inFlight);
+            info.setWindow(window);
+            info.setSrttMs(srtt);
+            info.setMinRttMs(minRtt == Long.MAX_VALUE ? 0 : minRtt);
+            info.setPaced(paced);
+            long elapsed = System.currentTimeMillis() - startTime;
+            info.setElapsedMs(elapsed);
+            info.setChannelsPerSecond(elapsed == 0 ? 0 : info.getSentCount() * 1000d / elapsed);
+            return info;
+        }
+    }
+}
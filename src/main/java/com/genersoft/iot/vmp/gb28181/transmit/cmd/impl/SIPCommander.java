@@ -10,6 +10,7 @@ import com.genersoft.iot.vmp.gb28181.bean.*;
 import com.genersoft.iot.vmp.gb28181.event.MessageSubscribe;
 import com.genersoft.iot.vmp.gb28181.event.SipSubscribe;
 import com.genersoft.iot.vmp.gb28181.event.sip.MessageEvent;
+import com.genersoft.iot.vmp.gb28181.session.RecordInfoAggregator;
 import com.genersoft.iot.vmp.gb28181.session.SipInviteSessionManager;
 import com.genersoft.iot.vmp.gb28181.transmit.SIPSender;
 import com.genersoft.iot.vmp.gb28181.transmit.cmd.ISIPCommander;
@@ -66,6 +67,9 @@ public class SIPCommander implements ISIPCommander {
     @Autowired
     private SipInviteSessionManager sessionManager;
 
+    @Autowired
+    private RecordInfoAggregator recordInfoAggregator;
+
     @Autowired
     private UserSetting userSetting;
 
@@ -516,6 +520,7 @@ public class SIPCommander implements ISIPCommander {
         callIdHeader.setCallId(callId);
         Hook publishHook = Hook.getInstance(HookType.on_publish, "rtp", stream, mediaServerItem.getId());
         subscribe.addSubscribe(publishHook, (hookData) -> {
+            subscribe.removeSubscribe(publishHook);
             if (eventForPush != null) {
                 eventForPush.response(hookData);
             }
@@ -538,20 +543,30 @@ public class SIPCommander implements ISIPCommander {
         // f字段:f= v/编码格式/分辨率/帧率/码率类型/码率大小a/编码格式/码率大小/采样率
         content.append("f=v/////a/1/8/1" + "\r\n");
 
-        Request request = headerProvider.createInviteRequest(device, channel.getDeviceId(), content.toString(),
-                SipUtils.getNewViaTag(), SipUtils.getNewFromTag(), null, sendRtpItem.getSsrc(), callIdHeader);
-        sipSender.transmitRequest(sipLayer.getLocalIp(device.getLocalIp()), request, (e -> {
-            sessionManager.removeByStream(sendRtpItem.getApp(), sendRtpItem.getStream());
-            mediaServerService.releaseSsrc(mediaServerItem.getId(), sendRtpItem.getSsrc());
-            errorEvent.response(e);
-        }), e -> {
-            // 这里为例避免一个通道的点播只有一个callID这个参数使用一个固定值
-            ResponseEvent responseEvent = (ResponseEvent) e.event;
-            SIPResponse response = (SIPResponse) responseEvent.getResponse();
-            SsrcTransaction ssrcTransaction = SsrcTransaction.buildForDevice(device.getDeviceId(), channel.getId(), "talk",sendRtpItem.getApp(), stream, sendRtpItem.getSsrc(), mediaServerItem.getId(), response, InviteSessionType.TALK);
-            sessionManager.put(ssrcTransaction);
-            okEvent.response(e);
-        }, timeout);
+        try {
+            Request request = headerProvider.createInviteRequest(device, channel.getDeviceId(), content.toString(),
+                    SipUtils.getNewViaTag(), SipUtils.getNewFromTag(), null, sendRtpItem.getSsrc(), callIdHeader);
+            sipSender.transmitRequest(sipLayer.getLocalIp(device.getLocalIp()), request, (e -> {
+                // 失败和超时都在这里处理，取消流的订阅
+                subscribe.removeSubscribe(hook);
+                subscribe.removeSubscribe(publishHook);
+                sessionManager.removeByStream(sendRtpItem.getApp(), sendRtpItem.getStream());
+                mediaServerService.releaseSsrc(mediaServerItem.getId(), sendRtpItem.getSsrc());
+                errorEvent.response(e);
+            }), e -> {
+                // 这里为例避免一个通道的点播只有一个callID这个参数使用一个固定值
+                ResponseEvent responseEvent = (ResponseEvent) e.event;
+                SIPResponse response = (SIPResponse) responseEvent.getResponse();
+                SsrcTransaction ssrcTransaction = SsrcTransaction.buildForDevice(device.getDeviceId(), channel.getId(), "talk",sendRtpItem.getApp(), stream, sendRtpItem.getSsrc(), mediaServerItem.getId(), response, InviteSessionType.TALK);
+                sessionManager.put(ssrcTransaction);
+                okEvent.response(e);
+            }, timeout);
+        } catch (InvalidArgumentException | SipException | ParseException e) {
+            // 命令发送失败，取消流的订阅
+            subscribe.removeSubscribe(hook);
+            subscribe.removeSubscribe(publishHook);
+            throw e;
+        }
     }
 
     /**
@@ -1015,6 +1030,8 @@ public class SIPCommander implements ISIPCommander {
         Request request = headerProvider.createMessageRequest(device, recordInfoXml.toString(),
                 SipUtils.getNewViaTag(), SipUtils.getNewFromTag(), null,sipSender.getNewCallIdHeader(sipLayer.getLocalIp(device.getLocalIp()),device.getTransport()));
 
+        // 登记本节点发出的查询，回复的结果在内存中合并
+        recordInfoAggregator.register(channelId, String.valueOf(sn));
         sipSender.transmitRequest(sipLayer.getLocalIp(device.getLocalIp()), request, errorEvent, okEvent);
     }
 
@@ -2,7 +2,6 @@ package com.genersoft.iot.vmp.gb28181.transmit.cmd.impl;
 
 import com.alibaba.fastjson2.JSON;
 import com.genersoft.iot.vmp.common.InviteSessionType;
-import com.genersoft.iot.vmp.conf.DynamicTask;
 import com.genersoft.iot.vmp.conf.UserSetting;
 import com.genersoft.iot.vmp.conf.exception.SsrcTransactionNotFoundException;
 import com.genersoft.iot.vmp.gb28181.SipLayer;
@@ -12,6 +11,7 @@ import com.genersoft.iot.vmp.gb28181.session.SipInviteSessionManager;
 import com.genersoft.iot.vmp.gb28181.transmit.SIPSender;
 import com.genersoft.iot.vmp.gb28181.transmit.cmd.ISIPCommanderForPlatform;
 import com.genersoft.iot.vmp.gb28181.transmit.cmd.SIPRequestHeaderPlarformProvider;
+import com.genersoft.iot.vmp.gb28181.utils.CatalogXmlEncoder;
 import com.genersoft.iot.vmp.gb28181.utils.SipUtils;
 import com.genersoft.iot.vmp.media.bean.MediaServer;
 import com.genersoft.iot.vmp.media.event.hook.Hook;
@@ -76,10 +76,10 @@ public class SIPCommanderForPlatform implements ISIPCommanderForPlatform {
     private SipInviteSessionManager sessionManager;
 
     @Autowired
-    private DynamicTask dynamicTask;
+    private GitUtil gitUtil;
 
     @Autowired
-    private GitUtil gitUtil;
+    private CatalogResponseSender catalogResponseSender;
 
     @Override
     public void register(Platform parentPlatform, SipSubscribe.Event errorEvent , SipSubscribe.Event okEvent) throws InvalidArgumentException, ParseException, SipException {
@@ -180,12 +180,12 @@ public class SIPCommanderForPlatform implements ISIPCommanderForPlatform {
         if (channel != null) {
             channels.add(channel);
         }
-        String catalogXml = getCatalogXml(channels, sn, parentPlatform, size);
+        byte[] catalogXml = CatalogXmlEncoder.encodeResponse(channels, sn, parentPlatform, size);
 
         // callid
         CallIdHeader callIdHeader = sipSender.getNewCallIdHeader(parentPlatform.getDeviceIp(),parentPlatform.getTransport());
 
-        Request request = headerProviderPlatformProvider.createMessageRequest(parentPlatform, catalogXml.toString(), fromTag, SipUtils.getNewViaTag(), callIdHeader);
+        Request request = headerProviderPlatformProvider.createMessageRequest(parentPlatform, catalogXml, fromTag, SipUtils.getNewViaTag(), callIdHeader);
         sipSender.transmitRequest(parentPlatform.getDeviceIp(), request);
 
     }
@@ -195,93 +195,7 @@ public class SIPCommanderForPlatform implements ISIPCommanderForPlatform {
         if ( parentPlatform ==null) {
             return ;
         }
-        sendCatalogResponse(channels, parentPlatform, sn, fromTag, 0, true);
-    }
-    private String getCatalogXml(List<CommonGBChannel> channels, String sn, Platform platform, int size) {
-        String characterSet = platform.getCharacterSet();
-        StringBuffer catalogXml = new StringBuffer(600);
-        catalogXml.append("<?xml version=\"1.0\" encoding=\"" + characterSet +"\"?>\r\n")
-                .append("<Response>\r\n")
-                .append("<CmdType>Catalog</CmdType>\r\n")
-                .append("<SN>" +sn + "</SN>\r\n")
-                .append("<DeviceID>" + platform.getDeviceGBId() + "</DeviceID>\r\n")
-                .append("<SumNum>" + size + "</SumNum>\r\n")
-                .append("<DeviceList Num=\"" + channels.size() +"\">\r\n");
-        if (!channels.isEmpty()) {
-            for (CommonGBChannel channel : channels) {
-                catalogXml.append(channel.encode(platform.getDeviceGBId()));
-            }
-        }
-
-        catalogXml.append("</DeviceList>\r\n");
-        catalogXml.append("</Response>\r\n");
-        return catalogXml.toString();
-    }
-
-    private void sendCatalogResponse(List<CommonGBChannel> channels, Platform parentPlatform, String sn, String fromTag, int index, boolean sendAfterResponse) throws SipException, InvalidArgumentException, ParseException {
-        if (index > channels.size()) {
-            return;
-        }
-        List<CommonGBChannel> deviceChannels;
-        if (index + parentPlatform.getCatalogGroup() < channels.size()) {
-            deviceChannels = channels.subList(index, index + parentPlatform.getCatalogGroup());
-        }else {
-            deviceChannels = channels.subList(index, channels.size());
-        }
-        if(deviceChannels.isEmpty()) {
-            return;
-        }
-        String catalogXml = getCatalogXml(deviceChannels, sn, parentPlatform, channels.size());
-        // callid
-        CallIdHeader callIdHeader = sipSender.getNewCallIdHeader(parentPlatform.getDeviceIp(),parentPlatform.getTransport());
-
-        SIPRequest request = (SIPRequest)headerProviderPlatformProvider.createMessageRequest(parentPlatform, catalogXml, fromTag, SipUtils.getNewViaTag(), callIdHeader);
-
-        String timeoutTaskKey = "catalog_task_" + parentPlatform.getServerGBId() + sn;
-
-        String callId = request.getCallIdHeader().getCallId();
-
-        log.info("[命令发送] 国标级联{} 目录查询回复: 共{}条，已发送{}条", parentPlatform.getServerGBId(),
-                channels.size(), Math.min(index + parentPlatform.getCatalogGroup(), channels.size()));
-        log.debug(catalogXml);
-        if (sendAfterResponse) {
-            // 默认按照收到200回复后发送下一条， 如果超时收不到回复，就以30毫秒的间隔直接发送。
-            sipSender.transmitRequest(parentPlatform.getDeviceIp(), request, eventResult -> {
-                if (eventResult.type.equals(SipSubscribe.EventResultType.timeout)) {
-                    // 消息发送超时, 以30毫秒的间隔直接发送
-                    int indexNext = index + parentPlatform.getCatalogGroup();
-                    try {
-                        sendCatalogResponse(channels, parentPlatform, sn, fromTag, indexNext, false);
-                    } catch (SipException | InvalidArgumentException | ParseException e) {
-                        log.error("[命令发送失败] 国标级联 目录查询回复: {}", e.getMessage());
-                    }
-                    return;
-                }
-                log.error("[目录推送失败] 国标级联 platform : {}, code: {}, msg: {}, 停止发送", parentPlatform.getServerGBId(), eventResult.statusCode, eventResult.msg);
-                dynamicTask.stop(timeoutTaskKey);
-            }, eventResult -> {
-                dynamicTask.stop(timeoutTaskKey);
-                int indexNext = index + parentPlatform.getCatalogGroup();
-                try {
-                    sendCatalogResponse(channels, parentPlatform, sn, fromTag, indexNext, true);
-                } catch (SipException | InvalidArgumentException | ParseException e) {
-                    log.error("[命令发送失败] 国标级联 目录查询回复: {}", e.getMessage());
-                }
-            });
-        }else {
-            sipSender.transmitRequest(parentPlatform.getDeviceIp(), request, eventResult -> {
-                log.error("[目录推送失败] 国标级联 platform : {}, code: {}, msg: {}, 停止发送", parentPlatform.getServerGBId(), eventResult.statusCode, eventResult.msg);
-                dynamicTask.stop(timeoutTaskKey);
-            }, null);
-            dynamicTask.startDelay(timeoutTaskKey, ()->{
-                int indexNext = index + parentPlatform.getCatalogGroup();
-                try {
-                    sendCatalogResponse(channels, parentPlatform, sn, fromTag, indexNext, false);
-                } catch (SipException | InvalidArgumentException | ParseException e) {
-                    log.error("[命令发送失败] 国标级联 目录查询回复: {}", e.getMessage());
-                }
-            }, 100);
-        }
+        catalogResponseSender.send(channels, parentPlatform, sn, fromTag);
     }
 
     /**
@@ -179,6 +179,13 @@ public abstract class SIPRequestProcessorParent {
 			return null;
 		}
 
+		return getRootElement(rawContent, charset);
+	}
+
+	/**
+	 * 按设备的字符集解析消息体，兼容设备未转义的字符
+	 */
+	public static Element getRootElement(byte[] rawContent, String charset) throws DocumentException {
 		if (charset == null) {
 			charset = "gb2312";
 		}
@@ -12,7 +12,6 @@ import com.genersoft.iot.vmp.gb28181.transmit.SIPProcessorObserver;
 import com.genersoft.iot.vmp.gb28181.transmit.cmd.ISIPCommander;
 import com.genersoft.iot.vmp.gb28181.transmit.event.request.ISIPRequestProcessor;
 import com.genersoft.iot.vmp.gb28181.transmit.event.request.SIPRequestProcessorParent;
-import com.genersoft.iot.vmp.media.bean.MediaInfo;
 import com.genersoft.iot.vmp.media.bean.MediaServer;
 import com.genersoft.iot.vmp.media.service.IMediaServerService;
 import com.genersoft.iot.vmp.service.ISendRtpServerService;
@@ -152,30 +151,31 @@ public class ByeRequestProcessor extends SIPRequestProcessorParent implements In
 					audioBroadcastManager.del(sendRtpItem.getChannelId());
 				}
 
-				MediaInfo mediaInfo = mediaServerService.getMediaInfo(mediaServer, sendRtpItem.getApp(), streamId);
-
-				if (mediaInfo.getReaderCount() <= 0) {
-					log.info("[收到bye] {} 无其它观看者，通知设备停止推流", streamId);
-					if (sendRtpItem.getPlayType().equals(InviteStreamType.PLAY)) {
-						Device device = deviceService.getDeviceByDeviceId(sendRtpItem.getTargetId());
-						if (device == null) {
-							log.info("[收到bye] {} 通知设备停止推流时未找到设备信息", streamId);
-							return;
-						}
-						DeviceChannel deviceChannel = deviceChannelService.getOneForSourceById(sendRtpItem.getChannelId());
-						if (deviceChannel == null) {
-							log.info("[收到bye] {} 通知设备停止推流时未找到通道信息", streamId);
-							return;
-						}
-						try {
-							log.info("[停止点播] {}/{}", sendRtpItem.getTargetId(), sendRtpItem.getChannelId());
-							cmder.streamByeCmd(device, deviceChannel.getDeviceId(), sendRtpItem.getApp(), sendRtpItem.getStream(), null, null);
-						} catch (InvalidArgumentException | ParseException | SipException |
-								 SsrcTransactionNotFoundException e) {
-							log.error("[收到bye] {} 无其它观看者，通知设备停止推流， 发送BYE失败 {}",streamId, e.getMessage());
+				// 查询流信息不占用sip消息的处理线程
+				mediaServerService.getMediaInfo(mediaServer, sendRtpItem.getApp(), streamId, mediaInfo -> {
+					if (mediaInfo != null && mediaInfo.getReaderCount() <= 0) {
+						log.info("[收到bye] {} 无其它观看者，通知设备停止推流", streamId);
+						if (sendRtpItem.getPlayType().equals(InviteStreamType.PLAY)) {
+							Device device = deviceService.getDeviceByDeviceId(sendRtpItem.getTargetId());
+							if (device == null) {
+								log.info("[收到bye] {} 通知设备停止推流时未找到设备信息", streamId);
+								return;
+							}
+							DeviceChannel deviceChannel = deviceChannelService.getOneForSourceById(sendRtpItem.getChannelId());
+							if (deviceChannel == null) {
+								log.info("[收到bye] {} 通知设备停止推流时未找到通道信息", streamId);
+								return;
+							}
+							try {
+								log.info("[停止点播] {}/{}", sendRtpItem.getTargetId(), sendRtpItem.getChannelId());
+								cmder.streamByeCmd(device, deviceChannel.getDeviceId(), sendRtpItem.getApp(), sendRtpItem.getStream(), null, null);
+							} catch (InvalidArgumentException | ParseException | SipException |
+									 SsrcTransactionNotFoundException e) {
+								log.error("[收到bye] {} 无其它观看者，通知设备停止推流， 发送BYE失败 {}",streamId, e.getMessage());
+							}
 						}
 					}
-				}
+				});
 			}
 		}
 		// 可能是设备发送的停止
@@ -1,7 +1,5 @@
 package com.genersoft.iot.vmp.gb28181.transmit.event.request.impl.message.notify.cmd;
 
-import com.genersoft.iot.vmp.common.VideoManagerConstants;
-import com.genersoft.iot.vmp.conf.DynamicTask;
 import com.genersoft.iot.vmp.conf.UserSetting;
 import com.genersoft.iot.vmp.gb28181.bean.Device;
 import com.genersoft.iot.vmp.gb28181.bean.Platform;
@@ -27,7 +25,9 @@ import javax.sip.SipException;
 import javax.sip.message.Response;
 import java.text.ParseException;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ConcurrentLinkedQueue;
 
 /**
@@ -51,9 +51,6 @@ public class KeepaliveNotifyMessageHandler extends SIPRequestProcessorParent imp
     @Autowired
     private UserSetting userSetting;
 
-    @Autowired
-    private DynamicTask dynamicTask;
-
     @Override
     public void afterPropertiesSet() throws Exception {
         notifyMessageHandler.addHandler(cmdType, this);
@@ -84,6 +81,8 @@ public class KeepaliveNotifyMessageHandler extends SIPRequestProcessorParent imp
         if (handlerCatchDataList.isEmpty()) {
             return;
         }
+        // 同一设备在一个周期内的多次心跳只处理最后一次
+        Map<String, SipMsgInfo> deviceMsgMap = new LinkedHashMap<>();
         for (SipMsgInfo sipMsgInfo : handlerCatchDataList) {
             if (sipMsgInfo == null) {
                 continue;
@@ -95,16 +94,25 @@ public class KeepaliveNotifyMessageHandler extends SIPRequestProcessorParent imp
             } catch (SipException | InvalidArgumentException | ParseException e) {
                 log.error("[命令发送失败] 心跳回复: {}", e.getMessage());
             }
+            deviceMsgMap.put(sipMsgInfo.getDevice().getDeviceId(), sipMsgInfo);
+        }
+        // 只更新了心跳时间的在线设备，批量写入
+        List<Device> keepaliveDeviceList = new ArrayList<>();
+        // 地址变化的设备完整更新一次，不再重复写入心跳时间
+        List<Device> changedDeviceList = new ArrayList<>();
+        for (SipMsgInfo sipMsgInfo : deviceMsgMap.values()) {
             Device device = sipMsgInfo.getDevice();
-            SIPRequest request = (SIPRequest) evt.getRequest();
+            SIPRequest request = (SIPRequest) sipMsgInfo.getEvt().getRequest();
 //            if (!ObjectUtils.isEmpty(device.getKeepaliveTime()) && DateUtil.getDifferenceForNow(device.getKeepaliveTime()) <= 3000L) {
 //                log.info("[收到心跳] 心跳发送过于频繁，已忽略 device: {}, callId: {}", device.getDeviceId(), request.getCallIdHeader().getCallId());
 //                return;
 //            }
 
+            boolean addressChanged = false;
             RemoteAddressInfo remoteAddressInfo = SipUtils.getRemoteAddressFromRequest(request, userSetting.getSipUseSourceIpAsRemoteAddress());
             if (!device.getIp().equalsIgnoreCase(remoteAddressInfo.getIp()) || device.getPort() != remoteAddressInfo.getPort()) {
                 log.info("[收到心跳] 地址变化, {}({}), {}:{}->{}", device.getName(), device.getDeviceId(), remoteAddressInfo.getIp(), remoteAddressInfo.getPort(), request.getLocalAddress().getHostAddress());
+                addressChanged = true;
                 device.setPort(remoteAddressInfo.getPort());
                 device.setHostAddress(remoteAddressInfo.getIp().concat(":").concat(String.valueOf(remoteAddressInfo.getPort())));
                 device.setIp(remoteAddressInfo.getIp());
@@ -120,7 +128,11 @@ public class KeepaliveNotifyMessageHandler extends SIPRequestProcessorParent imp
             device.setKeepaliveTime(DateUtil.getNow());
 
             if (device.isOnLine()) {
-                deviceService.updateDevice(device);
+                if (addressChanged) {
+                    changedDeviceList.add(device);
+                } else {
+                    keepaliveDeviceList.add(device);
+                }
             } else {
                 if (userSetting.getGbDeviceOnline() == 1) {
                     // 对于已经离线的设备判断他的注册是否已经过期
@@ -129,13 +141,9 @@ public class KeepaliveNotifyMessageHandler extends SIPRequestProcessorParent imp
                     deviceService.online(device, null);
                 }
             }
-            // 刷新过期任务
-            String registerExpireTaskKey = VideoManagerConstants.REGISTER_EXPIRE_TASK_KEY_PREFIX + device.getDeviceId();
-            // 如果三次心跳失败，则设置设备离线
-            dynamicTask.startDelay(registerExpireTaskKey, () -> deviceService.offline(device.getDeviceId(), "三次心跳超时"),
-                    device.getHeartBeatInterval() * 1000 * device.getHeartBeatCount());
-
         }
+        // 批量更新心跳时间并刷新过期任务, 如果三次心跳失败，则设置设备离线
+        deviceService.updateDevicesForKeepalive(keepaliveDeviceList, changedDeviceList);
     }
 
     @Override
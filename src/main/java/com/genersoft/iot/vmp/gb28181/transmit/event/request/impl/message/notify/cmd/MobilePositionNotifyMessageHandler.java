@@ -24,7 +24,7 @@ import javax.sip.RequestEvent;
 import javax.sip.SipException;
 import javax.sip.message.Response;
 import java.text.ParseException;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ArrayBlockingQueue;
 
 import static com.genersoft.iot.vmp.gb28181.utils.XmlUtil.getText;
 
@@ -43,7 +43,10 @@ public class MobilePositionNotifyMessageHandler extends SIPRequestProcessorParen
     @Autowired
     private IDeviceChannelService deviceChannelService;
 
-    private ConcurrentLinkedQueue<SipMsgInfo> taskQueue = new ConcurrentLinkedQueue<>();
+    /**
+     * 待解析的位置通知，队列有界，设备上报过快处理不过来时丢弃新的通知
+     */
+    private final ArrayBlockingQueue<SipMsgInfo> taskQueue = new ArrayBlockingQueue<>(10000);
 
     @Qualifier("taskExecutor")
     @Autowired
@@ -58,7 +61,9 @@ public class MobilePositionNotifyMessageHandler extends SIPRequestProcessorParen
     public void handForDevice(RequestEvent evt, Device device, Element rootElement) {
 
         boolean isEmpty = taskQueue.isEmpty();
-        taskQueue.offer(new SipMsgInfo(evt, device, rootElement));
+        if (!taskQueue.offer(new SipMsgInfo(evt, device, rootElement))) {
+            log.warn("[移动位置通知] 待处理的通知过多，丢弃 {}", device.getDeviceId());
+        }
         // 回复200 OK
         try {
             responseAck((SIPRequest) evt.getRequest(), Response.OK);
@@ -9,6 +9,7 @@ import com.genersoft.iot.vmp.gb28181.session.CatalogDataManager;
 import com.genersoft.iot.vmp.gb28181.transmit.event.request.SIPRequestProcessorParent;
 import com.genersoft.iot.vmp.gb28181.transmit.event.request.impl.message.IMessageHandler;
 import com.genersoft.iot.vmp.gb28181.transmit.event.request.impl.message.response.ResponseMessageHandler;
+import com.genersoft.iot.vmp.gb28181.utils.CatalogXmlDecoder;
 import gov.nist.javax.sip.message.SIPRequest;
 import lombok.extern.slf4j.Slf4j;
 import org.dom4j.DocumentException;
@@ -23,6 +24,7 @@ import javax.sip.InvalidArgumentException;
 import javax.sip.RequestEvent;
 import javax.sip.SipException;
 import javax.sip.message.Response;
+import javax.xml.stream.XMLStreamException;
 import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.Iterator;
@@ -99,21 +101,11 @@ public class CatalogResponseMessageHandler extends SIPRequestProcessorParent imp
             int sn = 0;
             // 全局异常捕获，保证下一条可以得到处理
             try {
-                Element rootElement = null;
-                try {
-                    rootElement = getRootElement(take.getEvt(), take.getDevice().getCharset());
-                } catch (DocumentException e) {
-                    log.error("[xml解析] 失败： ", e);
+                CatalogXmlDecoder.Result catalog = decodeCatalog(take);
+                if (catalog == null) {
                     continue;
                 }
-                if (rootElement == null) {
-                    log.warn("[ 收到通道 ] content cannot be null, {}", evt.getRequest());
-                    continue;
-                }
-                Element deviceListElement = rootElement.element("DeviceList");
-                Element sumNumElement = rootElement.element("SumNum");
-                Element snElement = rootElement.element("SN");
-                int sumNum = Integer.parseInt(sumNumElement.getText());
+                int sumNum = catalog.getSumNum();
 
                 if (sumNum == 0) {
                     log.info("[收到通道]设备:{}的: 0个", take.getDevice().getDeviceId());
@@ -121,50 +113,40 @@ public class CatalogResponseMessageHandler extends SIPRequestProcessorParent imp
                     deviceChannelService.cleanChannelsForDevice(take.getDevice().getId());
                     catalogDataCatch.setChannelSyncEnd(take.getDevice().getDeviceId(), sn, null);
                 } else {
-                    Iterator<Element> deviceListIterator = deviceListElement.elementIterator();
-                    if (deviceListIterator != null) {
-                        List<DeviceChannel> channelList = new ArrayList<>();
-                        List<Region> regionList = new ArrayList<>();
-                        List<Group> groupList = new ArrayList<>();
-                        // 遍历DeviceList
-                        while (deviceListIterator.hasNext()) {
-                            Element itemDevice = deviceListIterator.next();
-                            Element channelDeviceElement = itemDevice.element("DeviceID");
-                            if (channelDeviceElement == null) {
-                                continue;
-                            }
-                            // 从xml解析内容到 DeviceChannel 对象
-                            DeviceChannel channel = DeviceChannel.decode(itemDevice);
-                            if (channel.getDeviceId() == null) {
-                                log.info("[收到目录订阅]：但是解析失败 {}", new String(evt.getRequest().getRawContent()));
-                                continue;
-                            }
-                            channel.setDataDeviceId(take.getDevice().getId());
-                            if (channel.getParentId() != null && channel.getParentId().equals(sipConfig.getId())) {
-                                channel.setParentId(null);
-                            }
-                            // 解析通道类型
-                            if (channel.getDeviceId().length() <= 8) {
-                                // 行政区划
-                                Region region = Region.getInstance(channel);
-                                regionList.add(region);
-                                channel.setChannelType(1);
-                            }else if (channel.getDeviceId().length() == 20){
-                                // 业务分组/虚拟组织
-                                Group group = Group.getInstance(channel);
-                                if (group != null) {
-                                    channel.setParental(1);
-                                    channel.setChannelType(2);
-                                    groupList.add(group);
-                                }
+                    List<DeviceChannel> channelList = new ArrayList<>();
+                    List<Region> regionList = new ArrayList<>();
+                    List<Group> groupList = new ArrayList<>();
+                    // 遍历DeviceList
+                    for (DeviceChannel channel : catalog.getChannelList()) {
+                        if (channel.getDeviceId() == null) {
+                            log.info("[收到目录订阅]：但是解析失败 {}", new String(evt.getRequest().getRawContent()));
+                            continue;
+                        }
+                        channel.setDataDeviceId(take.getDevice().getId());
+                        if (channel.getParentId() != null && channel.getParentId().equals(sipConfig.getId())) {
+                            channel.setParentId(null);
+                        }
+                        // 解析通道类型
+                        if (channel.getDeviceId().length() <= 8) {
+                            // 行政区划
+                            Region region = Region.getInstance(channel);
+                            regionList.add(region);
+                            channel.setChannelType(1);
+                        }else if (channel.getDeviceId().length() == 20){
+                            // 业务分组/虚拟组织
+                            Group group = Group.getInstance(channel);
+                            if (group != null) {
+                                channel.setParental(1);
+                                channel.setChannelType(2);
+                                groupList.add(group);
                             }
-                            channelList.add(channel);
                         }
-                        sn = Integer.parseInt(snElement.getText());
-                        catalogDataCatch.put(take.getDevice().getDeviceId(), sn, sumNum, take.getDevice(),
-                                channelList, regionList, groupList);
-                        log.info("[收到通道]设备: {} -> {}个，{}/{}", take.getDevice().getDeviceId(), channelList.size(), catalogDataCatch.size(take.getDevice().getDeviceId(), sn), sumNum);
+                        channelList.add(channel);
                     }
+                    sn = catalog.getSn();
+                    catalogDataCatch.put(take.getDevice().getDeviceId(), sn, sumNum, take.getDevice(),
+                            channelList, regionList, groupList);
+                    log.info("[收到通道]设备: {} -> {}个，{}/{}", take.getDevice().getDeviceId(), channelList.size(), catalogDataCatch.size(take.getDevice().getDeviceId(), sn), sumNum);
                 }
             } catch (Exception e) {
                 log.warn("[收到通道] 发现未处理的异常, \r\n{}", evt.getRequest());
@@ -185,6 +167,52 @@ public class CatalogResponseMessageHandler extends SIPRequestProcessorParent imp
         }
     }
 
+    /**
+     * 流式解析目录数据，解析失败时使用dom4j兼容处理，比如海康address字段中带有未转义的<
+     */
+    private CatalogXmlDecoder.Result decodeCatalog(HandlerCatchData take) throws Exception {
+        RequestEvent evt = take.getEvt();
+        byte[] rawContent = evt.getRequest().getRawContent();
+        if (rawContent == null || rawContent.length == 0) {
+            log.warn("[ 收到通道 ] content cannot be null, {}", evt.getRequest());
+            return null;
+        }
+        try {
+            return CatalogXmlDecoder.decode(rawContent, take.getDevice().getCharset());
+        } catch (XMLStreamException | RuntimeException e) {
+            log.debug("[xml解析] 流式解析失败，使用兼容方式解析: {}", e.getMessage());
+        }
+        Element rootElement = null;
+        try {
+            rootElement = getRootElement(evt, take.getDevice().getCharset());
+        } catch (DocumentException e) {
+            log.error("[xml解析] 失败： ", e);
+            return null;
+        }
+        if (rootElement == null) {
+            log.warn("[ 收到通道 ] content cannot be null, {}", evt.getRequest());
+            return null;
+        }
+        Element deviceListElement = rootElement.element("DeviceList");
+        Element sumNumElement = rootElement.element("SumNum");
+        Element snElement = rootElement.element("SN");
+        CatalogXmlDecoder.Result result = new CatalogXmlDecoder.Result(Integer.parseInt(sumNumElement.getText()),
+                snElement == null ? 0 : Integer.parseInt(snElement.getText()));
+        if (deviceListElement != null) {
+            Iterator<Element> deviceListIterator = deviceListElement.elementIterator();
+            while (deviceListIterator.hasNext()) {
+                Element itemDevice = deviceListIterator.next();
+                Element channelDeviceElement = itemDevice.element("DeviceID");
+                if (channelDeviceElement == null) {
+                    continue;
+                }
+                // 从xml解析内容到 DeviceChannel 对象
+                result.getChannelList().add(DeviceChannel.decode(itemDevice));
+            }
+        }
+        return result;
+    }
+
     @Transactional
     public boolean saveData(Device device, int sn) {
 
@@ -8,6 +8,7 @@ import com.genersoft.iot.vmp.gb28181.bean.RecordItem;
 import com.genersoft.iot.vmp.gb28181.event.EventPublisher;
 import com.genersoft.iot.vmp.gb28181.event.record.RecordInfoEndEvent;
 import com.genersoft.iot.vmp.gb28181.event.record.RecordInfoEvent;
+import com.genersoft.iot.vmp.gb28181.session.RecordInfoAggregator;
 import com.genersoft.iot.vmp.gb28181.transmit.callback.DeferredResultHolder;
 import com.genersoft.iot.vmp.gb28181.transmit.callback.RequestMessage;
 import com.genersoft.iot.vmp.gb28181.transmit.event.request.SIPRequestProcessorParent;
@@ -56,6 +57,9 @@ public class RecordInfoResponseMessageHandler extends SIPRequestProcessorParent
     @Autowired
     private RedisTemplate<Object, Object> redisTemplate;
 
+    @Autowired
+    private RecordInfoAggregator recordInfoAggregator;
+
     private Long recordInfoTtl = 1800L;
 
     @Override
@@ -122,29 +126,26 @@ public class RecordInfoResponseMessageHandler extends SIPRequestProcessorParent
                         record.setRecorderId(getText(itemRecord, "RecorderID"));
                         recordList.add(record);
                     }
-                    Map<String, String> map = recordList.stream()
-                            .filter(record -> record.getDeviceId() != null)
-                            .collect(Collectors.toMap(record -> record.getStartTime()+ record.getEndTime(), UJson::writeJson));
-                    // 获取任务结果数据
-                    String resKey = VideoManagerConstants.REDIS_RECORD_INFO_RES_PRE + channelId + sn;
-                    redisTemplate.opsForHash().putAll(resKey, map);
-                    redisTemplate.expire(resKey, recordInfoTtl, TimeUnit.SECONDS);
-                    String resCountKey = VideoManagerConstants.REDIS_RECORD_INFO_RES_COUNT_PRE + channelId + sn;
-                    Long incr = redisTemplate.opsForValue().increment(resCountKey, map.size());
-                    if (incr == null) {
-                        incr = 0L;
-                    }
-                    redisTemplate.expire(resCountKey, recordInfoTtl, TimeUnit.SECONDS);
                     recordInfo.setRecordList(recordList);
-                    recordInfo.setCount(Math.toIntExact(incr));
-                    recordInfoEventPush(recordInfo);
-                    if (incr < sumNum) {
-                        return;
-                    }
-                    // 已接收完成
-                    List<RecordItem> resList = redisTemplate.opsForHash().entries(resKey).values().stream().map(e -> UJson.readJson(e.toString(), RecordItem.class)).collect(Collectors.toList());
-                    if (resList.size() < sumNum) {
-                        return;
+                    RecordInfoAggregator.Aggregation aggregation = recordInfoAggregator.get(channelId, sn);
+                    List<RecordItem> resList;
+                    if (aggregation != null) {
+                        // 本节点发出的查询，直接在内存中合并
+                        int count = aggregation.merge(recordList);
+                        recordInfo.setCount(count);
+                        recordInfoEventPush(recordInfo);
+                        if (count < sumNum) {
+                            return;
+                        }
+                        resList = aggregation.finish();
+                        if (resList == null) {
+                            return;
+                        }
+                    } else {
+                        resList = mergeToRedis(channelId, sn, sumNum, recordInfo);
+                        if (resList == null) {
+                            return;
+                        }
                     }
                     recordInfo.setRecordList(resList);
                     recordInfoEndEventPush(recordInfo);
@@ -156,6 +157,37 @@ public class RecordInfoResponseMessageHandler extends SIPRequestProcessorParent
         }
     }
 
+    /**
+     * 非本节点发出的查询，结果写入redis中合并
+     * @return 接收完成时返回全部录像，否则返回null
+     */
+    private List<RecordItem> mergeToRedis(String channelId, String sn, int sumNum, RecordInfo recordInfo) {
+        Map<String, String> map = recordInfo.getRecordList().stream()
+                .filter(record -> record.getDeviceId() != null)
+                .collect(Collectors.toMap(record -> record.getStartTime()+ record.getEndTime(), UJson::writeJson, (a, b) -> b));
+        // 获取任务结果数据
+        String resKey = VideoManagerConstants.REDIS_RECORD_INFO_RES_PRE + channelId + sn;
+        redisTemplate.opsForHash().putAll(resKey, map);
+        redisTemplate.expire(resKey, recordInfoTtl, TimeUnit.SECONDS);
+        String resCountKey = VideoManagerConstants.REDIS_RECORD_INFO_RES_COUNT_PRE + channelId + sn;
+        Long incr = redisTemplate.opsForValue().increment(resCountKey, map.size());
+        if (incr == null) {
+            incr = 0L;
+        }
+        redisTemplate.expire(resCountKey, recordInfoTtl, TimeUnit.SECONDS);
+        recordInfo.setCount(Math.toIntExact(incr));
+        recordInfoEventPush(recordInfo);
+        if (incr < sumNum) {
+            return null;
+        }
+        // 已接收完成
+        List<RecordItem> resList = redisTemplate.opsForHash().entries(resKey).values().stream().map(e -> UJson.readJson(e.toString(), RecordItem.class)).collect(Collectors.toList());
+        if (resList.size() < sumNum) {
+            return null;
+        }
+        return resList;
+    }
+
     @Override
     public void handForPlatform(RequestEvent evt, Platform parentPlatform, Element element) {
 
@@ -0,0 +1,287 @@
+package com.genersoft.iot.vmp.gb28181.utils;
+
+import com.genersoft.iot.vmp.gb28181.bean.DeviceChannel;
+import lombok.Getter;
+import org.springframework.util.ReflectionUtils;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.ByteArrayInputStream;
+import java.io.InputStreamReader;
+import java.lang.reflect.Field;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 目录查询回复的流式解析
+ * 不构建dom4j的文档树，按顺序读取DeviceList下的Item直接生成DeviceChannel，
+ * 字段映射与{@link XmlUtil#elementDecode}一致，均来自{@link MessageElementForCatalog}注解，只在类加载时反射一次
+ */
+public class CatalogXmlDecoder {
+
+    private static final XMLInputFactory INPUT_FACTORY;
+
+    /**
+     * Item下的元素路径(如 Name、Info.PTZType) -> 字段映射
+     */
+    private static final Map<String, FieldMapping> MAPPINGS = new HashMap<>();
+
+    private static final Field[] FIELDS;
+
+    /**
+     * 合法的转义字符，其他的&视为设备未转义
+     */
+    private static final byte[][] ENTITIES = {"&lt;".getBytes(), "&gt;".getBytes(), "&amp;".getBytes(),
+            "&apos;".getBytes(), "&quot;".getBytes()};
+
+    static {
+        INPUT_FACTORY = XMLInputFactory.newInstance();
+        INPUT_FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        INPUT_FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        INPUT_FACTORY.setProperty(XMLInputFactory.IS_COALESCING, true);
+
+        List<Field> fieldList = new ArrayList<>();
+        for (Field field : DeviceChannel.class.getDeclaredFields()) {
+            MessageElementForCatalog annotation = field.getAnnotation(MessageElementForCatalog.class);
+            if (annotation == null) {
+                continue;
+            }
+            ReflectionUtils.makeAccessible(field);
+            int fieldIndex = fieldList.size();
+            fieldList.add(field);
+            String[] values = annotation.value();
+            for (int i = 0; i < values.length; i++) {
+                MAPPINGS.putIfAbsent(values[i], new FieldMapping(fieldIndex, i));
+            }
+        }
+        FIELDS = fieldList.toArray(new Field[0]);
+    }
+
+    /**
+     * 解析目录查询的回复
+     * @param content 消息体
+     * @param charset 设备的字符集, 为空时使用gb2312
+     */
+    public static Result decode(byte[] content, String charset) throws XMLStreamException {
+        Charset cs;
+        try {
+            cs = Charset.forName(charset == null ? "gb2312" : charset);
+        } catch (Exception e) {
+            cs = Charset.forName("gb2312");
+        }
+        // 按照设备的字符集解码，忽略xml声明中的encoding, 与SAXReader.setEncoding的行为一致
+        XMLStreamReader reader = INPUT_FACTORY.createXMLStreamReader(
+                new InputStreamReader(new ByteArrayInputStream(escapeAmpersand(content)), cs));
+        try {
+            return read(reader);
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static Result read(XMLStreamReader reader) throws XMLStreamException {
+        Result result = new Result(-1, 0);
+        // 当前Item中各字段的值和来源的优先级, 在Item之间复用
+        String[] values = new String[FIELDS.length];
+        int[] priorities = new int[FIELDS.length];
+        StringBuilder text = new StringBuilder();
+        StringBuilder itemPath = new StringBuilder();
+        int depth = 0;
+        int itemDepth = -1;
+        boolean hasDeviceId = false;
+        boolean inDeviceList = false;
+
+        while (reader.hasNext()) {
+            int event = reader.next();
+            switch (event) {
+                case XMLStreamConstants.START_ELEMENT:
+                    depth++;
+                    text.setLength(0);
+                    String name = reader.getLocalName();
+                    if (itemDepth > 0) {
+                        if (itemPath.length() > 0) {
+                            itemPath.append('.');
+                        }
+                        itemPath.append(name);
+                    } else if (depth == 3 && inDeviceList) {
+                        itemDepth = depth;
+                        itemPath.setLength(0);
+                        Arrays.fill(values, null);
+                        Arrays.fill(priorities, Integer.MAX_VALUE);
+                        hasDeviceId = false;
+                    } else if (depth == 2 && "DeviceList".equals(name)) {
+                        inDeviceList = true;
+                    }
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                    text.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    if (itemDepth > 0 && depth > itemDepth) {
+                        String path = itemPath.toString();
+                        if ("DeviceID".equals(path)) {
+                            hasDeviceId = true;
+                        }
+                        FieldMapping mapping = MAPPINGS.get(path);
+                        if (mapping != null && mapping.priority < priorities[mapping.fieldIndex]) {
+                            values[mapping.fieldIndex] = text.toString();
+                            priorities[mapping.fieldIndex] = mapping.priority;
+                        }
+                        int dot = itemPath.lastIndexOf(".");
+                        itemPath.setLength(Math.max(dot, 0));
+                    } else if (depth == itemDepth) {
+                        if (hasDeviceId) {
+                            result.channelList.add(buildChannel(values));
+                        }
+                        itemDepth = -1;
+                    } else if (depth == 2) {
+                        String name2 = reader.getLocalName();
+                        if ("DeviceList".equals(name2)) {
+                            inDeviceList = false;
+                        } else if ("SumNum".equals(name2)) {
+                            result.sumNum = Integer.parseInt(text.toString().trim());
+                        } else if ("SN".equals(name2)) {
+                            result.sn = Integer.parseInt(text.toString().trim());
+                        } else if ("DeviceID".equals(name2)) {
+                            result.deviceId = text.toString();
+                        }
+                    }
+                    text.setLength(0);
+                    depth--;
+                    break;
+                default:
+                    break;
+            }
+        }
+        if (result.sumNum < 0) {
+            throw new XMLStreamException("缺少SumNum");
+        }
+        return result;
+    }
+
+    private static DeviceChannel buildChannel(String[] values) {
+        DeviceChannel channel = new DeviceChannel();
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] == null) {
+                continue;
+            }
+            Field field = FIELDS[i];
+            ReflectionUtils.setField(field, channel, convert(field.getType(), values[i]));
+        }
+        channel.decodeFinish();
+        return channel;
+    }
+
+    /**
+     * 与XmlUtil中简单类型的处理保持一致，转换失败时为null
+     */
+    private static Object convert(Class<?> type, String value) {
+        if (value.equalsIgnoreCase("null")) {
+            return null;
+        }
+        try {
+            if (type == String.class) {
+                return value;
+            }
+            if (type == Integer.class) {
+                return Integer.valueOf(value);
+            }
+            if (type == Double.class) {
+                return Double.valueOf(value);
+            }
+            if (type == Long.class) {
+                return Long.valueOf(value);
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        return value;
+    }
+
+    /**
+     * 对海康出现的未转义的&做处理，与SIPRequestProcessorParent.getRootElement的处理一致，
+     * 没有需要处理的字符时直接返回原数组
+     */
+    private static byte[] escapeAmpersand(byte[] content) {
+        int first = -1;
+        for (int i = 0; i < content.length; i++) {
+            if (content[i] == '&' && !isEntity(content, i)) {
+                first = i;
+                break;
+            }
+        }
+        if (first < 0) {
+            return content;
+        }
+        byte[] result = new byte[content.length];
+        System.arraycopy(content, 0, result, 0, first);
+        int length = first;
+        for (int i = first + 1; i < content.length; i++) {
+            if (content[i] == '&' && !isEntity(content, i)) {
+                continue;
+            }
+            result[length++] = content[i];
+        }
+        return Arrays.copyOf(result, length);
+    }
+
+    private static boolean isEntity(byte[] content, int index) {
+        for (byte[] entity : ENTITIES) {
+            if (index + entity.length > content.length) {
+                continue;
+            }
+            boolean match = true;
+            for (int j = 1; j < entity.length; j++) {
+                if (content[index + j] != entity[j]) {
+                    match = false;
+                    break;
+                }
+            }
+            if (match) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static class FieldMapping {
+        private final int fieldIndex;
+
+        /**
+         * 同一字段配置多个路径时，排在前面的优先
+         */
+        private final int priority;
+
+        private FieldMapping(int fieldIndex, int priority) {
+            this.fieldIndex = fieldIndex;
+            this.priority = priority;
+        }
+    }
+
+    @Getter
+    public static class Result {
+
+        private String deviceId;
+
+        private int sumNum;
+
+        private int sn;
+
+        /**
+         * 包含DeviceID的Item，顺序与消息中一致
+         */
+        private final List<DeviceChannel> channelList = new ArrayList<>();
+
+        public Result(int sumNum, int sn) {
+            this.sumNum = sumNum;
+            this.sn = sn;
+        }
+    }
+}
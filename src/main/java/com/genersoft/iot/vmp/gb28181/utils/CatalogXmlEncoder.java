@@ -0,0 +1,121 @@
+package com.genersoft.iot.vmp.gb28181.utils;
+
+import com.genersoft.iot.vmp.gb28181.bean.CommonGBChannel;
+import com.genersoft.iot.vmp.gb28181.bean.Platform;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 向上级回复目录时的分页编码
+ * 每个线程复用同一个StringBuilder和字节缓冲区，通道直接写入StringBuilder，整页只按平台字符集编码一次，
+ * 输出内容与{@link CommonGBChannel#encode(String)}拼接的结果一致
+ */
+public class CatalogXmlEncoder {
+
+    /**
+     * 缓冲区初始大小，按一页8条目录项预估
+     */
+    private static final int INITIAL_CAPACITY = 8 * 1024;
+
+    /**
+     * 超过这个大小的缓冲区用完后不再保留，避免偶发的大页长期占用内存
+     */
+    private static final int MAX_POOLED_CAPACITY = 1024 * 1024;
+
+    private static final ThreadLocal<Buffers> BUFFERS = ThreadLocal.withInitial(Buffers::new);
+
+    /**
+     * 编码一页目录查询的回复
+     * @param channels 本页的通道
+     * @param sn 命令序列号
+     * @param platform 上级平台
+     * @param sumNum 通道总数
+     * @return 按平台字符集编码的消息体
+     */
+    public static byte[] encodeResponse(List<CommonGBChannel> channels, String sn, Platform platform, int sumNum) {
+        Buffers buffers = BUFFERS.get();
+        StringBuilder catalogXml = buffers.text;
+        catalogXml.setLength(0);
+        catalogXml.append("<?xml version=\"1.0\" encoding=\"").append(platform.getCharacterSet()).append("\"?>\r\n")
+                .append("<Response>\r\n")
+                .append("<CmdType>Catalog</CmdType>\r\n")
+                .append("<SN>").append(sn).append("</SN>\r\n")
+                .append("<DeviceID>").append(platform.getDeviceGBId()).append("</DeviceID>\r\n")
+                .append("<SumNum>").append(sumNum).append("</SumNum>\r\n")
+                .append("<DeviceList Num=\"").append(channels.size()).append("\">\r\n");
+        for (CommonGBChannel channel : channels) {
+            channel.encode(catalogXml, null, platform.getDeviceGBId());
+        }
+        catalogXml.append("</DeviceList>\r\n");
+        catalogXml.append("</Response>\r\n");
+        try {
+            return buffers.encode(getCharset(platform.getCharacterSet()));
+        } finally {
+            buffers.trim();
+        }
+    }
+
+    public static Charset getCharset(String charset) {
+        try {
+            return Charset.forName(charset == null ? "gb2312" : charset);
+        } catch (Exception e) {
+            return Charset.forName("gb2312");
+        }
+    }
+
+    private static class Buffers {
+
+        private StringBuilder text = new StringBuilder(INITIAL_CAPACITY);
+
+        private ByteBuffer bytes = ByteBuffer.allocate(INITIAL_CAPACITY);
+
+        private final Map<Charset, CharsetEncoder> encoders = new HashMap<>();
+
+        private byte[] encode(Charset charset) {
+            // 与String.getBytes一致，无法编码的字符使用替换字符
+            CharsetEncoder encoder = encoders.computeIfAbsent(charset, cs -> cs.newEncoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE));
+            encoder.reset();
+            CharBuffer in = CharBuffer.wrap(text);
+            int expected = (int) (text.length() * (double) encoder.averageBytesPerChar()) + 16;
+            if (bytes.capacity() < expected) {
+                bytes = ByteBuffer.allocate(expected);
+            }
+            bytes.clear();
+            while (encoder.encode(in, bytes, true).isOverflow()) {
+                grow();
+            }
+            while (encoder.flush(bytes).isOverflow()) {
+                grow();
+            }
+            byte[] content = new byte[bytes.position()];
+            bytes.flip();
+            bytes.get(content);
+            return content;
+        }
+
+        private void grow() {
+            ByteBuffer larger = ByteBuffer.allocate(bytes.capacity() * 2);
+            bytes.flip();
+            larger.put(bytes);
+            bytes = larger;
+        }
+
+        private void trim() {
+            if (text.capacity() > MAX_POOLED_CAPACITY) {
+                text = new StringBuilder(INITIAL_CAPACITY);
+            }
+            if (bytes.capacity() > MAX_POOLED_CAPACITY) {
+                bytes = ByteBuffer.allocate(INITIAL_CAPACITY);
+            }
+        }
+    }
+}
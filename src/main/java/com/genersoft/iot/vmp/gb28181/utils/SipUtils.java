@@ -19,7 +19,9 @@ import javax.sip.PeerUnavailableException;
 import javax.sip.SipFactory;
 import javax.sip.header.FromHeader;
 import javax.sip.header.SubjectHeader;
+import javax.sip.header.ToHeader;
 import javax.sip.header.UserAgentHeader;
+import javax.sip.message.Message;
 import javax.sip.message.Request;
 import java.text.ParseException;
 import java.time.LocalDateTime;
@@ -68,6 +70,16 @@ public class SipUtils {
         return uri.getUser();
     }
 
+    public static String getUserIdFromToHeader(Message message) {
+        ToHeader toHeader = (ToHeader)message.getHeader(ToHeader.NAME);
+        if (toHeader == null) {
+            return null;
+        }
+        AddressImpl address = (AddressImpl)toHeader.getAddress();
+        SipUri uri = (SipUri) address.getURI();
+        return uri.getUser();
+    }
+
     public static  String getNewViaTag() {
         return "z9hG4bK" + RandomStringUtils.randomNumeric(10);
     }
@@ -0,0 +1,37 @@
+package com.genersoft.iot.vmp.media.bean;
+
+import com.genersoft.iot.vmp.common.LatencyInfo;
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.Data;
+
+/**
+ * 流媒体节点hook异步处理队列的运行状态
+ */
+@Data
+@Schema(description = "流媒体节点hook异步处理队列的运行状态")
+public class MediaHookQueueInfo {
+
+    @Schema(description = "节点ID")
+    private String mediaServerId;
+
+    @Schema(description = "当前排队的hook数")
+    private int queueSize;
+
+    @Schema(description = "队列容量")
+    private int capacity;
+
+    @Schema(description = "已处理的hook数")
+    private long processed;
+
+    @Schema(description = "因队列已满被丢弃的hook数")
+    private long dropped;
+
+    @Schema(description = "处理异常的hook数")
+    private long failed;
+
+    @Schema(description = "排队耗时")
+    private LatencyInfo waitLatency;
+
+    @Schema(description = "处理耗时")
+    private LatencyInfo handleLatency;
+}
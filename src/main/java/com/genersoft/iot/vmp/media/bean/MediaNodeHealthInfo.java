@@ -0,0 +1,45 @@
+package com.genersoft.iot.vmp.media.bean;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.Data;
+
+/**
+ * 流媒体节点的健康状态
+ */
+@Data
+@Schema(description = "流媒体节点的健康状态")
+public class MediaNodeHealthInfo {
+
+    @Schema(description = "节点ID")
+    private String id;
+
+    @Schema(description = "IP")
+    private String ip;
+
+    @Schema(description = "HTTP端口")
+    private int httpPort;
+
+    @Schema(description = "是否在线")
+    private boolean status;
+
+    @Schema(description = "熔断状态：CLOSED(正常)、OPEN(熔断中)、HALF_OPEN(试探中)")
+    private String breakerState;
+
+    @Schema(description = "接口调用连续失败的次数")
+    private int consecutiveFailures;
+
+    @Schema(description = "是否正在进行离线的健康检查")
+    private boolean probing;
+
+    @Schema(description = "健康检查已失败的次数")
+    private int probeAttempt;
+
+    @Schema(description = "开始健康检查的时间，即离线的时间")
+    private long offlineTime;
+
+    @Schema(description = "距下次健康检查的时间,单位：毫秒")
+    private long nextProbeInMs;
+
+    @Schema(description = "最近一次健康检查失败的原因")
+    private String lastError;
+}
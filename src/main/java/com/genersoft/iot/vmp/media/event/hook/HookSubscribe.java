@@ -1,20 +1,31 @@
 package com.genersoft.iot.vmp.media.event.hook;
 
 import com.genersoft.iot.vmp.media.event.media.*;
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timeout;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
 import org.springframework.context.event.EventListener;
 import org.springframework.scheduling.annotation.Async;
-import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
- * zlm hook事件的参数
+ * zlm hook事件的订阅
+ * 按 hook类型 -> app -> stream 分级索引，通知时逐级查找，不需要拼接字符串；同一个key下可以有多个订阅者，
+ * 每个订阅在时间轮中单独计时，到期即移除，不再依赖定时全量扫描
  * @author lin
  */
+@Slf4j
 @Component
 public class HookSubscribe {
 
@@ -23,12 +34,48 @@ public class HookSubscribe {
      */
     private final long subscribeExpire = 5 * 60 * 1000;
 
+    /**
+     * 过期时间轮每格的时长，单位：毫秒，过期的精度在一格以内
+     */
+    private static final long TICK_DURATION = 100;
+
+    private static final int TICKS_PER_WHEEL = 512;
+
+    private static final Subscription[] EMPTY = new Subscription[0];
 
     @FunctionalInterface
     public interface Event{
         void response(HookData data);
     }
 
+    /**
+     * 下标为hook类型的序号， app -> stream -> 订阅者，订阅者数组不修改，变化时整体替换，通知时无需加锁和复制
+     */
+    @SuppressWarnings("unchecked")
+    private final Map<String, Map<String, Subscription[]>>[] index = new Map[HookType.values().length];
+
+    private final AtomicInteger subscriptionCount = new AtomicInteger();
+
+    private HashedWheelTimer expireTimer;
+
+    public HookSubscribe() {
+        for (int i = 0; i < index.length; i++) {
+            index[i] = new ConcurrentHashMap<>();
+        }
+    }
+
+    @PostConstruct
+    public void init() {
+        expireTimer = new HashedWheelTimer(new BasicThreadFactory.Builder().namingPattern("hook-subscribe-expire").daemon(true).build(),
+                TICK_DURATION, TimeUnit.MILLISECONDS, TICKS_PER_WHEEL);
+        expireTimer.start();
+    }
+
+    @PreDestroy
+    public void destroy() {
+        expireTimer.stop();
+    }
+
     /**
      * 流到来的处理
      */
@@ -69,46 +116,198 @@ public class HookSubscribe {
         sendNotify(HookType.on_record_mp4, event);
     }
 
-    private final Map<String, Event> allSubscribes = new ConcurrentHashMap<>();
-    private final Map<String, Hook> allHook = new ConcurrentHashMap<>();
-
     private void sendNotify(HookType hookType, MediaEvent event) {
-        Hook paramHook = Hook.getInstance(hookType, event.getApp(), event.getStream());
-        Event hookSubscribeEvent = allSubscribes.get(paramHook.toString());
-        if (hookSubscribeEvent != null) {
-            HookData data = HookData.getInstance(event);
-            hookSubscribeEvent.response(data);
+        Subscription[] subscriptions = find(hookType, event.getApp(), event.getStream());
+        if (subscriptions.length == 0) {
+            return;
         }
+        HookData data = HookData.getInstance(event);
+        for (Subscription subscription : subscriptions) {
+            try {
+                subscription.event.response(data);
+            } catch (Exception e) {
+                log.error("[hook订阅] 处理通知异常， {}/{}/{}", hookType, event.getApp(), event.getStream(), e);
+            }
+        }
+    }
+
+    /**
+     * 查找订阅者，没有订阅时返回空数组
+     */
+    public Subscription[] find(HookType hookType, String app, String stream) {
+        if (hookType == null || app == null || stream == null) {
+            return EMPTY;
+        }
+        Map<String, Subscription[]> streamMap = index[hookType.ordinal()].get(app);
+        if (streamMap == null) {
+            return EMPTY;
+        }
+        Subscription[] subscriptions = streamMap.get(stream);
+        return subscriptions == null ? EMPTY : subscriptions;
     }
 
+    /**
+     * 添加订阅，同一个hook对象重复添加时替换原来的订阅，不同的hook对象即使类型、app、stream相同也会各自收到通知
+     */
     public void addSubscribe(Hook hook, HookSubscribe.Event event) {
         if (hook.getExpireTime() == null) {
             hook.setExpireTime(System.currentTimeMillis() + subscribeExpire);
         }
-        allSubscribes.put(hook.toString(), event);
-        allHook.put(hook.toString(), hook);
+        Subscription subscription = new Subscription(hook, event);
+        Map<String, Subscription[]> streamMap = index[hook.getHookType().ordinal()]
+                .computeIfAbsent(hook.getApp(), app -> new ConcurrentHashMap<>());
+        Subscription[] replaced = new Subscription[1];
+        streamMap.compute(hook.getStream(), (stream, old) -> {
+            if (old == null) {
+                return new Subscription[]{subscription};
+            }
+            for (int i = 0; i < old.length; i++) {
+                if (old[i].hook == hook) {
+                    replaced[0] = old[i];
+                    Subscription[] result = old.clone();
+                    result[i] = subscription;
+                    return result;
+                }
+            }
+            Subscription[] result = Arrays.copyOf(old, old.length + 1);
+            result[old.length] = subscription;
+            return result;
+        });
+        if (replaced[0] != null) {
+            replaced[0].cancelTimeout();
+        } else {
+            subscriptionCount.incrementAndGet();
+        }
+        long delay = Math.max(hook.getExpireTime() - System.currentTimeMillis(), 0);
+        subscription.timeout = expireTimer.newTimeout(timeout -> remove(subscription), delay, TimeUnit.MILLISECONDS);
     }
 
+    /**
+     * 移除使用这个hook对象添加的订阅，没有找到时不做处理，同一个流上其他调用方的订阅不受影响
+     */
     public void removeSubscribe(Hook hook) {
-        allSubscribes.remove(hook.toString());
-        allHook.remove(hook.toString());
+        if (hook == null || hook.getHookType() == null || hook.getApp() == null || hook.getStream() == null) {
+            return;
+        }
+        Map<String, Subscription[]> streamMap = index[hook.getHookType().ordinal()].get(hook.getApp());
+        if (streamMap == null) {
+            return;
+        }
+        Subscription[] removed = new Subscription[1];
+        streamMap.computeIfPresent(hook.getStream(), (stream, old) -> {
+            for (int i = 0; i < old.length; i++) {
+                if (old[i].hook == hook) {
+                    removed[0] = old[i];
+                    return removeAt(old, i);
+                }
+            }
+            return old;
+        });
+        if (removed[0] != null) {
+            removed[0].cancelTimeout();
+            subscriptionCount.decrementAndGet();
+        }
     }
 
     /**
-     * 对订阅数据进行过期清理
+     * 移除类型、app、stream相同的全部订阅，用于取消一个流上所有调用方的监听
      */
-    @Scheduled(fixedRate=subscribeExpire)   //每5分钟执行一次
-    public void execute(){
-        long expireTime = System.currentTimeMillis();
-        for (Hook hook : allHook.values()) {
-            if (hook.getExpireTime() < expireTime) {
-                allSubscribes.remove(hook.toString());
-                allHook.remove(hook.toString());
+    public void removeAll(HookType hookType, String app, String stream) {
+        if (hookType == null || app == null || stream == null) {
+            return;
+        }
+        Map<String, Subscription[]> streamMap = index[hookType.ordinal()].get(app);
+        if (streamMap == null) {
+            return;
+        }
+        Subscription[] removed = streamMap.remove(stream);
+        if (removed == null) {
+            return;
+        }
+        for (Subscription subscription : removed) {
+            subscription.cancelTimeout();
+        }
+        subscriptionCount.addAndGet(-removed.length);
+    }
+
+    /**
+     * 移除指定的订阅，过期时调用
+     */
+    private void remove(Subscription subscription) {
+        Hook hook = subscription.hook;
+        Map<String, Subscription[]> streamMap = index[hook.getHookType().ordinal()].get(hook.getApp());
+        if (streamMap == null) {
+            return;
+        }
+        boolean[] found = new boolean[1];
+        streamMap.computeIfPresent(hook.getStream(), (stream, old) -> {
+            for (int i = 0; i < old.length; i++) {
+                if (old[i] == subscription) {
+                    found[0] = true;
+                    return removeAt(old, i);
+                }
             }
+            return old;
+        });
+        if (found[0]) {
+            subscriptionCount.decrementAndGet();
+        }
+    }
+
+    private static Subscription[] removeAt(Subscription[] old, int i) {
+        if (old.length == 1) {
+            return null;
         }
+        Subscription[] result = new Subscription[old.length - 1];
+        System.arraycopy(old, 0, result, 0, i);
+        System.arraycopy(old, i + 1, result, i, old.length - i - 1);
+        return result;
+    }
+
+    public int size() {
+        return subscriptionCount.get();
     }
 
     public List<Hook> getAll() {
-        return new ArrayList<>(allHook.values());
+        List<Hook> result = new ArrayList<>(subscriptionCount.get());
+        for (Map<String, Map<String, Subscription[]>> appMap : index) {
+            for (Map<String, Subscription[]> streamMap : appMap.values()) {
+                for (Subscription[] subscriptions : streamMap.values()) {
+                    for (Subscription subscription : subscriptions) {
+                        result.add(subscription.hook);
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    public static class Subscription {
+
+        private final Hook hook;
+
+        private final Event event;
+
+        private volatile Timeout timeout;
+
+        private Subscription(Hook hook, Event event) {
+            this.hook = hook;
+            this.event = event;
+        }
+
+        public Hook getHook() {
+            return hook;
+        }
+
+        public Event getEvent() {
+            return event;
+        }
+
+        private void cancelTimeout() {
+            Timeout current = timeout;
+            if (current != null) {
+                current.cancel();
+            }
+        }
     }
 }
@@ -0,0 +1,16 @@
+package com.genersoft.iot.vmp.media.scheduler;
+
+import java.util.List;
+
+/**
+ * 流媒体节点的选择策略，实现类注册为bean，bean的名称即为配置user-settings.media-server-select-strategy的值
+ */
+public interface IMediaNodeSelectStrategy {
+
+    /**
+     * 选择一个节点
+     * @param candidates 在线且满足条件的节点，不为空，按节点ID排序
+     * @param key 选择的依据，如通道ID，可以为空
+     */
+    MediaNodeState select(List<MediaNodeState> candidates, String key);
+}
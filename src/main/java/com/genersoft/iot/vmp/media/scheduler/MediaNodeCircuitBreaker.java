@@ -0,0 +1,166 @@
+package com.genersoft.iot.vmp.media.scheduler;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 流媒体节点的熔断器
+ * 对节点的接口调用连续失败达到阈值后熔断，熔断期间调用直接失败，选择节点时也跳过该节点；
+ * 熔断时间过后进入半开状态，放行一次调用试探，成功则恢复，失败则重新熔断
+ */
+@Slf4j
+@Component
+public class MediaNodeCircuitBreaker {
+
+    /**
+     * 连续失败多少次后熔断
+     */
+    private static final int FAILURE_THRESHOLD = 5;
+
+    /**
+     * 熔断时长，单位：毫秒
+     */
+    private static final long OPEN_DURATION = 30 * 1000;
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final Map<String, NodeBreaker> breakerMap = new ConcurrentHashMap<>();
+
+    /**
+     * 是否允许调用节点的接口，半开状态下同一时间只放行一次试探
+     */
+    public boolean allowRequest(String mediaServerId) {
+        if (mediaServerId == null) {
+            return true;
+        }
+        NodeBreaker breaker = breakerMap.get(mediaServerId);
+        return breaker == null || breaker.allowRequest();
+    }
+
+    /**
+     * 节点是否可以被选择，只判断状态，不占用半开状态的试探机会
+     */
+    public boolean isAvailable(String mediaServerId) {
+        if (mediaServerId == null) {
+            return true;
+        }
+        NodeBreaker breaker = breakerMap.get(mediaServerId);
+        return breaker == null || breaker.getState() != State.OPEN;
+    }
+
+    public void recordSuccess(String mediaServerId) {
+        if (mediaServerId == null) {
+            return;
+        }
+        NodeBreaker breaker = breakerMap.get(mediaServerId);
+        if (breaker != null && breaker.recordSuccess()) {
+            log.info("[流媒体节点熔断] 恢复， ID：{}", mediaServerId);
+        }
+    }
+
+    public void recordFailure(String mediaServerId) {
+        if (mediaServerId == null) {
+            return;
+        }
+        NodeBreaker breaker = breakerMap.computeIfAbsent(mediaServerId, id -> new NodeBreaker());
+        if (breaker.recordFailure()) {
+            log.warn("[流媒体节点熔断] 连续{}次调用失败，{}秒内不再调用， ID：{}", FAILURE_THRESHOLD,
+                    OPEN_DURATION / 1000, mediaServerId);
+        }
+    }
+
+    public void remove(String mediaServerId) {
+        if (mediaServerId == null) {
+            return;
+        }
+        breakerMap.remove(mediaServerId);
+    }
+
+    public State getState(String mediaServerId) {
+        NodeBreaker breaker = mediaServerId == null ? null : breakerMap.get(mediaServerId);
+        return breaker == null ? State.CLOSED : breaker.getState();
+    }
+
+    public int getConsecutiveFailures(String mediaServerId) {
+        NodeBreaker breaker = mediaServerId == null ? null : breakerMap.get(mediaServerId);
+        return breaker == null ? 0 : breaker.getConsecutiveFailures();
+    }
+
+    private static class NodeBreaker {
+
+        private int consecutiveFailures;
+
+        private State state = State.CLOSED;
+
+        /**
+         * 熔断开始的时间
+         */
+        private long openTime;
+
+        /**
+         * 半开状态下试探开始的时间，0表示没有进行中的试探
+         */
+        private long trialTime;
+
+        private synchronized State getState() {
+            if (state == State.OPEN && System.currentTimeMillis() - openTime >= OPEN_DURATION) {
+                state = State.HALF_OPEN;
+                trialTime = 0;
+            }
+            return state;
+        }
+
+        private synchronized int getConsecutiveFailures() {
+            return consecutiveFailures;
+        }
+
+        private synchronized boolean allowRequest() {
+            switch (getState()) {
+                case CLOSED:
+                    return true;
+                case HALF_OPEN:
+                    long now = System.currentTimeMillis();
+                    // 试探的调用没有结果时，超过熔断时长允许再次试探
+                    if (trialTime == 0 || now - trialTime >= OPEN_DURATION) {
+                        trialTime = now;
+                        return true;
+                    }
+                    return false;
+                default:
+                    return false;
+            }
+        }
+
+        /**
+         * @return 是否从熔断中恢复
+         */
+        private synchronized boolean recordSuccess() {
+            consecutiveFailures = 0;
+            if (state == State.CLOSED) {
+                return false;
+            }
+            state = State.CLOSED;
+            trialTime = 0;
+            return true;
+        }
+
+        /**
+         * @return 是否由此进入熔断
+         */
+        private synchronized boolean recordFailure() {
+            consecutiveFailures++;
+            State current = getState();
+            if (current == State.HALF_OPEN || (current == State.CLOSED && consecutiveFailures >= FAILURE_THRESHOLD)) {
+                state = State.OPEN;
+                openTime = System.currentTimeMillis();
+                return current == State.CLOSED;
+            }
+            return false;
+        }
+    }
+}
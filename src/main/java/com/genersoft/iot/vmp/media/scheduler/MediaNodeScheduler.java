@@ -0,0 +1,191 @@
+package com.genersoft.iot.vmp.media.scheduler;
+
+import com.genersoft.iot.vmp.conf.UserSetting;
+import com.genersoft.iot.vmp.media.bean.MediaServer;
+import com.genersoft.iot.vmp.media.scheduler.impl.LeastStreamsSelectStrategy;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 流媒体节点调度
+ * 在本地维护各节点的在线状态和负载，选择节点时不再访问redis，具体的选择方式由{@link IMediaNodeSelectStrategy}决定，
+ * 熔断中的节点由{@link MediaNodeCircuitBreaker}排除
+ */
+@Slf4j
+@Component
+public class MediaNodeScheduler {
+
+    @Autowired
+    private UserSetting userSetting;
+
+    @Autowired
+    private Map<String, IMediaNodeSelectStrategy> strategyMap;
+
+    @Autowired
+    private MediaNodeCircuitBreaker circuitBreaker;
+
+    private final Map<String, MediaNodeState> nodeMap = new ConcurrentHashMap<>();
+
+    /**
+     * 固定分配的节点， key为调用方指定的标识(如通道ID)，value为节点ID
+     */
+    private Cache<String, String> stickyCache;
+
+    @PostConstruct
+    public void init() {
+        if (userSetting.getMediaServerStickyExpire() > 0) {
+            stickyCache = CacheBuilder.newBuilder()
+                    .maximumSize(100000)
+                    .expireAfterAccess(userSetting.getMediaServerStickyExpire(), TimeUnit.SECONDS)
+                    .build();
+        }
+        if (!strategyMap.containsKey(userSetting.getMediaServerSelectStrategy())) {
+            log.warn("[流媒体节点调度] 未找到选择策略： {}， 使用默认策略： {}", userSetting.getMediaServerSelectStrategy(),
+                    LeastStreamsSelectStrategy.NAME);
+        }
+    }
+
+    /**
+     * 节点上线，已存在时只更新状态，不重置流数量
+     */
+    public void online(MediaServer mediaServer, int streamCount) {
+        MediaNodeState state = nodeMap.computeIfAbsent(mediaServer.getId(), id -> {
+            MediaNodeState nodeState = new MediaNodeState(id);
+            nodeState.setStreamCount(streamCount);
+            return nodeState;
+        });
+        state.setAssist(mediaServer.getRecordAssistPort() > 0);
+        state.setOnline(true);
+    }
+
+    public void offline(String mediaServerId) {
+        if (mediaServerId == null) {
+            return;
+        }
+        MediaNodeState state = nodeMap.get(mediaServerId);
+        if (state != null) {
+            state.setOnline(false);
+        }
+    }
+
+    public void remove(String mediaServerId) {
+        if (mediaServerId == null) {
+            return;
+        }
+        nodeMap.remove(mediaServerId);
+    }
+
+    public void clear() {
+        nodeMap.clear();
+        if (stickyCache != null) {
+            stickyCache.invalidateAll();
+        }
+    }
+
+    public boolean isEmpty() {
+        return nodeMap.isEmpty();
+    }
+
+    public void addCount(String mediaServerId, int delta) {
+        if (mediaServerId == null) {
+            return;
+        }
+        MediaNodeState state = nodeMap.get(mediaServerId);
+        if (state != null) {
+            state.addStreamCount(delta);
+        }
+    }
+
+    /**
+     * 记录节点心跳上报的负载
+     */
+    public void keepalive(String mediaServerId, int mediaSourceCount, int sessionCount) {
+        if (mediaServerId == null) {
+            return;
+        }
+        MediaNodeState state = nodeMap.get(mediaServerId);
+        if (state != null) {
+            state.setMediaSourceCount(mediaSourceCount);
+            state.setSessionCount(sessionCount);
+            state.setKeepaliveTime(System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * 选择一个节点
+     * @param hasAssist 为空时不限制，true只选择配置了录像辅助服务的节点，false只选择未配置的
+     * @param key 选择的依据，如通道ID，可以为空
+     * @param sticky 是否固定分配，为true时相同的key在一段时间内分配到同一节点
+     * @return 节点ID，没有可用节点时返回null
+     */
+    public String select(Boolean hasAssist, String key, boolean sticky) {
+        List<MediaNodeState> candidates = new ArrayList<>();
+        for (MediaNodeState state : nodeMap.values()) {
+            if (!state.isOnline()) {
+                continue;
+            }
+            if (hasAssist != null && hasAssist != state.isAssist()) {
+                continue;
+            }
+            candidates.add(state);
+        }
+        if (candidates.isEmpty()) {
+            return null;
+        }
+        // 跳过熔断中的节点，全部熔断时仍从中选择
+        List<MediaNodeState> availableCandidates = new ArrayList<>(candidates.size());
+        for (MediaNodeState candidate : candidates) {
+            if (circuitBreaker.isAvailable(candidate.getId())) {
+                availableCandidates.add(candidate);
+            }
+        }
+        if (!availableCandidates.isEmpty()) {
+            candidates = availableCandidates;
+        }
+        boolean useSticky = sticky && key != null && stickyCache != null;
+        if (useSticky) {
+            String mediaServerId = stickyCache.getIfPresent(key);
+            if (mediaServerId != null) {
+                for (MediaNodeState candidate : candidates) {
+                    if (candidate.getId().equals(mediaServerId)) {
+                        return mediaServerId;
+                    }
+                }
+            }
+        }
+        candidates.sort(Comparator.comparing(MediaNodeState::getId));
+        MediaNodeState state = getStrategy().select(candidates, key);
+        if (state == null) {
+            return null;
+        }
+        if (useSticky) {
+            stickyCache.put(key, state.getId());
+        }
+        return state.getId();
+    }
+
+    public List<MediaNodeState> getStateList() {
+        List<MediaNodeState> result = new ArrayList<>(nodeMap.values());
+        result.sort(Comparator.comparing(MediaNodeState::getId));
+        return result;
+    }
+
+    private IMediaNodeSelectStrategy getStrategy() {
+        IMediaNodeSelectStrategy strategy = strategyMap.get(userSetting.getMediaServerSelectStrategy());
+        if (strategy == null) {
+            strategy = strategyMap.get(LeastStreamsSelectStrategy.NAME);
+        }
+        return strategy;
+    }
+}
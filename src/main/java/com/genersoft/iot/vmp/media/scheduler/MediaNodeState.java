@@ -0,0 +1,70 @@
+package com.genersoft.iot.vmp.media.scheduler;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 流媒体节点状态的本地快照，用于选择节点
+ */
+@Getter
+@Setter
+@Schema(description = "流媒体节点调度状态")
+public class MediaNodeState {
+
+    /**
+     * 心跳上报的连接数，每个连接折算的负载
+     */
+    private static final double SESSION_WEIGHT = 0.1;
+
+    @Schema(description = "节点ID")
+    private final String id;
+
+    @Schema(description = "是否在线")
+    private volatile boolean online;
+
+    @Schema(description = "是否配置了录像辅助服务")
+    private volatile boolean assist;
+
+    @Schema(description = "心跳上报的媒体源数量")
+    private volatile int mediaSourceCount;
+
+    @Schema(description = "心跳上报的TCP/UDP连接数量")
+    private volatile int sessionCount;
+
+    @Schema(description = "最后一次心跳的时间")
+    private volatile long keepaliveTime;
+
+    private final AtomicInteger streamCount = new AtomicInteger();
+
+    public MediaNodeState(String id) {
+        this.id = id;
+    }
+
+    @Schema(description = "本节点记录的流数量")
+    public int getStreamCount() {
+        return streamCount.get();
+    }
+
+    public void setStreamCount(int count) {
+        streamCount.set(count);
+    }
+
+    public void addStreamCount(int delta) {
+        streamCount.addAndGet(delta);
+    }
+
+    /**
+     * 加权的负载，流数量加上连接数折算的负载，连接数反映了拉流的观看者，即节点的出口带宽
+     * @param keepaliveExpire 心跳数据的有效时间，超时后只使用流数量
+     */
+    public double getWeightedLoad(long keepaliveExpire) {
+        double load = getStreamCount();
+        if (keepaliveTime > 0 && System.currentTimeMillis() - keepaliveTime < keepaliveExpire) {
+            load += sessionCount * SESSION_WEIGHT;
+        }
+        return load;
+    }
+}
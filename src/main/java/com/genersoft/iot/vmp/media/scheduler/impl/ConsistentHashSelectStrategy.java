@@ -0,0 +1,91 @@
+package com.genersoft.iot.vmp.media.scheduler.impl;
+
+import com.genersoft.iot.vmp.media.scheduler.IMediaNodeSelectStrategy;
+import com.genersoft.iot.vmp.media.scheduler.MediaNodeState;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 按照通道做一致性哈希，同一通道尽量落在同一个节点，节点增减时只影响少部分通道，
+ * 节点的流数量超过平均值的一定比例后顺延到哈希环上的下一个节点，避免热点通道集中导致过载
+ */
+@Component("consistentHash")
+public class ConsistentHashSelectStrategy implements IMediaNodeSelectStrategy {
+
+    /**
+     * 每个节点在哈希环上的虚拟节点数量
+     */
+    private static final int VIRTUAL_NODES = 160;
+
+    /**
+     * 允许超出平均流数量的比例
+     */
+    private static final double LOAD_FACTOR = 1.25;
+
+    private static final HashFunction HASH_FUNCTION = Hashing.murmur3_32_fixed();
+
+    /**
+     * 节点ID列表 -> 哈希环， 节点列表变化不频繁，缓存起来避免每次重建
+     */
+    private final Map<String, TreeMap<Integer, String>> ringCache = new ConcurrentHashMap<>();
+
+    private final LeastStreamsSelectStrategy leastStreamsSelectStrategy = new LeastStreamsSelectStrategy();
+
+    @Override
+    public MediaNodeState select(List<MediaNodeState> candidates, String key) {
+        if (key == null || candidates.size() == 1) {
+            return leastStreamsSelectStrategy.select(candidates, key);
+        }
+        Map<String, MediaNodeState> stateMap = new HashMap<>();
+        StringBuilder ringKey = new StringBuilder();
+        int totalCount = 0;
+        for (MediaNodeState candidate : candidates) {
+            stateMap.put(candidate.getId(), candidate);
+            ringKey.append(candidate.getId()).append(',');
+            totalCount += candidate.getStreamCount();
+        }
+        TreeMap<Integer, String> ring = ringCache.get(ringKey.toString());
+        if (ring == null) {
+            if (ringCache.size() > 64) {
+                ringCache.clear();
+            }
+            ring = buildRing(candidates);
+            ringCache.put(ringKey.toString(), ring);
+        }
+        double maxCount = Math.ceil((totalCount + 1) * LOAD_FACTOR / candidates.size());
+
+        int hash = HASH_FUNCTION.hashString(key, StandardCharsets.UTF_8).asInt();
+        Map.Entry<Integer, String> entry = ring.ceilingEntry(hash);
+        // 沿着哈希环顺时针查找，最多绕一圈
+        for (int i = 0; i < ring.size(); i++) {
+            if (entry == null) {
+                entry = ring.firstEntry();
+            }
+            MediaNodeState state = stateMap.get(entry.getValue());
+            if (state.getStreamCount() + 1 <= maxCount) {
+                return state;
+            }
+            entry = ring.higherEntry(entry.getKey());
+        }
+        return leastStreamsSelectStrategy.select(candidates, key);
+    }
+
+    private TreeMap<Integer, String> buildRing(List<MediaNodeState> candidates) {
+        TreeMap<Integer, String> ring = new TreeMap<>();
+        for (MediaNodeState candidate : candidates) {
+            for (int i = 0; i < VIRTUAL_NODES; i++) {
+                int hash = HASH_FUNCTION.hashString(candidate.getId() + "#" + i, StandardCharsets.UTF_8).asInt();
+                ring.putIfAbsent(hash, candidate.getId());
+            }
+        }
+        return ring;
+    }
+}
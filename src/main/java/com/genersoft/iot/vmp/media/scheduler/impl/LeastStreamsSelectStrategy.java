@@ -0,0 +1,27 @@
+package com.genersoft.iot.vmp.media.scheduler.impl;
+
+import com.genersoft.iot.vmp.media.scheduler.IMediaNodeSelectStrategy;
+import com.genersoft.iot.vmp.media.scheduler.MediaNodeState;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * 选择流数量最少的节点，数量相同时选择ID靠前的，与原先redis有序集合的排序一致
+ */
+@Component(LeastStreamsSelectStrategy.NAME)
+public class LeastStreamsSelectStrategy implements IMediaNodeSelectStrategy {
+
+    public static final String NAME = "leastStreams";
+
+    @Override
+    public MediaNodeState select(List<MediaNodeState> candidates, String key) {
+        MediaNodeState result = null;
+        for (MediaNodeState candidate : candidates) {
+            if (result == null || candidate.getStreamCount() < result.getStreamCount()) {
+                result = candidate;
+            }
+        }
+        return result;
+    }
+}
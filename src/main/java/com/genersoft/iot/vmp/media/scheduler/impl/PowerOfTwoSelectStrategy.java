@@ -0,0 +1,33 @@
+package com.genersoft.iot.vmp.media.scheduler.impl;
+
+import com.genersoft.iot.vmp.media.scheduler.IMediaNodeSelectStrategy;
+import com.genersoft.iot.vmp.media.scheduler.MediaNodeState;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 随机取两个节点，选择流数量少的，
+ * 集群中多个wvp各自统计负载时，避免同时把新的流都分配到同一个负载最低的节点
+ */
+@Component("powerOfTwo")
+public class PowerOfTwoSelectStrategy implements IMediaNodeSelectStrategy {
+
+    @Override
+    public MediaNodeState select(List<MediaNodeState> candidates, String key) {
+        int size = candidates.size();
+        if (size == 1) {
+            return candidates.get(0);
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int first = random.nextInt(size);
+        int second = random.nextInt(size - 1);
+        if (second >= first) {
+            second++;
+        }
+        MediaNodeState firstState = candidates.get(first);
+        MediaNodeState secondState = candidates.get(second);
+        return secondState.getStreamCount() < firstState.getStreamCount() ? secondState : firstState;
+    }
+}
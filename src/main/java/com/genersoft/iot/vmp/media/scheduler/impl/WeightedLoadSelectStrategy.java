@@ -0,0 +1,34 @@
+package com.genersoft.iot.vmp.media.scheduler.impl;
+
+import com.genersoft.iot.vmp.media.scheduler.IMediaNodeSelectStrategy;
+import com.genersoft.iot.vmp.media.scheduler.MediaNodeState;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * 结合节点心跳上报的连接数选择负载最低的节点，
+ * 节点上不经过本平台的拉流(如直接播放、其他平台转发)也会计入负载
+ */
+@Component("weightedLoad")
+public class WeightedLoadSelectStrategy implements IMediaNodeSelectStrategy {
+
+    /**
+     * 心跳数据的有效时间，超过后只按照流数量计算
+     */
+    private static final long KEEPALIVE_EXPIRE = 60 * 1000;
+
+    @Override
+    public MediaNodeState select(List<MediaNodeState> candidates, String key) {
+        MediaNodeState result = null;
+        double minLoad = Double.MAX_VALUE;
+        for (MediaNodeState candidate : candidates) {
+            double load = candidate.getWeightedLoad(KEEPALIVE_EXPIRE);
+            if (load < minLoad) {
+                minLoad = load;
+                result = candidate;
+            }
+        }
+        return result;
+    }
+}
@@ -5,6 +5,7 @@ import com.genersoft.iot.vmp.common.StreamInfo;
 import com.genersoft.iot.vmp.gb28181.bean.SendRtpInfo;
 import com.genersoft.iot.vmp.media.bean.MediaInfo;
 import com.genersoft.iot.vmp.media.bean.MediaServer;
+import com.genersoft.iot.vmp.service.bean.CloudRecordItem;
 import com.genersoft.iot.vmp.streamProxy.bean.StreamProxy;
 import com.genersoft.iot.vmp.vmanager.bean.WVPResult;
 
@@ -34,6 +35,11 @@ public interface IMediaNodeServerService {
 
     boolean deleteRecordDirectory(MediaServer mediaServer, String app, String stream, String date, String fileName);
 
+    /**
+     * 批量删除录像文件，返回删除成功的录像
+     */
+    List<CloudRecordItem> deleteRecordFiles(MediaServer mediaServer, List<CloudRecordItem> cloudRecordItemList);
+
     List<StreamInfo> getMediaList(MediaServer mediaServer, String app, String stream, String callId);
 
     Boolean connectRtpServer(MediaServer mediaServer, String address, int port, String stream);
@@ -42,6 +48,11 @@ public interface IMediaNodeServerService {
 
     MediaInfo getMediaInfo(MediaServer mediaServer, String app, String stream);
 
+    /**
+     * 异步查询流信息，查询失败或者流不存在时回调null
+     */
+    void getMediaInfo(MediaServer mediaServer, String app, String stream, CommonCallback<MediaInfo> callback);
+
     Boolean pauseRtpCheck(MediaServer mediaServer, String streamKey);
 
     Boolean resumeRtpCheck(MediaServer mediaServer, String streamKey);
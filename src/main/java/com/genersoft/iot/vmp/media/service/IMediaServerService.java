@@ -5,6 +5,7 @@ import com.genersoft.iot.vmp.common.StreamInfo;
 import com.genersoft.iot.vmp.gb28181.bean.SendRtpInfo;
 import com.genersoft.iot.vmp.media.bean.MediaInfo;
 import com.genersoft.iot.vmp.media.bean.MediaServer;
+import com.genersoft.iot.vmp.service.bean.CloudRecordItem;
 import com.genersoft.iot.vmp.service.bean.MediaServerLoad;
 import com.genersoft.iot.vmp.service.bean.SSRCInfo;
 import com.genersoft.iot.vmp.streamProxy.bean.StreamProxy;
@@ -32,6 +33,13 @@ public interface IMediaServerService {
 
     MediaServer getMediaServerForMinimumLoad(Boolean hasAssist);
 
+    /**
+     * 按照配置的策略选择节点
+     * @param key 选择的依据，如通道ID，可以为空
+     * @param sticky 为true时相同的key在一段时间内分配到同一节点
+     */
+    MediaServer getMediaServerForMinimumLoad(Boolean hasAssist, String key, boolean sticky);
+
     void updateVmServer(List<MediaServer>  mediaServerItemList);
 
     SSRCInfo openRTPServer(MediaServer mediaServerItem, String streamId, String presetSsrc, boolean ssrcCheck,
@@ -81,6 +89,11 @@ public interface IMediaServerService {
 
     boolean deleteRecordDirectory(MediaServer mediaServerItem, String app, String stream, String date, String fileName);
 
+    /**
+     * 批量删除录像文件，返回删除成功的录像
+     */
+    List<CloudRecordItem> deleteRecordFiles(MediaServer mediaServer, List<CloudRecordItem> cloudRecordItemList);
+
     List<StreamInfo> getMediaList(MediaServer mediaInfo, String app, String stream, String callId);
 
     Boolean connectRtpServer(MediaServer mediaServerItem, String address, int port, String stream);
@@ -89,6 +102,11 @@ public interface IMediaServerService {
 
     MediaInfo getMediaInfo(MediaServer mediaServerItem, String app, String stream);
 
+    /**
+     * 异步查询流信息，查询失败或者流不存在时回调null
+     */
+    void getMediaInfo(MediaServer mediaServerItem, String app, String stream, CommonCallback<MediaInfo> callback);
+
     Boolean pauseRtpCheck(MediaServer mediaServerItem, String streamKey);
 
     boolean resumeRtpCheck(MediaServer mediaServerItem, String streamKey);
@@ -11,11 +11,13 @@ import com.genersoft.iot.vmp.gb28181.service.IInviteStreamService;
 import com.genersoft.iot.vmp.gb28181.session.SSRCFactory;
 import com.genersoft.iot.vmp.media.bean.MediaInfo;
 import com.genersoft.iot.vmp.media.bean.MediaServer;
+import com.genersoft.iot.vmp.service.bean.CloudRecordItem;
 import com.genersoft.iot.vmp.media.event.media.MediaArrivalEvent;
 import com.genersoft.iot.vmp.media.event.media.MediaDepartureEvent;
 import com.genersoft.iot.vmp.media.event.mediaServer.MediaServerDeleteEvent;
 import com.genersoft.iot.vmp.media.event.mediaServer.MediaServerOfflineEvent;
 import com.genersoft.iot.vmp.media.event.mediaServer.MediaServerOnlineEvent;
+import com.genersoft.iot.vmp.media.scheduler.MediaNodeScheduler;
 import com.genersoft.iot.vmp.media.service.IMediaNodeServerService;
 import com.genersoft.iot.vmp.media.service.IMediaServerService;
 import com.genersoft.iot.vmp.media.zlm.dto.StreamAuthorityInfo;
@@ -23,6 +25,7 @@ import com.genersoft.iot.vmp.media.zlm.dto.hook.OriginType;
 import com.genersoft.iot.vmp.service.bean.MediaServerLoad;
 import com.genersoft.iot.vmp.service.bean.SSRCInfo;
 import com.genersoft.iot.vmp.storager.IRedisCatchStorage;
+import com.genersoft.iot.vmp.storager.cache.NearCacheManager;
 import com.genersoft.iot.vmp.storager.dao.MediaServerMapper;
 import com.genersoft.iot.vmp.streamProxy.bean.StreamProxy;
 import com.genersoft.iot.vmp.utils.DateUtil;
@@ -36,6 +39,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.context.event.EventListener;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
 import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
@@ -78,6 +82,12 @@ public class MediaServerServiceImpl implements IMediaServerService {
     @Autowired
     private MediaConfig mediaConfig;
 
+    @Autowired
+    private MediaNodeScheduler mediaNodeScheduler;
+
+    @Autowired
+    private NearCacheManager nearCacheManager;
+
 
     /**
      * 流到来的处理
@@ -153,6 +163,7 @@ public class MediaServerServiceImpl implements IMediaServerService {
             Boolean hasKey = redisTemplate.hasKey(key);
             if (hasKey != null && !hasKey) {
                 redisTemplate.opsForHash().put(key, mediaServer.getId(), mediaServer);
+                nearCacheManager.putMediaServer(mediaServer);
             }
         }
     }
@@ -317,8 +328,11 @@ public class MediaServerServiceImpl implements IMediaServerService {
         mediaServerInDataBase.setSecret(mediaSerItem.getSecret());
         String key = VideoManagerConstants.MEDIA_SERVER_PREFIX + userSetting.getServerId();
         redisTemplate.opsForHash().put(key, mediaServerInDataBase.getId(), mediaServerInDataBase);
+        nearCacheManager.putMediaServer(mediaServerInDataBase);
         if (mediaServerInDataBase.isStatus()) {
             resetOnlineServerItem(mediaServerInDataBase);
+        } else {
+            mediaNodeScheduler.offline(mediaServerInDataBase.getId());
         }
     }
 
@@ -400,8 +414,9 @@ public class MediaServerServiceImpl implements IMediaServerService {
         if (mediaServerId == null) {
             return null;
         }
+        // hook处理等热点路径频繁调用，优先使用本地缓存
         String key = VideoManagerConstants.MEDIA_SERVER_PREFIX + userSetting.getServerId();
-        return (MediaServer) redisTemplate.opsForHash().get(key, mediaServerId);
+        return nearCacheManager.getMediaServer(mediaServerId, () -> (MediaServer) redisTemplate.opsForHash().get(key, mediaServerId));
     }
 
 
@@ -414,6 +429,7 @@ public class MediaServerServiceImpl implements IMediaServerService {
     public void clearMediaServerForOnline() {
         String key = VideoManagerConstants.ONLINE_MEDIA_SERVERS_PREFIX + userSetting.getServerId();
         redisTemplate.delete(key);
+        mediaNodeScheduler.clear();
     }
 
     @Override
@@ -448,13 +464,16 @@ public class MediaServerServiceImpl implements IMediaServerService {
         // 更新缓存
         String key = VideoManagerConstants.ONLINE_MEDIA_SERVERS_PREFIX + userSetting.getServerId();
         // 使用zset的分数作为当前并发量， 默认值设置为0
-        if (redisTemplate.opsForZSet().score(key, serverItem.getId()) == null) {  // 不存在则设置默认值 已存在则重置
+        Double score = redisTemplate.opsForZSet().score(key, serverItem.getId());
+        if (score == null) {  // 不存在则设置默认值 已存在则重置
             redisTemplate.opsForZSet().add(key, serverItem.getId(), 0L);
             // 查询服务流数量
             int count = getMediaList(serverItem);
             redisTemplate.opsForZSet().add(key, serverItem.getId(), count);
+            mediaNodeScheduler.online(serverItem, count);
         }else {
             clearRTPServer(serverItem);
+            mediaNodeScheduler.online(serverItem, score.intValue());
         }
     }
 
@@ -471,6 +490,7 @@ public class MediaServerServiceImpl implements IMediaServerService {
         }
         String key = VideoManagerConstants.ONLINE_MEDIA_SERVERS_PREFIX + userSetting.getServerId();
         redisTemplate.opsForZSet().incrementScore(key, mediaServerId, 1);
+        mediaNodeScheduler.addCount(mediaServerId, 1);
 
     }
 
@@ -478,6 +498,7 @@ public class MediaServerServiceImpl implements IMediaServerService {
     public void removeCount(String mediaServerId) {
         String key = VideoManagerConstants.ONLINE_MEDIA_SERVERS_PREFIX + userSetting.getServerId();
         redisTemplate.opsForZSet().incrementScore(key, mediaServerId, - 1);
+        mediaNodeScheduler.addCount(mediaServerId, -1);
     }
 
     /**
@@ -486,41 +507,41 @@ public class MediaServerServiceImpl implements IMediaServerService {
      */
     @Override
     public MediaServer getMediaServerForMinimumLoad(Boolean hasAssist) {
-        String key = VideoManagerConstants.ONLINE_MEDIA_SERVERS_PREFIX + userSetting.getServerId();
-        Long size = redisTemplate.opsForZSet().zCard(key);
-        if (size  == null || size == 0) {
+        return getMediaServerForMinimumLoad(hasAssist, null, false);
+    }
+
+    @Override
+    public MediaServer getMediaServerForMinimumLoad(Boolean hasAssist, String key, boolean sticky) {
+        if (mediaNodeScheduler.isEmpty()) {
+            loadSchedulerFromRedis();
+        }
+        String mediaServerId = mediaNodeScheduler.select(hasAssist, key, sticky);
+        if (mediaServerId == null) {
             log.info("获取负载最低的节点时无在线节点");
             return null;
         }
+        return getOne(mediaServerId);
+    }
 
-        // 获取分数最低的，及并发最低的
-        Set<Object> objects = redisTemplate.opsForZSet().range(key, 0, -1);
-        ArrayList<Object> mediaServerObjectS = new ArrayList<>(objects);
-        MediaServer mediaServer = null;
-        if (hasAssist == null) {
-            String mediaServerId = (String)mediaServerObjectS.get(0);
-            mediaServer = getOne(mediaServerId);
-        }else if (hasAssist) {
-            for (Object mediaServerObject : mediaServerObjectS) {
-                String mediaServerId = (String)mediaServerObject;
-                MediaServer serverItem = getOne(mediaServerId);
-                if (serverItem.getRecordAssistPort() > 0) {
-                    mediaServer = serverItem;
-                    break;
-                }
+    /**
+     * 本地没有节点信息时(如重启后节点尚未发送心跳)，从redis中恢复
+     */
+    private void loadSchedulerFromRedis() {
+        String key = VideoManagerConstants.ONLINE_MEDIA_SERVERS_PREFIX + userSetting.getServerId();
+        Set<ZSetOperations.TypedTuple<Object>> tuples = redisTemplate.opsForZSet().rangeWithScores(key, 0, -1);
+        if (tuples == null || tuples.isEmpty()) {
+            return;
+        }
+        for (ZSetOperations.TypedTuple<Object> tuple : tuples) {
+            MediaServer mediaServer = getOne((String) tuple.getValue());
+            if (mediaServer == null) {
+                continue;
             }
-        }else if (!hasAssist) {
-            for (Object mediaServerObject : mediaServerObjectS) {
-                String mediaServerId = (String)mediaServerObject;
-                MediaServer serverItem = getOne(mediaServerId);
-                if (serverItem.getRecordAssistPort() == 0) {
-                    mediaServer = serverItem;
-                    break;
-                }
+            mediaNodeScheduler.online(mediaServer, tuple.getScore() == null ? 0 : tuple.getScore().intValue());
+            if (!mediaServer.isStatus()) {
+                mediaNodeScheduler.offline(mediaServer.getId());
             }
         }
-
-        return mediaServer;
     }
 
     @Override
@@ -566,8 +587,10 @@ public class MediaServerServiceImpl implements IMediaServerService {
     public void delete(MediaServer mediaServer) {
         mediaServerMapper.delOne(mediaServer.getId(), userSetting.getServerId());
         redisTemplate.opsForZSet().remove(VideoManagerConstants.ONLINE_MEDIA_SERVERS_PREFIX + userSetting.getServerId(), mediaServer.getId());
+        mediaNodeScheduler.remove(mediaServer.getId());
         String key = VideoManagerConstants.MEDIA_SERVER_PREFIX + userSetting.getServerId() + ":" + mediaServer.getId();
         redisTemplate.delete(key);
+        nearCacheManager.invalidateMediaServer(mediaServer.getId());
         // 发送节点移除通知
         MediaServerDeleteEvent event = new MediaServerDeleteEvent(this);
         event.setMediaServer(mediaServer);
@@ -644,6 +667,16 @@ public class MediaServerServiceImpl implements IMediaServerService {
         return mediaNodeServerService.deleteRecordDirectory(mediaServer, app, stream, date, fileName);
     }
 
+    @Override
+    public List<CloudRecordItem> deleteRecordFiles(MediaServer mediaServer, List<CloudRecordItem> cloudRecordItemList) {
+        IMediaNodeServerService mediaNodeServerService = nodeServerServiceMap.get(mediaServer.getType());
+        if (mediaNodeServerService == null) {
+            log.info("[deleteRecordFiles] 失败, mediaServer的类型： {}，未找到对应的实现类", mediaServer.getType());
+            return new ArrayList<>();
+        }
+        return mediaNodeServerService.deleteRecordFiles(mediaServer, cloudRecordItemList);
+    }
+
     @Override
     public List<StreamInfo> getMediaList(MediaServer mediaServer, String app, String stream, String callId) {
         IMediaNodeServerService mediaNodeServerService = nodeServerServiceMap.get(mediaServer.getType());
@@ -684,6 +717,17 @@ public class MediaServerServiceImpl implements IMediaServerService {
         return mediaNodeServerService.getMediaInfo(mediaServer, app, stream);
     }
 
+    @Override
+    public void getMediaInfo(MediaServer mediaServer, String app, String stream, CommonCallback<MediaInfo> callback) {
+        IMediaNodeServerService mediaNodeServerService = nodeServerServiceMap.get(mediaServer.getType());
+        if (mediaNodeServerService == null) {
+            log.info("[getMediaInfo] 失败, mediaServer的类型： {}，未找到对应的实现类", mediaServer.getType());
+            callback.run(null);
+            return;
+        }
+        mediaNodeServerService.getMediaInfo(mediaServer, app, stream, callback);
+    }
+
     @Override
     public Boolean pauseRtpCheck(MediaServer mediaServer, String streamKey) {
         IMediaNodeServerService mediaNodeServerService = nodeServerServiceMap.get(mediaServer.getType());
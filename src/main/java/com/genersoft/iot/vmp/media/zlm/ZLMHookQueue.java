@@ -0,0 +1,178 @@
+package com.genersoft.iot.vmp.media.zlm;
+
+import com.genersoft.iot.vmp.conf.UserSetting;
+import com.genersoft.iot.vmp.media.bean.MediaHookQueueInfo;
+import com.genersoft.iot.vmp.media.event.mediaServer.MediaServerDeleteEvent;
+import com.genersoft.iot.vmp.utils.LatencyHistogram;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ZLM hook的异步处理队列
+ * 对回复不敏感的hook收到后直接回复，处理放入所属流媒体节点的有界队列，在taskExecutor中按接收顺序逐个执行，
+ * 同一节点同一时间只占用一个线程，某个节点的hook堆积时不影响其他节点；
+ * 队列已满时只丢弃可以重复触发的hook并计数，改变流/录像状态的hook回复后zlm不会重发，需要使用force提交
+ */
+@Slf4j
+@Component
+public class ZLMHookQueue {
+
+    /**
+     * 每次占用线程最多处理的hook数，处理完后重新提交，避免长时间占用线程池
+     */
+    private static final int DRAIN_BATCH = 64;
+
+    @Autowired
+    private UserSetting userSetting;
+
+    @Autowired
+    @Qualifier("taskExecutor")
+    private ThreadPoolTaskExecutor taskExecutor;
+
+    private final Map<String, HookLane> laneMap = new ConcurrentHashMap<>();
+
+    /**
+     * 提交hook的处理
+     * @param mediaServerId 流媒体节点ID
+     * @param hookName hook名称，用于日志
+     * @param task 处理
+     * @param force 是否忽略队列容量限制，用于不能丢弃的hook，比如心跳、流注册注销、录像完成
+     * @return 队列已满时返回false, 处理不会被执行
+     */
+    public boolean submit(String mediaServerId, String hookName, Runnable task, boolean force) {
+        String key = mediaServerId == null ? "" : mediaServerId;
+        HookLane lane = laneMap.computeIfAbsent(key, HookLane::new);
+        if (!lane.offer(task, force)) {
+            long dropped = lane.dropped.incrementAndGet();
+            // 队列满时每丢弃100次打印一次，避免日志刷屏
+            if (dropped % 100 == 1) {
+                log.warn("[ZLM HOOK] 处理队列已满，丢弃 {}， 节点：{}， 累计丢弃：{}", hookName, mediaServerId, dropped);
+            }
+            return false;
+        }
+        lane.schedule();
+        return true;
+    }
+
+    @EventListener
+    public void onApplicationEvent(MediaServerDeleteEvent event) {
+        if (event.getMediaServer() == null) {
+            return;
+        }
+        laneMap.remove(event.getMediaServer().getId());
+    }
+
+    public List<MediaHookQueueInfo> getInfoList() {
+        List<MediaHookQueueInfo> result = new ArrayList<>(laneMap.size());
+        for (HookLane lane : laneMap.values()) {
+            MediaHookQueueInfo info = new MediaHookQueueInfo();
+            info.setMediaServerId(lane.mediaServerId);
+            info.setQueueSize(lane.size.get());
+            info.setCapacity(lane.capacity);
+            info.setProcessed(lane.processed.get());
+            info.setDropped(lane.dropped.get());
+            info.setFailed(lane.failed.get());
+            info.setWaitLatency(lane.waitLatency.toInfo("wait"));
+            info.setHandleLatency(lane.handleLatency.toInfo("handle"));
+            result.add(info);
+        }
+        return result;
+    }
+
+    private static class Task {
+        private final Runnable runnable;
+        private final long enqueueTime;
+
+        private Task(Runnable runnable) {
+            this.runnable = runnable;
+            this.enqueueTime = System.nanoTime();
+        }
+    }
+
+    private class HookLane {
+
+        private final String mediaServerId;
+        private final int capacity;
+        private final ConcurrentLinkedQueue<Task> queue = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger size = new AtomicInteger();
+        private final AtomicBoolean draining = new AtomicBoolean();
+        private final AtomicLong processed = new AtomicLong();
+        private final AtomicLong dropped = new AtomicLong();
+        private final AtomicLong failed = new AtomicLong();
+        private final LatencyHistogram waitLatency = new LatencyHistogram();
+        private final LatencyHistogram handleLatency = new LatencyHistogram();
+
+        private HookLane(String mediaServerId) {
+            this.mediaServerId = mediaServerId;
+            this.capacity = Math.max(userSetting.getMediaHookQueueSize(), 1);
+        }
+
+        private boolean offer(Runnable runnable, boolean force) {
+            if (force) {
+                size.incrementAndGet();
+            } else {
+                int current;
+                do {
+                    current = size.get();
+                    if (current >= capacity) {
+                        return false;
+                    }
+                } while (!size.compareAndSet(current, current + 1));
+            }
+            queue.offer(new Task(runnable));
+            return true;
+        }
+
+        private void schedule() {
+            if (!draining.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                taskExecutor.execute(this::drain);
+            } catch (Exception e) {
+                // 线程池拒绝时保留队列中的数据，下一个hook到来时再次提交
+                draining.set(false);
+                log.warn("[ZLM HOOK] 提交处理失败， 节点：{}， {}", mediaServerId, e.getMessage());
+            }
+        }
+
+        private void drain() {
+            for (int i = 0; i < DRAIN_BATCH; i++) {
+                Task task = queue.poll();
+                if (task == null) {
+                    break;
+                }
+                size.decrementAndGet();
+                long start = System.nanoTime();
+                waitLatency.record(TimeUnit.NANOSECONDS.toMillis(start - task.enqueueTime));
+                try {
+                    task.runnable.run();
+                } catch (Exception e) {
+                    failed.incrementAndGet();
+                    log.error("[ZLM HOOK] 处理异常， 节点：{}", mediaServerId, e);
+                }
+                processed.incrementAndGet();
+                handleLatency.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            }
+            draining.set(false);
+            // 释放标记前新提交的hook可能没有触发执行，这里再检查一次
+            if (!queue.isEmpty()) {
+                schedule();
+            }
+        }
+    }
+}
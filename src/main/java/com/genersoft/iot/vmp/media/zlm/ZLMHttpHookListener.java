@@ -28,6 +28,7 @@ import java.util.Map;
 
 /**
  * @description:针对 ZLMediaServer的hook事件监听
+ * 鉴权类的hook需要同步回复，流媒体节点和鉴权信息使用本地缓存；对回复不敏感的hook直接回复，交给{@link ZLMHookQueue}异步处理
  * @author: swwheihei
  * @date: 2020年5月8日 上午10:46:48
  */
@@ -48,6 +49,9 @@ public class ZLMHttpHookListener {
     @Autowired
     private ApplicationEventPublisher applicationEventPublisher;
 
+    @Autowired
+    private ZLMHookQueue hookQueue;
+
 
     /**
      * 服务器定时上报时间，上报间隔可配置，默认10s上报一次
@@ -55,16 +59,20 @@ public class ZLMHttpHookListener {
     @ResponseBody
     @PostMapping(value = "/on_server_keepalive", produces = "application/json;charset=UTF-8")
     public HookResult onServerKeepalive(@RequestBody OnServerKeepaliveHookParam param) {
-        try {
-            HookZlmServerKeepaliveEvent event = new HookZlmServerKeepaliveEvent(this);
-            MediaServer mediaServerItem = mediaServerService.getOne(param.getMediaServerId());
-            if (mediaServerItem != null) {
-                event.setMediaServerItem(mediaServerItem);
-                applicationEventPublisher.publishEvent(event);
+        // 心跳丢弃会导致节点被误判离线，不受队列容量限制
+        hookQueue.submit(param.getMediaServerId(), "on_server_keepalive", () -> {
+            try {
+                HookZlmServerKeepaliveEvent event = new HookZlmServerKeepaliveEvent(this);
+                MediaServer mediaServerItem = mediaServerService.getOne(param.getMediaServerId());
+                if (mediaServerItem != null) {
+                    event.setMediaServerItem(mediaServerItem);
+                    event.setData(param.getData());
+                    applicationEventPublisher.publishEvent(event);
+                }
+            }catch (Exception e) {
+                log.info("[ZLM-HOOK-心跳] 发送通知失败 ", e);
             }
-        }catch (Exception e) {
-            log.info("[ZLM-HOOK-心跳] 发送通知失败 ", e);
-        }
+        }, true);
         return HookResult.SUCCESS();
     }
 
@@ -98,7 +106,6 @@ public class ZLMHttpHookListener {
         JSONObject json = (JSONObject) JSON.toJSON(param);
 
         log.info("[ZLM HOOK]推流鉴权：{}->{}", param.getMediaServerId(), param);
-        // TODO 加快处理速度
 
         String mediaServerId = json.getString("mediaServerId");
         MediaServer mediaServer = mediaServerService.getOne(mediaServerId);
@@ -126,14 +133,20 @@ public class ZLMHttpHookListener {
     @ResponseBody
     @PostMapping(value = "/on_stream_changed", produces = "application/json;charset=UTF-8")
     public HookResult onStreamChanged(@RequestBody OnStreamChangedHookParam param) {
+        // 同一节点的流注册和注销按接收顺序处理；已回复成功后zlm不会重发，不受队列容量限制
+        hookQueue.submit(param.getMediaServerId(), "on_stream_changed", () -> handleStreamChanged(param), true);
+        return HookResult.SUCCESS();
+    }
+
+    private void handleStreamChanged(OnStreamChangedHookParam param) {
         MediaServer mediaServer = mediaServerService.getOne(param.getMediaServerId());
         if (mediaServer == null) {
-            return HookResult.SUCCESS();
+            return;
         }
         if (!ObjectUtils.isEmpty(mediaServer.getTranscodeSuffix())
                 && !"null".equalsIgnoreCase(mediaServer.getTranscodeSuffix())
                 && param.getStream().endsWith(mediaServer.getTranscodeSuffix())  ) {
-            return HookResult.SUCCESS();
+            return;
         }
         if (param.getSchema().equalsIgnoreCase("rtsp")) {
             if (param.isRegist()) {
@@ -158,8 +171,6 @@ public class ZLMHttpHookListener {
                 applicationEventPublisher.publishEvent(mediaDepartureEvent);
             }
         }
-
-        return HookResult.SUCCESS();
     }
 
     /**
@@ -204,13 +215,18 @@ public class ZLMHttpHookListener {
     public HookResult onStreamNotFound(@RequestBody OnStreamNotFoundHookParam param) {
         log.info("[ZLM HOOK] 流未找到：{}->{}->{}/{}", param.getMediaServerId(), param.getSchema(), param.getApp(), param.getStream());
 
-
-        MediaServer mediaServer = mediaServerService.getOne(param.getMediaServerId());
-        if (!userSetting.getAutoApplyPlay() || mediaServer == null) {
+        if (!userSetting.getAutoApplyPlay()) {
             return HookResult.SUCCESS();
         }
-        MediaNotFoundEvent mediaNotFoundEvent = MediaNotFoundEvent.getInstance(this, param, mediaServer);
-        applicationEventPublisher.publishEvent(mediaNotFoundEvent);
+        // 点播时zlm会再次触发，队列已满时可以丢弃
+        hookQueue.submit(param.getMediaServerId(), "on_stream_not_found", () -> {
+            MediaServer mediaServer = mediaServerService.getOne(param.getMediaServerId());
+            if (mediaServer == null) {
+                return;
+            }
+            MediaNotFoundEvent mediaNotFoundEvent = MediaNotFoundEvent.getInstance(this, param, mediaServer);
+            applicationEventPublisher.publishEvent(mediaNotFoundEvent);
+        }, false);
         return HookResult.SUCCESS();
     }
 
@@ -252,16 +268,18 @@ public class ZLMHttpHookListener {
         if (!"rtp".equals(param.getApp())) {
             return HookResult.SUCCESS();
         }
-        try {
-            MediaSendRtpStoppedEvent event = new MediaSendRtpStoppedEvent(this);
-            MediaServer mediaServerItem = mediaServerService.getOne(param.getMediaServerId());
-            if (mediaServerItem != null) {
-                event.setMediaServer(mediaServerItem);
-                applicationEventPublisher.publishEvent(event);
+        hookQueue.submit(param.getMediaServerId(), "on_send_rtp_stopped", () -> {
+            try {
+                MediaSendRtpStoppedEvent event = new MediaSendRtpStoppedEvent(this);
+                MediaServer mediaServerItem = mediaServerService.getOne(param.getMediaServerId());
+                if (mediaServerItem != null) {
+                    event.setMediaServer(mediaServerItem);
+                    applicationEventPublisher.publishEvent(event);
+                }
+            }catch (Exception e) {
+                log.info("[ZLM-HOOK-rtp发送关闭] 发送通知失败 ", e);
             }
-        }catch (Exception e) {
-            log.info("[ZLM-HOOK-rtp发送关闭] 发送通知失败 ", e);
-        }
+        }, true);
 
         return HookResult.SUCCESS();
     }
@@ -275,17 +293,19 @@ public class ZLMHttpHookListener {
             param) {
         log.info("[ZLM HOOK] rtpServer收流超时：{}->{}({})", param.getMediaServerId(), param.getStream_id(), param.getSsrc());
 
-        try {
-            MediaRtpServerTimeoutEvent event = new MediaRtpServerTimeoutEvent(this);
-            MediaServer mediaServerItem = mediaServerService.getOne(param.getMediaServerId());
-            if (mediaServerItem != null) {
-                event.setMediaServer(mediaServerItem);
-                event.setApp("rtp");
-                applicationEventPublisher.publishEvent(event);
+        hookQueue.submit(param.getMediaServerId(), "on_rtp_server_timeout", () -> {
+            try {
+                MediaRtpServerTimeoutEvent event = new MediaRtpServerTimeoutEvent(this);
+                MediaServer mediaServerItem = mediaServerService.getOne(param.getMediaServerId());
+                if (mediaServerItem != null) {
+                    event.setMediaServer(mediaServerItem);
+                    event.setApp("rtp");
+                    applicationEventPublisher.publishEvent(event);
+                }
+            }catch (Exception e) {
+                log.info("[ZLM-HOOK-rtpServer收流超时] 发送通知失败 ", e);
             }
-        }catch (Exception e) {
-            log.info("[ZLM-HOOK-rtpServer收流超时] 发送通知失败 ", e);
-        }
+        }, true);
 
         return HookResult.SUCCESS();
     }
@@ -298,16 +318,18 @@ public class ZLMHttpHookListener {
     public HookResult onRecordMp4(HttpServletRequest request, @RequestBody OnRecordMp4HookParam param) {
         log.info("[ZLM HOOK] 录像完成：时长: {}, {}->{}",param.getTime_len(), param.getMediaServerId(), param.getFile_path());
 
-        try {
-            MediaServer mediaServerItem = mediaServerService.getOne(param.getMediaServerId());
-            if (mediaServerItem != null) {
-                MediaRecordMp4Event event = MediaRecordMp4Event.getInstance(this, param, mediaServerItem);
-                event.setMediaServer(mediaServerItem);
-                applicationEventPublisher.publishEvent(event);
+        hookQueue.submit(param.getMediaServerId(), "on_record_mp4", () -> {
+            try {
+                MediaServer mediaServerItem = mediaServerService.getOne(param.getMediaServerId());
+                if (mediaServerItem != null) {
+                    MediaRecordMp4Event event = MediaRecordMp4Event.getInstance(this, param, mediaServerItem);
+                    event.setMediaServer(mediaServerItem);
+                    applicationEventPublisher.publishEvent(event);
+                }
+            }catch (Exception e) {
+                log.info("[ZLM-HOOK-录像完成] 发送通知失败 ", e);
             }
-        }catch (Exception e) {
-            log.info("[ZLM-HOOK-rtpServer收流超时] 发送通知失败 ", e);
-        }
+        }, true);
 
         return HookResult.SUCCESS();
     }
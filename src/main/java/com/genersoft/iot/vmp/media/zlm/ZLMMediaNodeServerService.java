@@ -12,6 +12,7 @@ import com.genersoft.iot.vmp.media.bean.MediaInfo;
 import com.genersoft.iot.vmp.media.bean.MediaServer;
 import com.genersoft.iot.vmp.media.service.IMediaNodeServerService;
 import com.genersoft.iot.vmp.media.zlm.dto.ZLMServerConfig;
+import com.genersoft.iot.vmp.service.bean.CloudRecordItem;
 import com.genersoft.iot.vmp.streamProxy.bean.StreamProxy;
 import com.genersoft.iot.vmp.vmanager.bean.ErrorCode;
 import com.genersoft.iot.vmp.vmanager.bean.WVPResult;
@@ -20,6 +21,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.util.ObjectUtils;
 
+import java.io.File;
 import java.util.*;
 
 @Slf4j
@@ -53,7 +55,12 @@ public class ZLMMediaNodeServerService implements IMediaNodeServerService {
 
     @Override
     public void closeStreams(MediaServer mediaServer, String app, String stream) {
-        zlmresTfulUtils.closeStreams(mediaServer, app, stream);
+        // 调用方不关心结果，不占用调用方的线程
+        zlmresTfulUtils.closeStreamsAsync(mediaServer, app, stream).whenComplete((jsonObject, throwable) -> {
+            if (throwable != null || jsonObject == null || jsonObject.getInteger("code") != 0) {
+                log.warn("[关闭流] 失败， {}/{}， 节点：{}", app, stream, mediaServer.getId());
+            }
+        });
     }
 
     @Override
@@ -173,6 +180,26 @@ public class ZLMMediaNodeServerService implements IMediaNodeServerService {
         }
     }
 
+    /**
+     * ZLM没有批量删除文件的接口，逐个调用deleteRecordDirectory，只汇总打印日志
+     */
+    @Override
+    public List<CloudRecordItem> deleteRecordFiles(MediaServer mediaServer, List<CloudRecordItem> cloudRecordItemList) {
+        List<CloudRecordItem> result = new ArrayList<>(cloudRecordItemList.size());
+        for (CloudRecordItem cloudRecordItem : cloudRecordItemList) {
+            String date = new File(cloudRecordItem.getFilePath()).getParentFile().getName();
+            JSONObject jsonObject = zlmresTfulUtils.deleteRecordDirectory(mediaServer, cloudRecordItem.getApp(),
+                    cloudRecordItem.getStream(), date, cloudRecordItem.getFileName());
+            if (jsonObject != null && jsonObject.getInteger("code") != null && jsonObject.getInteger("code") == 0) {
+                result.add(cloudRecordItem);
+            }else {
+                log.warn("[zlm-deleteRecordFiles] 删除磁盘文件错误, server: {}, {}, 结果： {}", mediaServer.getId(), cloudRecordItem.getFilePath(), jsonObject);
+            }
+        }
+        log.info("[zlm-deleteRecordFiles] 删除磁盘文件, server: {}, 成功{}个, 失败{}个", mediaServer.getId(), result.size(), cloudRecordItemList.size() - result.size());
+        return result;
+    }
+
     @Override
     public List<StreamInfo> getMediaList(MediaServer mediaServer, String app, String stream, String callId) {
         List<StreamInfo> streamInfoList = new ArrayList<>();
@@ -263,6 +290,17 @@ public class ZLMMediaNodeServerService implements IMediaNodeServerService {
         return MediaInfo.getInstance(jsonObject, mediaServer, userSetting.getServerId());
     }
 
+    @Override
+    public void getMediaInfo(MediaServer mediaServer, String app, String stream, CommonCallback<MediaInfo> callback) {
+        zlmresTfulUtils.getMediaInfoAsync(mediaServer, app, "rtsp", stream).whenComplete((jsonObject, throwable) -> {
+            if (throwable != null || jsonObject == null || jsonObject.getInteger("code") != 0) {
+                callback.run(null);
+                return;
+            }
+            callback.run(MediaInfo.getInstance(jsonObject, mediaServer, userSetting.getServerId()));
+        });
+    }
+
     @Override
     public Boolean pauseRtpCheck(MediaServer mediaServer, String streamKey) {
         JSONObject jsonObject = zlmresTfulUtils.pauseRtpCheck(mediaServer, streamKey);
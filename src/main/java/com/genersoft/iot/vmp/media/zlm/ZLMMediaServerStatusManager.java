@@ -5,38 +5,54 @@ import com.alibaba.fastjson2.JSONArray;
 import com.alibaba.fastjson2.JSONObject;
 import com.genersoft.iot.vmp.conf.DynamicTask;
 import com.genersoft.iot.vmp.gb28181.event.EventPublisher;
+import com.genersoft.iot.vmp.media.bean.MediaNodeHealthInfo;
 import com.genersoft.iot.vmp.media.bean.MediaServer;
 import com.genersoft.iot.vmp.media.event.mediaServer.MediaServerChangeEvent;
 import com.genersoft.iot.vmp.media.event.mediaServer.MediaServerDeleteEvent;
+import com.genersoft.iot.vmp.media.scheduler.MediaNodeCircuitBreaker;
+import com.genersoft.iot.vmp.media.scheduler.MediaNodeScheduler;
 import com.genersoft.iot.vmp.media.service.IMediaServerService;
 import com.genersoft.iot.vmp.media.zlm.dto.ZLMServerConfig;
 import com.genersoft.iot.vmp.media.zlm.event.HookZlmServerKeepaliveEvent;
 import com.genersoft.iot.vmp.media.zlm.event.HookZlmServerStartEvent;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.event.EventListener;
 import org.springframework.scheduling.annotation.Async;
-import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.stereotype.Component;
 import org.springframework.util.ObjectUtils;
 
 import java.io.File;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Objects;
+import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
  * 管理zlm流媒体节点的状态
+ * 离线的节点各自进行异步的健康检查，失败后按指数退避加随机抖动的间隔重试，节点之间互不影响，
+ * 检查成功后上线，心跳超时后离线并重新开始检查
  */
 @Slf4j
 @Component
 public class ZLMMediaServerStatusManager {
 
-    private final Map<Object, MediaServer> offlineZlmPrimaryMap = new ConcurrentHashMap<>();
-    private final Map<Object, MediaServer> offlineZlmsecondaryMap = new ConcurrentHashMap<>();
-    private final Map<Object, Long> offlineZlmTimeMap = new ConcurrentHashMap<>();
+    /**
+     * 健康检查的初始重试间隔，单位：毫秒
+     */
+    private static final long PROBE_BASE_DELAY = 2 * 1000;
+
+    /**
+     * 健康检查的最大重试间隔，单位：毫秒
+     */
+    private static final long PROBE_MAX_DELAY = 5 * 60 * 1000;
+
+    /**
+     * 离线节点 -> 健康检查状态
+     */
+    private final Map<String, ProbeState> probeMap = new ConcurrentHashMap<>();
 
     @Autowired
     private ZLMRESTfulUtils zlmresTfulUtils;
@@ -47,6 +63,16 @@ public class ZLMMediaServerStatusManager {
     @Autowired
     private DynamicTask dynamicTask;
 
+    @Autowired
+    private MediaNodeScheduler mediaNodeScheduler;
+
+    @Autowired
+    private MediaNodeCircuitBreaker circuitBreaker;
+
+    @Autowired
+    @Qualifier("taskExecutor")
+    private ThreadPoolTaskExecutor taskExecutor;
+
     @Value("${server.ssl.enabled:false}")
     private boolean sslEnabled;
 
@@ -73,9 +99,7 @@ public class ZLMMediaServerStatusManager {
                 continue;
             }
             log.info("[ZLM-添加待上线节点] ID：" + mediaServerItem.getId());
-            offlineZlmPrimaryMap.put(mediaServerItem.getId(), mediaServerItem);
-            offlineZlmTimeMap.put(mediaServerItem.getId(), System.currentTimeMillis());
-            execute();
+            startProbe(mediaServerItem, 0);
         }
     }
 
@@ -107,6 +131,11 @@ public class ZLMMediaServerStatusManager {
         }
         log.debug("[ZLM-HOOK事件-心跳] ID：" + event.getMediaServerItem().getId());
         online(serverItem, null);
+        if (event.getData() != null) {
+            Integer mediaSource = event.getData().getMediaSource();
+            mediaNodeScheduler.keepalive(serverItem.getId(), mediaSource == null ? 0 : mediaSource,
+                    event.getData().getSessionCount());
+        }
     }
 
     @Async("taskExecutor")
@@ -116,72 +145,106 @@ public class ZLMMediaServerStatusManager {
             return;
         }
         log.info("[ZLM-节点被移除] ID：" + event.getMediaServer().getId());
-        offlineZlmPrimaryMap.remove(event.getMediaServer().getId());
-        offlineZlmsecondaryMap.remove(event.getMediaServer().getId());
-        offlineZlmTimeMap.remove(event.getMediaServer().getId());
+        stopProbe(event.getMediaServer().getId());
+        circuitBreaker.remove(event.getMediaServer().getId());
+    }
+
+    /**
+     * 开始对离线节点做健康检查，已在检查中时重新开始
+     * @param delay 首次检查的延时，单位：毫秒
+     */
+    private void startProbe(MediaServer mediaServerItem, long delay) {
+        ProbeState state = new ProbeState(mediaServerItem);
+        probeMap.put(mediaServerItem.getId(), state);
+        scheduleProbe(state, delay);
     }
 
-    @Scheduled(fixedDelay = 10*1000)   //每隔10秒检查一次
-    public void execute(){
-        // 初次加入的离线节点会在30分钟内，每间隔十秒尝试一次，30分钟后如果仍然没有上线，则每隔30分钟尝试一次连接
-        if (offlineZlmPrimaryMap.isEmpty() && offlineZlmsecondaryMap.isEmpty()) {
+    private void stopProbe(String mediaServerId) {
+        if (probeMap.remove(mediaServerId) != null) {
+            dynamicTask.stop(getProbeTaskKey(mediaServerId));
+        }
+    }
+
+    private void scheduleProbe(ProbeState state, long delay) {
+        state.nextProbeTime = System.currentTimeMillis() + delay;
+        dynamicTask.startDelay(getProbeTaskKey(state.mediaServer.getId()), () -> probe(state), (int) delay);
+    }
+
+    private void probe(ProbeState state) {
+        MediaServer mediaServerItem = state.mediaServer;
+        if (probeMap.get(mediaServerItem.getId()) != state) {
             return;
         }
-        if (!offlineZlmPrimaryMap.isEmpty()) {
-            for (MediaServer mediaServerItem : offlineZlmPrimaryMap.values()) {
-                if (offlineZlmTimeMap.get(mediaServerItem.getId()) != null
-                        && offlineZlmTimeMap.get(mediaServerItem.getId()) <  System.currentTimeMillis() - 30*60*1000) {
-                    offlineZlmsecondaryMap.put(mediaServerItem.getId(), mediaServerItem);
-                    offlineZlmPrimaryMap.remove(mediaServerItem.getId());
-                    continue;
-                }
-                log.info("[ZLM-尝试连接] ID：{}, 地址： {}:{}", mediaServerItem.getId(), mediaServerItem.getIp(), mediaServerItem.getHttpPort());
-                JSONObject responseJson = zlmresTfulUtils.getMediaServerConfig(mediaServerItem);
-                ZLMServerConfig zlmServerConfig = null;
-                if (responseJson == null) {
-                    log.info("[ZLM-尝试连接]失败, ID：{}, 地址： {}:{}", mediaServerItem.getId(), mediaServerItem.getIp(), mediaServerItem.getHttpPort());
-                    continue;
-                }
-                JSONArray data = responseJson.getJSONArray("data");
-                if (data == null || data.isEmpty()) {
-                    log.info("[ZLM-尝试连接]失败, ID：{}, 地址： {}:{}", mediaServerItem.getId(), mediaServerItem.getIp(), mediaServerItem.getHttpPort());
-                }else {
-                    zlmServerConfig = JSON.parseObject(JSON.toJSONString(data.get(0)), ZLMServerConfig.class);
-                    initPort(mediaServerItem, zlmServerConfig);
-                    online(mediaServerItem, zlmServerConfig);
-                }
+        log.info("[ZLM-尝试连接] ID：{}, 地址： {}:{}, 第{}次", mediaServerItem.getId(), mediaServerItem.getIp(),
+                mediaServerItem.getHttpPort(), state.attempt + 1);
+        zlmresTfulUtils.probe(mediaServerItem).whenCompleteAsync((responseJson, throwable) -> {
+            if (probeMap.get(mediaServerItem.getId()) != state) {
+                return;
             }
-        }
-        if (!offlineZlmsecondaryMap.isEmpty()) {
-            for (MediaServer mediaServerItem : offlineZlmsecondaryMap.values()) {
-                if (offlineZlmTimeMap.get(mediaServerItem.getId()) <  System.currentTimeMillis() - 30*60*1000) {
-                    continue;
-                }
-                log.info("[ZLM-尝试连接] ID：{}, 地址： {}:{}", mediaServerItem.getId(), mediaServerItem.getIp(), mediaServerItem.getHttpPort());
-                JSONObject responseJson = zlmresTfulUtils.getMediaServerConfig(mediaServerItem);
-                ZLMServerConfig zlmServerConfig = null;
-                if (responseJson == null) {
-                    log.info("[ZLM-尝试连接]失败, ID：{}, 地址： {}:{}", mediaServerItem.getId(), mediaServerItem.getIp(), mediaServerItem.getHttpPort());
-                    offlineZlmTimeMap.put(mediaServerItem.getId(), System.currentTimeMillis());
-                    continue;
-                }
+            ZLMServerConfig zlmServerConfig = null;
+            if (throwable == null && responseJson != null) {
                 JSONArray data = responseJson.getJSONArray("data");
-                if (data == null || data.isEmpty()) {
-                    log.info("[ZLM-尝试连接]失败, ID：{}, 地址： {}:{}", mediaServerItem.getId(), mediaServerItem.getIp(), mediaServerItem.getHttpPort());
-                    offlineZlmTimeMap.put(mediaServerItem.getId(), System.currentTimeMillis());
-                }else {
+                if (data != null && !data.isEmpty()) {
                     zlmServerConfig = JSON.parseObject(JSON.toJSONString(data.get(0)), ZLMServerConfig.class);
-                    initPort(mediaServerItem, zlmServerConfig);
-                    online(mediaServerItem, zlmServerConfig);
                 }
             }
+            if (zlmServerConfig == null) {
+                state.attempt++;
+                state.lastError = throwable == null ? "返回数据为空" : throwable.getMessage();
+                long delay = getProbeDelay(state.attempt);
+                log.info("[ZLM-尝试连接]失败, ID：{}, 地址： {}:{}, {}ms后重试", mediaServerItem.getId(),
+                        mediaServerItem.getIp(), mediaServerItem.getHttpPort(), delay);
+                scheduleProbe(state, delay);
+                return;
+            }
+            initPort(mediaServerItem, zlmServerConfig);
+            online(mediaServerItem, zlmServerConfig);
+        }, taskExecutor);
+    }
+
+    /**
+     * 指数退避，在[间隔/2, 间隔]之间随机，避免多个节点同时重试
+     */
+    private long getProbeDelay(int attempt) {
+        long delay = Math.min(PROBE_MAX_DELAY, PROBE_BASE_DELAY << Math.min(attempt - 1, 20));
+        return delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+    }
+
+    private String getProbeTaskKey(String mediaServerId) {
+        return "zlm-probe-" + mediaServerId;
+    }
+
+    /**
+     * 各节点的健康状态
+     */
+    public List<MediaNodeHealthInfo> getHealthList() {
+        List<MediaNodeHealthInfo> result = new ArrayList<>();
+        for (MediaServer mediaServer : mediaServerService.getAll()) {
+            if (!type.equals(mediaServer.getType())) {
+                continue;
+            }
+            MediaNodeHealthInfo info = new MediaNodeHealthInfo();
+            info.setId(mediaServer.getId());
+            info.setIp(mediaServer.getIp());
+            info.setHttpPort(mediaServer.getHttpPort());
+            info.setStatus(mediaServer.isStatus());
+            info.setBreakerState(circuitBreaker.getState(mediaServer.getId()).name());
+            info.setConsecutiveFailures(circuitBreaker.getConsecutiveFailures(mediaServer.getId()));
+            ProbeState state = probeMap.get(mediaServer.getId());
+            if (state != null) {
+                info.setProbing(true);
+                info.setProbeAttempt(state.attempt);
+                info.setOfflineTime(state.startTime);
+                info.setNextProbeInMs(Math.max(state.nextProbeTime - System.currentTimeMillis(), 0));
+                info.setLastError(state.lastError);
+            }
+            result.add(info);
         }
+        return result;
     }
 
     private void online(MediaServer mediaServerItem, ZLMServerConfig config) {
-        offlineZlmPrimaryMap.remove(mediaServerItem.getId());
-        offlineZlmsecondaryMap.remove(mediaServerItem.getId());
-        offlineZlmTimeMap.remove(mediaServerItem.getId());
+        stopProbe(mediaServerItem.getId());
         if (!mediaServerItem.isStatus()) {
             log.info("[ZLM-连接成功] ID：{}, 地址： {}:{}", mediaServerItem.getId(), mediaServerItem.getIp(), mediaServerItem.getHttpPort());
             mediaServerItem.setStatus(true);
@@ -209,8 +272,7 @@ public class ZLMMediaServerStatusManager {
         dynamicTask.startDelay(key, ()->{
             log.warn("[ZLM-心跳超时] ID：{}", mediaServerItem.getId());
             mediaServerItem.setStatus(false);
-            offlineZlmPrimaryMap.put(mediaServerItem.getId(), mediaServerItem);
-            offlineZlmTimeMap.put(mediaServerItem.getId(), System.currentTimeMillis());
+            startProbe(mediaServerItem, PROBE_BASE_DELAY);
             // 发送离线通知
             eventPublisher.mediaServerOfflineEventPublish(mediaServerItem);
             mediaServerService.update(mediaServerItem);
@@ -317,4 +379,23 @@ public class ZLMMediaServerStatusManager {
         }
     }
 
+    private static class ProbeState {
+
+        private final MediaServer mediaServer;
+
+        /**
+         * 开始检查的时间，即节点离线的时间
+         */
+        private final long startTime = System.currentTimeMillis();
+
+        private volatile int attempt;
+
+        private volatile long nextProbeTime;
+
+        private volatile String lastError;
+
+        private ProbeState(MediaServer mediaServer) {
+            this.mediaServer = mediaServer;
+        }
+    }
 }
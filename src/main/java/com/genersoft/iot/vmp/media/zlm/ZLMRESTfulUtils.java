@@ -2,11 +2,20 @@ package com.genersoft.iot.vmp.media.zlm;
 
 import com.alibaba.fastjson2.JSON;
 import com.alibaba.fastjson2.JSONObject;
+import com.alibaba.fastjson2.JSONPath;
+import com.genersoft.iot.vmp.common.LatencyInfo;
 import com.genersoft.iot.vmp.media.bean.MediaServer;
+import com.genersoft.iot.vmp.media.event.mediaServer.MediaServerDeleteEvent;
+import com.genersoft.iot.vmp.media.scheduler.MediaNodeCircuitBreaker;
+import com.genersoft.iot.vmp.utils.LatencyHistogram;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import lombok.extern.slf4j.Slf4j;
 import okhttp3.*;
 import okhttp3.logging.HttpLoggingInterceptor;
 import org.jetbrains.annotations.NotNull;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Component;
 
 import java.io.File;
@@ -14,51 +23,140 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.net.ConnectException;
 import java.net.SocketTimeoutException;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Objects;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
-
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ZLM的RESTful接口调用
+ * 每个节点使用独立的连接池和调度器，某个节点响应慢时不影响其他节点；
+ * 查询类接口相同参数的并发请求合并为一次，结果短暂缓存，多个观看者同时查询同一个流时只访问一次ZLM，调用其他接口时清除该节点的缓存；
+ * 调用结果记录到{@link MediaNodeCircuitBreaker}，节点熔断期间直接返回失败
+ */
 @Slf4j
 @Component
 public class ZLMRESTfulUtils {
 
-    private OkHttpClient client;
+    /**
+     * 默认的读取超时时间，单位：秒
+     */
+    private static final int DEFAULT_READ_TIMEOUT = 10;
+
+    /**
+     * 健康检查的连接和读取超时时间，单位：秒
+     */
+    private static final int PROBE_TIMEOUT = 3;
+
+    /**
+     * 查询结果的缓存时间，单位：毫秒
+     */
+    private static final long QUERY_CACHE_EXPIRE = 300;
+
+    /**
+     * 可以合并请求的查询接口，不改变ZLM的状态
+     */
+    private static final Set<String> QUERY_APIS = new HashSet<>(Arrays.asList("isMediaOnline", "getMediaList",
+            "getMediaInfo", "getRtpInfo", "listRtpServer", "getServerConfig", "getAllSession"));
+
+    /**
+     * 节点 -> 客户端， key为 节点ID@ip:port#读取超时时间，同一节点不同超时时间的客户端共用连接池
+     */
+    private final Map<String, OkHttpClient> clientMap = new ConcurrentHashMap<>();
+
+    /**
+     * 正在进行的查询请求， key为 节点+接口+参数
+     */
+    private final Map<String, CompletableFuture<String>> queryInFlightMap = new ConcurrentHashMap<>();
+
+    /**
+     * 节点 -> 查询结果的缓存， key为 节点+接口+参数
+     */
+    private final Map<String, Cache<String, String>> queryCacheMap = new ConcurrentHashMap<>();
 
+    /**
+     * 节点 -> 查询结果的版本，调用修改状态的接口时递增，版本变化前发出的查询结果不再写入缓存
+     */
+    private final Map<String, AtomicLong> queryVersionMap = new ConcurrentHashMap<>();
+
+    private final Map<String, LatencyHistogram> apiLatencyMap = new ConcurrentHashMap<>();
+
+    private final Map<String, LatencyHistogram> nodeLatencyMap = new ConcurrentHashMap<>();
+
+    @Autowired
+    private MediaNodeCircuitBreaker circuitBreaker;
 
     public interface RequestCallback{
         void run(JSONObject response);
     }
 
-    private OkHttpClient getClient(){
-        return getClient(null);
-    }
-
-    private OkHttpClient getClient(Integer readTimeOut){
-        if (client == null) {
-            if (readTimeOut == null) {
-                readTimeOut = 10;
-            }
-            OkHttpClient.Builder httpClientBuilder = new OkHttpClient.Builder();
-            //todo 暂时写死超时时间 均为5s
-            // 设置连接超时时间
-            httpClientBuilder.connectTimeout(8,TimeUnit.SECONDS);
-            // 设置读取超时时间
-            httpClientBuilder.readTimeout(readTimeOut,TimeUnit.SECONDS);
-            // 设置连接池
-            httpClientBuilder.connectionPool(new ConnectionPool(16, 5, TimeUnit.MINUTES));
-            if (log.isDebugEnabled()) {
-                HttpLoggingInterceptor logging = new HttpLoggingInterceptor(message -> {
-                    log.debug("http请求参数：" + message);
-                });
-                logging.setLevel(HttpLoggingInterceptor.Level.BASIC);
-                // OkHttp進行添加攔截器loggingInterceptor
-                httpClientBuilder.addInterceptor(logging);
+    /**
+     * 节点被移除时释放连接
+     */
+    @EventListener
+    public void onApplicationEvent(MediaServerDeleteEvent event) {
+        if (event.getMediaServer() == null) {
+            return;
+        }
+        String prefix = event.getMediaServer().getId() + "@";
+        for (Map.Entry<String, OkHttpClient> entry : clientMap.entrySet()) {
+            if (entry.getKey().startsWith(prefix) && clientMap.remove(entry.getKey(), entry.getValue())) {
+                entry.getValue().connectionPool().evictAll();
             }
-            client = httpClientBuilder.build();
         }
-        return client;
+        queryCacheMap.keySet().removeIf(key -> key.startsWith(prefix));
+        queryVersionMap.keySet().removeIf(key -> key.startsWith(prefix));
+    }
 
+    private OkHttpClient getClient(MediaServer mediaServerItem, Integer readTimeOut){
+        int timeout = readTimeOut == null ? DEFAULT_READ_TIMEOUT : readTimeOut;
+        String nodeKey = buildNodeKey(mediaServerItem);
+        OkHttpClient baseClient = clientMap.computeIfAbsent(nodeKey + "#" + DEFAULT_READ_TIMEOUT, key -> buildClient());
+        if (timeout == DEFAULT_READ_TIMEOUT) {
+            return baseClient;
+        }
+        // 共用连接池和调度器，只修改超时时间
+        return clientMap.computeIfAbsent(nodeKey + "#" + timeout,
+                key -> baseClient.newBuilder().readTimeout(timeout, TimeUnit.SECONDS).build());
+    }
+
+    /**
+     * 健康检查使用较短的超时时间，共用节点的连接池和调度器
+     */
+    private OkHttpClient getProbeClient(MediaServer mediaServerItem) {
+        String nodeKey = buildNodeKey(mediaServerItem);
+        OkHttpClient baseClient = getClient(mediaServerItem, null);
+        return clientMap.computeIfAbsent(nodeKey + "#probe", key -> baseClient.newBuilder()
+                .connectTimeout(PROBE_TIMEOUT, TimeUnit.SECONDS)
+                .readTimeout(PROBE_TIMEOUT, TimeUnit.SECONDS)
+                .build());
+    }
+
+    private OkHttpClient buildClient() {
+        OkHttpClient.Builder httpClientBuilder = new OkHttpClient.Builder();
+        // 设置连接超时时间
+        httpClientBuilder.connectTimeout(8,TimeUnit.SECONDS);
+        // 设置读取超时时间
+        httpClientBuilder.readTimeout(DEFAULT_READ_TIMEOUT,TimeUnit.SECONDS);
+        // 设置连接池
+        httpClientBuilder.connectionPool(new ConnectionPool(16, 5, TimeUnit.MINUTES));
+        // 所有请求都发往同一个节点，放开单个host的并发限制
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(64);
+        dispatcher.setMaxRequestsPerHost(64);
+        httpClientBuilder.dispatcher(dispatcher);
+        if (log.isDebugEnabled()) {
+            HttpLoggingInterceptor logging = new HttpLoggingInterceptor(message -> {
+                log.debug("http请求参数：" + message);
+            });
+            logging.setLevel(HttpLoggingInterceptor.Level.BASIC);
+            // OkHttp進行添加攔截器loggingInterceptor
+            httpClientBuilder.addInterceptor(logging);
+        }
+        return httpClientBuilder.build();
     }
 
     public JSONObject sendPost(MediaServer mediaServerItem, String api, Map<String, Object> param, RequestCallback callback) {
@@ -67,17 +165,179 @@ public class ZLMRESTfulUtils {
 
 
     public JSONObject sendPost(MediaServer mediaServerItem, String api, Map<String, Object> param, RequestCallback callback, Integer readTimeOut) {
-        OkHttpClient client = getClient(readTimeOut);
-
         if (mediaServerItem == null) {
             return null;
         }
-        String url = String.format("http://%s:%s/index/api/%s",  mediaServerItem.getIp(), mediaServerItem.getHttpPort(), api);
-        JSONObject responseJSON = new JSONObject();
-        //-2自定义流媒体 调用错误码
-        responseJSON.put("code",-2);
-        responseJSON.put("msg","流媒体调用失败");
+        if (callback != null) {
+            // 与原先的行为一致，只有请求成功时才回调
+            sendPostAsync(mediaServerItem, api, param, readTimeOut).thenAccept(response -> {
+                try {
+                    callback.run(response);
+                } catch (Exception e) {
+                    log.error("[ZLM-调用] 回调处理异常, api: {}", api, e);
+                }
+            });
+            return failResponse();
+        }
+        if (QUERY_APIS.contains(api)) {
+            // 合并的请求可能由其他调用方先发出，等待时间不超过读取超时时间
+            int timeout = readTimeOut == null ? DEFAULT_READ_TIMEOUT : readTimeOut;
+            try {
+                return sendPostAsync(mediaServerItem, api, param, readTimeOut).get(timeout, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return failResponse();
+            } catch (ExecutionException e) {
+                return failResponse();
+            } catch (TimeoutException e) {
+                log.warn("[ZLM-调用] 等待查询结果超时, ID: {}, api: {}", mediaServerItem.getId(), api);
+                return failResponse();
+            }
+        }
+        if (!circuitBreaker.allowRequest(mediaServerItem.getId())) {
+            log.debug("[ZLM-调用] 节点熔断中, ID: {}, api: {}", mediaServerItem.getId(), api);
+            return failResponse();
+        }
+        invalidateQuery(mediaServerItem);
+        Request request = buildRequest(mediaServerItem, api, param);
+        String url = request.url().toString();
+        long startTime = System.currentTimeMillis();
+        JSONObject responseJSON = failResponse();
+        try {
+            Response response = getClient(mediaServerItem, readTimeOut).newCall(request).execute();
+            if (response.isSuccessful()) {
+                ResponseBody responseBody = response.body();
+                if (responseBody != null) {
+                    String responseStr = responseBody.string();
+                    responseJSON = JSON.parseObject(responseStr);
+                }
+                recordOutcome(mediaServerItem, responseJSON == null ? null : responseJSON.getInteger("code"));
+            }else {
+                circuitBreaker.recordFailure(mediaServerItem.getId());
+                response.close();
+                Objects.requireNonNull(response.body()).close();
+            }
+        }catch (IOException e) {
+            circuitBreaker.recordFailure(mediaServerItem.getId());
+            logFailure(url, e);
+        }catch (Exception e){
+            // 返回的内容无法解析
+            circuitBreaker.recordFailure(mediaServerItem.getId());
+            log.error(String.format("访问ZLM失败: %s, %s", url, e.getMessage()));
+        } finally {
+            recordLatency(mediaServerItem, api, System.currentTimeMillis() - startTime);
+            invalidateQuery(mediaServerItem);
+        }
+        return responseJSON;
+    }
+
+    /**
+     * 异步调用，不占用调用方的线程
+     * 请求失败(连接失败、超时、http状态码不是200)时以异常结束，ZLM返回的业务错误码需要调用方自行判断
+     */
+    public CompletableFuture<JSONObject> sendPostAsync(MediaServer mediaServerItem, String api, Map<String, Object> param, Integer readTimeOut) {
+        if (!QUERY_APIS.contains(api)) {
+            // 请求前后都清除查询缓存，执行期间查询到的结果也不会保留
+            invalidateQuery(mediaServerItem);
+            CompletableFuture<String> future = new CompletableFuture<>();
+            future.whenComplete((responseStr, throwable) -> invalidateQuery(mediaServerItem));
+            enqueue(mediaServerItem, api, param, readTimeOut, future, false);
+            return future.thenApply(JSON::parseObject);
+        }
+        String nodeKey = buildNodeKey(mediaServerItem);
+        Cache<String, String> queryCache = queryCacheMap.computeIfAbsent(nodeKey, key -> CacheBuilder.newBuilder()
+                .maximumSize(1000)
+                .expireAfterWrite(QUERY_CACHE_EXPIRE, TimeUnit.MILLISECONDS)
+                .build());
+        AtomicLong queryVersion = queryVersionMap.computeIfAbsent(nodeKey, key -> new AtomicLong());
+        String queryKey = buildQueryKey(mediaServerItem, api, param);
+        String cached = queryCache.getIfPresent(queryKey);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(JSON.parseObject(cached));
+        }
+        long version = queryVersion.get();
+        CompletableFuture<String> future = new CompletableFuture<>();
+        CompletableFuture<String> inFlight = queryInFlightMap.putIfAbsent(queryKey, future);
+        if (inFlight != null) {
+            // 每个调用方解析出独立的对象，避免互相修改
+            return inFlight.thenApply(JSON::parseObject);
+        }
+        future.whenComplete((responseStr, throwable) -> {
+            if (throwable == null && version == queryVersion.get()) {
+                queryCache.put(queryKey, responseStr);
+                // 写入缓存的同时节点状态被修改，丢弃这次的结果
+                if (version != queryVersion.get()) {
+                    queryCache.invalidate(queryKey);
+                }
+            }
+            queryInFlightMap.remove(queryKey, future);
+        });
+        enqueue(mediaServerItem, api, param, readTimeOut, future, false);
+        return future.thenApply(JSON::parseObject);
+    }
+
+    /**
+     * 健康检查，读取节点的配置，不受熔断限制，也不与其他查询合并
+     */
+    public CompletableFuture<JSONObject> probe(MediaServer mediaServerItem) {
+        CompletableFuture<String> future = new CompletableFuture<>();
+        enqueue(mediaServerItem, "getServerConfig", null, null, future, true);
+        return future.thenApply(JSON::parseObject);
+    }
+
+    private void enqueue(MediaServer mediaServerItem, String api, Map<String, Object> param, Integer readTimeOut,
+                         CompletableFuture<String> future, boolean probe) {
+        if (!probe && !circuitBreaker.allowRequest(mediaServerItem.getId())) {
+            future.completeExceptionally(new IOException("节点熔断中: " + mediaServerItem.getId()));
+            return;
+        }
+        Request request = buildRequest(mediaServerItem, api, param);
+        String url = request.url().toString();
+        long startTime = System.currentTimeMillis();
+        OkHttpClient client = probe ? getProbeClient(mediaServerItem) : getClient(mediaServerItem, readTimeOut);
+        client.newCall(request).enqueue(new Callback(){
+
+            @Override
+            public void onResponse(@NotNull Call call, @NotNull Response response){
+                recordLatency(mediaServerItem, api, System.currentTimeMillis() - startTime);
+                try (ResponseBody responseBody = response.body()) {
+                    if (response.isSuccessful() && responseBody != null) {
+                        String responseStr = responseBody.string();
+                        Object code = null;
+                        try {
+                            // zlm的返回中code在最前面，只读取code，不解析整个返回
+                            code = JSONPath.extract(responseStr, "$.code");
+                        } catch (Exception ignored) {
+                        }
+                        recordOutcome(mediaServerItem, code instanceof Integer ? (Integer) code : null);
+                        future.complete(responseStr);
+                    }else {
+                        circuitBreaker.recordFailure(mediaServerItem.getId());
+                        future.completeExceptionally(new IOException("http status " + response.code()));
+                    }
+                } catch (IOException e) {
+                    circuitBreaker.recordFailure(mediaServerItem.getId());
+                    log.error(String.format("[ %s ]请求失败: %s", url, e.getMessage()));
+                    future.completeExceptionally(e);
+                }
+            }
 
+            @Override
+            public void onFailure(@NotNull Call call, @NotNull IOException e) {
+                recordLatency(mediaServerItem, api, System.currentTimeMillis() - startTime);
+                circuitBreaker.recordFailure(mediaServerItem.getId());
+                if (probe) {
+                    log.debug("[ZLM-健康检查] 请求失败: {}, {}", url, e.getMessage());
+                }else {
+                    logFailure(url, e);
+                }
+                future.completeExceptionally(e);
+            }
+        });
+    }
+
+    private Request buildRequest(MediaServer mediaServerItem, String api, Map<String, Object> param) {
+        String url = String.format("http://%s:%s/index/api/%s",  mediaServerItem.getIp(), mediaServerItem.getHttpPort(), api);
         FormBody.Builder builder = new FormBody.Builder();
         builder.add("secret",mediaServerItem.getSecret());
         if (param != null && param.keySet().size() > 0) {
@@ -90,76 +350,98 @@ public class ZLMRESTfulUtils {
 
         FormBody body = builder.build();
 
-        Request request = new Request.Builder()
+        return new Request.Builder()
                 .post(body)
                 .url(url)
                 .build();
-            if (callback == null) {
-                try {
-                    Response response = client.newCall(request).execute();
-                    if (response.isSuccessful()) {
-                        ResponseBody responseBody = response.body();
-                        if (responseBody != null) {
-                            String responseStr = responseBody.string();
-                            responseJSON = JSON.parseObject(responseStr);
-                        }
-                    }else {
-                        response.close();
-                        Objects.requireNonNull(response.body()).close();
-                    }
-                }catch (IOException e) {
-                    log.error(String.format("[ %s ]请求失败: %s", url, e.getMessage()));
+    }
 
-                    if(e instanceof SocketTimeoutException){
-                        //读取超时超时异常
-                        log.error(String.format("读取ZLM数据超时失败: %s, %s", url, e.getMessage()));
-                    }
-                    if(e instanceof ConnectException){
-                        //判断连接异常，我这里是报Failed to connect to 10.7.5.144
-                        log.error(String.format("连接ZLM连接失败: %s, %s", url, e.getMessage()));
-                    }
+    /**
+     * 调用修改节点状态的接口时清除该节点的查询缓存，正在进行的查询不再与之后的查询合并
+     */
+    private void invalidateQuery(MediaServer mediaServerItem) {
+        String nodeKey = buildNodeKey(mediaServerItem);
+        AtomicLong queryVersion = queryVersionMap.get(nodeKey);
+        if (queryVersion == null) {
+            // 还没有查询过
+            return;
+        }
+        queryVersion.incrementAndGet();
+        Cache<String, String> queryCache = queryCacheMap.get(nodeKey);
+        if (queryCache != null) {
+            queryCache.invalidateAll();
+        }
+        String prefix = nodeKey + "/";
+        queryInFlightMap.keySet().removeIf(key -> key.startsWith(prefix));
+    }
+
+    private String buildNodeKey(MediaServer mediaServerItem) {
+        return mediaServerItem.getId() + "@" + mediaServerItem.getIp() + ":" + mediaServerItem.getHttpPort();
+    }
 
-                }catch (Exception e){
-                    log.error(String.format("访问ZLM失败: %s, %s", url, e.getMessage()));
+    private String buildQueryKey(MediaServer mediaServerItem, String api, Map<String, Object> param) {
+        StringBuilder key = new StringBuilder();
+        key.append(buildNodeKey(mediaServerItem)).append('/').append(api);
+        if (param != null && !param.isEmpty()) {
+            for (Map.Entry<String, Object> entry : new TreeMap<>(param).entrySet()) {
+                if (entry.getValue() != null) {
+                    key.append('&').append(entry.getKey()).append('=').append(entry.getValue());
                 }
-            }else {
-                client.newCall(request).enqueue(new Callback(){
-
-                    @Override
-                    public void onResponse(@NotNull Call call, @NotNull Response response){
-                        if (response.isSuccessful()) {
-                            try {
-                                String responseStr = Objects.requireNonNull(response.body()).string();
-                                callback.run(JSON.parseObject(responseStr));
-                            } catch (IOException e) {
-                                log.error(String.format("[ %s ]请求失败: %s", url, e.getMessage()));
-                            }
-
-                        }else {
-                            response.close();
-                            Objects.requireNonNull(response.body()).close();
-                        }
-                    }
+            }
+        }
+        return key.toString();
+    }
+
+    /**
+     * 按zlm返回的code记录节点的调用结果：无法解析、鉴权失败(-100)和节点内部异常(-400)计为失败；
+     * 流不存在、参数错误等业务结果说明节点可以正常响应，计为成功
+     */
+    private void recordOutcome(MediaServer mediaServerItem, Integer code) {
+        if (code == null || code == -100 || code == -400) {
+            circuitBreaker.recordFailure(mediaServerItem.getId());
+        }else {
+            circuitBreaker.recordSuccess(mediaServerItem.getId());
+        }
+    }
 
-                    @Override
-                    public void onFailure(@NotNull Call call, @NotNull IOException e) {
-                        log.error(String.format("连接ZLM失败: %s, %s", call.request().toString(), e.getMessage()));
+    private JSONObject failResponse() {
+        JSONObject responseJSON = new JSONObject();
+        //-2自定义流媒体 调用错误码
+        responseJSON.put("code",-2);
+        responseJSON.put("msg","流媒体调用失败");
+        return responseJSON;
+    }
 
-                        if(e instanceof SocketTimeoutException){
-                            //读取超时超时异常
-                            log.error(String.format("读取ZLM数据失败: %s, %s", call.request().toString(), e.getMessage()));
-                        }
-                        if(e instanceof ConnectException){
-                            //判断连接异常，我这里是报Failed to connect to 10.7.5.144
-                            log.error(String.format("连接ZLM失败: %s, %s", call.request().toString(), e.getMessage()));
-                        }
-                    }
-                });
-            }
+    private void logFailure(String url, IOException e) {
+        log.error(String.format("[ %s ]请求失败: %s", url, e.getMessage()));
 
+        if(e instanceof SocketTimeoutException){
+            //读取超时超时异常
+            log.error(String.format("读取ZLM数据超时失败: %s, %s", url, e.getMessage()));
+        }
+        if(e instanceof ConnectException){
+            //判断连接异常，我这里是报Failed to connect to 10.7.5.144
+            log.error(String.format("连接ZLM连接失败: %s, %s", url, e.getMessage()));
+        }
+    }
 
+    private void recordLatency(MediaServer mediaServerItem, String api, long millis) {
+        apiLatencyMap.computeIfAbsent(api, k -> new LatencyHistogram()).record(millis);
+        nodeLatencyMap.computeIfAbsent(mediaServerItem.getId(), k -> new LatencyHistogram()).record(millis);
+    }
 
-        return responseJSON;
+    /**
+     * 按接口和节点统计的调用耗时
+     */
+    public List<LatencyInfo> getLatencyList() {
+        List<LatencyInfo> result = new ArrayList<>();
+        for (Map.Entry<String, LatencyHistogram> entry : new TreeMap<>(apiLatencyMap).entrySet()) {
+            result.add(entry.getValue().toInfo("api:" + entry.getKey()));
+        }
+        for (Map.Entry<String, LatencyHistogram> entry : new TreeMap<>(nodeLatencyMap).entrySet()) {
+            result.add(entry.getValue().toInfo("node:" + entry.getKey()));
+        }
+        return result;
     }
 
     public void sendGetForImg(MediaServer mediaServerItem, String api, Map<String, Object> params, String targetPath, String fileName) {
@@ -184,7 +466,7 @@ public class ZLMRESTfulUtils {
             log.debug(request.toString());
         }
         try {
-            OkHttpClient client = getClient();
+            OkHttpClient client = getClient(mediaServerItem, null);
             Response response = client.newCall(request).execute();
             if (response.isSuccessful()) {
                 if (targetPath != null) {
@@ -255,12 +537,20 @@ public class ZLMRESTfulUtils {
     }
 
     public JSONObject getMediaInfo(MediaServer mediaServerItem, String app, String schema, String stream){
+        return sendPost(mediaServerItem, "getMediaInfo", buildMediaInfoParam(app, schema, stream), null);
+    }
+
+    public CompletableFuture<JSONObject> getMediaInfoAsync(MediaServer mediaServerItem, String app, String schema, String stream){
+        return sendPostAsync(mediaServerItem, "getMediaInfo", buildMediaInfoParam(app, schema, stream), null);
+    }
+
+    private Map<String, Object> buildMediaInfoParam(String app, String schema, String stream) {
         Map<String, Object> param = new HashMap<>();
         param.put("app",app);
         param.put("schema",schema);
         param.put("stream",stream);
         param.put("vhost","__defaultVhost__");
-        return sendPost(mediaServerItem, "getMediaInfo",param, null);
+        return param;
     }
 
     public JSONObject getRtpInfo(MediaServer mediaServerItem, String stream_id){
@@ -310,8 +600,8 @@ public class ZLMRESTfulUtils {
         return sendPost(mediaServerItem, "closeRtpServer",param, null);
     }
 
-    public void closeRtpServer(MediaServer mediaServerItem, Map<String, Object> param, RequestCallback callback) {
-        sendPost(mediaServerItem, "closeRtpServer",param, callback);
+    public CompletableFuture<JSONObject> closeRtpServerAsync(MediaServer mediaServerItem, Map<String, Object> param) {
+        return sendPostAsync(mediaServerItem, "closeRtpServer", param, null);
     }
 
     public JSONObject listRtpServer(MediaServer mediaServerItem) {
@@ -353,13 +643,13 @@ public class ZLMRESTfulUtils {
         return sendPost(mediaServerItem, "addStreamProxy",param, null, 20);
     }
 
-    public JSONObject closeStreams(MediaServer mediaServerItem, String app, String stream) {
+    public CompletableFuture<JSONObject> closeStreamsAsync(MediaServer mediaServerItem, String app, String stream) {
         Map<String, Object> param = new HashMap<>();
         param.put("vhost", "__defaultVhost__");
         param.put("app", app);
         param.put("stream", stream);
         param.put("force", 1);
-        return sendPost(mediaServerItem, "close_streams",param, null);
+        return sendPostAsync(mediaServerItem, "close_streams", param, null);
     }
 
     public JSONObject getAllSession(MediaServer mediaServerItem) {
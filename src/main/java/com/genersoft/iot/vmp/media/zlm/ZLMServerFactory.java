@@ -120,8 +120,8 @@ public class ZLMServerFactory {
         }
         Map<String, Object> param = new HashMap<>();
         param.put("stream_id", streamId);
-        zlmresTfulUtils.closeRtpServer(serverItem, param, jsonObject -> {
-            if (jsonObject != null ) {
+        zlmresTfulUtils.closeRtpServerAsync(serverItem, param).whenComplete((jsonObject, throwable) -> {
+            if (throwable == null && jsonObject != null) {
                 if (jsonObject.getInteger("code") == 0) {
                     callback.run(jsonObject.getInteger("hit") == 1);
                     return;
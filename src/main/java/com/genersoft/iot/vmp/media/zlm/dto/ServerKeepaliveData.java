@@ -1,4 +1,24 @@
 package com.genersoft.iot.vmp.media.zlm.dto;
 
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.Data;
+
+/**
+ * zlm心跳上报的对象统计，只保留用于评估负载的部分
+ */
+@Data
 public class ServerKeepaliveData {
+
+    @JsonProperty("MediaSource")
+    private Integer mediaSource;
+
+    @JsonProperty("TcpSession")
+    private Integer tcpSession;
+
+    @JsonProperty("UdpSession")
+    private Integer udpSession;
+
+    public int getSessionCount() {
+        return (tcpSession == null ? 0 : tcpSession) + (udpSession == null ? 0 : udpSession);
+    }
 }
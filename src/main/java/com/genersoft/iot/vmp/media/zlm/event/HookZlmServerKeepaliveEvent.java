@@ -1,6 +1,7 @@
 package com.genersoft.iot.vmp.media.zlm.event;
 
 import com.genersoft.iot.vmp.media.bean.MediaServer;
+import com.genersoft.iot.vmp.media.zlm.dto.ServerKeepaliveData;
 import org.springframework.context.ApplicationEvent;
 
 /**
@@ -14,6 +15,8 @@ public class HookZlmServerKeepaliveEvent extends ApplicationEvent {
 
     private MediaServer mediaServerItem;
 
+    private ServerKeepaliveData data;
+
     public MediaServer getMediaServerItem() {
         return mediaServerItem;
     }
@@ -21,4 +24,12 @@ public class HookZlmServerKeepaliveEvent extends ApplicationEvent {
     public void setMediaServerItem(MediaServer mediaServerItem) {
         this.mediaServerItem = mediaServerItem;
     }
+
+    public ServerKeepaliveData getData() {
+        return data;
+    }
+
+    public void setData(ServerKeepaliveData data) {
+        this.data = data;
+    }
 }
@@ -3,6 +3,7 @@ package com.genersoft.iot.vmp.service;
 import com.alibaba.fastjson2.JSONArray;
 import com.genersoft.iot.vmp.common.StreamInfo;
 import com.genersoft.iot.vmp.media.bean.MediaServer;
+import com.genersoft.iot.vmp.service.bean.CloudRecordDay;
 import com.genersoft.iot.vmp.service.bean.CloudRecordItem;
 import com.genersoft.iot.vmp.service.bean.DownloadFileInfo;
 import com.genersoft.iot.vmp.service.bean.ErrorCallback;
@@ -27,6 +28,16 @@ public interface ICloudRecordService {
      */
     List<String> getDateList(String app, String stream, int year, int month, List<MediaServer> mediaServerItems);
 
+    /**
+     * 获取一个月中每天的录像汇总
+     */
+    List<CloudRecordDay> getDayList(String app, String stream, int year, int month, List<MediaServer> mediaServerItems);
+
+    /**
+     * 录像记录删除后从按天汇总中减去
+     */
+    void removeFromDayStatistics(List<CloudRecordItem> cloudRecordItemList);
+
     /**
      * 添加合并任务
      */
@@ -4,6 +4,7 @@ package com.genersoft.iot.vmp.service;
 import com.genersoft.iot.vmp.gb28181.bean.MobilePosition;
 import com.genersoft.iot.vmp.gb28181.bean.Platform;
 import com.genersoft.iot.vmp.service.bean.GPSMsgInfo;
+import com.genersoft.iot.vmp.service.bean.MobilePositionQueueInfo;
 
 import java.util.List;
 
@@ -11,7 +12,11 @@ public interface IMobilePositionService {
 
     void add(List<MobilePosition> mobilePositionList);
 
-    void add(MobilePosition mobilePosition);
+    /**
+     * 位置数据加入写入队列，历史轨迹和通道的最新位置批量写入数据库，队列已满时只丢弃入库
+     * @return 与该通道上一次的位置重复时返回false，队列已满时仍是新的位置，返回true
+     */
+    boolean add(MobilePosition mobilePosition);
 
     List<MobilePosition> queryMobilePositions(String deviceId, String channelId, String startTime, String endTime);
 
@@ -21,4 +26,6 @@ public interface IMobilePositionService {
 
     void updateStreamGPS(List<GPSMsgInfo> gpsMsgInfoList);
 
+    MobilePositionQueueInfo getQueueInfo();
+
 }
@@ -0,0 +1,39 @@
+package com.genersoft.iot.vmp.service.bean;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.Data;
+
+/**
+ * 云端录像按天的汇总，录像记录增删时同步更新
+ */
+@Data
+@Schema(description = "云端录像按天的汇总")
+public class CloudRecordDay {
+
+    @Schema(description = "应用名")
+    private String app;
+
+    @Schema(description = "流ID")
+    private String stream;
+
+    @Schema(description = "流媒体ID")
+    private String mediaServerId;
+
+    /**
+     * 距1970-01-01的天数，按DateUtil.zoneStr时区划分
+     */
+    @Schema(description = "距1970-01-01的天数")
+    private int recordDay;
+
+    @Schema(description = "日期(yyyy-MM-dd)")
+    private String date;
+
+    @Schema(description = "录像文件数")
+    private int recordCount;
+
+    @Schema(description = "文件总大小")
+    private long fileSize;
+
+    @Schema(description = "录像总时长，单位：毫秒")
+    private double timeLen;
+}
@@ -0,0 +1,43 @@
+package com.genersoft.iot.vmp.service.bean;
+
+import com.genersoft.iot.vmp.common.LatencyInfo;
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.Data;
+
+/**
+ * 流媒体节点录像清理的运行状态
+ */
+@Data
+@Schema(description = "流媒体节点录像清理的运行状态")
+public class CloudRecordRetentionInfo {
+
+    @Schema(description = "节点ID")
+    private String mediaServerId;
+
+    @Schema(description = "录像保存天数")
+    private int recordDay;
+
+    @Schema(description = "是否正在清理")
+    private boolean running;
+
+    @Schema(description = "已删除的过期录像数")
+    private long deletedFiles;
+
+    @Schema(description = "因超出容量删除的录像数")
+    private long quotaDeletedFiles;
+
+    @Schema(description = "已删除的文件总大小")
+    private long deletedBytes;
+
+    @Schema(description = "删除失败的录像数")
+    private long failedFiles;
+
+    @Schema(description = "清理进度落后的时间，单位：秒，为待删除的最早一个录像已过期的时长")
+    private long lagSeconds;
+
+    @Schema(description = "最近一次清理的时间")
+    private String lastRunTime;
+
+    @Schema(description = "每批清理的耗时")
+    private LatencyInfo batchLatency;
+}
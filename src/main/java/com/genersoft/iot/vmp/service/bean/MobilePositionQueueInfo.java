@@ -0,0 +1,36 @@
+package com.genersoft.iot.vmp.service.bean;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.Data;
+
+/**
+ * 移动位置写入队列的运行状态
+ */
+@Data
+@Schema(description = "移动位置写入队列的运行状态")
+public class MobilePositionQueueInfo {
+
+    @Schema(description = "当前排队的位置数")
+    private int queueSize;
+
+    @Schema(description = "队列容量")
+    private int capacity;
+
+    @Schema(description = "已接收的位置数")
+    private long accepted;
+
+    @Schema(description = "与上一次位置重复被忽略的位置数")
+    private long duplicated;
+
+    @Schema(description = "因队列已满被丢弃的位置数")
+    private long dropped;
+
+    @Schema(description = "已写入数据库的位置数")
+    private long written;
+
+    @Schema(description = "最近一次批量写入的数量")
+    private int lastBatchSize;
+
+    @Schema(description = "最近一次批量写入的耗时,单位：毫秒")
+    private long lastFlushMs;
+}
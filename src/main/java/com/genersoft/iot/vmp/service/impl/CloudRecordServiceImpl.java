@@ -1,8 +1,10 @@
 package com.genersoft.iot.vmp.service.impl;
 
+import com.alibaba.fastjson2.JSON;
 import com.alibaba.fastjson2.JSONArray;
 import com.alibaba.fastjson2.JSONObject;
 import com.genersoft.iot.vmp.common.StreamInfo;
+import com.genersoft.iot.vmp.common.VideoManagerConstants;
 import com.genersoft.iot.vmp.conf.UserSetting;
 import com.genersoft.iot.vmp.conf.exception.ControllerException;
 import com.genersoft.iot.vmp.media.bean.MediaInfo;
@@ -15,11 +17,13 @@ import com.genersoft.iot.vmp.media.service.IMediaServerService;
 import com.genersoft.iot.vmp.media.zlm.AssistRESTfulUtils;
 import com.genersoft.iot.vmp.media.zlm.dto.StreamAuthorityInfo;
 import com.genersoft.iot.vmp.service.ICloudRecordService;
+import com.genersoft.iot.vmp.service.bean.CloudRecordDay;
 import com.genersoft.iot.vmp.service.bean.CloudRecordItem;
 import com.genersoft.iot.vmp.service.bean.DownloadFileInfo;
 import com.genersoft.iot.vmp.service.bean.ErrorCallback;
 import com.genersoft.iot.vmp.service.redisMsg.IRedisRpcPlayService;
 import com.genersoft.iot.vmp.storager.IRedisCatchStorage;
+import com.genersoft.iot.vmp.storager.dao.CloudRecordDayMapper;
 import com.genersoft.iot.vmp.storager.dao.CloudRecordServiceMapper;
 import com.genersoft.iot.vmp.utils.CloudRecordUtils;
 import com.genersoft.iot.vmp.utils.DateUtil;
@@ -29,23 +33,37 @@ import com.github.pagehelper.PageInfo;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.ObjectUtils;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.CommandLineRunner;
 import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
 import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionStatus;
 import org.springframework.util.Assert;
 
 import java.io.File;
+import java.time.Instant;
 import java.time.LocalDate;
-import java.time.ZoneOffset;
+import java.time.ZoneId;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
 
 @Slf4j
 @Service
-public class CloudRecordServiceImpl implements ICloudRecordService {
+public class CloudRecordServiceImpl implements ICloudRecordService, CommandLineRunner {
 
     @Autowired
     private CloudRecordServiceMapper cloudRecordServiceMapper;
 
+    @Autowired
+    private CloudRecordDayMapper cloudRecordDayMapper;
+
     @Autowired
     private IMediaServerService mediaServerService;
 
@@ -64,6 +82,27 @@ public class CloudRecordServiceImpl implements ICloudRecordService {
     @Autowired
     private HookSubscribe subscribe;
 
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Autowired
+    private DataSourceTransactionManager dataSourceTransactionManager;
+
+    @Autowired
+    private TransactionDefinition transactionDefinition;
+
+    /**
+     * 按天汇总的版本，汇总的生成方式变化时修改，启动时重新生成
+     */
+    private static final String DAY_VERSION = "1";
+
+    /**
+     * 生成汇总时持有的锁的超时时间，节点异常退出时锁自动失效
+     */
+    private static final long DAY_REBUILD_LOCK_MINUTES = 30;
+
+    private static final int PENDING_RETRY = 3;
+
     @Override
     public PageInfo<CloudRecordItem> getList(int page, int count, String query, String app, String stream, String startTime,
                                              String endTime, List<MediaServer> mediaServerItems, String callId, Boolean ascOrder) {
@@ -97,26 +136,183 @@ public class CloudRecordServiceImpl implements ICloudRecordService {
 
     @Override
     public List<String> getDateList(String app, String stream, int year, int month, List<MediaServer> mediaServerItems) {
+        List<CloudRecordDay> dayList = getDayList(app, stream, year, month, mediaServerItems);
+        List<String> result = new ArrayList<>(dayList.size());
+        for (CloudRecordDay cloudRecordDay : dayList) {
+            result.add(cloudRecordDay.getDate());
+        }
+        return result;
+    }
+
+    @Override
+    public List<CloudRecordDay> getDayList(String app, String stream, int year, int month, List<MediaServer> mediaServerItems) {
         LocalDate startDate = LocalDate.of(year, month, 1);
-        LocalDate endDate;
-        if (month == 12) {
-            endDate = LocalDate.of(year + 1, 1, 1);
-        }else {
-            endDate = LocalDate.of(year, month + 1, 1);
+        LocalDate endDate = startDate.plusMonths(1);
+        List<CloudRecordDay> dayList = cloudRecordDayMapper.getList(app, stream, (int) startDate.toEpochDay(),
+                (int) endDate.toEpochDay(), mediaServerItems);
+        for (CloudRecordDay cloudRecordDay : dayList) {
+            cloudRecordDay.setDate(LocalDate.ofEpochDay(cloudRecordDay.getRecordDay()).toString());
         }
-        long startTimeStamp = startDate.atStartOfDay().toInstant(ZoneOffset.ofHours(8)).toEpochMilli();
-        long endTimeStamp = endDate.atStartOfDay().toInstant(ZoneOffset.ofHours(8)).toEpochMilli();
-        List<CloudRecordItem> cloudRecordItemList = cloudRecordServiceMapper.getList(null, app, stream, startTimeStamp,
-                endTimeStamp, null, mediaServerItems, null, null);
-        if (cloudRecordItemList.isEmpty()) {
-            return new ArrayList<>();
+        return dayList;
+    }
+
+    @Override
+    public void removeFromDayStatistics(List<CloudRecordItem> cloudRecordItemList) {
+        if (deferIfNotReady(cloudRecordItemList, -1)) {
+            return;
         }
-        Set<String> resultSet = new HashSet<>();
-        cloudRecordItemList.stream().forEach(cloudRecordItem -> {
-            String date = DateUtil.timestampTo_yyyy_MM_dd(cloudRecordItem.getStartTime());
-            resultSet.add(date);
+        Map<String, CloudRecordDay> dayMap = new HashMap<>();
+        for (CloudRecordItem cloudRecordItem : cloudRecordItemList) {
+            CloudRecordDay cloudRecordDay = toDayStatistics(cloudRecordItem, -1);
+            String key = cloudRecordDay.getApp() + "_" + cloudRecordDay.getStream() + "_"
+                    + cloudRecordDay.getMediaServerId() + "_" + cloudRecordDay.getRecordDay();
+            dayMap.merge(key, cloudRecordDay, (old, current) -> {
+                old.setRecordCount(old.getRecordCount() + current.getRecordCount());
+                old.setFileSize(old.getFileSize() + current.getFileSize());
+                old.setTimeLen(old.getTimeLen() + current.getTimeLen());
+                return old;
+            });
+        }
+        for (CloudRecordDay cloudRecordDay : dayMap.values()) {
+            cloudRecordDayMapper.increase(cloudRecordDay);
+        }
+        cloudRecordDayMapper.deleteEmpty();
+    }
+
+    /**
+     * 升级后首次启动时从已有的录像记录生成按天汇总，以redis中的版本判断是否已经生成，
+     * 集群中只有拿到锁的节点执行，生成完成后才写入版本，失败时下次启动再次生成
+     */
+    @Override
+    public void run(String... args) {
+        try {
+            if (DAY_VERSION.equals(stringRedisTemplate.opsForValue().get(VideoManagerConstants.CLOUD_RECORD_DAY_VERSION))) {
+                return;
+            }
+            String serverId = userSetting.getServerId();
+            Boolean locked = stringRedisTemplate.opsForValue().setIfAbsent(VideoManagerConstants.CLOUD_RECORD_DAY_LOCK,
+                    serverId, DAY_REBUILD_LOCK_MINUTES, TimeUnit.MINUTES);
+            if (!Boolean.TRUE.equals(locked)) {
+                log.info("[云端录像] 其他节点正在生成按天汇总");
+                return;
+            }
+            try {
+                rebuildDayStatistics();
+            } finally {
+                if (serverId.equals(stringRedisTemplate.opsForValue().get(VideoManagerConstants.CLOUD_RECORD_DAY_LOCK))) {
+                    stringRedisTemplate.delete(VideoManagerConstants.CLOUD_RECORD_DAY_LOCK);
+                }
+            }
+        } catch (Exception e) {
+            log.error("[云端录像] 生成按天汇总失败", e);
+        }
+    }
+
+    /**
+     * 汇总就绪前录像的增减都暂存在redis中，这里清空汇总后按录像记录重新生成，写入版本后再补写暂存的增减量。
+     * 开始前暂存的增减已经体现在录像记录中，直接丢弃；之后暂存的新增只补写ID大于本次汇总范围的录像，
+     * 删除则全部补写，重新生成本身在一个事务中完成
+     */
+    private void rebuildDayStatistics() {
+        stringRedisTemplate.delete(VideoManagerConstants.CLOUD_RECORD_DAY_PENDING);
+        Integer maxId = cloudRecordServiceMapper.getMaxId();
+        int rebuildMaxId = maxId == null ? 0 : maxId;
+        long offset = ZoneId.of(DateUtil.zoneStr).getRules().getOffset(Instant.now()).getTotalSeconds() * 1000L;
+        TransactionStatus transactionStatus = dataSourceTransactionManager.getTransaction(transactionDefinition);
+        int result;
+        try {
+            cloudRecordDayMapper.deleteAll();
+            result = cloudRecordDayMapper.rebuild(offset, rebuildMaxId);
+            dataSourceTransactionManager.commit(transactionStatus);
+        } catch (RuntimeException e) {
+            dataSourceTransactionManager.rollback(transactionStatus);
+            throw e;
+        }
+        // 写入版本后新的增减直接更新汇总，此前暂存的都已经提交，可以一次补写完
+        stringRedisTemplate.opsForValue().set(VideoManagerConstants.CLOUD_RECORD_DAY_VERSION, DAY_VERSION);
+        int pendingCount = 0;
+        String pending;
+        while ((pending = stringRedisTemplate.opsForList().leftPop(VideoManagerConstants.CLOUD_RECORD_DAY_PENDING)) != null) {
+            JSONObject jsonObject = JSON.parseObject(pending);
+            CloudRecordDay cloudRecordDay = jsonObject.getObject("day", CloudRecordDay.class);
+            if (cloudRecordDay.getRecordCount() > 0 && jsonObject.getIntValue("id") <= rebuildMaxId) {
+                continue;
+            }
+            increaseDayStatistics(cloudRecordDay);
+            pendingCount++;
+        }
+        cloudRecordDayMapper.deleteEmpty();
+        log.info("[云端录像] 生成按天汇总 {}条, 补写暂存的增减 {}条", result, pendingCount);
+    }
+
+    /**
+     * 汇总未就绪时把增减量暂存到redis。与写入版本用WATCH互斥，版本写入后暂存的事务会被放弃，
+     * 重新判断后直接更新汇总，保证生成汇总的节点补写时能读到全部暂存
+     * @return 是否已暂存
+     */
+    private boolean deferIfNotReady(List<CloudRecordItem> cloudRecordItemList, int sign) {
+        Boolean deferred = stringRedisTemplate.execute(new SessionCallback<Boolean>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public <K, V> Boolean execute(RedisOperations<K, V> operations) throws DataAccessException {
+                RedisOperations<String, String> redisOperations = (RedisOperations<String, String>) operations;
+                for (int i = 0; i < PENDING_RETRY; i++) {
+                    redisOperations.watch(VideoManagerConstants.CLOUD_RECORD_DAY_VERSION);
+                    if (DAY_VERSION.equals(redisOperations.opsForValue().get(VideoManagerConstants.CLOUD_RECORD_DAY_VERSION))) {
+                        redisOperations.unwatch();
+                        return false;
+                    }
+                    List<String> pendingList = new ArrayList<>(cloudRecordItemList.size());
+                    for (CloudRecordItem cloudRecordItem : cloudRecordItemList) {
+                        JSONObject jsonObject = new JSONObject();
+                        jsonObject.put("id", cloudRecordItem.getId());
+                        jsonObject.put("day", toDayStatistics(cloudRecordItem, sign));
+                        pendingList.add(jsonObject.toJSONString());
+                    }
+                    redisOperations.multi();
+                    redisOperations.opsForList().rightPushAll(VideoManagerConstants.CLOUD_RECORD_DAY_PENDING, pendingList);
+                    // 事务被放弃时返回空列表
+                    if (!redisOperations.exec().isEmpty()) {
+                        return true;
+                    }
+                }
+                // 版本只会写入一次，多次冲突时汇总已经就绪
+                return false;
+            }
         });
-        return new ArrayList<>(resultSet);
+        return Boolean.TRUE.equals(deferred);
+    }
+
+    private void addToDayStatistics(CloudRecordItem cloudRecordItem) {
+        if (deferIfNotReady(Collections.singletonList(cloudRecordItem), 1)) {
+            return;
+        }
+        increaseDayStatistics(toDayStatistics(cloudRecordItem, 1));
+    }
+
+    private void increaseDayStatistics(CloudRecordDay cloudRecordDay) {
+        if (cloudRecordDayMapper.increase(cloudRecordDay) > 0 || cloudRecordDay.getRecordCount() <= 0) {
+            return;
+        }
+        try {
+            cloudRecordDayMapper.add(cloudRecordDay);
+        } catch (DuplicateKeyException e) {
+            // 同一天的其他录像同时插入
+            cloudRecordDayMapper.increase(cloudRecordDay);
+        }
+    }
+
+    private static CloudRecordDay toDayStatistics(CloudRecordItem cloudRecordItem, int sign) {
+        CloudRecordDay cloudRecordDay = new CloudRecordDay();
+        cloudRecordDay.setApp(cloudRecordItem.getApp());
+        cloudRecordDay.setStream(cloudRecordItem.getStream());
+        cloudRecordDay.setMediaServerId(cloudRecordItem.getMediaServerId());
+        cloudRecordDay.setRecordDay((int) Instant.ofEpochMilli(cloudRecordItem.getStartTime())
+                .atZone(ZoneId.of(DateUtil.zoneStr)).toLocalDate().toEpochDay());
+        cloudRecordDay.setRecordCount(sign);
+        cloudRecordDay.setFileSize(sign * cloudRecordItem.getFileSize());
+        cloudRecordDay.setTimeLen(sign * cloudRecordItem.getTimeLen());
+        return cloudRecordDay;
     }
 
     @Async("taskExecutor")
@@ -132,6 +328,7 @@ public class CloudRecordServiceImpl implements ICloudRecordService {
         }
         log.info("[添加录像记录] {}/{}, callId: {}, 内容：{}", event.getApp(), event.getStream(), cloudRecordItem.getCallId(), event.getRecordInfo());
         cloudRecordServiceMapper.add(cloudRecordItem);
+        addToDayStatistics(cloudRecordItem);
     }
 
     @Override
@@ -366,6 +563,7 @@ public class CloudRecordServiceImpl implements ICloudRecordService {
         }
         if (!cloudRecordItemIdListForDelete.isEmpty()) {
             cloudRecordServiceMapper.deleteList(cloudRecordItemIdListForDelete);
+            removeFromDayStatistics(cloudRecordItemIdListForDelete);
         }
         if (stringBuilder.length() > 0) {
             stringBuilder.append(" 删除失败");
@@ -9,19 +9,31 @@ import com.genersoft.iot.vmp.service.IMobilePositionService;
 import com.genersoft.iot.vmp.gb28181.dao.DeviceChannelMapper;
 import com.genersoft.iot.vmp.gb28181.dao.DeviceMobilePositionMapper;
 import com.genersoft.iot.vmp.service.bean.GPSMsgInfo;
+import com.genersoft.iot.vmp.service.bean.MobilePositionQueueInfo;
 import com.genersoft.iot.vmp.utils.DateUtil;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import javax.annotation.PostConstruct;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 移动位置的写入
+ * 上报的位置先放入有界队列，同一通道与上一次完全相同的重复上报直接忽略；
+ * 每秒批量写入一次，历史轨迹使用多行insert，通道只更新这一批中最新的位置
+ */
 @Slf4j
 @Service
 public class MobilePositionServiceImpl implements IMobilePositionService {
@@ -39,38 +51,82 @@ public class MobilePositionServiceImpl implements IMobilePositionService {
     @Autowired
     private PlatformMapper platformMapper;
 
-    @Autowired
-    private RedisTemplate<String, MobilePosition> redisTemplate;
+    /**
+     * 历史轨迹每条insert语句写入的行数
+     */
+    private static final int INSERT_BATCH = 500;
+
+    /**
+     * 通道位置每次批量更新的数量
+     */
+    private static final int UPDATE_BATCH = 1000;
 
-    private final String REDIS_MOBILE_POSITION_LIST = "redis_mobile_position_list";
+    private ArrayBlockingQueue<MobilePosition> positionQueue;
 
-    @Override
-    public void add(MobilePosition mobilePosition) {
-        List<MobilePosition> list = new ArrayList<>();
-        list.add(mobilePosition);
-        add(list);
+    /**
+     * 设备编号_通道ID -> 该通道上一次的位置，用于忽略重复上报
+     */
+    private final Cache<String, MobilePosition> lastPositionCache = CacheBuilder.newBuilder()
+            .expireAfterAccess(1, TimeUnit.HOURS)
+            .build();
+
+    private final AtomicLong accepted = new AtomicLong();
+    private final AtomicLong duplicated = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+    private volatile int lastBatchSize;
+    private volatile long lastFlushMs;
+
+    @PostConstruct
+    public void init() {
+        positionQueue = new ArrayBlockingQueue<>(Math.max(userSetting.getMobilePositionQueueSize(), 1));
     }
 
     @Override
-    public void add(List<MobilePosition> mobilePositionList) {
-        redisTemplate.opsForList().leftPushAll(REDIS_MOBILE_POSITION_LIST, mobilePositionList);
+    public boolean add(MobilePosition mobilePosition) {
+        String key = mobilePosition.getDeviceId() + "_" + mobilePosition.getChannelId();
+        boolean[] isDuplicated = new boolean[1];
+        boolean[] isOffered = new boolean[1];
+        // 入队成功后才记录为上一次的位置，丢弃的位置再次上报时仍然可以写入
+        lastPositionCache.asMap().compute(key, (k, last) -> {
+            if (last != null && Objects.equals(last.getTime(), mobilePosition.getTime())
+                    && last.getLongitude() == mobilePosition.getLongitude()
+                    && last.getLatitude() == mobilePosition.getLatitude()) {
+                isDuplicated[0] = true;
+                return last;
+            }
+            isOffered[0] = positionQueue.offer(mobilePosition);
+            return isOffered[0] ? mobilePosition : last;
+        });
+        if (isDuplicated[0]) {
+            duplicated.incrementAndGet();
+            return false;
+        }
+        if (!isOffered[0]) {
+            long count = dropped.incrementAndGet();
+            // 队列满时每丢弃1000次打印一次，避免日志刷屏
+            if (count % 1000 == 1) {
+                log.warn("[移动位置] 写入队列已满，丢弃位置数据， 累计丢弃：{}", count);
+            }
+            // 只是没有入库，仍然是新的位置，调用方继续发送通知
+            return true;
+        }
+        accepted.incrementAndGet();
+        return true;
     }
 
-    private List<MobilePosition> get(int length) {
-        Long size = redisTemplate.opsForList().size(REDIS_MOBILE_POSITION_LIST);
-        if (size == null || size == 0) {
-            return new ArrayList<>();
+    @Override
+    public void add(List<MobilePosition> mobilePositionList) {
+        for (MobilePosition mobilePosition : mobilePositionList) {
+            add(mobilePosition);
         }
-        return redisTemplate.opsForList().rightPop(REDIS_MOBILE_POSITION_LIST, Math.min(length, size));
     }
 
-
-
     /**
      * 查询移动位置轨迹
      */
     @Override
-    public synchronized List<MobilePosition> queryMobilePositions(String deviceId, String channelId, String startTime, String endTime) {
+    public List<MobilePosition> queryMobilePositions(String deviceId, String channelId, String startTime, String endTime) {
         return mobilePositionMapper.queryPositionByDeviceIdAndTime(deviceId, channelId, startTime, endTime);
     }
 
@@ -93,31 +149,66 @@ public class MobilePositionServiceImpl implements IMobilePositionService {
         channelMapper.updateStreamGPS(gpsMsgInfoList);
     }
 
+    @Override
+    public MobilePositionQueueInfo getQueueInfo() {
+        MobilePositionQueueInfo info = new MobilePositionQueueInfo();
+        info.setQueueSize(positionQueue.size());
+        info.setCapacity(positionQueue.size() + positionQueue.remainingCapacity());
+        info.setAccepted(accepted.get());
+        info.setDuplicated(duplicated.get());
+        info.setDropped(dropped.get());
+        info.setWritten(written.get());
+        info.setLastBatchSize(lastBatchSize);
+        info.setLastFlushMs(lastFlushMs);
+        return info;
+    }
+
     @Scheduled(fixedDelay = 1000)
     @Transactional
     public void executeTaskQueue() {
-        int countLimit = 3000;
-        List<MobilePosition> mobilePositions = get(countLimit);
-        if (mobilePositions == null || mobilePositions.isEmpty()) {
+        if (positionQueue.isEmpty()) {
+            return;
+        }
+        long startTime = System.currentTimeMillis();
+        List<MobilePosition> mobilePositions = new ArrayList<>(positionQueue.size());
+        positionQueue.drainTo(mobilePositions);
+        if (mobilePositions.isEmpty()) {
             return;
         }
         if (userSetting.getSavePositionHistory()) {
-            mobilePositionMapper.batchadd(mobilePositions);
+            for (int i = 0; i < mobilePositions.size(); i += INSERT_BATCH) {
+                mobilePositionMapper.batchadd(mobilePositions.subList(i, Math.min(i + INSERT_BATCH, mobilePositions.size())));
+            }
         }
-        log.info("[移动位置订阅]更新通道位置： {}", mobilePositions.size());
-        Map<String, DeviceChannel> updateChannelMap = new HashMap<>();
+        // 每个通道只更新这一批中时间最新的位置
+        Map<Integer, DeviceChannel> updateChannelMap = new HashMap<>();
+        String now = DateUtil.getNow();
         for (MobilePosition mobilePosition : mobilePositions) {
+            if (mobilePosition.getChannelId() == null) {
+                continue;
+            }
+            DeviceChannel old = updateChannelMap.get(mobilePosition.getChannelId());
+            if (old != null && old.getGpsTime() != null && mobilePosition.getTime() != null
+                    && old.getGpsTime().compareTo(mobilePosition.getTime()) > 0) {
+                continue;
+            }
             DeviceChannel deviceChannel = new DeviceChannel();
             deviceChannel.setId(mobilePosition.getChannelId());
             deviceChannel.setDeviceId(mobilePosition.getDeviceId());
             deviceChannel.setLongitude(mobilePosition.getLongitude());
             deviceChannel.setLatitude(mobilePosition.getLatitude());
-            deviceChannel.setGpsTime(mobilePosition.getTime());
-            deviceChannel.setUpdateTime(DateUtil.getNow());
-            updateChannelMap.put(mobilePosition.getDeviceId() + mobilePosition.getChannelId(), deviceChannel);
+            deviceChannel.setGpsTime(mobilePosition.getTime() == null ? now : mobilePosition.getTime());
+            deviceChannel.setUpdateTime(now);
+            updateChannelMap.put(mobilePosition.getChannelId(), deviceChannel);
         }
         List<DeviceChannel> channels = new ArrayList<>(updateChannelMap.values());
-        channelMapper.batchUpdatePosition(channels);
+        for (int i = 0; i < channels.size(); i += UPDATE_BATCH) {
+            channelMapper.batchUpdatePosition(channels.subList(i, Math.min(i + UPDATE_BATCH, channels.size())));
+        }
+        written.addAndGet(mobilePositions.size());
+        lastBatchSize = mobilePositions.size();
+        lastFlushMs = System.currentTimeMillis() - startTime;
+        log.info("[移动位置]批量写入： {}条， 更新通道位置： {}个， 耗时： {}ms", mobilePositions.size(), channels.size(), lastFlushMs);
     }
 
 }
@@ -3,10 +3,7 @@ package com.genersoft.iot.vmp.service.redisMsg.control;
 import com.alibaba.fastjson2.JSON;
 import com.alibaba.fastjson2.JSONObject;
 import com.genersoft.iot.vmp.common.InviteSessionType;
-import com.genersoft.iot.vmp.conf.UserSetting;
 import com.genersoft.iot.vmp.conf.exception.ControllerException;
-import com.genersoft.iot.vmp.conf.redis.RedisRpcConfig;
-import com.genersoft.iot.vmp.conf.redis.bean.RedisRpcMessage;
 import com.genersoft.iot.vmp.conf.redis.bean.RedisRpcRequest;
 import com.genersoft.iot.vmp.conf.redis.bean.RedisRpcResponse;
 import com.genersoft.iot.vmp.gb28181.bean.CommonGBChannel;
@@ -24,7 +21,6 @@ import com.genersoft.iot.vmp.utils.DateUtil;
 import com.genersoft.iot.vmp.vmanager.bean.ErrorCode;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.stereotype.Component;
 
 import javax.sip.message.Response;
@@ -34,12 +30,6 @@ import javax.sip.message.Response;
 @RedisRpcController("channel")
 public class RedisRpcChannelPlayController extends RpcController {
 
-    @Autowired
-    private UserSetting userSetting;
-
-    @Autowired
-    private RedisTemplate<Object, Object> redisTemplate;
-
     @Autowired
     private IGbChannelService channelService;
 
@@ -49,15 +39,6 @@ public class RedisRpcChannelPlayController extends RpcController {
     @Autowired
     private IPTZService iptzService;
 
-    private void sendResponse(RedisRpcResponse response){
-        log.info("[redis-rpc] >> {}", response);
-        response.setToId(userSetting.getServerId());
-        RedisRpcMessage message = new RedisRpcMessage();
-        message.setResponse(response);
-        redisTemplate.convertAndSend(RedisRpcConfig.REDIS_REQUEST_CHANNEL_KEY, message);
-    }
-
-
     /**
      * 点播国标设备
      */
@@ -94,7 +75,6 @@ public class RedisRpcChannelPlayController extends RpcController {
         return null;
     }
 
-
     /**
      * 点播国标设备
      */
@@ -188,7 +168,6 @@ public class RedisRpcChannelPlayController extends RpcController {
         return response;
     }
 
-
     /**
      * 停止点播国标设备
      */
@@ -1,9 +1,6 @@
 package com.genersoft.iot.vmp.service.redisMsg.control;
 
 import com.alibaba.fastjson2.JSONObject;
-import com.genersoft.iot.vmp.conf.UserSetting;
-import com.genersoft.iot.vmp.conf.redis.RedisRpcConfig;
-import com.genersoft.iot.vmp.conf.redis.bean.RedisRpcMessage;
 import com.genersoft.iot.vmp.conf.redis.bean.RedisRpcRequest;
 import com.genersoft.iot.vmp.conf.redis.bean.RedisRpcResponse;
 import com.genersoft.iot.vmp.service.ICloudRecordService;
@@ -14,7 +11,6 @@ import com.genersoft.iot.vmp.service.redisMsg.dto.RpcController;
 import com.genersoft.iot.vmp.vmanager.bean.ErrorCode;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.stereotype.Component;
 
 @Component
@@ -22,24 +18,9 @@ import org.springframework.stereotype.Component;
 @RedisRpcController("cloudRecord")
 public class RedisRpcCloudRecordController extends RpcController {
 
-    @Autowired
-    private UserSetting userSetting;
-
-    @Autowired
-    private RedisTemplate<Object, Object> redisTemplate;
-
     @Autowired
     private ICloudRecordService cloudRecordService;
 
-
-    private void sendResponse(RedisRpcResponse response){
-        log.info("[redis-rpc] >> {}", response);
-        response.setToId(userSetting.getServerId());
-        RedisRpcMessage message = new RedisRpcMessage();
-        message.setResponse(response);
-        redisTemplate.convertAndSend(RedisRpcConfig.REDIS_REQUEST_CHANNEL_KEY, message);
-    }
-
     /**
      * 播放
      */
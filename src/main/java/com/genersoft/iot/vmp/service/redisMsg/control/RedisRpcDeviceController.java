@@ -3,8 +3,6 @@ package com.genersoft.iot.vmp.service.redisMsg.control;
 import com.alibaba.fastjson2.JSONObject;
 import com.genersoft.iot.vmp.conf.UserSetting;
 import com.genersoft.iot.vmp.conf.exception.ControllerException;
-import com.genersoft.iot.vmp.conf.redis.RedisRpcConfig;
-import com.genersoft.iot.vmp.conf.redis.bean.RedisRpcMessage;
 import com.genersoft.iot.vmp.conf.redis.bean.RedisRpcRequest;
 import com.genersoft.iot.vmp.conf.redis.bean.RedisRpcResponse;
 import com.genersoft.iot.vmp.gb28181.bean.BasicParam;
@@ -19,7 +17,6 @@ import com.genersoft.iot.vmp.vmanager.bean.ErrorCode;
 import com.genersoft.iot.vmp.vmanager.bean.WVPResult;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.stereotype.Component;
 
 @Component
@@ -30,8 +27,6 @@ public class RedisRpcDeviceController extends RpcController {
     @Autowired
     private UserSetting userSetting;
 
-    @Autowired
-    private RedisTemplate<Object, Object> redisTemplate;
 
     @Autowired
     private IDeviceService deviceService;
@@ -39,15 +34,6 @@ public class RedisRpcDeviceController extends RpcController {
     @Autowired
     private IStreamProxyService streamProxyService;
 
-
-    private void sendResponse(RedisRpcResponse response){
-        log.info("[redis-rpc] >> {}", response);
-        response.setToId(userSetting.getServerId());
-        RedisRpcMessage message = new RedisRpcMessage();
-        message.setResponse(response);
-        redisTemplate.convertAndSend(RedisRpcConfig.REDIS_REQUEST_CHANNEL_KEY, message);
-    }
-
     /**
      * 通道同步
      */
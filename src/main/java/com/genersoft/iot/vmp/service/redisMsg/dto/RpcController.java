@@ -3,6 +3,7 @@ package com.genersoft.iot.vmp.service.redisMsg.dto;
 
 import com.genersoft.iot.vmp.conf.redis.RedisRpcConfig;
 import com.genersoft.iot.vmp.conf.redis.bean.RedisRpcClassHandler;
+import com.genersoft.iot.vmp.conf.redis.bean.RedisRpcResponse;
 import org.springframework.beans.factory.annotation.Autowired;
 
 import javax.annotation.PostConstruct;
@@ -30,4 +31,11 @@ public class RpcController {
 
         }
     }
+
+    /**
+     * 异步处理完成后发送回复
+     */
+    protected void sendResponse(RedisRpcResponse response) {
+        redisRpcConfig.sendResponse(response);
+    }
 }
@@ -121,6 +121,11 @@ public class RedisRpcServiceImpl implements IRedisRpcService {
         });
 
         redisRpcConfig.request(request, response -> {
+            if (response.getStatusCode() == ErrorCode.ERROR486.getCode()) {
+                // 超时由调用方处理，这里只移除监听
+                hookSubscribe.removeSubscribe(hook);
+                return;
+            }
             if (response.getBody() == null) {
                 log.info("[请求所有WVP监听流上线] 流上线,但是未找到发流信息：{}/{}", sendRtpItem.getApp(), sendRtpItem.getStream());
                 return;
@@ -138,11 +143,10 @@ public class RedisRpcServiceImpl implements IRedisRpcService {
     @Override
     public void stopWaitePushStreamOnline(SendRtpInfo sendRtpItem) {
         log.info("[停止WVP监听流上线] {}/{}", sendRtpItem.getApp(), sendRtpItem.getStream());
-        Hook hook = Hook.getInstance(HookType.on_media_arrival, sendRtpItem.getApp(), sendRtpItem.getStream(), null);
-        hookSubscribe.removeSubscribe(hook);
+        hookSubscribe.removeAll(HookType.on_media_arrival, sendRtpItem.getApp(), sendRtpItem.getStream());
         RedisRpcRequest request = buildRequest("streamPush/stopWaitePushStreamOnline", sendRtpItem);
         request.setToId(sendRtpItem.getServerId());
-        redisRpcConfig.request(request, 10, TimeUnit.MILLISECONDS);
+        redisRpcConfig.send(request);
     }
 
     @Override
@@ -154,7 +158,7 @@ public class RedisRpcServiceImpl implements IRedisRpcService {
         }
         RedisRpcRequest request = buildRequest("streamPush/rtpSendStopped", callId);
         request.setToId(sendRtpItem.getServerId());
-        redisRpcConfig.request(request, 10, TimeUnit.MILLISECONDS);
+        redisRpcConfig.send(request);
     }
 
     @Override
@@ -184,6 +188,11 @@ public class RedisRpcServiceImpl implements IRedisRpcService {
         });
 
         redisRpcConfig.request(request, response -> {
+            if (response.getStatusCode() == ErrorCode.ERROR486.getCode()) {
+                // 超时由调用方处理，这里只移除监听
+                hookSubscribe.removeSubscribe(hook);
+                return;
+            }
             if (response.getBody() == null) {
                 log.info("[请求所有WVP监听流上线] 流上线,但是未找到发流信息：{}/{}", app, stream);
                 return;
@@ -204,7 +213,7 @@ public class RedisRpcServiceImpl implements IRedisRpcService {
         streamInfoParam.setApp(app);
         streamInfoParam.setStream(stream);
         RedisRpcRequest request = buildRequest("streamPush/unPushStreamOnlineEvent", streamInfoParam);
-        redisRpcConfig.request(request, 10, TimeUnit.MILLISECONDS);
+        redisRpcConfig.send(request);
     }
 
     @Override
@@ -213,7 +222,7 @@ public class RedisRpcServiceImpl implements IRedisRpcService {
         jsonObject.put("id", id);
         jsonObject.put("cycle", cycle);
         RedisRpcRequest request = buildRequest("device/subscribeCatalog", jsonObject);
-        redisRpcConfig.request(request, 10, TimeUnit.MILLISECONDS);
+        redisRpcConfig.send(request);
     }
 
     @Override
@@ -223,7 +232,7 @@ public class RedisRpcServiceImpl implements IRedisRpcService {
         jsonObject.put("cycle", cycle);
         jsonObject.put("interval", cycle);
         RedisRpcRequest request = buildRequest("device/subscribeMobilePosition", jsonObject);
-        redisRpcConfig.request(request, 10, TimeUnit.MILLISECONDS);
+        redisRpcConfig.send(request);
     }
 
     @Override
@@ -244,7 +253,7 @@ public class RedisRpcServiceImpl implements IRedisRpcService {
         if (serverId != null) {
             request.setToId(serverId);
         }
-        redisRpcConfig.request(request, 10, TimeUnit.MILLISECONDS);
+        redisRpcConfig.send(request);
     }
 
     @Override
@@ -336,7 +345,7 @@ public class RedisRpcServiceImpl implements IRedisRpcService {
         jsonObject.put("channelId", channelId);
         RedisRpcRequest request = buildRequest("device/iFrame", jsonObject);
         request.setToId(serverId);
-        redisRpcConfig.request(request, 50, TimeUnit.MILLISECONDS);
+        redisRpcConfig.send(request);
     }
 
     @Override
@@ -367,7 +376,7 @@ public class RedisRpcServiceImpl implements IRedisRpcService {
         jsonObject.put("lengthy", lengthy);
         RedisRpcRequest request = buildRequest("device/dragZoomIn", jsonObject);
         request.setToId(serverId);
-        redisRpcConfig.request(request, 50, TimeUnit.MILLISECONDS);
+        redisRpcConfig.send(request);
     }
 
     @Override
@@ -383,7 +392,7 @@ public class RedisRpcServiceImpl implements IRedisRpcService {
         jsonObject.put("lengthy", lengthy);
         RedisRpcRequest request = buildRequest("device/dragZoomOut", jsonObject);
         request.setToId(serverId);
-        redisRpcConfig.request(request, 50, TimeUnit.MILLISECONDS);
+        redisRpcConfig.send(request);
     }
 
     @Override
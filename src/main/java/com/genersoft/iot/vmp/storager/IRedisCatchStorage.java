@@ -83,6 +83,11 @@ public interface IRedisCatchStorage {
      */
     void updateDevice(Device device);
 
+    /**
+     * 批量将心跳后的device信息写入redis，只在redis中的最新数据上更新心跳时间和更新时间，不通知其他节点的本地缓存失效
+     */
+    void updateDevicesForKeepalive(List<Device> devices);
+
     void removeDevice(String deviceId);
 
     /**
@@ -0,0 +1,102 @@
+package com.genersoft.iot.vmp.storager.cache;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+
+/**
+ * 有界的进程内缓存，用于热点路径上减少redis和数据库的访问
+ * 不存在的数据也会缓存，避免反复穿透；
+ * 每次失效都会增加key对应分段的版本号，加载期间版本号发生变化的数据不会放入缓存，避免把旧数据写回
+ */
+public class NearCache<V> {
+
+    private static final int VERSION_STRIPES = 1024;
+
+    private final String name;
+
+    private final Cache<String, Optional<V>> cache;
+
+    private final AtomicLongArray versions = new AtomicLongArray(VERSION_STRIPES);
+
+    /**
+     * 缓存中保存和返回的都是副本，调用方修改返回值不会影响缓存
+     */
+    private final UnaryOperator<V> copier;
+
+    public NearCache(String name, long maxSize, long expireSeconds, UnaryOperator<V> copier) {
+        this.name = name;
+        this.copier = copier;
+        this.cache = CacheBuilder.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(expireSeconds, TimeUnit.SECONDS)
+                .recordStats()
+                .build();
+    }
+
+    public V get(String key, Supplier<V> loader) {
+        if (key == null) {
+            return loader.get();
+        }
+        Optional<V> cached = cache.getIfPresent(key);
+        if (cached != null) {
+            return cached.map(copier).orElse(null);
+        }
+        int stripe = stripe(key);
+        long stamp = versions.get(stripe);
+        V value = loader.get();
+        Optional<V> loaded = Optional.ofNullable(value).map(copier);
+        cache.asMap().compute(key, (k, old) -> versions.get(stripe) == stamp ? loaded : old);
+        return value;
+    }
+
+    /**
+     * 本节点写入了新数据， 直接更新缓存
+     */
+    public void put(String key, V value) {
+        if (key == null) {
+            return;
+        }
+        versions.incrementAndGet(stripe(key));
+        cache.put(key, Optional.ofNullable(value).map(copier));
+    }
+
+    public void invalidate(String key) {
+        if (key == null) {
+            return;
+        }
+        versions.incrementAndGet(stripe(key));
+        cache.invalidate(key);
+    }
+
+    public void invalidateAll() {
+        for (int i = 0; i < VERSION_STRIPES; i++) {
+            versions.incrementAndGet(i);
+        }
+        cache.invalidateAll();
+    }
+
+    public NearCacheInfo getInfo() {
+        CacheStats stats = cache.stats();
+        NearCacheInfo info = new NearCacheInfo();
+        info.setName(name);
+        info.setSize(cache.size());
+        info.setHitCount(stats.hitCount());
+        info.setMissCount(stats.missCount());
+        info.setEvictionCount(stats.evictionCount());
+        info.setHitRate(stats.hitRate());
+        return info;
+    }
+
+    private static int stripe(String key) {
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        return h & (VERSION_STRIPES - 1);
+    }
+}
@@ -0,0 +1,30 @@
+package com.genersoft.iot.vmp.storager.cache;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.Data;
+
+/**
+ * 本地缓存的统计信息
+ */
+@Data
+@Schema(description = "本地缓存的统计信息")
+public class NearCacheInfo {
+
+    @Schema(description = "缓存名称")
+    private String name;
+
+    @Schema(description = "当前缓存的数量")
+    private long size;
+
+    @Schema(description = "命中次数")
+    private long hitCount;
+
+    @Schema(description = "未命中次数")
+    private long missCount;
+
+    @Schema(description = "因容量或过期被淘汰的次数")
+    private long evictionCount;
+
+    @Schema(description = "命中率")
+    private double hitRate;
+}
@@ -0,0 +1,239 @@
+package com.genersoft.iot.vmp.storager.cache;
+
+import com.alibaba.fastjson2.JSON;
+import com.alibaba.fastjson2.JSONObject;
+import com.genersoft.iot.vmp.common.VideoManagerConstants;
+import com.genersoft.iot.vmp.conf.UserSetting;
+import com.genersoft.iot.vmp.gb28181.bean.Device;
+import com.genersoft.iot.vmp.gb28181.bean.Platform;
+import com.genersoft.iot.vmp.media.bean.MediaServer;
+import com.genersoft.iot.vmp.media.zlm.dto.StreamAuthorityInfo;
+import lombok.extern.slf4j.Slf4j;
+import org.jetbrains.annotations.NotNull;
+import org.springframework.beans.BeanUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Supplier;
+
+/**
+ * 设备/平台的本地缓存
+ * 本节点修改数据时直接更新本地缓存，并把修改的key汇总后通过redis通知集群内其他节点失效
+ * 流媒体节点和流鉴权信息在redis中按本节点的serverId存储，只由本节点修改，本地缓存不需要集群通知
+ * 监听： SUBSCRIBE VM_MSG_NEAR_CACHE_INVALIDATE
+ * 消息举例： {"serverId":"000000","type":"device","keys":["34020000001320000001"],"all":false}
+ */
+@Slf4j
+@Component
+public class NearCacheManager implements MessageListener {
+
+    private static final String TYPE_DEVICE = "device";
+    private static final String TYPE_PLATFORM = "platform";
+    private static final String TYPE_MEDIA_SERVER = "mediaServer";
+    private static final String TYPE_STREAM_AUTHORITY = "streamAuthority";
+
+    @Autowired
+    private UserSetting userSetting;
+
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+
+    private NearCache<Device> deviceCache;
+
+    private NearCache<Platform> platformCache;
+
+    private NearCache<MediaServer> mediaServerCache;
+
+    private NearCache<StreamAuthorityInfo> streamAuthorityCache;
+
+    /**
+     * 待通知其他节点失效的key, 格式为 [type, key], key为空表示全部失效
+     */
+    private final ConcurrentLinkedQueue<String[]> invalidateQueue = new ConcurrentLinkedQueue<>();
+
+    @PostConstruct
+    public void init() {
+        deviceCache = new NearCache<>(TYPE_DEVICE, userSetting.getNearCacheMaxSize(), userSetting.getNearCacheExpire(), device -> {
+            Device copy = new Device();
+            BeanUtils.copyProperties(device, copy);
+            return copy;
+        });
+        platformCache = new NearCache<>(TYPE_PLATFORM, userSetting.getNearCacheMaxSize(), userSetting.getNearCacheExpire(), platform -> {
+            Platform copy = new Platform();
+            BeanUtils.copyProperties(platform, copy);
+            return copy;
+        });
+        mediaServerCache = new NearCache<>(TYPE_MEDIA_SERVER, userSetting.getNearCacheMaxSize(), userSetting.getNearCacheExpire(), mediaServer -> {
+            MediaServer copy = new MediaServer();
+            BeanUtils.copyProperties(mediaServer, copy);
+            return copy;
+        });
+        streamAuthorityCache = new NearCache<>(TYPE_STREAM_AUTHORITY, userSetting.getNearCacheMaxSize(), userSetting.getNearCacheExpire(), streamAuthorityInfo -> {
+            StreamAuthorityInfo copy = new StreamAuthorityInfo();
+            BeanUtils.copyProperties(streamAuthorityInfo, copy);
+            return copy;
+        });
+    }
+
+    public Device getDevice(String deviceId, Supplier<Device> loader) {
+        return deviceCache.get(deviceId, loader);
+    }
+
+    public void putDevice(Device device) {
+        deviceCache.put(device.getDeviceId(), device);
+        invalidateQueue.offer(new String[]{TYPE_DEVICE, device.getDeviceId()});
+    }
+
+    /**
+     * 只更新本节点的缓存，不通知其他节点，用于心跳时间这类其他节点不依赖的字段，避免每次心跳都发送集群通知
+     */
+    public void refreshDevice(Device device) {
+        deviceCache.put(device.getDeviceId(), device);
+    }
+
+    public void invalidateDevice(String deviceId) {
+        deviceCache.invalidate(deviceId);
+        invalidateQueue.offer(new String[]{TYPE_DEVICE, deviceId});
+    }
+
+    public void invalidateAllDevice() {
+        deviceCache.invalidateAll();
+        invalidateQueue.offer(new String[]{TYPE_DEVICE, null});
+    }
+
+    public Platform getPlatform(String serverGBId, Supplier<Platform> loader) {
+        return platformCache.get(serverGBId, loader);
+    }
+
+    public void invalidatePlatform(String serverGBId) {
+        platformCache.invalidate(serverGBId);
+        invalidateQueue.offer(new String[]{TYPE_PLATFORM, serverGBId});
+    }
+
+    public void invalidateAllPlatform() {
+        platformCache.invalidateAll();
+        invalidateQueue.offer(new String[]{TYPE_PLATFORM, null});
+    }
+
+    public MediaServer getMediaServer(String mediaServerId, Supplier<MediaServer> loader) {
+        return mediaServerCache.get(mediaServerId, loader);
+    }
+
+    public void putMediaServer(MediaServer mediaServer) {
+        mediaServerCache.put(mediaServer.getId(), mediaServer);
+    }
+
+    public void invalidateMediaServer(String mediaServerId) {
+        mediaServerCache.invalidate(mediaServerId);
+    }
+
+    public StreamAuthorityInfo getStreamAuthority(String app, String stream, Supplier<StreamAuthorityInfo> loader) {
+        return streamAuthorityCache.get(app + "_" + stream, loader);
+    }
+
+    public void putStreamAuthority(String app, String stream, StreamAuthorityInfo streamAuthorityInfo) {
+        streamAuthorityCache.put(app + "_" + stream, streamAuthorityInfo);
+    }
+
+    public void invalidateStreamAuthority(String app, String stream) {
+        streamAuthorityCache.invalidate(app + "_" + stream);
+    }
+
+    public List<NearCacheInfo> getInfoList() {
+        List<NearCacheInfo> result = new ArrayList<>();
+        result.add(deviceCache.getInfo());
+        result.add(platformCache.getInfo());
+        result.add(mediaServerCache.getInfo());
+        result.add(streamAuthorityCache.getInfo());
+        return result;
+    }
+
+    /**
+     * 合并一段时间内的失效通知，每种类型只发送一条消息
+     */
+    @Scheduled(fixedDelay = 200)
+    public void executeTaskQueue() {
+        if (invalidateQueue.isEmpty()) {
+            return;
+        }
+        Set<String> deviceKeys = new HashSet<>();
+        Set<String> platformKeys = new HashSet<>();
+        boolean deviceAll = false;
+        boolean platformAll = false;
+        int size = invalidateQueue.size();
+        for (int i = 0; i < size; i++) {
+            String[] item = invalidateQueue.poll();
+            if (item == null) {
+                continue;
+            }
+            if (TYPE_DEVICE.equals(item[0])) {
+                if (item[1] == null) {
+                    deviceAll = true;
+                } else {
+                    deviceKeys.add(item[1]);
+                }
+            } else {
+                if (item[1] == null) {
+                    platformAll = true;
+                } else {
+                    platformKeys.add(item[1]);
+                }
+            }
+        }
+        if (deviceAll || !deviceKeys.isEmpty()) {
+            sendInvalidateMsg(TYPE_DEVICE, deviceKeys, deviceAll);
+        }
+        if (platformAll || !platformKeys.isEmpty()) {
+            sendInvalidateMsg(TYPE_PLATFORM, platformKeys, platformAll);
+        }
+    }
+
+    private void sendInvalidateMsg(String type, Set<String> keys, boolean all) {
+        JSONObject jsonObject = new JSONObject();
+        jsonObject.put("serverId", userSetting.getServerId());
+        jsonObject.put("type", type);
+        jsonObject.put("all", all);
+        if (!all) {
+            jsonObject.put("keys", keys);
+        }
+        try {
+            stringRedisTemplate.convertAndSend(VideoManagerConstants.VM_MSG_NEAR_CACHE_INVALIDATE, jsonObject.toJSONString());
+        } catch (Exception e) {
+            log.warn("[本地缓存] 发送失效通知失败: {}", e.getMessage());
+        }
+    }
+
+    @Override
+    public void onMessage(@NotNull Message message, byte[] bytes) {
+        try {
+            JSONObject jsonObject = JSON.parseObject(message.getBody());
+            // 本节点的修改已经直接作用于本地缓存
+            if (userSetting.getServerId().equals(jsonObject.getString("serverId"))) {
+                return;
+            }
+            NearCache<?> cache = TYPE_DEVICE.equals(jsonObject.getString("type")) ? deviceCache : platformCache;
+            if (jsonObject.getBooleanValue("all")) {
+                cache.invalidateAll();
+                return;
+            }
+            List<String> keys = jsonObject.getList("keys", String.class);
+            if (keys != null) {
+                for (String key : keys) {
+                    cache.invalidate(key);
+                }
+            }
+        } catch (Exception e) {
+            log.warn("[本地缓存] 处理失效通知异常, {}", new String(message.getBody()), e);
+        }
+    }
+}
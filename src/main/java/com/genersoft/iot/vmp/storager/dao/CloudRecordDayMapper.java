@@ -0,0 +1,63 @@
+package com.genersoft.iot.vmp.storager.dao;
+
+import com.genersoft.iot.vmp.media.bean.MediaServer;
+import com.genersoft.iot.vmp.service.bean.CloudRecordDay;
+import org.apache.ibatis.annotations.*;
+
+import java.util.List;
+
+@Mapper
+public interface CloudRecordDayMapper {
+
+    @Insert("INSERT INTO wvp_cloud_record_day (app, stream, media_server_id, record_day, record_count, file_size, time_len) " +
+            "VALUES (#{app}, #{stream}, #{mediaServerId}, #{recordDay}, #{recordCount}, #{fileSize}, #{timeLen})")
+    int add(CloudRecordDay cloudRecordDay);
+
+    /**
+     * 按增量更新，数量为负数时表示减少
+     */
+    @Update("UPDATE wvp_cloud_record_day SET record_count = record_count + #{recordCount}, " +
+            " file_size = file_size + #{fileSize}, time_len = time_len + #{timeLen} " +
+            " WHERE app = #{app} and stream = #{stream} and media_server_id = #{mediaServerId} and record_day = #{recordDay}")
+    int increase(CloudRecordDay cloudRecordDay);
+
+    @Delete("DELETE FROM wvp_cloud_record_day WHERE record_count <= 0")
+    int deleteEmpty();
+
+    @Select(" <script>" +
+            "select app, stream, record_day, sum(record_count) as record_count, sum(file_size) as file_size, sum(time_len) as time_len" +
+            " from wvp_cloud_record_day " +
+            " where app = #{app} and stream = #{stream} and record_day &gt;= #{startDay} and record_day &lt; #{endDay}" +
+            " <if test= 'mediaServerItemList != null  ' > and media_server_id in " +
+            " <foreach collection='mediaServerItemList'  item='item'  open='(' separator=',' close=')' > #{item.id}</foreach>" +
+            " </if>" +
+            " group by app, stream, record_day" +
+            " order by record_day" +
+            " </script>")
+    List<CloudRecordDay> getList(@Param("app") String app, @Param("stream") String stream,
+                                 @Param("startDay") int startDay, @Param("endDay") int endDay,
+                                 @Param("mediaServerItemList") List<MediaServer> mediaServerItemList);
+
+    /**
+     * 查询节点上录像总大小超出容量的流
+     */
+    @Select("select app, stream, media_server_id, sum(record_count) as record_count, sum(file_size) as file_size, " +
+            " sum(time_len) as time_len from wvp_cloud_record_day where media_server_id = #{mediaServerId} " +
+            " group by app, stream, media_server_id having sum(file_size) > #{quota}")
+    List<CloudRecordDay> queryOverQuota(@Param("mediaServerId") String mediaServerId, @Param("quota") long quota);
+
+    @Delete("DELETE FROM wvp_cloud_record_day")
+    int deleteAll();
+
+    /**
+     * 从录像记录重新生成汇总，用于升级后首次启动
+     * @param offset 时区偏移，单位：毫秒
+     * @param maxId 只汇总ID不大于此值的录像记录
+     */
+    @Insert("INSERT INTO wvp_cloud_record_day (app, stream, media_server_id, record_day, record_count, file_size, time_len) " +
+            " SELECT app, stream, media_server_id, record_day, count(1), coalesce(sum(file_size), 0), coalesce(sum(time_len), 0) " +
+            " FROM (SELECT app, stream, media_server_id, file_size, time_len, " +
+            " floor((start_time + #{offset}) / 86400000) as record_day FROM wvp_cloud_record WHERE id <= #{maxId}) r " +
+            " GROUP BY app, stream, media_server_id, record_day")
+    int rebuild(@Param("offset") long offset, @Param("maxId") int maxId);
+}
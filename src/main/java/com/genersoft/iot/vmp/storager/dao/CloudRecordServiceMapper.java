@@ -38,8 +38,12 @@ public interface CloudRecordServiceMapper {
             " #{serverId}," +
             " #{timeLen})" +
             " </script>")
+    @Options(useGeneratedKeys = true, keyProperty = "id", keyColumn = "id")
     int add(CloudRecordItem cloudRecordItem);
 
+    @Select("select max(id) from wvp_cloud_record")
+    Integer getMaxId();
+
     @Select(" <script>" +
             "select * " +
             " from wvp_cloud_record " +
@@ -95,12 +99,34 @@ public interface CloudRecordServiceMapper {
     void deleteByFileList(List<String> filePathList, @Param("mediaServerId") String mediaServerId);
 
 
+    /**
+     * 按 (end_time, id) 分页查询过期的录像，从上一页的最后一条之后开始
+     */
     @Select(" <script>" +
             "select *" +
             " from wvp_cloud_record " +
             " where collect = false and end_time &lt;= #{endTimeStamp} and media_server_id  = #{mediaServerId} " +
+            " and (end_time &gt; #{lastEndTime} or (end_time = #{lastEndTime} and id &gt; #{lastId}))" +
+            " order by end_time, id limit #{count}" +
+            " </script>")
+    List<CloudRecordItem> queryRecordListForDelete(@Param("endTimeStamp")Long endTimeStamp, @Param("mediaServerId") String mediaServerId,
+                                                   @Param("lastEndTime") long lastEndTime, @Param("lastId") int lastId,
+                                                   @Param("count") int count);
+
+    /**
+     * 查询流最早的录像，用于超出容量时删除
+     */
+    @Select(" <script>" +
+            "select *" +
+            " from wvp_cloud_record " +
+            " where collect = false and app = #{app} and stream = #{stream} and media_server_id  = #{mediaServerId} " +
+            " and (start_time &gt; #{lastStartTime} or (start_time = #{lastStartTime} and id &gt; #{lastId}))" +
+            " order by start_time, id limit #{count}" +
             " </script>")
-    List<CloudRecordItem> queryRecordListForDelete(@Param("endTimeStamp")Long endTimeStamp, String mediaServerId);
+    List<CloudRecordItem> queryRecordListForQuota(@Param("app") String app, @Param("stream") String stream,
+                                                  @Param("mediaServerId") String mediaServerId,
+                                                  @Param("lastStartTime") long lastStartTime, @Param("lastId") int lastId,
+                                                  @Param("count") int count);
 
     @Update(" <script>" +
             "update wvp_cloud_record set collect = #{collect} where id = #{recordId} " +
@@ -15,6 +15,7 @@ import com.genersoft.iot.vmp.media.zlm.dto.StreamAuthorityInfo;
 import com.genersoft.iot.vmp.service.bean.GPSMsgInfo;
 import com.genersoft.iot.vmp.service.bean.MessageForPushChannel;
 import com.genersoft.iot.vmp.storager.IRedisCatchStorage;
+import com.genersoft.iot.vmp.storager.cache.NearCacheManager;
 import com.genersoft.iot.vmp.storager.dao.dto.PlatformRegisterInfo;
 import com.genersoft.iot.vmp.utils.DateUtil;
 import com.genersoft.iot.vmp.utils.JsonUtil;
@@ -22,7 +23,10 @@ import com.genersoft.iot.vmp.utils.SystemInfoUtils;
 import com.genersoft.iot.vmp.utils.redis.RedisUtil;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.core.RedisOperations;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.SessionCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Component;
 
@@ -34,6 +38,10 @@ import java.util.*;
 @Component
 public class RedisCatchStorageImpl implements IRedisCatchStorage {
 
+    /**
+     * 心跳批量写入redis时WATCH冲突的最大重试次数
+     */
+    private static final int KEEPALIVE_WRITE_RETRY = 3;
 
     @Autowired
     private DeviceChannelMapper deviceChannelMapper;
@@ -50,6 +58,9 @@ public class RedisCatchStorageImpl implements IRedisCatchStorage {
     @Autowired
     private StringRedisTemplate stringRedisTemplate;
 
+    @Autowired
+    private NearCacheManager nearCacheManager;
+
     @Override
     public List<SendRtpInfo> queryAllSendRTPServer() {
         return Collections.emptyList();
@@ -169,18 +180,84 @@ public class RedisCatchStorageImpl implements IRedisCatchStorage {
     public void updateDevice(Device device) {
         String key = VideoManagerConstants.DEVICE_PREFIX;
         redisTemplate.opsForHash().put(key, device.getDeviceId(), device);
+        nearCacheManager.putDevice(device);
+    }
+
+    @Override
+    public void updateDevicesForKeepalive(List<Device> devices) {
+        if (devices.isEmpty()) {
+            return;
+        }
+        String key = VideoManagerConstants.DEVICE_PREFIX;
+        List<Object> deviceIds = new ArrayList<>(devices.size());
+        for (Device device : devices) {
+            deviceIds.add(device.getDeviceId());
+        }
+        Map<String, Device> deviceMap = redisTemplate.execute(new SessionCallback<Map<String, Device>>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public <K, V> Map<String, Device> execute(RedisOperations<K, V> operations) throws DataAccessException {
+                RedisOperations<Object, Object> redisOperations = (RedisOperations<Object, Object>) operations;
+                Map<String, Device> merged = null;
+                for (int i = 0; i < KEEPALIVE_WRITE_RETRY; i++) {
+                    redisOperations.watch(key);
+                    merged = mergeKeepalive(devices, redisOperations.opsForHash().multiGet(key, deviceIds));
+                    if (merged.isEmpty()) {
+                        redisOperations.unwatch();
+                        return merged;
+                    }
+                    redisOperations.multi();
+                    redisOperations.opsForHash().putAll(key, merged);
+                    // 事务被放弃时返回空列表
+                    if (!redisOperations.exec().isEmpty()) {
+                        return merged;
+                    }
+                }
+                // 多次被其他写入打断，使用最后一次读取的数据直接写入，只可能覆盖这一瞬间的修改
+                log.debug("[心跳] 批量写入redis多次冲突， 直接写入， 数量： {}", merged.size());
+                redisOperations.opsForHash().putAll(key, merged);
+                return merged;
+            }
+        });
+        if (deviceMap == null) {
+            return;
+        }
+        for (Device device : deviceMap.values()) {
+            nearCacheManager.refreshDevice(device);
+        }
+    }
+
+    /**
+     * 在redis中的最新数据上只修改心跳相关的字段，与数据库的批量更新一致，其他字段以redis中为准，redis中已经不存在的设备不再写入
+     */
+    private Map<String, Device> mergeKeepalive(List<Device> devices, List<Object> currentList) {
+        Map<String, Device> merged = new HashMap<>(devices.size());
+        for (int i = 0; i < devices.size(); i++) {
+            Object current = currentList == null ? null : currentList.get(i);
+            if (!(current instanceof Device)) {
+                continue;
+            }
+            Device device = devices.get(i);
+            Device currentDevice = (Device) current;
+            currentDevice.setKeepaliveTime(device.getKeepaliveTime());
+            currentDevice.setUpdateTime(device.getUpdateTime());
+            merged.put(currentDevice.getDeviceId(), currentDevice);
+        }
+        return merged;
     }
 
     @Override
     public void removeDevice(String deviceId) {
         String key = VideoManagerConstants.DEVICE_PREFIX;
         redisTemplate.opsForHash().delete(key, deviceId);
+        nearCacheManager.invalidateDevice(deviceId);
     }
 
     @Override
     public void removeAllDevice() {
         String key = VideoManagerConstants.DEVICE_PREFIX;
         redisTemplate.delete(key);
+        nearCacheManager.invalidateAllDevice();
     }
 
     @Override
@@ -198,18 +275,20 @@ public class RedisCatchStorageImpl implements IRedisCatchStorage {
 
     @Override
     public Device getDevice(String deviceId) {
-        String key = VideoManagerConstants.DEVICE_PREFIX;
-        Device device;
-        Object object = redisTemplate.opsForHash().get(key, deviceId);
-        if (object == null){
-            device = deviceMapper.getDeviceByDeviceId(deviceId);
-            if (device != null) {
-                updateDevice(device);
+        return nearCacheManager.getDevice(deviceId, () -> {
+            String key = VideoManagerConstants.DEVICE_PREFIX;
+            Device device;
+            Object object = redisTemplate.opsForHash().get(key, deviceId);
+            if (object == null){
+                device = deviceMapper.getDeviceByDeviceId(deviceId);
+                if (device != null) {
+                    redisTemplate.opsForHash().put(key, device.getDeviceId(), device);
+                }
+            }else {
+                device = (Device)object;
             }
-        }else {
-            device = (Device)object;
-        }
-        return device;
+            return device;
+        });
     }
 
     @Override
@@ -243,6 +322,7 @@ public class RedisCatchStorageImpl implements IRedisCatchStorage {
         String key = VideoManagerConstants.MEDIA_STREAM_AUTHORITY + userSetting.getServerId();
         String objectKey = app+ "_" + stream;
         redisTemplate.opsForHash().put(key, objectKey, streamAuthorityInfo);
+        nearCacheManager.putStreamAuthority(app, stream, streamAuthorityInfo);
     }
 
     @Override
@@ -250,13 +330,16 @@ public class RedisCatchStorageImpl implements IRedisCatchStorage {
         String key = VideoManagerConstants.MEDIA_STREAM_AUTHORITY + userSetting.getServerId();
         String objectKey = app+ "_" + stream;
         redisTemplate.opsForHash().delete(key, objectKey);
+        nearCacheManager.invalidateStreamAuthority(app, stream);
     }
 
     @Override
     public StreamAuthorityInfo getStreamAuthorityInfo(String app, String stream) {
         String key = VideoManagerConstants.MEDIA_STREAM_AUTHORITY + userSetting.getServerId();
         String objectKey = app+ "_" + stream;
-        return (StreamAuthorityInfo)redisTemplate.opsForHash().get(key, objectKey);
+        // 播放鉴权的热点路径，优先使用本地缓存
+        return nearCacheManager.getStreamAuthority(app, stream,
+                () -> (StreamAuthorityInfo)redisTemplate.opsForHash().get(key, objectKey));
 
     }
 
@@ -0,0 +1,90 @@
+package com.genersoft.iot.vmp.utils;
+
+import com.genersoft.iot.vmp.common.LatencyInfo;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 固定分段的耗时统计，记录时无锁，适合在热点路径上使用
+ */
+public class LatencyHistogram {
+
+    /**
+     * 各分段的上限，单位：毫秒，最后一段为超过最大上限的部分
+     */
+    private static final long[] BOUNDS = {10, 50, 100, 200, 500, 1000, 2000, 5000, 10000};
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BOUNDS.length + 1);
+
+    private final AtomicLong count = new AtomicLong();
+
+    private final AtomicLong totalMillis = new AtomicLong();
+
+    private final AtomicLong maxMillis = new AtomicLong();
+
+    public void record(long millis) {
+        int index = BOUNDS.length;
+        for (int i = 0; i < BOUNDS.length; i++) {
+            if (millis <= BOUNDS[i]) {
+                index = i;
+                break;
+            }
+        }
+        buckets.incrementAndGet(index);
+        count.incrementAndGet();
+        totalMillis.addAndGet(millis);
+        maxMillis.accumulateAndGet(millis, Math::max);
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public LatencyInfo toInfo(String name) {
+        LatencyInfo info = new LatencyInfo();
+        info.setName(name);
+        long total = count.get();
+        info.setCount(total);
+        info.setMaxMs(maxMillis.get());
+        if (total > 0) {
+            info.setAvgMs(totalMillis.get() / (double) total);
+        }
+        Map<String, Long> bucketMap = new LinkedHashMap<>();
+        long[] counts = new long[buckets.length()];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = buckets.get(i);
+            String label = i < BOUNDS.length ? "<=" + BOUNDS[i] : ">" + BOUNDS[BOUNDS.length - 1];
+            bucketMap.put(label, counts[i]);
+        }
+        info.setBuckets(bucketMap);
+        info.setP50Ms(percentile(counts, 0.5));
+        info.setP95Ms(percentile(counts, 0.95));
+        info.setP99Ms(percentile(counts, 0.99));
+        return info;
+    }
+
+    /**
+     * 按分段估算分位数，返回所在分段的上限
+     */
+    private long percentile(long[] counts, double percent) {
+        long total = 0;
+        for (long c : counts) {
+            total += c;
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long target = (long) Math.ceil(total * percent);
+        long sum = 0;
+        for (int i = 0; i < counts.length; i++) {
+            sum += counts[i];
+            if (sum >= target) {
+                return i < BOUNDS.length ? BOUNDS[i] : maxMillis.get();
+            }
+        }
+        return maxMillis.get();
+    }
+}
@@ -0,0 +1,404 @@
+package com.genersoft.iot.vmp.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.IntConsumer;
+
+/**
+ * 不压缩(STORED)的zip写入
+ * 文件的大小、名称、时间和CRC确定后整个压缩包的内容就是确定的，可以提前算出总长度，并从任意位置开始输出，用于支持断点续传；
+ * 单个文件或整个压缩包超过4G时使用ZIP64
+ */
+public class StoredZipWriter {
+
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    private static final int END_SIGNATURE = 0x06054b50;
+    private static final int ZIP64_END_SIGNATURE = 0x06064b50;
+    private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+
+    private static final int LOCAL_HEADER_LENGTH = 30;
+    private static final int CENTRAL_HEADER_LENGTH = 46;
+    private static final int END_LENGTH = 22;
+    private static final int ZIP64_END_LENGTH = 56;
+    private static final int ZIP64_LOCATOR_LENGTH = 20;
+
+    private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+    private static final int ZIP64_MAGIC_COUNT = 0xFFFF;
+
+    private static final short VERSION_STORED = 10;
+    private static final short VERSION_ZIP64 = 45;
+
+    /**
+     * 文件名使用UTF-8编码
+     */
+    private static final short FLAG_UTF8 = 0x0800;
+
+    /**
+     * 复制文件内容使用的缓冲区大小
+     */
+    private static final int COPY_BUFFER_SIZE = 1024 * 1024;
+
+    /**
+     * 获取文件的CRC32，调用方可以缓存或提前计算
+     */
+    @FunctionalInterface
+    public interface CrcProvider {
+        long getCrc(Entry entry) throws IOException;
+    }
+
+    public static class Entry {
+
+        private final String name;
+
+        private final byte[] nameBytes;
+
+        private final File file;
+
+        private final long size;
+
+        private final int dosTime;
+
+        private final long offset;
+
+        private final boolean zip64;
+
+        private Entry(String name, File file, long size, long time, long offset) {
+            this.name = name;
+            this.nameBytes = name.getBytes(StandardCharsets.UTF_8);
+            this.file = file;
+            this.size = size;
+            this.dosTime = toDosTime(time);
+            this.offset = offset;
+            this.zip64 = size >= ZIP64_MAGIC;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public File getFile() {
+            return file;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        private int getLocalHeaderLength() {
+            return LOCAL_HEADER_LENGTH + nameBytes.length + (zip64 ? 20 : 0);
+        }
+
+        private long getDataOffset() {
+            return offset + getLocalHeaderLength();
+        }
+
+        private long getEnd() {
+            return getDataOffset() + size;
+        }
+    }
+
+    private final List<Entry> entries = new ArrayList<>();
+
+    private final CrcProvider crcProvider;
+
+    private long dataLength;
+
+    private long[] crcs;
+
+    private IntConsumer readAheadListener;
+
+    public StoredZipWriter(CrcProvider crcProvider) {
+        this.crcProvider = crcProvider;
+    }
+
+    /**
+     * 添加文件
+     * @param name 压缩包中的文件名
+     * @param file 文件
+     * @param time 文件时间，毫秒时间戳
+     */
+    public Entry addEntry(String name, File file, long time) {
+        Entry entry = new Entry(name, file, file.length(), time, dataLength);
+        entries.add(entry);
+        dataLength = entry.getEnd();
+        return entry;
+    }
+
+    /**
+     * 开始输出某个文件或者生成中央目录需要某个文件的CRC时的回调，参数为文件序号，可用于预读后面的文件
+     */
+    public void setReadAheadListener(IntConsumer readAheadListener) {
+        this.readAheadListener = readAheadListener;
+    }
+
+    public List<Entry> getEntries() {
+        return Collections.unmodifiableList(entries);
+    }
+
+    /**
+     * 压缩包的总长度
+     */
+    public long getLength() {
+        long centralLength = getCentralDirectoryLength();
+        return dataLength + centralLength + (isZip64End(centralLength) ? ZIP64_END_LENGTH + ZIP64_LOCATOR_LENGTH : 0) + END_LENGTH;
+    }
+
+    /**
+     * 输出压缩包中[start, end]范围的内容
+     * @param out 输出
+     * @param start 开始位置，包含
+     * @param end 结束位置，包含
+     */
+    public void write(OutputStream out, long start, long end) throws IOException {
+        if (crcs == null) {
+            crcs = new long[entries.size()];
+            Arrays.fill(crcs, -1);
+        }
+        byte[] buffer = new byte[COPY_BUFFER_SIZE];
+        for (int i = 0; i < entries.size(); i++) {
+            Entry entry = entries.get(i);
+            if (entry.getEnd() <= start) {
+                continue;
+            }
+            if (entry.offset > end) {
+                break;
+            }
+            if (readAheadListener != null) {
+                readAheadListener.accept(i);
+            }
+            byte[] header = buildLocalHeader(entry, getCrc(i));
+            writeRange(out, header, entry.offset, start, end);
+            long dataStart = Math.max(start, entry.getDataOffset());
+            long dataEnd = Math.min(end, entry.getEnd() - 1);
+            if (dataStart <= dataEnd) {
+                copyFile(out, entry, dataStart - entry.getDataOffset(), dataEnd - dataStart + 1, buffer);
+            }
+        }
+        if (end >= dataLength) {
+            writeRange(out, buildCentralDirectory(), dataLength, start, end);
+        }
+    }
+
+    private long getCrc(int index) throws IOException {
+        if (crcs[index] < 0) {
+            crcs[index] = crcProvider.getCrc(entries.get(index));
+        }
+        return crcs[index];
+    }
+
+    private static void writeRange(OutputStream out, byte[] bytes, long offset, long start, long end) throws IOException {
+        long from = Math.max(start, offset);
+        long to = Math.min(end, offset + bytes.length - 1);
+        if (from <= to) {
+            out.write(bytes, (int) (from - offset), (int) (to - from + 1));
+        }
+    }
+
+    private static void copyFile(OutputStream out, Entry entry, long position, long count, byte[] buffer) throws IOException {
+        try (FileChannel channel = FileChannel.open(entry.file.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() != entry.size) {
+                throw new IOException("文件大小已变化: " + entry.file.getAbsolutePath());
+            }
+            ByteBuffer byteBuffer = ByteBuffer.wrap(buffer);
+            long remaining = count;
+            long current = position;
+            while (remaining > 0) {
+                byteBuffer.clear();
+                byteBuffer.limit((int) Math.min(buffer.length, remaining));
+                int read = channel.read(byteBuffer, current);
+                if (read < 0) {
+                    throw new IOException("文件已被截断: " + entry.file.getAbsolutePath());
+                }
+                out.write(buffer, 0, read);
+                current += read;
+                remaining -= read;
+            }
+        }
+    }
+
+    private byte[] buildLocalHeader(Entry entry, long crc) {
+        ByteBuffer buffer = ByteBuffer.allocate(entry.getLocalHeaderLength()).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(LOCAL_HEADER_SIGNATURE);
+        buffer.putShort(entry.zip64 ? VERSION_ZIP64 : VERSION_STORED);
+        buffer.putShort(FLAG_UTF8);
+        // STORED
+        buffer.putShort((short) 0);
+        buffer.putInt(entry.dosTime);
+        buffer.putInt((int) crc);
+        buffer.putInt((int) (entry.zip64 ? ZIP64_MAGIC : entry.size));
+        buffer.putInt((int) (entry.zip64 ? ZIP64_MAGIC : entry.size));
+        buffer.putShort((short) entry.nameBytes.length);
+        buffer.putShort((short) (entry.zip64 ? 20 : 0));
+        buffer.put(entry.nameBytes);
+        if (entry.zip64) {
+            buffer.putShort((short) 0x0001);
+            buffer.putShort((short) 16);
+            buffer.putLong(entry.size);
+            buffer.putLong(entry.size);
+        }
+        return buffer.array();
+    }
+
+    private static int getCentralExtraLength(Entry entry) {
+        int length = (entry.zip64 ? 16 : 0) + (entry.offset >= ZIP64_MAGIC ? 8 : 0);
+        return length == 0 ? 0 : length + 4;
+    }
+
+    private long getCentralDirectoryLength() {
+        long length = 0;
+        for (Entry entry : entries) {
+            length += CENTRAL_HEADER_LENGTH + entry.nameBytes.length + getCentralExtraLength(entry);
+        }
+        return length;
+    }
+
+    private boolean isZip64End(long centralLength) {
+        return entries.size() >= ZIP64_MAGIC_COUNT || dataLength >= ZIP64_MAGIC || centralLength >= ZIP64_MAGIC;
+    }
+
+    private byte[] buildCentralDirectory() throws IOException {
+        long centralLength = getCentralDirectoryLength();
+        boolean zip64End = isZip64End(centralLength);
+        long totalLength = centralLength + (zip64End ? ZIP64_END_LENGTH + ZIP64_LOCATOR_LENGTH : 0) + END_LENGTH;
+        if (totalLength > Integer.MAX_VALUE) {
+            throw new IOException("文件数量过多");
+        }
+        ByteBuffer buffer = ByteBuffer.allocate((int) totalLength).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < entries.size(); i++) {
+            Entry entry = entries.get(i);
+            boolean offsetZip64 = entry.offset >= ZIP64_MAGIC;
+            boolean zip64 = entry.zip64 || offsetZip64;
+            buffer.putInt(CENTRAL_HEADER_SIGNATURE);
+            buffer.putShort(VERSION_ZIP64);
+            buffer.putShort(zip64 ? VERSION_ZIP64 : VERSION_STORED);
+            buffer.putShort(FLAG_UTF8);
+            buffer.putShort((short) 0);
+            buffer.putInt(entry.dosTime);
+            // 只请求压缩包末尾时所有文件的CRC都在这里获取，同样预读后面的文件，不逐个同步计算
+            if (crcs[i] < 0 && readAheadListener != null) {
+                readAheadListener.accept(i);
+            }
+            buffer.putInt((int) getCrc(i));
+            buffer.putInt((int) (entry.zip64 ? ZIP64_MAGIC : entry.size));
+            buffer.putInt((int) (entry.zip64 ? ZIP64_MAGIC : entry.size));
+            buffer.putShort((short) entry.nameBytes.length);
+            buffer.putShort((short) getCentralExtraLength(entry));
+            // 注释长度、起始磁盘号、内部属性、外部属性
+            buffer.putShort((short) 0);
+            buffer.putShort((short) 0);
+            buffer.putShort((short) 0);
+            buffer.putInt(0);
+            buffer.putInt((int) (offsetZip64 ? ZIP64_MAGIC : entry.offset));
+            buffer.put(entry.nameBytes);
+            if (zip64) {
+                buffer.putShort((short) 0x0001);
+                buffer.putShort((short) (getCentralExtraLength(entry) - 4));
+                if (entry.zip64) {
+                    buffer.putLong(entry.size);
+                    buffer.putLong(entry.size);
+                }
+                if (offsetZip64) {
+                    buffer.putLong(entry.offset);
+                }
+            }
+        }
+        if (zip64End) {
+            long zip64EndOffset = dataLength + centralLength;
+            buffer.putInt(ZIP64_END_SIGNATURE);
+            buffer.putLong(ZIP64_END_LENGTH - 12);
+            buffer.putShort(VERSION_ZIP64);
+            buffer.putShort(VERSION_ZIP64);
+            buffer.putInt(0);
+            buffer.putInt(0);
+            buffer.putLong(entries.size());
+            buffer.putLong(entries.size());
+            buffer.putLong(centralLength);
+            buffer.putLong(dataLength);
+
+            buffer.putInt(ZIP64_LOCATOR_SIGNATURE);
+            buffer.putInt(0);
+            buffer.putLong(zip64EndOffset);
+            buffer.putInt(1);
+        }
+        buffer.putInt(END_SIGNATURE);
+        buffer.putShort((short) 0);
+        buffer.putShort((short) 0);
+        int count = zip64End ? ZIP64_MAGIC_COUNT : entries.size();
+        buffer.putShort((short) count);
+        buffer.putShort((short) count);
+        buffer.putInt((int) (zip64End ? ZIP64_MAGIC : centralLength));
+        buffer.putInt((int) (zip64End ? ZIP64_MAGIC : dataLength));
+        buffer.putShort((short) 0);
+        return buffer.array();
+    }
+
+    /**
+     * 解析单个范围的Range，多个范围时只取第一个
+     * @param range 请求头中的Range
+     * @param length 内容的总长度
+     * @return [开始位置, 结束位置]，都包含；范围无效时返回null
+     */
+    public static long[] parseRange(String range, long length) {
+        if (!range.startsWith("bytes=") || length == 0) {
+            return null;
+        }
+        String spec = range.substring("bytes=".length());
+        int comma = spec.indexOf(',');
+        if (comma >= 0) {
+            spec = spec.substring(0, comma);
+        }
+        int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return null;
+        }
+        try {
+            String startText = spec.substring(0, dash).trim();
+            String endText = spec.substring(dash + 1).trim();
+            long start;
+            long end;
+            if (startText.isEmpty()) {
+                // bytes=-500 表示最后500字节
+                long suffix = Long.parseLong(endText);
+                if (suffix <= 0) {
+                    return null;
+                }
+                start = Math.max(length - suffix, 0);
+                end = length - 1;
+            } else {
+                start = Long.parseLong(startText);
+                end = endText.isEmpty() ? length - 1 : Math.min(Long.parseLong(endText), length - 1);
+            }
+            if (start < 0 || start >= length || start > end) {
+                return null;
+            }
+            return new long[]{start, end};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static int toDosTime(long time) {
+        LocalDateTime dateTime = LocalDateTime.ofInstant(Instant.ofEpochMilli(time), ZoneId.systemDefault());
+        int year = dateTime.getYear();
+        if (year < 1980) {
+            // DOS时间最早为1980-01-01
+            return (1 << 21) | (1 << 16);
+        }
+        return (year - 1980) << 25 | dateTime.getMonthValue() << 21 | dateTime.getDayOfMonth() << 16
+                | dateTime.getHour() << 11 | dateTime.getMinute() << 5 | dateTime.getSecond() >> 1;
+    }
+}
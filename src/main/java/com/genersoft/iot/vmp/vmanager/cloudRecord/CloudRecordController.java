@@ -8,6 +8,7 @@ import com.genersoft.iot.vmp.conf.security.JwtUtils;
 import com.genersoft.iot.vmp.media.bean.MediaServer;
 import com.genersoft.iot.vmp.media.service.IMediaServerService;
 import com.genersoft.iot.vmp.service.ICloudRecordService;
+import com.genersoft.iot.vmp.service.bean.CloudRecordDay;
 import com.genersoft.iot.vmp.service.bean.CloudRecordItem;
 import com.genersoft.iot.vmp.service.bean.DownloadFileInfo;
 import com.genersoft.iot.vmp.service.bean.ErrorCallback;
@@ -31,16 +32,11 @@ import org.springframework.web.context.request.async.DeferredResult;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.List;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
 
 @SuppressWarnings("rawtypes")
 @Tag(name = "云端录像接口")
@@ -59,6 +55,9 @@ public class CloudRecordController {
     @Autowired
     private UserSetting userSetting;
 
+    @Autowired
+    private CloudRecordZipExporter cloudRecordZipExporter;
+
 
     @ResponseBody
     @GetMapping("/date/list")
@@ -102,6 +101,41 @@ public class CloudRecordController {
         return cloudRecordService.getDateList(app, stream, year, month, mediaServers);
     }
 
+    @ResponseBody
+    @GetMapping("/date/statistics")
+    @Operation(summary = "查询一个月中每天的云端录像汇总", security = @SecurityRequirement(name = JwtUtils.HEADER))
+    @Parameter(name = "app", description = "应用名", required = true)
+    @Parameter(name = "stream", description = "流ID", required = true)
+    @Parameter(name = "year", description = "年，置空则查询当年", required = false)
+    @Parameter(name = "month", description = "月，置空则查询当月", required = false)
+    @Parameter(name = "mediaServerId", description = "流媒体ID，置空则查询全部", required = false)
+    public List<CloudRecordDay> getDayList(
+            @RequestParam(required = true) String app,
+            @RequestParam(required = true) String stream,
+            @RequestParam(required = false) Integer year,
+            @RequestParam(required = false) Integer month,
+            @RequestParam(required = false) String mediaServerId
+
+    ) {
+        Calendar calendar = Calendar.getInstance();
+        if (ObjectUtils.isEmpty(year)) {
+            year = calendar.get(Calendar.YEAR);
+        }
+        if (ObjectUtils.isEmpty(month)) {
+            month = calendar.get(Calendar.MONTH) + 1;
+        }
+        List<MediaServer> mediaServers = null;
+        if (!ObjectUtils.isEmpty(mediaServerId)) {
+            MediaServer mediaServer = mediaServerService.getOne(mediaServerId);
+            if (mediaServer == null) {
+                throw new ControllerException(ErrorCode.ERROR100.getCode(), "未找到流媒体: " + mediaServerId);
+            }
+            mediaServers = new ArrayList<>();
+            mediaServers.add(mediaServer);
+        }
+        return cloudRecordService.getDayList(app, stream, year, month, mediaServers);
+    }
+
     @ResponseBody
     @GetMapping("/list")
     @Operation(summary = "分页查询云端录像", security = @SecurityRequirement(name = JwtUtils.HEADER))
@@ -370,7 +404,7 @@ public class CloudRecordController {
      */
     @ResponseBody
     @GetMapping("/zip")
-    public void downloadZipFile(HttpServletResponse response, @RequestParam(required = false) String query, @RequestParam(required = false) String app, @RequestParam(required = false) String stream, @RequestParam(required = false) String startTime, @RequestParam(required = false) String endTime, @RequestParam(required = false) String mediaServerId, @RequestParam(required = false) String callId, @RequestParam(required = false) List<Integer> ids
+    public void downloadZipFile(HttpServletRequest request, HttpServletResponse response, @RequestParam(required = false) String query, @RequestParam(required = false) String app, @RequestParam(required = false) String stream, @RequestParam(required = false) String startTime, @RequestParam(required = false) String endTime, @RequestParam(required = false) String mediaServerId, @RequestParam(required = false) String callId, @RequestParam(required = false) List<Integer> ids
 
     ) {
         log.info("[下载指定录像文件的压缩包] 查询 app->{}, stream->{}, mediaServerId->{}, startTime->{}, endTime->{}, callId->{}", app, stream, mediaServerId, startTime, endTime, callId);
@@ -407,34 +441,15 @@ public class CloudRecordController {
         if (callId != null && ObjectUtils.isEmpty(callId.trim())) {
             callId = null;
         }
+        String fileName = "record.zip";
         if (stream != null && callId != null) {
-            response.addHeader("Content-Disposition", "attachment;filename=" + stream + "_" + callId + ".zip");
+            fileName = stream + "_" + callId + ".zip";
         }
         List<CloudRecordItem> cloudRecordItemList = cloudRecordService.getAllList(query, app, stream, startTime, endTime, mediaServers, callId, ids);
         if (ObjectUtils.isEmpty(cloudRecordItemList)) {
             return;
         }
-        try {
-            ZipOutputStream zos = new ZipOutputStream(response.getOutputStream());
-            for (CloudRecordItem cloudRecordItem : cloudRecordItemList) {
-                zos.putNextEntry(new ZipEntry(DateUtil.timestampMsToUrlToyyyy_MM_dd_HH_mm_ss((long)cloudRecordItem.getStartTime()) + ".mp4"));
-                File file = new File(cloudRecordItem.getFilePath());
-                if (!file.exists() || file.isDirectory()) {
-                    continue;
-                }
-                FileInputStream fis = new FileInputStream(cloudRecordItem.getFilePath());
-                byte[] buf = new byte[2 * 1024];
-                int len;
-                while ((len = fis.read(buf)) != -1) {
-                    zos.write(buf, 0, len);
-                }
-                zos.closeEntry();
-                fis.close();
-            }
-            zos.close();
-        } catch (IOException e) {
-            log.error("[下载指定录像文件的压缩包] 失败： 查询 app->{}, stream->{}, mediaServerId->{}, startTime->{}, endTime->{}, callId->{}", app, stream, mediaServerId, startTime, endTime, callId, e);
-        }
+        cloudRecordZipExporter.export(request, response, fileName, cloudRecordItemList);
     }
 
     /**
@@ -0,0 +1,236 @@
+package com.genersoft.iot.vmp.vmanager.cloudRecord;
+
+import com.genersoft.iot.vmp.conf.UserSetting;
+import com.genersoft.iot.vmp.conf.exception.ControllerException;
+import com.genersoft.iot.vmp.conf.security.SecurityUtils;
+import com.genersoft.iot.vmp.conf.security.dto.LoginUser;
+import com.genersoft.iot.vmp.service.bean.CloudRecordItem;
+import com.genersoft.iot.vmp.utils.DateUtil;
+import com.genersoft.iot.vmp.utils.StoredZipWriter;
+import com.genersoft.iot.vmp.vmanager.bean.ErrorCode;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Component;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.zip.CRC32;
+
+/**
+ * 云端录像打包下载
+ * 录像文件本身已经压缩，打包时不再压缩(STORED)，文件内容直接复制到响应中；
+ * 压缩包的内容由文件列表确定，可以提前给出Content-Length并支持Range断点续传；
+ * 输出当前文件时在线程池中预先计算后面文件的CRC，同时把文件读入系统缓存
+ */
+@Slf4j
+@Component
+public class CloudRecordZipExporter {
+
+    /**
+     * 预读的文件数量
+     */
+    private static final int READ_AHEAD = 2;
+
+    private static final int CRC_BUFFER_SIZE = 1024 * 1024;
+
+    @Autowired
+    private UserSetting userSetting;
+
+    @Autowired
+    @Qualifier("taskExecutor")
+    private ThreadPoolTaskExecutor taskExecutor;
+
+    /**
+     * 文件CRC缓存，key为 路径|大小|修改时间，文件变化后自然失效，断点续传时不需要重新读取文件计算
+     */
+    private final Cache<String, Long> crcCache = CacheBuilder.newBuilder()
+            .maximumSize(100000)
+            .build();
+
+    /**
+     * 每个用户正在进行的打包下载数，下载结束后减少，为0时移除
+     */
+    private final Map<String, Integer> userExportCount = new ConcurrentHashMap<>();
+
+    /**
+     * 输出录像文件的压缩包
+     * @param fileName 下载的文件名
+     * @param cloudRecordItemList 录像列表，断点续传时需要和之前的顺序一致
+     */
+    public void export(HttpServletRequest request, HttpServletResponse response, String fileName,
+                       List<CloudRecordItem> cloudRecordItemList) {
+        String user = getUser(request);
+        int limit = Math.max(userSetting.getCloudRecordZipConcurrency(), 1);
+        boolean[] acquired = new boolean[1];
+        userExportCount.compute(user, (key, count) -> {
+            int current = count == null ? 0 : count;
+            if (current >= limit) {
+                return count;
+            }
+            acquired[0] = true;
+            return current + 1;
+        });
+        if (!acquired[0]) {
+            throw new ControllerException(ErrorCode.ERROR100.getCode(), "同时进行的打包下载过多，请稍后再试");
+        }
+        try {
+            StoredZipWriter zipWriter = buildZip(cloudRecordItemList);
+            write(request, response, fileName, zipWriter);
+        } catch (IOException | UncheckedIOException e) {
+            // 大多是客户端取消了下载
+            log.warn("[下载指定录像文件的压缩包] 中断， 用户：{}， {}", user, e.getMessage());
+        } finally {
+            userExportCount.computeIfPresent(user, (key, count) -> count <= 1 ? null : count - 1);
+        }
+    }
+
+    private StoredZipWriter buildZip(List<CloudRecordItem> cloudRecordItemList) {
+        Map<StoredZipWriter.Entry, CompletableFuture<Long>> crcFutures = new HashMap<>();
+        StoredZipWriter zipWriter = new StoredZipWriter(entry -> {
+            CompletableFuture<Long> future = crcFutures.remove(entry);
+            if (future != null) {
+                try {
+                    return future.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException(e);
+                } catch (ExecutionException e) {
+                    log.warn("[下载指定录像文件的压缩包] 预读失败， 重新计算： {}", entry.getFile().getAbsolutePath());
+                }
+            }
+            return getCrc(entry.getFile(), entry.getSize());
+        });
+        Set<String> names = new HashSet<>();
+        for (CloudRecordItem cloudRecordItem : cloudRecordItemList) {
+            File file = new File(cloudRecordItem.getFilePath());
+            if (!file.exists() || file.isDirectory()) {
+                log.warn("[下载指定录像文件的压缩包] 文件不存在， 跳过： {}", cloudRecordItem.getFilePath());
+                continue;
+            }
+            String baseName = DateUtil.timestampMsToUrlToyyyy_MM_dd_HH_mm_ss(cloudRecordItem.getStartTime());
+            String name = baseName + ".mp4";
+            // 同一时间开始的录像使用序号区分，重名的条目会导致解压时被覆盖
+            for (int i = 1; !names.add(name); i++) {
+                name = baseName + "_" + i + ".mp4";
+            }
+            zipWriter.addEntry(name, file, cloudRecordItem.getStartTime());
+        }
+        zipWriter.setReadAheadListener(index -> {
+            List<StoredZipWriter.Entry> entries = zipWriter.getEntries();
+            for (int i = index + 1; i <= index + READ_AHEAD && i < entries.size(); i++) {
+                StoredZipWriter.Entry entry = entries.get(i);
+                // 已经缓存的文件不需要再读取
+                if (crcFutures.containsKey(entry) || crcCache.getIfPresent(buildCrcKey(entry.getFile(), entry.getSize())) != null) {
+                    continue;
+                }
+                try {
+                    crcFutures.put(entry, CompletableFuture.supplyAsync(() -> {
+                        try {
+                            return getCrc(entry.getFile(), entry.getSize());
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    }, taskExecutor));
+                } catch (Exception e) {
+                    // 线程池繁忙时不预读，输出到这个文件时再计算
+                    break;
+                }
+            }
+        });
+        return zipWriter;
+    }
+
+    private void write(HttpServletRequest request, HttpServletResponse response, String fileName,
+                       StoredZipWriter zipWriter) throws IOException {
+        long length = zipWriter.getLength();
+        String eTag = buildETag(zipWriter);
+        response.setContentType("application/zip");
+        response.setHeader("Accept-Ranges", "bytes");
+        response.setHeader("ETag", eTag);
+        response.setHeader("Content-Disposition", "attachment;filename=" + fileName);
+
+        long start = 0;
+        long end = length - 1;
+        String range = request.getHeader("Range");
+        String ifRange = request.getHeader("If-Range");
+        // 录像列表变化后压缩包的内容也会变化，这时忽略Range，重新下载整个文件
+        if (range != null && (ifRange == null || ifRange.equals(eTag))) {
+            long[] parsed = StoredZipWriter.parseRange(range, length);
+            if (parsed == null) {
+                response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                response.setHeader("Content-Range", "bytes */" + length);
+                return;
+            }
+            start = parsed[0];
+            end = parsed[1];
+            response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+            response.setHeader("Content-Range", "bytes " + start + "-" + end + "/" + length);
+        }
+        response.setContentLengthLong(end - start + 1);
+        try (OutputStream outputStream = response.getOutputStream()) {
+            zipWriter.write(outputStream, start, end);
+        }
+    }
+
+    private static String buildETag(StoredZipWriter zipWriter) {
+        CRC32 crc32 = new CRC32();
+        for (StoredZipWriter.Entry entry : zipWriter.getEntries()) {
+            String key = entry.getName() + "|" + entry.getFile().getAbsolutePath() + "|" + entry.getSize() + "|"
+                    + entry.getFile().lastModified() + "\n";
+            crc32.update(key.getBytes(StandardCharsets.UTF_8));
+        }
+        return "\"" + Long.toHexString(crc32.getValue()) + "-" + Long.toHexString(zipWriter.getLength()) + "\"";
+    }
+
+    private long getCrc(File file, long size) throws IOException {
+        String key = buildCrcKey(file, size);
+        Long crc = crcCache.getIfPresent(key);
+        if (crc != null) {
+            return crc;
+        }
+        CRC32 crc32 = new CRC32();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(CRC_BUFFER_SIZE);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            while (channel.read(buffer) >= 0) {
+                buffer.flip();
+                crc32.update(buffer);
+                buffer.clear();
+            }
+        }
+        crc = crc32.getValue();
+        crcCache.put(key, crc);
+        return crc;
+    }
+
+    private static String buildCrcKey(File file, long size) {
+        return file.getAbsolutePath() + "|" + size + "|" + file.lastModified();
+    }
+
+    private static String getUser(HttpServletRequest request) {
+        LoginUser userInfo = SecurityUtils.getUserInfo();
+        if (userInfo != null && userInfo.getUsername() != null) {
+            return userInfo.getUsername();
+        }
+        return request.getRemoteAddr();
+    }
+}
@@ -218,7 +218,7 @@ public class PsController {
 
             // 订阅 zlm启动事件, 新的zlm也会从这里进入系统
             OtherPsSendInfo finalSendInfo = sendInfo;
-            hookSubscribe.removeSubscribe(hook);
+            hookSubscribe.removeAll(HookType.on_media_arrival, app, stream);
             hookSubscribe.addSubscribe(hook,
                     (hookData)->{
                         dynamicTask.stop(uuid);
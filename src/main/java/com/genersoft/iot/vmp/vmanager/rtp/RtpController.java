@@ -261,7 +261,7 @@ public class RtpController {
             }, 10000);
 
             // 订阅 zlm启动事件, 新的zlm也会从这里进入系统
-            hookSubscribe.removeSubscribe(hook);
+            hookSubscribe.removeAll(HookType.on_media_arrival, app, stream);
             OtherRtpSendInfo finalSendInfo = sendInfo;
             hookSubscribe.addSubscribe(hook,
                     (hookData)->{
@@ -2,22 +2,46 @@ package com.genersoft.iot.vmp.vmanager.server;
 
 import com.alibaba.fastjson2.JSON;
 import com.alibaba.fastjson2.JSONObject;
+import com.genersoft.iot.vmp.common.LatencyInfo;
 import com.genersoft.iot.vmp.common.SystemAllInfo;
 import com.genersoft.iot.vmp.common.VersionPo;
 import com.genersoft.iot.vmp.common.enums.ChannelDataType;
+import com.genersoft.iot.vmp.conf.CloudRecordTimer;
+import com.genersoft.iot.vmp.conf.DynamicTask;
+import com.genersoft.iot.vmp.conf.DynamicTaskInfo;
 import com.genersoft.iot.vmp.conf.SipConfig;
 import com.genersoft.iot.vmp.conf.UserSetting;
 import com.genersoft.iot.vmp.conf.VersionInfo;
 import com.genersoft.iot.vmp.conf.exception.ControllerException;
+import com.genersoft.iot.vmp.conf.redis.RedisRpcConfig;
+import com.genersoft.iot.vmp.conf.redis.bean.RedisRpcUriInfo;
 import com.genersoft.iot.vmp.conf.security.JwtUtils;
+import com.genersoft.iot.vmp.gb28181.bean.CatalogSendInfo;
+import com.genersoft.iot.vmp.gb28181.bean.SipDispatcherLaneInfo;
+import com.genersoft.iot.vmp.gb28181.bean.SipSubscribeInfo;
+import com.genersoft.iot.vmp.gb28181.event.SipSubscribe;
 import com.genersoft.iot.vmp.gb28181.service.IDeviceChannelService;
 import com.genersoft.iot.vmp.gb28181.service.IDeviceService;
+import com.genersoft.iot.vmp.gb28181.transmit.SIPDispatcher;
+import com.genersoft.iot.vmp.gb28181.transmit.cmd.impl.CatalogResponseSender;
+import com.genersoft.iot.vmp.media.bean.MediaHookQueueInfo;
 import com.genersoft.iot.vmp.media.bean.MediaInfo;
+import com.genersoft.iot.vmp.media.bean.MediaNodeHealthInfo;
 import com.genersoft.iot.vmp.media.bean.MediaServer;
 import com.genersoft.iot.vmp.media.event.mediaServer.MediaServerChangeEvent;
+import com.genersoft.iot.vmp.media.scheduler.MediaNodeScheduler;
+import com.genersoft.iot.vmp.media.scheduler.MediaNodeState;
 import com.genersoft.iot.vmp.media.service.IMediaServerService;
+import com.genersoft.iot.vmp.media.zlm.ZLMHookQueue;
+import com.genersoft.iot.vmp.media.zlm.ZLMMediaServerStatusManager;
+import com.genersoft.iot.vmp.media.zlm.ZLMRESTfulUtils;
+import com.genersoft.iot.vmp.service.IMobilePositionService;
+import com.genersoft.iot.vmp.service.bean.CloudRecordRetentionInfo;
 import com.genersoft.iot.vmp.service.bean.MediaServerLoad;
+import com.genersoft.iot.vmp.service.bean.MobilePositionQueueInfo;
 import com.genersoft.iot.vmp.storager.IRedisCatchStorage;
+import com.genersoft.iot.vmp.storager.cache.NearCacheInfo;
+import com.genersoft.iot.vmp.storager.cache.NearCacheManager;
 import com.genersoft.iot.vmp.streamProxy.service.IStreamProxyService;
 import com.genersoft.iot.vmp.streamPush.service.IStreamPushService;
 import com.genersoft.iot.vmp.vmanager.bean.ErrorCode;
@@ -89,6 +113,42 @@ public class ServerController {
     @Autowired
     private ApplicationEventPublisher applicationEventPublisher;
 
+    @Autowired
+    private SIPDispatcher sipDispatcher;
+
+    @Autowired
+    private NearCacheManager nearCacheManager;
+
+    @Autowired
+    private DynamicTask dynamicTask;
+
+    @Autowired
+    private SipSubscribe sipSubscribe;
+
+    @Autowired
+    private RedisRpcConfig redisRpcConfig;
+
+    @Autowired
+    private MediaNodeScheduler mediaNodeScheduler;
+
+    @Autowired
+    private ZLMRESTfulUtils zlmresTfulUtils;
+
+    @Autowired
+    private CatalogResponseSender catalogResponseSender;
+
+    @Autowired
+    private ZLMMediaServerStatusManager zlmMediaServerStatusManager;
+
+    @Autowired
+    private ZLMHookQueue zlmHookQueue;
+
+    @Autowired
+    private IMobilePositionService mobilePositionService;
+
+    @Autowired
+    private CloudRecordTimer cloudRecordTimer;
+
 
     @GetMapping(value = "/media_server/list")
     @ResponseBody
@@ -257,6 +317,100 @@ public class ServerController {
         return result;
     }
 
+    @GetMapping(value = "/media_server/scheduler")
+    @ResponseBody
+    @Operation(summary = "获取流媒体节点调度状态", security = @SecurityRequirement(name = JwtUtils.HEADER))
+    public List<MediaNodeState> getMediaSchedulerInfo() {
+        return mediaNodeScheduler.getStateList();
+    }
+
+    @GetMapping(value = "/media_server/latency")
+    @ResponseBody
+    @Operation(summary = "获取ZLM接口调用耗时, 按接口和节点统计", security = @SecurityRequirement(name = JwtUtils.HEADER))
+    public List<LatencyInfo> getMediaServerLatency() {
+        return zlmresTfulUtils.getLatencyList();
+    }
+
+    @GetMapping(value = "/media_server/health")
+    @ResponseBody
+    @Operation(summary = "获取ZLM节点的健康检查和熔断状态", security = @SecurityRequirement(name = JwtUtils.HEADER))
+    public List<MediaNodeHealthInfo> getMediaServerHealth() {
+        return zlmMediaServerStatusManager.getHealthList();
+    }
+
+    @GetMapping(value = "/media_server/hook")
+    @ResponseBody
+    @Operation(summary = "获取ZLM hook异步处理队列的状态, 按节点统计", security = @SecurityRequirement(name = JwtUtils.HEADER))
+    public List<MediaHookQueueInfo> getMediaServerHookQueue() {
+        return zlmHookQueue.getInfoList();
+    }
+
+    @GetMapping(value = "/mobile_position/queue")
+    @ResponseBody
+    @Operation(summary = "获取移动位置写入队列的状态", security = @SecurityRequirement(name = JwtUtils.HEADER))
+    public MobilePositionQueueInfo getMobilePositionQueue() {
+        return mobilePositionService.getQueueInfo();
+    }
+
+    @GetMapping(value = "/cloud_record/retention")
+    @ResponseBody
+    @Operation(summary = "获取录像清理的进度, 按节点统计", security = @SecurityRequirement(name = JwtUtils.HEADER))
+    public List<CloudRecordRetentionInfo> getCloudRecordRetention() {
+        return cloudRecordTimer.getInfoList();
+    }
+
+    @GetMapping(value = "/catalog/send")
+    @ResponseBody
+    @Operation(summary = "获取正在向上级平台回复目录的进度", security = @SecurityRequirement(name = JwtUtils.HEADER))
+    public List<CatalogSendInfo> getCatalogSendInfo() {
+        return catalogResponseSender.getInfoList();
+    }
+
+    @GetMapping(value = "/sip/dispatcher")
+    @ResponseBody
+    @Operation(summary = "获取SIP消息分发通道状态", security = @SecurityRequirement(name = JwtUtils.HEADER))
+    public List<SipDispatcherLaneInfo> getSipDispatcherInfo() {
+        return sipDispatcher.getLaneInfoList();
+    }
+
+    @GetMapping(value = "/sip/transaction")
+    @ResponseBody
+    @Operation(summary = "获取等待回复的SIP事务统计", security = @SecurityRequirement(name = JwtUtils.HEADER))
+    public SipSubscribeInfo getSipTransactionInfo() {
+        return sipSubscribe.getInfo();
+    }
+
+    @GetMapping(value = "/sip/latency")
+    @ResponseBody
+    @Operation(summary = "获取设备的SIP回复耗时", security = @SecurityRequirement(name = JwtUtils.HEADER))
+    @Parameter(name = "deviceId", description = "设备国标编号, 为空时返回平均耗时最高的设备")
+    @Parameter(name = "count", description = "返回的设备数量, 默认20")
+    public List<LatencyInfo> getSipLatency(@RequestParam(required = false) String deviceId,
+                                           @RequestParam(required = false, defaultValue = "20") Integer count) {
+        return sipSubscribe.getLatencyList(deviceId, count);
+    }
+
+    @GetMapping(value = "/redis-rpc/info")
+    @ResponseBody
+    @Operation(summary = "获取集群节点间调用统计", security = @SecurityRequirement(name = JwtUtils.HEADER))
+    public List<RedisRpcUriInfo> getRedisRpcInfo() {
+        return redisRpcConfig.getUriInfoList();
+    }
+
+    @GetMapping(value = "/cache/info")
+    @ResponseBody
+    @Operation(summary = "获取本地缓存统计信息", security = @SecurityRequirement(name = JwtUtils.HEADER))
+    public List<NearCacheInfo> getNearCacheInfo() {
+        return nearCacheManager.getInfoList();
+    }
+
+    @GetMapping(value = "/dynamic-task/info")
+    @ResponseBody
+    @Operation(summary = "获取动态定时任务运行状态", security = @SecurityRequirement(name = JwtUtils.HEADER))
+    public DynamicTaskInfo getDynamicTaskInfo() {
+        return dynamicTask.getInfo();
+    }
+
     @GetMapping(value = "/resource/info")
     @ResponseBody
     @Operation(summary = "获取负载信息", security = @SecurityRequirement(name = JwtUtils.HEADER))
@@ -0,0 +1,153 @@
+package com.genersoft.iot.vmp.gb28181.dao;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * 通道树和通道列表查询的性能测试，直接运行main方法
+ * 参数：jdbcUrl 用户名 密码 [通道数...]，数据库需要先执行初始化或更新脚本，驱动使用项目依赖中的mysql/postgresql/kingbase驱动；
+ * 写入指定数量的测试通道(data_device_id = -1)，对比coalesce(gb_xxx, xxx)和生效值字段(effective_xxx)作为条件时的耗时，结束后删除测试通道
+ */
+public class ChannelQueryBenchmark {
+
+    private static final int TEST_DATA_DEVICE_ID = -1;
+
+    private static final int CIVIL_CODE_COUNT = 100;
+
+    private static final int GROUP_COUNT = 1000;
+
+    private static final int ROUNDS = 20;
+
+    public static void main(String[] args) throws SQLException {
+        if (args.length < 3) {
+            System.out.println("参数：jdbcUrl 用户名 密码 [通道数...]，例如：jdbc:mysql://127.0.0.1:3306/wvp root 12345678 100000 1000000");
+            return;
+        }
+        int[] counts = {100000, 1000000};
+        if (args.length > 3) {
+            counts = new int[args.length - 3];
+            for (int i = 3; i < args.length; i++) {
+                counts[i - 3] = Integer.parseInt(args[i]);
+            }
+        }
+        try (Connection connection = DriverManager.getConnection(args[0], args[1], args[2])) {
+            for (int count : counts) {
+                clean(connection);
+                insert(connection, count);
+                System.out.printf("通道数: %d%n", count);
+                String civilCode = civilCode(CIVIL_CODE_COUNT / 2);
+                String group = group(GROUP_COUNT / 2);
+                String deviceId = deviceId(count / 2);
+                run(connection, "行政区划节点下的在线通道",
+                        "select id from wvp_device_channel where channel_type = 0 and coalesce(gb_civil_code, civil_code) = ? and coalesce(gb_status, status) = 'ON'",
+                        "select id from wvp_device_channel where channel_type = 0 and effective_civil_code = ? and effective_status = 'ON'",
+                        civilCode);
+                run(connection, "分组节点下的通道",
+                        "select id from wvp_device_channel where channel_type = 0 and coalesce(gb_parent_id, parent_id) = ?",
+                        "select id from wvp_device_channel where channel_type = 0 and effective_parent_id = ?",
+                        group);
+                run(connection, "行政区划节点的通道数",
+                        "select count(1) from wvp_device_channel where coalesce(gb_civil_code, civil_code) = ?",
+                        "select count(1) from wvp_device_channel where effective_civil_code = ?",
+                        civilCode);
+                run(connection, "按编号查询通道",
+                        "select id from wvp_device_channel where channel_type = 0 and coalesce(gb_device_id, device_id) = ?",
+                        "select id from wvp_device_channel where channel_type = 0 and effective_device_id = ?",
+                        deviceId);
+            }
+        } finally {
+            try (Connection connection = DriverManager.getConnection(args[0], args[1], args[2])) {
+                clean(connection);
+            }
+        }
+    }
+
+    private static String civilCode(int index) {
+        return String.format("3402%04d", index);
+    }
+
+    private static String group(int index) {
+        return String.format("34020000002160%06d", index);
+    }
+
+    private static String deviceId(int index) {
+        return String.format("340200%08d%06d", index / 1000000, index % 1000000);
+    }
+
+    /**
+     * 一半的通道使用国标字段覆盖原始值，和实际数据中编辑过的通道一致
+     */
+    private static void insert(Connection connection, int count) throws SQLException {
+        long start = System.currentTimeMillis();
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        String sql = "insert into wvp_device_channel (device_id, name, civil_code, parent_id, business_group_id, status, " +
+                " gb_civil_code, gb_parent_id, gb_status, create_time, update_time, channel_type, data_type, data_device_id) " +
+                " values (?, ?, ?, ?, ?, ?, ?, ?, ?, '2025-01-01 00:00:00', '2025-01-01 00:00:00', 0, 1, ?)";
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            for (int i = 0; i < count; i++) {
+                boolean override = i % 2 == 0;
+                statement.setString(1, deviceId(i));
+                statement.setString(2, "通道" + i);
+                statement.setString(3, override ? null : civilCode(i % CIVIL_CODE_COUNT));
+                statement.setString(4, override ? null : group(i % GROUP_COUNT));
+                statement.setString(5, group(0));
+                statement.setString(6, override ? null : (i % 3 == 0 ? "OFF" : "ON"));
+                statement.setString(7, override ? civilCode(i % CIVIL_CODE_COUNT) : null);
+                statement.setString(8, override ? group(i % GROUP_COUNT) : null);
+                statement.setString(9, override ? (i % 3 == 0 ? "OFF" : "ON") : null);
+                statement.setInt(10, TEST_DATA_DEVICE_ID);
+                statement.addBatch();
+                if (i % 1000 == 999) {
+                    statement.executeBatch();
+                }
+            }
+            statement.executeBatch();
+            connection.commit();
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+        System.out.printf("写入%d个通道， 耗时：%dms%n", count, System.currentTimeMillis() - start);
+    }
+
+    private static void clean(Connection connection) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement("delete from wvp_device_channel where data_device_id = ?")) {
+            statement.setInt(1, TEST_DATA_DEVICE_ID);
+            statement.executeUpdate();
+        }
+    }
+
+    private static void run(Connection connection, String name, String coalesceSql, String effectiveSql, String param) throws SQLException {
+        // 预热
+        query(connection, coalesceSql, param);
+        query(connection, effectiveSql, param);
+        long start = System.nanoTime();
+        int rows = 0;
+        for (int i = 0; i < ROUNDS; i++) {
+            rows = query(connection, coalesceSql, param);
+        }
+        double coalesceMs = (System.nanoTime() - start) / 1e6 / ROUNDS;
+        start = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++) {
+            query(connection, effectiveSql, param);
+        }
+        double effectiveMs = (System.nanoTime() - start) / 1e6 / ROUNDS;
+        System.out.printf("  %s(%d行): coalesce %.2fms, 生效值字段 %.2fms%n", name, rows, coalesceMs, effectiveMs);
+    }
+
+    private static int query(Connection connection, String sql, String param) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            statement.setString(1, param);
+            int rows = 0;
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    rows++;
+                }
+            }
+            return rows;
+        }
+    }
+}
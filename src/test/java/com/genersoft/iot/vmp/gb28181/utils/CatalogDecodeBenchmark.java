@@ -0,0 +1,156 @@
+package com.genersoft.iot.vmp.gb28181.utils;
+
+import com.genersoft.iot.vmp.gb28181.bean.DeviceChannel;
+import com.genersoft.iot.vmp.gb28181.transmit.event.request.SIPRequestProcessorParent;
+import org.dom4j.Element;
+import org.springframework.util.ReflectionUtils;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Field;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * 目录查询回复解析的性能测试，直接运行main方法
+ * 对比dom4j(SIPRequestProcessorParent.getRootElement + DeviceChannel.decode)和{@link CatalogXmlDecoder}的吞吐量和每个通道的内存分配；
+ * 参数为抓取的目录消息体文件(按gb2312编码)，不传时生成每页20个通道的模拟消息
+ */
+public class CatalogDecodeBenchmark {
+
+    private static final String CHARSET = "gb2312";
+
+    private static final int PAGE_COUNT = 500;
+
+    private static final int ITEMS_PER_PAGE = 20;
+
+    private static final int ROUNDS = 5;
+
+    private static final com.sun.management.ThreadMXBean THREAD_MX_BEAN =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    public static void main(String[] args) throws Exception {
+        List<byte[]> pages = new ArrayList<>();
+        if (args.length > 0) {
+            for (String path : args) {
+                pages.add(Files.readAllBytes(Paths.get(path)));
+            }
+        } else {
+            for (int i = 0; i < PAGE_COUNT; i++) {
+                pages.add(page(i));
+            }
+        }
+        // 两种方式的解析结果需要逐个通道、逐个字段一致
+        List<Field> fieldList = catalogFields();
+        int channelCount = 0;
+        for (int i = 0; i < pages.size(); i++) {
+            List<DeviceChannel> dom4jList = decodeByDom4j(pages.get(i));
+            List<DeviceChannel> staxList = CatalogXmlDecoder.decode(pages.get(i), CHARSET).getChannelList();
+            if (dom4jList.size() != staxList.size()) {
+                throw new IllegalStateException("解析结果不一致, 第" + i + "页, dom4j: " + dom4jList.size() + "个通道, stax: " + staxList.size() + "个通道");
+            }
+            for (int j = 0; j < dom4jList.size(); j++) {
+                compare(fieldList, dom4jList.get(j), staxList.get(j), i, j);
+            }
+            channelCount += dom4jList.size();
+        }
+        for (int round = 0; round < ROUNDS; round++) {
+            run("dom4j", pages, channelCount, true);
+            run("stax ", pages, channelCount, false);
+        }
+    }
+
+    /**
+     * 目录消息中解析的字段，与两种解析方式使用的字段一致
+     */
+    private static List<Field> catalogFields() {
+        List<Field> fieldList = new ArrayList<>();
+        for (Field field : DeviceChannel.class.getDeclaredFields()) {
+            if (field.getAnnotation(MessageElementForCatalog.class) != null) {
+                ReflectionUtils.makeAccessible(field);
+                fieldList.add(field);
+            }
+        }
+        return fieldList;
+    }
+
+    private static void compare(List<Field> fieldList, DeviceChannel expected, DeviceChannel actual, int pageIndex, int itemIndex) {
+        for (Field field : fieldList) {
+            Object expectedValue = ReflectionUtils.getField(field, expected);
+            Object actualValue = ReflectionUtils.getField(field, actual);
+            if (!Objects.equals(expectedValue, actualValue)) {
+                throw new IllegalStateException(String.format("解析结果不一致, 第%d页第%d个通道(%s), 字段%s, dom4j: %s, stax: %s",
+                        pageIndex, itemIndex, expected.getDeviceId(), field.getName(), expectedValue, actualValue));
+            }
+        }
+    }
+
+    private static void run(String name, List<byte[]> pages, int channelCount, boolean dom4j) throws Exception {
+        long threadId = Thread.currentThread().getId();
+        long allocated = THREAD_MX_BEAN.getThreadAllocatedBytes(threadId);
+        long start = System.nanoTime();
+        int count = 0;
+        for (byte[] page : pages) {
+            if (dom4j) {
+                count += decodeByDom4j(page).size();
+            } else {
+                count += CatalogXmlDecoder.decode(page, CHARSET).getChannelList().size();
+            }
+        }
+        long nanos = System.nanoTime() - start;
+        allocated = THREAD_MX_BEAN.getThreadAllocatedBytes(threadId) - allocated;
+        System.out.printf("%s 通道数: %d, 耗时: %.1fms, 吞吐: %.0f通道/s, 分配: %d字节/通道%n", name, count,
+                nanos / 1e6, channelCount / (nanos / 1e9), allocated / channelCount);
+    }
+
+    /**
+     * 原有的解析方式：SIPRequestProcessorParent.getRootElement去掉未转义的&后按设备字符集使用dom4j解析，再逐个DeviceChannel.decode
+     */
+    private static List<DeviceChannel> decodeByDom4j(byte[] rawContent) throws Exception {
+        Element deviceListElement = SIPRequestProcessorParent.getRootElement(rawContent, CHARSET).element("DeviceList");
+        List<DeviceChannel> channelList = new ArrayList<>();
+        if (deviceListElement != null) {
+            Iterator<Element> iterator = deviceListElement.elementIterator();
+            while (iterator.hasNext()) {
+                Element itemDevice = iterator.next();
+                if (itemDevice.element("DeviceID") == null) {
+                    continue;
+                }
+                channelList.add(DeviceChannel.decode(itemDevice));
+            }
+        }
+        return channelList;
+    }
+
+    /**
+     * 模拟NVR的目录回复，字段与常见设备一致
+     */
+    private static byte[] page(int pageIndex) {
+        StringBuilder xml = new StringBuilder(ITEMS_PER_PAGE * 700);
+        xml.append("<?xml version=\"1.0\" encoding=\"GB2312\"?>\r\n<Response>\r\n<CmdType>Catalog</CmdType>\r\n");
+        xml.append("<SN>1</SN>\r\n<DeviceID>34020000001110000001</DeviceID>\r\n");
+        xml.append("<SumNum>").append(PAGE_COUNT * ITEMS_PER_PAGE).append("</SumNum>\r\n");
+        xml.append("<DeviceList Num=\"").append(ITEMS_PER_PAGE).append("\">\r\n");
+        for (int i = 0; i < ITEMS_PER_PAGE; i++) {
+            int index = pageIndex * ITEMS_PER_PAGE + i;
+            xml.append("<Item>\r\n");
+            xml.append("<DeviceID>").append(String.format("3402000000131%07d", index)).append("</DeviceID>\r\n");
+            xml.append("<Name>摄像机 ").append(index).append(" 号 A&B</Name>\r\n");
+            xml.append("<Manufacturer>Hikvision</Manufacturer>\r\n<Model>IP Camera</Model>\r\n<Owner>Owner</Owner>\r\n");
+            xml.append("<CivilCode>3402000000</CivilCode>\r\n<Address>东门 &lt;1&gt; 号</Address>\r\n");
+            xml.append("<Parental>0</Parental>\r\n<ParentID>34020000001110000001</ParentID>\r\n");
+            xml.append("<SafetyWay>0</SafetyWay>\r\n<RegisterWay>1</RegisterWay>\r\n<Secrecy>0</Secrecy>\r\n");
+            xml.append("<IPAddress>192.168.1.").append(index % 250 + 1).append("</IPAddress>\r\n<Port>8000</Port>\r\n");
+            xml.append("<Status>ON</Status>\r\n<Longitude>117.2").append(index % 1000).append("</Longitude>\r\n");
+            xml.append("<Latitude>31.8").append(index % 1000).append("</Latitude>\r\n");
+            xml.append("<Info>\r\n<PTZType>1</PTZType>\r\n<DownloadSpeed>1/2/4</DownloadSpeed>\r\n</Info>\r\n");
+            xml.append("</Item>\r\n");
+        }
+        xml.append("</DeviceList>\r\n</Response>\r\n");
+        return xml.toString().getBytes(Charset.forName(CHARSET));
+    }
+}
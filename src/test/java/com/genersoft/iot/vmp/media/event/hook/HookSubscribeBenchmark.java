@@ -0,0 +1,83 @@
+package com.genersoft.iot.vmp.media.event.hook;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * HookSubscribe的性能测试，直接运行main方法
+ * 保持10万个订阅，统计添加、通知查找、移除的耗时，以及短过期时间订阅的实际过期延迟
+ */
+public class HookSubscribeBenchmark {
+
+    private static final int SUBSCRIPTION_COUNT = 100000;
+
+    private static final int LOOKUP_ROUNDS = 20;
+
+    public static void main(String[] args) throws InterruptedException {
+        HookSubscribe hookSubscribe = new HookSubscribe();
+        hookSubscribe.init();
+        try {
+            // 预热
+            run(hookSubscribe);
+            run(hookSubscribe);
+            run(hookSubscribe);
+            expire(hookSubscribe);
+        } finally {
+            hookSubscribe.destroy();
+        }
+    }
+
+    private static void run(HookSubscribe hookSubscribe) {
+        HookType[] hookTypes = HookType.values();
+        String[] apps = {"rtp", "live", "broadcast", "talk"};
+        List<Hook> hooks = new ArrayList<>(SUBSCRIPTION_COUNT);
+        String[] streams = new String[SUBSCRIPTION_COUNT];
+        for (int i = 0; i < SUBSCRIPTION_COUNT; i++) {
+            streams[i] = String.format("%08X", i);
+            hooks.add(Hook.getInstance(hookTypes[i % hookTypes.length], apps[i % apps.length], streams[i]));
+        }
+
+        long start = System.nanoTime();
+        for (Hook hook : hooks) {
+            hookSubscribe.addSubscribe(hook, hookData -> {});
+        }
+        long addNanos = System.nanoTime() - start;
+
+        long found = 0;
+        start = System.nanoTime();
+        for (int round = 0; round < LOOKUP_ROUNDS; round++) {
+            for (int i = 0; i < SUBSCRIPTION_COUNT; i++) {
+                found += hookSubscribe.find(hookTypes[i % hookTypes.length], apps[i % apps.length], streams[i]).length;
+                // 没有订阅的流
+                found += hookSubscribe.find(hookTypes[(i + 1) % hookTypes.length], apps[i % apps.length], streams[i]).length;
+            }
+        }
+        long lookupNanos = System.nanoTime() - start;
+        long lookupCount = (long) LOOKUP_ROUNDS * SUBSCRIPTION_COUNT * 2;
+
+        start = System.nanoTime();
+        for (Hook hook : hooks) {
+            hookSubscribe.removeSubscribe(hook);
+        }
+        long removeNanos = System.nanoTime() - start;
+
+        System.out.printf("订阅数: %d, 添加: %.1fns/个, 查找: %.1fns/次(命中%d), 移除: %.1fns/个, 剩余: %d%n",
+                SUBSCRIPTION_COUNT, addNanos / (double) SUBSCRIPTION_COUNT, lookupNanos / (double) lookupCount,
+                found, removeNanos / (double) SUBSCRIPTION_COUNT, hookSubscribe.size());
+    }
+
+    private static void expire(HookSubscribe hookSubscribe) throws InterruptedException {
+        long expireMs = 2000;
+        for (int i = 0; i < SUBSCRIPTION_COUNT; i++) {
+            Hook hook = Hook.getInstance(HookType.on_media_arrival, "rtp", String.format("%08X", i));
+            hook.setExpireTime(System.currentTimeMillis() + expireMs);
+            hookSubscribe.addSubscribe(hook, hookData -> {});
+        }
+        long start = System.currentTimeMillis();
+        while (hookSubscribe.size() > 0) {
+            Thread.sleep(10);
+        }
+        System.out.printf("订阅数: %d, 过期时间: %dms, 全部过期实际耗时: %dms%n",
+                SUBSCRIPTION_COUNT, expireMs, System.currentTimeMillis() - start);
+    }
+}
@@ -0,0 +1,181 @@
+package com.genersoft.iot.vmp.media.scheduler;
+
+import com.genersoft.iot.vmp.media.scheduler.impl.ConsistentHashSelectStrategy;
+import com.genersoft.iot.vmp.media.scheduler.impl.LeastStreamsSelectStrategy;
+import com.genersoft.iot.vmp.media.scheduler.impl.PowerOfTwoSelectStrategy;
+import com.genersoft.iot.vmp.media.scheduler.impl.WeightedLoadSelectStrategy;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * 节点选择策略的性能测试，直接运行main方法
+ * 按照点播/停止的序列在若干虚拟节点上回放，统计负载的均衡程度、通道的节点亲和性和选择耗时，不访问真实的流媒体节点
+ * 参数：[节点数] [操作数] [通道数] [随机数种子]，默认 8 100000 5000 1
+ */
+public class MediaNodeSchedulerBenchmark {
+
+    public static void main(String[] args) {
+        int nodeCount = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        int operationCount = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+        int channelCount = args.length > 2 ? Integer.parseInt(args[2]) : 5000;
+        long seed = args.length > 3 ? Long.parseLong(args[3]) : 1;
+
+        Map<String, IMediaNodeSelectStrategy> strategyMap = new LinkedHashMap<>();
+        strategyMap.put("leastStreams", new LeastStreamsSelectStrategy());
+        strategyMap.put("weightedLoad", new WeightedLoadSelectStrategy());
+        strategyMap.put("consistentHash", new ConsistentHashSelectStrategy());
+        strategyMap.put("powerOfTwo", new PowerOfTwoSelectStrategy());
+
+        List<TraceItem> trace = randomTrace(operationCount, channelCount, seed);
+        // 预热
+        for (IMediaNodeSelectStrategy strategy : strategyMap.values()) {
+            run(strategy, nodeCount, trace);
+        }
+        System.out.printf("节点数: %d, 操作数: %d, 通道数: %d, 种子: %d%n", nodeCount, operationCount, channelCount, seed);
+        for (Map.Entry<String, IMediaNodeSelectStrategy> entry : strategyMap.entrySet()) {
+            Result result = run(entry.getValue(), nodeCount, trace);
+            System.out.printf("%-16s 点播: %d, 停止: %d, 单节点最大流数: %d, 最大不均衡度: %.3f, 再次点播同节点比例: %.3f, 选择耗时: %dns/次%n",
+                    entry.getKey(), result.playCount, result.stopCount, result.peakStreamCount, result.peakImbalance,
+                    result.sameNodeRate, result.avgSelectNs);
+        }
+    }
+
+    /**
+     * 序列中的一个操作
+     */
+    private static class TraceItem {
+
+        private final boolean play;
+
+        private final String key;
+
+        private TraceItem(boolean play, String key) {
+            this.play = play;
+            this.key = key;
+        }
+    }
+
+    private static class Result {
+        private int playCount;
+        private int stopCount;
+        private int peakStreamCount;
+        /**
+         * 过程中最大流数量与平均流数量之比的最大值，越接近1越均衡
+         */
+        private double peakImbalance;
+        /**
+         * 同一通道再次点播时落在上一次节点的比例
+         */
+        private double sameNodeRate;
+        private long avgSelectNs;
+    }
+
+    /**
+     * 生成随机的点播/停止序列，通道的热度按照齐夫分布，少量通道被频繁点播
+     * @param operationCount 操作的数量
+     * @param channelCount 通道的数量
+     * @param seed 随机数种子，相同的种子生成相同的序列
+     */
+    private static List<TraceItem> randomTrace(int operationCount, int channelCount, long seed) {
+        Random random = new Random(seed);
+        double[] cumulative = new double[channelCount];
+        double sum = 0;
+        for (int i = 0; i < channelCount; i++) {
+            sum += 1.0 / (i + 1);
+            cumulative[i] = sum;
+        }
+        List<TraceItem> trace = new ArrayList<>(operationCount);
+        List<String> playing = new ArrayList<>();
+        Set<String> playingSet = new HashSet<>();
+        for (int i = 0; i < operationCount; i++) {
+            // 播放中的通道越多，停止的概率越大，使流数量在一定范围内波动
+            boolean stop = !playing.isEmpty() && random.nextInt(channelCount) < playing.size();
+            if (stop) {
+                int index = random.nextInt(playing.size());
+                String key = playing.get(index);
+                playing.set(index, playing.get(playing.size() - 1));
+                playing.remove(playing.size() - 1);
+                playingSet.remove(key);
+                trace.add(new TraceItem(false, key));
+            } else {
+                double value = random.nextDouble() * sum;
+                int index = 0;
+                while (index < channelCount - 1 && cumulative[index] < value) {
+                    index++;
+                }
+                String key = "channel_" + index;
+                if (playingSet.add(key)) {
+                    playing.add(key);
+                }
+                trace.add(new TraceItem(true, key));
+            }
+        }
+        return trace;
+    }
+
+    /**
+     * 回放序列，同一通道已经在播放时不再分配节点
+     */
+    private static Result run(IMediaNodeSelectStrategy strategy, int nodeCount, List<TraceItem> trace) {
+        List<MediaNodeState> nodes = new ArrayList<>(nodeCount);
+        for (int i = 0; i < nodeCount; i++) {
+            MediaNodeState state = new MediaNodeState(String.format("node_%03d", i));
+            state.setOnline(true);
+            nodes.add(state);
+        }
+        Map<String, MediaNodeState> playingMap = new HashMap<>();
+        Map<String, String> lastNodeMap = new HashMap<>();
+        Result result = new Result();
+        int replayCount = 0;
+        int sameNodeCount = 0;
+        int totalStreamCount = 0;
+        double peakImbalance = 1;
+        long selectNanos = 0;
+
+        for (TraceItem item : trace) {
+            if (item.play) {
+                if (playingMap.containsKey(item.key)) {
+                    continue;
+                }
+                long start = System.nanoTime();
+                MediaNodeState state = strategy.select(nodes, item.key);
+                selectNanos += System.nanoTime() - start;
+                result.playCount++;
+                state.addStreamCount(1);
+                totalStreamCount++;
+                playingMap.put(item.key, state);
+                String lastNode = lastNodeMap.put(item.key, state.getId());
+                if (lastNode != null) {
+                    replayCount++;
+                    if (lastNode.equals(state.getId())) {
+                        sameNodeCount++;
+                    }
+                }
+                int count = state.getStreamCount();
+                result.peakStreamCount = Math.max(result.peakStreamCount, count);
+                // 流数量过少时比值没有意义
+                if (totalStreamCount >= nodeCount) {
+                    peakImbalance = Math.max(peakImbalance, count / ((double) totalStreamCount / nodeCount));
+                }
+            } else {
+                MediaNodeState state = playingMap.remove(item.key);
+                if (state != null) {
+                    state.addStreamCount(-1);
+                    totalStreamCount--;
+                    result.stopCount++;
+                }
+            }
+        }
+        result.peakImbalance = peakImbalance;
+        result.sameNodeRate = replayCount == 0 ? 0 : (double) sameNodeCount / replayCount;
+        result.avgSelectNs = result.playCount == 0 ? 0 : selectNanos / result.playCount;
+        return result;
+    }
+}
@@ -0,0 +1,161 @@
+package com.genersoft.iot.vmp.utils;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Enumeration;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 不压缩zip写入和Range解析的测试
+ */
+public class StoredZipWriterTest {
+
+    private static final long TIME = 1700000000000L;
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void testReadByZipFile() throws IOException {
+        byte[][] contents = {randomBytes(1, 100000), new byte[0], randomBytes(2, 3000), randomBytes(3, 1)};
+        StoredZipWriter zipWriter = buildZip(contents, new AtomicInteger());
+        byte[] body = writeRange(zipWriter, 0, zipWriter.getLength() - 1);
+        assertEquals(zipWriter.getLength(), body.length);
+
+        File zip = tempDir.resolve("record.zip").toFile();
+        Files.write(zip.toPath(), body);
+        try (ZipFile zipFile = new ZipFile(zip)) {
+            assertEquals(contents.length, zipFile.size());
+            Enumeration<? extends ZipEntry> entries = zipFile.entries();
+            for (int i = 0; i < contents.length; i++) {
+                ZipEntry entry = entries.nextElement();
+                assertEquals("录像_" + i + ".mp4", entry.getName());
+                assertEquals(ZipEntry.STORED, entry.getMethod());
+                assertEquals(contents[i].length, entry.getSize());
+                assertEquals(crc(contents[i]), entry.getCrc());
+                try (InputStream inputStream = zipFile.getInputStream(entry)) {
+                    assertArrayEquals(contents[i], readAll(inputStream));
+                }
+            }
+            assertFalse(entries.hasMoreElements());
+        }
+    }
+
+    @Test
+    public void testRangesJoinToFullBody() throws IOException {
+        byte[][] contents = {randomBytes(4, 50000), randomBytes(5, 20000), new byte[0], randomBytes(6, 70000)};
+        StoredZipWriter zipWriter = buildZip(contents, new AtomicInteger());
+        long length = zipWriter.getLength();
+        byte[] full = writeRange(zipWriter, 0, length - 1);
+
+        Random random = new Random(7);
+        for (int round = 0; round < 50; round++) {
+            // 按随机的位置切分后依次请求，模拟多次断点续传
+            ByteArrayOutputStream joined = new ByteArrayOutputStream();
+            long start = 0;
+            while (start < length) {
+                long end = Math.min(start + random.nextInt(40000), length - 1);
+                long[] range = StoredZipWriter.parseRange("bytes=" + start + "-" + end, length);
+                joined.write(writeRange(zipWriter, range[0], range[1]));
+                start = end + 1;
+            }
+            assertArrayEquals(full, joined.toByteArray());
+        }
+
+        long[] tail = StoredZipWriter.parseRange("bytes=-100", length);
+        byte[] tailBody = writeRange(zipWriter, tail[0], tail[1]);
+        assertEquals(100, tailBody.length);
+        for (int i = 0; i < tailBody.length; i++) {
+            assertEquals(full[(int) (length - 100 + i)], tailBody[i]);
+        }
+    }
+
+    @Test
+    public void testCrcOnlyOncePerEntry() throws IOException {
+        byte[][] contents = {randomBytes(8, 1000), randomBytes(9, 2000), randomBytes(10, 3000)};
+        AtomicInteger crcCount = new AtomicInteger();
+        StoredZipWriter zipWriter = buildZip(contents, crcCount);
+        long length = zipWriter.getLength();
+        writeRange(zipWriter, 0, 1500);
+        writeRange(zipWriter, length - 10, length - 1);
+        writeRange(zipWriter, 0, length - 1);
+        assertEquals(contents.length, crcCount.get());
+    }
+
+    @Test
+    public void testParseRange() {
+        assertArrayEquals(new long[]{0, 99}, StoredZipWriter.parseRange("bytes=0-99", 1000));
+        assertArrayEquals(new long[]{100, 999}, StoredZipWriter.parseRange("bytes=100-", 1000));
+        assertArrayEquals(new long[]{900, 999}, StoredZipWriter.parseRange("bytes=-100", 1000));
+        assertArrayEquals(new long[]{0, 999}, StoredZipWriter.parseRange("bytes=-5000", 1000));
+        assertArrayEquals(new long[]{500, 999}, StoredZipWriter.parseRange("bytes=500-5000", 1000));
+        assertArrayEquals(new long[]{0, 9}, StoredZipWriter.parseRange("bytes=0-9,20-29", 1000));
+        assertNull(StoredZipWriter.parseRange("bytes=1000-", 1000));
+        assertNull(StoredZipWriter.parseRange("bytes=500-100", 1000));
+        assertNull(StoredZipWriter.parseRange("bytes=-0", 1000));
+        assertNull(StoredZipWriter.parseRange("bytes=a-b", 1000));
+        assertNull(StoredZipWriter.parseRange("bytes=100", 1000));
+        assertNull(StoredZipWriter.parseRange("items=0-99", 1000));
+        assertNull(StoredZipWriter.parseRange("bytes=0-99", 0));
+    }
+
+    private StoredZipWriter buildZip(byte[][] contents, AtomicInteger crcCount) throws IOException {
+        StoredZipWriter zipWriter = new StoredZipWriter(entry -> {
+            crcCount.incrementAndGet();
+            return crc(Files.readAllBytes(entry.getFile().toPath()));
+        });
+        for (int i = 0; i < contents.length; i++) {
+            File file = tempDir.resolve(i + ".mp4").toFile();
+            Files.write(file.toPath(), contents[i]);
+            zipWriter.addEntry("录像_" + i + ".mp4", file, TIME + i * 1000L);
+        }
+        assertTrue(zipWriter.getLength() > 0);
+        return zipWriter;
+    }
+
+    private static byte[] writeRange(StoredZipWriter zipWriter, long start, long end) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        zipWriter.write(out, start, end);
+        assertEquals(end - start + 1, out.size());
+        return out.toByteArray();
+    }
+
+    private static byte[] randomBytes(long seed, int length) {
+        byte[] bytes = new byte[length];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+
+    private static long crc(byte[] bytes) {
+        CRC32 crc32 = new CRC32();
+        crc32.update(bytes);
+        return crc32.getValue();
+    }
+
+    private static byte[] readAll(InputStream inputStream) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = inputStream.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+}
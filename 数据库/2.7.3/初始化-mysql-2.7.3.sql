@@ -70,7 +70,8 @@ create table IF NOT EXISTS wvp_device_mobile_position
     speed           double precision,
     direction       double precision,
     report_source   character varying(50),
-    create_time     character varying(50)
+    create_time     character varying(50),
+    index idx_mobile_position_device_time (device_id, time)
 );
 
 drop table IF EXISTS wvp_device_channel;
@@ -159,8 +160,19 @@ create table IF NOT EXISTS wvp_device_channel
     gps_speed                    double precision,
     gps_altitude                 double precision,
     gps_direction                double precision,
+    effective_device_id          character varying(50) generated always as (coalesce(gb_device_id, device_id)) stored,
+    effective_name               character varying(255) generated always as (coalesce(gb_name, name)) stored,
+    effective_civil_code         character varying(255) generated always as (coalesce(gb_civil_code, civil_code)) stored,
+    effective_parent_id          character varying(255) generated always as (coalesce(gb_parent_id, parent_id)) stored,
+    effective_business_group_id  character varying(255) generated always as (coalesce(gb_business_group_id, business_group_id)) stored,
+    effective_status             character varying(50) generated always as (coalesce(gb_status, status)) stored,
     index (data_type),
     index (data_device_id),
+    index idx_device_channel_update_time (update_time),
+    index idx_device_channel_effective_device_id (effective_device_id),
+    index idx_device_channel_effective_civil_code (effective_civil_code, effective_status),
+    index idx_device_channel_effective_parent_id (effective_parent_id, effective_status),
+    index idx_device_channel_effective_business_group_id (effective_business_group_id),
     constraint uk_wvp_unique_channel unique (gb_device_id)
 );
 
@@ -365,7 +377,22 @@ create table IF NOT EXISTS wvp_cloud_record
     file_path       character varying(500),
     collect         bool default false,
     file_size       bigint,
-    time_len        double precision
+    time_len        double precision,
+    index idx_cloud_record_server_end_time (media_server_id, end_time)
+);
+
+drop table IF EXISTS wvp_cloud_record_day;
+create table IF NOT EXISTS wvp_cloud_record_day
+(
+    id              serial primary key,
+    app             character varying(255),
+    stream          character varying(255),
+    media_server_id character varying(50),
+    record_day      integer,
+    record_count    integer default 0,
+    file_size       bigint default 0,
+    time_len        double precision default 0,
+    constraint uk_cloud_record_day_app_stream_day unique (app, stream, media_server_id, record_day)
 );
 
 drop table IF EXISTS wvp_user;
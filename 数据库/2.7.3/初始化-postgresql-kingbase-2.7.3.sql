@@ -72,6 +72,7 @@ create table IF NOT EXISTS wvp_device_mobile_position
     report_source   character varying(50),
     create_time     character varying(50)
 );
+create index if not exists idx_mobile_position_device_time on wvp_device_mobile_position (device_id, time);
 
 drop table IF EXISTS wvp_device_channel;
 create table IF NOT EXISTS wvp_device_channel
@@ -159,11 +160,22 @@ create table IF NOT EXISTS wvp_device_channel
     gps_speed                    double precision,
     gps_altitude                 double precision,
     gps_direction                double precision,
+    effective_device_id          character varying(50) generated always as (coalesce(gb_device_id, device_id)) stored,
+    effective_name               character varying(255) generated always as (coalesce(gb_name, name)) stored,
+    effective_civil_code         character varying(255) generated always as (coalesce(gb_civil_code, civil_code)) stored,
+    effective_parent_id          character varying(255) generated always as (coalesce(gb_parent_id, parent_id)) stored,
+    effective_business_group_id  character varying(255) generated always as (coalesce(gb_business_group_id, business_group_id)) stored,
+    effective_status             character varying(50) generated always as (coalesce(gb_status, status)) stored,
     constraint uk_wvp_unique_channel unique (gb_device_id)
 );
 
 CREATE INDEX idx_data_type ON wvp_device_channel (data_type);
 CREATE INDEX idx_data_device_id ON wvp_device_channel (data_device_id);
+CREATE INDEX idx_device_channel_update_time ON wvp_device_channel (update_time);
+CREATE INDEX idx_device_channel_effective_device_id ON wvp_device_channel (effective_device_id);
+CREATE INDEX idx_device_channel_effective_civil_code ON wvp_device_channel (effective_civil_code, effective_status);
+CREATE INDEX idx_device_channel_effective_parent_id ON wvp_device_channel (effective_parent_id, effective_status);
+CREATE INDEX idx_device_channel_effective_business_group_id ON wvp_device_channel (effective_business_group_id);
 
 drop table IF EXISTS wvp_media_server;
 create table IF NOT EXISTS wvp_media_server
@@ -368,6 +380,21 @@ create table IF NOT EXISTS wvp_cloud_record
     file_size       int8,
     time_len        double precision
 );
+create index if not exists idx_cloud_record_server_end_time on wvp_cloud_record (media_server_id, end_time);
+
+drop table IF EXISTS wvp_cloud_record_day;
+create table IF NOT EXISTS wvp_cloud_record_day
+(
+    id              serial primary key,
+    app             character varying(255),
+    stream          character varying(255),
+    media_server_id character varying(50),
+    record_day      integer,
+    record_count    integer default 0,
+    file_size       bigint default 0,
+    time_len        double precision default 0,
+    constraint uk_cloud_record_day_app_stream_day unique (app, stream, media_server_id, record_day)
+);
 
 drop table IF EXISTS wvp_user;
 create table IF NOT EXISTS wvp_user
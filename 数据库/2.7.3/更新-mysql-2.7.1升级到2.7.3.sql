@@ -171,8 +171,19 @@ create table IF NOT EXISTS wvp_device_channel
     gps_speed                    double precision,
     gps_altitude                 double precision,
     gps_direction                double precision,
+    effective_device_id          character varying(50) generated always as (coalesce(gb_device_id, device_id)) stored,
+    effective_name               character varying(255) generated always as (coalesce(gb_name, name)) stored,
+    effective_civil_code         character varying(255) generated always as (coalesce(gb_civil_code, civil_code)) stored,
+    effective_parent_id          character varying(255) generated always as (coalesce(gb_parent_id, parent_id)) stored,
+    effective_business_group_id  character varying(255) generated always as (coalesce(gb_business_group_id, business_group_id)) stored,
+    effective_status             character varying(50) generated always as (coalesce(gb_status, status)) stored,
     index (data_type),
     index (data_device_id),
+    index idx_device_channel_update_time (update_time),
+    index idx_device_channel_effective_device_id (effective_device_id),
+    index idx_device_channel_effective_civil_code (effective_civil_code, effective_status),
+    index idx_device_channel_effective_parent_id (effective_parent_id, effective_status),
+    index idx_device_channel_effective_business_group_id (effective_business_group_id),
     constraint uk_wvp_unique_channel unique (gb_device_id)
 );
 
@@ -189,7 +200,8 @@ create table IF NOT EXISTS wvp_device_mobile_position
     speed           double precision,
     direction       double precision,
     report_source   character varying(50),
-    create_time     character varying(50)
+    create_time     character varying(50),
+    index idx_mobile_position_device_time (device_id, time)
 );
 
 create table IF NOT EXISTS wvp_media_server
@@ -430,3 +442,121 @@ DELIMITER ;
 * 20250414
 */
 alter table wvp_cloud_record modify time_len double precision;
+
+/*
+* 20250425
+*/
+create table IF NOT EXISTS wvp_cloud_record_day
+(
+    id              serial primary key,
+    app             character varying(255),
+    stream          character varying(255),
+    media_server_id character varying(50),
+    record_day      integer,
+    record_count    integer default 0,
+    file_size       bigint default 0,
+    time_len        double precision default 0,
+    constraint uk_cloud_record_day_app_stream_day unique (app, stream, media_server_id, record_day)
+);
+
+/*
+* 20250426
+*/
+DELIMITER //  -- 重定义分隔符避免分号冲突
+CREATE PROCEDURE `wvp_20250426`()
+BEGIN
+    IF NOT EXISTS (SELECT column_name FROM information_schema.STATISTICS
+                   WHERE TABLE_SCHEMA = (SELECT DATABASE()) and  table_name = 'wvp_cloud_record' and INDEX_NAME = 'idx_cloud_record_server_end_time')
+    THEN
+        create index idx_cloud_record_server_end_time on wvp_cloud_record (media_server_id, end_time);
+    END IF;
+END; //
+call wvp_20250426();
+DROP PROCEDURE wvp_20250426;
+DELIMITER ;
+
+/*
+* 20250427
+*/
+DELIMITER //  -- 重定义分隔符避免分号冲突
+CREATE PROCEDURE `wvp_20250427`()
+BEGIN
+    IF NOT EXISTS (SELECT column_name FROM information_schema.STATISTICS
+                   WHERE TABLE_SCHEMA = (SELECT DATABASE()) and  table_name = 'wvp_device_channel' and INDEX_NAME = 'idx_device_channel_update_time')
+    THEN
+        create index idx_device_channel_update_time on wvp_device_channel (update_time);
+    END IF;
+END; //
+call wvp_20250427();
+DROP PROCEDURE wvp_20250427;
+DELIMITER ;
+
+/*
+* 20250428
+*/
+DELIMITER //  -- 重定义分隔符避免分号冲突
+CREATE PROCEDURE `wvp_20250428`()
+BEGIN
+    IF NOT EXISTS (SELECT column_name FROM information_schema.columns
+                   WHERE TABLE_SCHEMA = (SELECT DATABASE()) and table_name = 'wvp_device_channel' and column_name = 'effective_device_id')
+    THEN
+        alter table wvp_device_channel add effective_device_id character varying(50) generated always as (coalesce(gb_device_id, device_id)) stored;
+    END IF;
+
+    IF NOT EXISTS (SELECT column_name FROM information_schema.columns
+                   WHERE TABLE_SCHEMA = (SELECT DATABASE()) and table_name = 'wvp_device_channel' and column_name = 'effective_name')
+    THEN
+        alter table wvp_device_channel add effective_name character varying(255) generated always as (coalesce(gb_name, name)) stored;
+    END IF;
+
+    IF NOT EXISTS (SELECT column_name FROM information_schema.columns
+                   WHERE TABLE_SCHEMA = (SELECT DATABASE()) and table_name = 'wvp_device_channel' and column_name = 'effective_civil_code')
+    THEN
+        alter table wvp_device_channel add effective_civil_code character varying(255) generated always as (coalesce(gb_civil_code, civil_code)) stored;
+    END IF;
+
+    IF NOT EXISTS (SELECT column_name FROM information_schema.columns
+                   WHERE TABLE_SCHEMA = (SELECT DATABASE()) and table_name = 'wvp_device_channel' and column_name = 'effective_parent_id')
+    THEN
+        alter table wvp_device_channel add effective_parent_id character varying(255) generated always as (coalesce(gb_parent_id, parent_id)) stored;
+    END IF;
+
+    IF NOT EXISTS (SELECT column_name FROM information_schema.columns
+                   WHERE TABLE_SCHEMA = (SELECT DATABASE()) and table_name = 'wvp_device_channel' and column_name = 'effective_business_group_id')
+    THEN
+        alter table wvp_device_channel add effective_business_group_id character varying(255) generated always as (coalesce(gb_business_group_id, business_group_id)) stored;
+    END IF;
+
+    IF NOT EXISTS (SELECT column_name FROM information_schema.columns
+                   WHERE TABLE_SCHEMA = (SELECT DATABASE()) and table_name = 'wvp_device_channel' and column_name = 'effective_status')
+    THEN
+        alter table wvp_device_channel add effective_status character varying(50) generated always as (coalesce(gb_status, status)) stored;
+    END IF;
+
+    IF NOT EXISTS (SELECT column_name FROM information_schema.STATISTICS
+                   WHERE TABLE_SCHEMA = (SELECT DATABASE()) and  table_name = 'wvp_device_channel' and INDEX_NAME = 'idx_device_channel_effective_device_id')
+    THEN
+        create index idx_device_channel_effective_device_id on wvp_device_channel (effective_device_id);
+    END IF;
+
+    IF NOT EXISTS (SELECT column_name FROM information_schema.STATISTICS
+                   WHERE TABLE_SCHEMA = (SELECT DATABASE()) and  table_name = 'wvp_device_channel' and INDEX_NAME = 'idx_device_channel_effective_civil_code')
+    THEN
+        create index idx_device_channel_effective_civil_code on wvp_device_channel (effective_civil_code, effective_status);
+    END IF;
+
+    IF NOT EXISTS (SELECT column_name FROM information_schema.STATISTICS
+                   WHERE TABLE_SCHEMA = (SELECT DATABASE()) and  table_name = 'wvp_device_channel' and INDEX_NAME = 'idx_device_channel_effective_parent_id')
+    THEN
+        create index idx_device_channel_effective_parent_id on wvp_device_channel (effective_parent_id, effective_status);
+    END IF;
+
+    IF NOT EXISTS (SELECT column_name FROM information_schema.STATISTICS
+                   WHERE TABLE_SCHEMA = (SELECT DATABASE()) and  table_name = 'wvp_device_channel' and INDEX_NAME = 'idx_device_channel_effective_business_group_id')
+    THEN
+        create index idx_device_channel_effective_business_group_id on wvp_device_channel (effective_business_group_id);
+    END IF;
+END; //
+call wvp_20250428();
+DROP PROCEDURE wvp_20250428;
+DELIMITER ;
@@ -117,3 +117,47 @@ create index if not exists data_device_id on wvp_device_channel (data_device_id)
 */
 alter table wvp_cloud_record modify time_len double precision;
 
+/*
+* 20250420
+*/
+create index if not exists idx_mobile_position_device_time on wvp_device_mobile_position (device_id, time);
+
+/*
+* 20250425
+*/
+create table IF NOT EXISTS wvp_cloud_record_day
+(
+    id              serial primary key,
+    app             character varying(255),
+    stream          character varying(255),
+    media_server_id character varying(50),
+    record_day      integer,
+    record_count    integer default 0,
+    file_size       bigint default 0,
+    time_len        double precision default 0,
+    constraint uk_cloud_record_day_app_stream_day unique (app, stream, media_server_id, record_day)
+);
+
+/*
+* 20250426
+*/
+create index if not exists idx_cloud_record_server_end_time on wvp_cloud_record (media_server_id, end_time);
+
+/*
+* 20250427
+*/
+create index if not exists idx_device_channel_update_time on wvp_device_channel (update_time);
+
+/*
+* 20250428
+*/
+ALTER TABLE wvp_device_channel ADD COLUMN IF NOT EXISTS effective_device_id character varying(50) generated always as (coalesce(gb_device_id, device_id)) stored;
+ALTER TABLE wvp_device_channel ADD COLUMN IF NOT EXISTS effective_name character varying(255) generated always as (coalesce(gb_name, name)) stored;
+ALTER TABLE wvp_device_channel ADD COLUMN IF NOT EXISTS effective_civil_code character varying(255) generated always as (coalesce(gb_civil_code, civil_code)) stored;
+ALTER TABLE wvp_device_channel ADD COLUMN IF NOT EXISTS effective_parent_id character varying(255) generated always as (coalesce(gb_parent_id, parent_id)) stored;
+ALTER TABLE wvp_device_channel ADD COLUMN IF NOT EXISTS effective_business_group_id character varying(255) generated always as (coalesce(gb_business_group_id, business_group_id)) stored;
+ALTER TABLE wvp_device_channel ADD COLUMN IF NOT EXISTS effective_status character varying(50) generated always as (coalesce(gb_status, status)) stored;
+create index if not exists idx_device_channel_effective_device_id on wvp_device_channel (effective_device_id);
+create index if not exists idx_device_channel_effective_civil_code on wvp_device_channel (effective_civil_code, effective_status);
+create index if not exists idx_device_channel_effective_parent_id on wvp_device_channel (effective_parent_id, effective_status);
+create index if not exists idx_device_channel_effective_business_group_id on wvp_device_channel (effective_business_group_id);